@@ -11,6 +11,7 @@ import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_BUCKETS;
 import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_BUCKETS_WITH_WCACHE;
 import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_BUCKETS_WITH_WCACHE_ADDONLY;
 import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_BUCKETS_WITH_WCACHE_ADDONLY_RANDOM;
+import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_STRIPED_COUNTER;
 import de.zib.scalaris.examples.wikipedia.Options.IAppendIncrement;
 import de.zib.scalaris.examples.wikipedia.Options.IBuckets;
 import de.zib.scalaris.examples.wikipedia.Options.IReadBuckets;
@@ -20,6 +21,7 @@ import de.zib.scalaris.executor.ScalarisIncrementOp2;
 import de.zib.scalaris.executor.ScalarisListAppendRemoveOp1;
 import de.zib.scalaris.executor.ScalarisListAppendRemoveOp2;
 import de.zib.scalaris.executor.ScalarisOpExecutor;
+import de.zib.scalaris.executor.ScalarisTestAndSetOp;
 import de.zib.scalaris.executor.ScalarisWriteOp;
 import de.zib.tools.LinkedMultiHashMap;
 
@@ -56,6 +58,26 @@ public class MyScalarisOpExecWrapper {
         }
     }
 
+    /**
+     * Creates a new test-and-set operation, i.e. a write which fails if the
+     * currently stored value is not <tt>oldValue</tt>.
+     * 
+     * @param opType    the type of the operation
+     * @param key       the key to write the value to
+     * @param oldValue  the value expected to be stored
+     * @param newValue  the value to write
+     * 
+     * @param <OldT>    type of the old value
+     * @param <NewT>    type of the new value
+     */
+    public <OldT, NewT> void addTestAndSet(ScalarisOpType opType, String key,
+            OldT oldValue, NewT newValue) {
+        switch (opType) {
+        default:
+            executor.addOp(new ScalarisTestAndSetOp<OldT, NewT>(key, oldValue, newValue));
+        }
+    }
+
     /**
      * Creates a new list append operation.
      * 
@@ -121,6 +143,10 @@ public class MyScalarisOpExecWrapper {
             final APPEND_INCREMENT_BUCKETS_WITH_WCACHE optimisation2 = (APPEND_INCREMENT_BUCKETS_WITH_WCACHE) optimisation;
             final String key2 = key + optimisation2.getWriteBucketString(belongsTo);
             executor.addOp(new ScalarisIncrementOp2<T>(key2, toAdd));
+        } else if (optimisation instanceof APPEND_INCREMENT_STRIPED_COUNTER) {
+            final APPEND_INCREMENT_STRIPED_COUNTER optimisation2 = (APPEND_INCREMENT_STRIPED_COUNTER) optimisation;
+            final String key2 = key + optimisation2.getStripeString();
+            executor.addOp(new ScalarisIncrementOp2<T>(key2, toAdd));
         } else if (optimisation instanceof IAppendIncrement) {
             executor.addOp(new ScalarisIncrementOp2<T>(key, toAdd));
         } else {
@@ -177,6 +203,9 @@ public class MyScalarisOpExecWrapper {
                 } else {
                     executor.addOp(new ScalarisIncrementOp1<Integer>(countKey + bucketStr, countInc));
                 }
+            } else if (countOptimisation instanceof APPEND_INCREMENT_STRIPED_COUNTER) {
+                final APPEND_INCREMENT_STRIPED_COUNTER optimisation2 = (APPEND_INCREMENT_STRIPED_COUNTER) countOptimisation;
+                executor.addOp(new ScalarisIncrementOp2<Integer>(countKey + optimisation2.getStripeString(), countInc));
             } else if (countOptimisation instanceof IAppendIncrement) {
                 executor.addOp(new ScalarisIncrementOp2<Integer>(countKey, countInc));
             } else {
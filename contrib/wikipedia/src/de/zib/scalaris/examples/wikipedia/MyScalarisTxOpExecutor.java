@@ -55,7 +55,8 @@ public class MyScalarisTxOpExecutor extends ScalarisTxOpExecutor {
     }
 
     /**
-     * Executes the given requests and records all involved keys.
+     * Executes the given requests and records all involved keys (and a
+     * trace span if the current request is traced).
      * 
      * @param requests
      *            a request list to execute
@@ -74,7 +75,12 @@ public class MyScalarisTxOpExecutor extends ScalarisTxOpExecutor {
             throws ConnectionException, AbortException,
             UnknownException {
         ScalarisDataHandler.addInvolvedKeys(involvedKeys, requests.getRequests());
-        return super.executeRequests(requests);
+        final RequestTracer.Span span = RequestTracer.startSpan("executor phase", RequestTracer.CAT_DB);
+        try {
+            return super.executeRequests(requests);
+        } finally {
+            RequestTracer.endSpan(span, requests.getRequests());
+        }
     }
 
     /**
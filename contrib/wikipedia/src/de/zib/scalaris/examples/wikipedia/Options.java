@@ -18,6 +18,7 @@ package de.zib.scalaris.examples.wikipedia;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
@@ -27,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -82,6 +84,15 @@ public class Options {
      */
     public int WIKI_SAVEPAGE_RETRY_DELAY = 10;
     
+    /**
+     * How many recently read or written pages to keep (per servlet) for
+     * optimistic saves, i.e. saves which verify the page with a test-and-set
+     * in the same request as all other writes and the commit instead of
+     * reading it first. A value less than or equal to 0 disables optimistic
+     * saves.
+     */
+    public int WIKI_SAVEPAGE_OPTIMISTIC_CACHE = 1000;
+    
     /**
      * Which implementation to use for the pages cache.
      * 
@@ -103,6 +114,31 @@ public class Options {
      */
     public STORE_CONTRIB_TYPE WIKI_STORE_CONTRIBUTIONS = STORE_CONTRIB_TYPE.OUTSIDE_TX;
     
+    /**
+     * Time (in milliseconds) between two flushes of the write-behind queue
+     * which collects contributions (if stored
+     * {@link STORE_CONTRIB_TYPE#OUTSIDE_TX}) and edit statistics. A value less
+     * than or equal to 0 writes them synchronously after each page save.
+     */
+    public int WIKI_WRITE_BEHIND_DELAY = 1000;
+    
+    /**
+     * URL at which this wiki instance receives notifications about pages
+     * changed by other instances (via Scalaris' pub/sub). An embedded HTTP
+     * server listens at its port and path. <tt>null</tt> disables the
+     * exchange of these notifications.
+     */
+    public String WIKI_CACHE_INVALIDATION_URL = null;
+    
+    /**
+     * SQLite snapshot of the wiki (as created by the <tt>xml2db</tt> import)
+     * to serve anonymous page views from. Pages changed since the snapshot
+     * are still read from Scalaris, see
+     * {@link de.zib.scalaris.examples.wikipedia.SQLiteSnapshotDataHandler}.
+     * <tt>null</tt> disables the snapshot.
+     */
+    public String WIKI_READ_SNAPSHOT = null;
+    
     /**
      * Optimisations to use for the different Scalaris operations.
      */
@@ -111,10 +147,17 @@ public class Options {
     
     /**
      * Store user requests in a log for the last x minutes before the last
-     * request.
+     * request (see {@link UserRequestLog}).
      */
     public int LOG_USER_REQS = 0;
     
+    /**
+     * Trace every n-th user request (<tt>0</tt> to disable), i.e. record
+     * the time spent in requests to Scalaris, template fetches and rendering
+     * (see {@link RequestTracer}).
+     */
+    public int TRACE_USER_REQS = 0;
+    
     /**
      * Time (in seconds) between executions of the node discovery daemon of
      * {@link de.zib.scalaris.NodeDiscovery} to look for new Scalaris nodes (
@@ -811,6 +854,113 @@ public class Options {
         }
     }
 
+
+    /**
+     * Indicates that the new increment operation of Scalaris should be used
+     * and a counter should be striped over several sub-keys, i.e.
+     * <tt>key:0</tt> to <tt>key:(stripes-1)</tt>, in order to reduce the
+     * contention on hot counters like {@link ScalarisOpType#ARTICLE_COUNT} or
+     * {@link ScalarisOpType#EDIT_STAT}. Every increment goes to a randomly
+     * chosen stripe; reads sum up the original key and all stripes so that
+     * values written without striping (e.g. by the dump import) are still
+     * counted. The sum may be cached for a given number of seconds.
+     * 
+     * Only counters are striped - lists are handled as with
+     * {@link APPEND_INCREMENT}.
+     * 
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static class APPEND_INCREMENT_STRIPED_COUNTER implements
+            Optimisation, IAppendIncrement {
+        final static protected Random rand = new Random();
+        final protected int stripes;
+        final protected int cacheTime;
+        private final ConcurrentHashMap<String, CachedSum> cache = new ConcurrentHashMap<String, CachedSum>();
+
+        /**
+         * Constructor.
+         * 
+         * @param stripes
+         *            number of sub-keys to distribute increments to
+         * @param cacheTime
+         *            number of seconds to cache the sum of a counter for
+         *            (<tt>0</tt> to disable)
+         */
+        public APPEND_INCREMENT_STRIPED_COUNTER(int stripes, int cacheTime) {
+            assert (stripes >= 1 && cacheTime >= 0);
+            this.stripes = stripes;
+            this.cacheTime = cacheTime;
+        }
+
+        /**
+         * Gets the number of stripes a counter is split into.
+         * 
+         * @return number of sub-keys (not including the original key)
+         */
+        public int getStripes() {
+            return stripes;
+        }
+
+        /**
+         * Gets the string to append to the counter's key in order to point to
+         * a (random) stripe for the next increment.
+         * 
+         * @return the stripe string, e.g. ":0"
+         */
+        public String getStripeString() {
+            return ":" + rand.nextInt(stripes);
+        }
+
+        /**
+         * Gets the cached sum of a counter (if still valid).
+         * 
+         * @param counter
+         *            the counter's identifier, e.g. its key(s)
+         * 
+         * @return the sum or <tt>null</tt> if not cached
+         */
+        public BigInteger getCachedSum(final String counter) {
+            if (cacheTime <= 0) {
+                return null;
+            }
+            final CachedSum cached = cache.get(counter);
+            if (cached == null || cached.validUntil < System.currentTimeMillis()) {
+                return null;
+            }
+            return cached.value;
+        }
+
+        /**
+         * Caches the sum of a counter (does nothing if caching is disabled).
+         * 
+         * @param counter
+         *            the counter's identifier, e.g. its key(s)
+         * @param value
+         *            the current sum of all stripes
+         */
+        public void setCachedSum(final String counter, final BigInteger value) {
+            if (cacheTime > 0) {
+                cache.put(counter, new CachedSum(value,
+                        System.currentTimeMillis() + cacheTime * 1000l));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "APPEND_INCREMENT_STRIPED_COUNTER(" + stripes + ","
+                    + cacheTime + ")";
+        }
+
+        private static class CachedSum {
+            final BigInteger value;
+            final long validUntil;
+
+            CachedSum(BigInteger value, long validUntil) {
+                this.value = value;
+                this.validUntil = validUntil;
+            }
+        }
+    }
     
     /**
      * Parses the given option strings into their appropriate properties.
@@ -827,16 +977,26 @@ public class Options {
      *            {@link Options#WIKI_SAVEPAGE_RETRIES}
      * @param WIKI_SAVEPAGE_RETRY_DELAY
      *            {@link Options#WIKI_SAVEPAGE_RETRY_DELAY}
+     * @param WIKI_SAVEPAGE_OPTIMISTIC_CACHE
+     *            {@link Options#WIKI_SAVEPAGE_OPTIMISTIC_CACHE}
      * @param WIKI_PAGES_CACHE_IMPL
      *            {@link Options#WIKI_PAGES_CACHE_IMPL}
      * @param WIKI_REBUILD_PAGES_CACHE
      *            {@link Options#WIKI_REBUILD_PAGES_CACHE}
      * @param WIKI_STORE_CONTRIBUTIONS
      *            {@link Options#WIKI_STORE_CONTRIBUTIONS}
+     * @param WIKI_WRITE_BEHIND_DELAY
+     *            {@link Options#WIKI_WRITE_BEHIND_DELAY}
+     * @param WIKI_CACHE_INVALIDATION_URL
+     *            {@link Options#WIKI_CACHE_INVALIDATION_URL}
+     * @param WIKI_READ_SNAPSHOT
+     *            {@link Options#WIKI_READ_SNAPSHOT}
      * @param OPTIMISATIONS
      *            {@link Options#OPTIMISATIONS}
      * @param LOG_USER_REQS
      *            {@link Options#LOG_USER_REQS}
+     * @param TRACE_USER_REQS
+     *            {@link Options#TRACE_USER_REQS}
      * @param SCALARIS_NODE_DISCOVERY
      *            {@link Options#SCALARIS_NODE_DISCOVERY}
      */
@@ -844,10 +1004,15 @@ public class Options {
             final String WIKI_USE_BACKLINKS,
             final String WIKI_SAVEPAGE_RETRIES,
             final String WIKI_SAVEPAGE_RETRY_DELAY,
+            final String WIKI_SAVEPAGE_OPTIMISTIC_CACHE,
             final String WIKI_PAGES_CACHE_IMPL,
             final String WIKI_REBUILD_PAGES_CACHE,
-            final String WIKI_STORE_CONTRIBUTIONS, final String OPTIMISATIONS,
-            final String LOG_USER_REQS, final String SCALARIS_NODE_DISCOVERY) {
+            final String WIKI_STORE_CONTRIBUTIONS,
+            final String WIKI_WRITE_BEHIND_DELAY,
+            final String WIKI_CACHE_INVALIDATION_URL,
+            final String WIKI_READ_SNAPSHOT, final String OPTIMISATIONS,
+            final String LOG_USER_REQS, final String TRACE_USER_REQS,
+            final String SCALARIS_NODE_DISCOVERY) {
         if (SERVERNAME != null) {
             options.SERVERNAME = SERVERNAME;
         }
@@ -863,6 +1028,9 @@ public class Options {
         if (WIKI_SAVEPAGE_RETRY_DELAY != null) {
             options.WIKI_SAVEPAGE_RETRY_DELAY = Integer.parseInt(WIKI_SAVEPAGE_RETRY_DELAY);
         }
+        if (WIKI_SAVEPAGE_OPTIMISTIC_CACHE != null) {
+            options.WIKI_SAVEPAGE_OPTIMISTIC_CACHE = Integer.parseInt(WIKI_SAVEPAGE_OPTIMISTIC_CACHE);
+        }
         if (WIKI_PAGES_CACHE_IMPL != null) {
             if (WIKI_PAGES_CACHE_IMPL.equals("BLOOM")) {
                 options.WIKI_PAGES_CACHE_IMPL = ExistingPagesCacheBloom.class;
@@ -878,6 +1046,15 @@ public class Options {
         if (WIKI_STORE_CONTRIBUTIONS != null) {
             options.WIKI_STORE_CONTRIBUTIONS = STORE_CONTRIB_TYPE.fromString(WIKI_STORE_CONTRIBUTIONS);
         }
+        if (WIKI_WRITE_BEHIND_DELAY != null) {
+            options.WIKI_WRITE_BEHIND_DELAY = Integer.parseInt(WIKI_WRITE_BEHIND_DELAY);
+        }
+        if (WIKI_CACHE_INVALIDATION_URL != null && !WIKI_CACHE_INVALIDATION_URL.isEmpty()) {
+            options.WIKI_CACHE_INVALIDATION_URL = WIKI_CACHE_INVALIDATION_URL;
+        }
+        if (WIKI_READ_SNAPSHOT != null && !WIKI_READ_SNAPSHOT.isEmpty()) {
+            options.WIKI_READ_SNAPSHOT = WIKI_READ_SNAPSHOT;
+        }
         if (OPTIMISATIONS != null) {
             for (String singleOpt : OPTIMISATIONS.split("\\|")) {
                 final Matcher matcher = CONFIG_SINGLE_OPTIMISATION.matcher(singleOpt);
@@ -908,6 +1085,9 @@ public class Options {
         if (LOG_USER_REQS != null) {
             options.LOG_USER_REQS = Integer.parseInt(LOG_USER_REQS);
         }
+        if (TRACE_USER_REQS != null) {
+            options.TRACE_USER_REQS = Integer.parseInt(TRACE_USER_REQS);
+        }
         if (SCALARIS_NODE_DISCOVERY != null) {
             options.SCALARIS_NODE_DISCOVERY = Integer.parseInt(SCALARIS_NODE_DISCOVERY);
         }
@@ -974,6 +1154,11 @@ public class Options {
             return new Options.APPEND_INCREMENT_BUCKETS_WITH_WCACHE_HASH(
                     Integer.parseInt(parameters[0]),
                     Integer.parseInt(parameters[1]));
+        } else if (optimisationStr.equals("APPEND_INCREMENT_STRIPED_COUNTER") && parameterStr != null) {
+            String[] parameters = parameterStr.split(",");
+            return new Options.APPEND_INCREMENT_STRIPED_COUNTER(
+                    Integer.parseInt(parameters[0]),
+                    parameters.length > 1 ? Integer.parseInt(parameters[1]) : 0);
         }
         System.err.println("unknown optimisation found: " + matcher.group());
         return null;
@@ -1008,7 +1193,7 @@ public class Options {
              *   <servlet-class>de.zib.scalaris.examples.wikipedia.bliki.WikiServletScalaris</servlet-class>
              *   <init-param>
              *    <param-name>
-             *     SERVERNAME|LOG_USER_REQS|SCALARIS_NODE_DISCOVERY|SERVERPATH|
+             *     SERVERNAME|LOG_USER_REQS|TRACE_USER_REQS|SCALARIS_NODE_DISCOVERY|SERVERPATH|
              *     WIKI_USE_BACKLINKS|WIKI_SAVEPAGE_RETRIES|WIKI_SAVEPAGE_RETRY_DELAY|
              *     WIKI_PAGES_CACHE_IMPL|WIKI_REBUILD_PAGES_CACHE|WIKI_STORE_CONTRIBUTIONS|
              *     WIKI_OPTIMISATIONS|...
@@ -1136,11 +1321,16 @@ public class Options {
                     handler.initParams.get("WIKI_USE_BACKLINKS"),
                     handler.initParams.get("WIKI_SAVEPAGE_RETRIES"),
                     handler.initParams.get("WIKI_SAVEPAGE_RETRY_DELAY"),
+                    handler.initParams.get("WIKI_SAVEPAGE_OPTIMISTIC_CACHE"),
                     handler.initParams.get("WIKI_PAGES_CACHE_IMPL"),
                     handler.initParams.get("WIKI_REBUILD_PAGES_CACHE"),
                     handler.initParams.get("WIKI_STORE_CONTRIBUTIONS"),
+                    handler.initParams.get("WIKI_WRITE_BEHIND_DELAY"),
+                    handler.initParams.get("WIKI_CACHE_INVALIDATION_URL"),
+                    handler.initParams.get("WIKI_READ_SNAPSHOT"),
                     handler.initParams.get("WIKI_OPTIMISATIONS"),
                     handler.initParams.get("LOG_USER_REQS"),
+                    handler.initParams.get("TRACE_USER_REQS"),
                     handler.initParams.get("SCALARIS_NODE_DISCOVERY"));
         } catch (Exception e) {
             System.err.println("parsing failed: " + e.getMessage());
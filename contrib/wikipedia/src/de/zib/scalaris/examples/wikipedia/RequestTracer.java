@@ -0,0 +1,435 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+import de.zib.scalaris.ErlangValue;
+import de.zib.scalaris.operations.Operation;
+
+/**
+ * Traces (a sample of) user requests, i.e. records the time spent in
+ * requests to Scalaris, template fetches, rendering etc. as nested spans.
+ *
+ * A request is traced by the thread processing it: {@link #begin(String)}
+ * decides whether to sample the request and binds the trace to the current
+ * thread. Code along the way records spans with the static
+ * {@link #startSpan(String, String)} and <tt>endSpan</tt> methods which do
+ * nothing (except for a thread-local lookup) if the current request is not
+ * traced. Finished traces are kept in a ring buffer and can be exported in
+ * the Chrome trace event format, see {@link #writeChromeTrace(Writer)}
+ * (viewable with <tt>chrome://tracing</tt>).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class RequestTracer {
+    /**
+     * Default number of finished traces to keep.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+    /**
+     * Maximum number of spans per trace (further spans are dropped).
+     */
+    public static final int MAX_SPANS_PER_TRACE = 2000;
+    /**
+     * Maximum number of keys recorded per span.
+     */
+    public static final int MAX_KEYS_PER_SPAN = 20;
+
+    /**
+     * Category of spans for requests to the DB.
+     */
+    public static final String CAT_DB = "db";
+    /**
+     * Category of spans for the wiki's processing, e.g. rendering.
+     */
+    public static final String CAT_WIKI = "wiki";
+
+    /**
+     * A single timed operation of a traced request.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static class Span {
+        protected final String name;
+        protected final String category;
+        protected final long start;
+        protected long duration = -1;
+        protected List<String> keys = null;
+        protected long bytes = -1;
+
+        protected Span(String name, String category, long start) {
+            this.name = name;
+            this.category = category;
+            this.start = start;
+        }
+
+        /**
+         * Adds a key with the operation's type (<tt>r:</tt> or <tt>w:</tt>,
+         * see {@link InvolvedKey}) to the span.
+         *
+         * @param key
+         *            the key (with the operation's prefix)
+         */
+        public void addKey(String key) {
+            if (keys == null) {
+                keys = new ArrayList<String>(1);
+            }
+            if (keys.size() < MAX_KEYS_PER_SPAN) {
+                keys.add(key);
+            }
+        }
+
+        /**
+         * Adds the keys of all given operations to the span.
+         *
+         * @param ops
+         *            the operations (of a request list)
+         */
+        public void addKeys(Collection<? extends Operation> ops) {
+            final List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>(ops.size());
+            ScalarisDataHandler.addInvolvedKeys(involvedKeys, ops);
+            for (InvolvedKey key : involvedKeys) {
+                addKey(key.toString());
+            }
+        }
+
+        /**
+         * Sets the number of bytes transferred.
+         *
+         * @param bytes
+         *            the size (<tt>-1</tt> if unknown)
+         */
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * All spans of a single request.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static class Trace {
+        protected final long seq;
+        protected final String name;
+        protected final long startMillis;
+        protected final long startNanos;
+        protected long duration = -1;
+        protected final List<Span> spans = new ArrayList<Span>();
+
+        protected Trace(long seq, String name) {
+            this.seq = seq;
+            this.name = name;
+            this.startMillis = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Gets the time since the start of the trace.
+         *
+         * @return the elapsed time in microseconds
+         */
+        protected long now() {
+            return (System.nanoTime() - startNanos) / 1000;
+        }
+    }
+
+    private static volatile RequestTracer instance = null;
+    private static final ThreadLocal<Trace> current = new ThreadLocal<Trace>();
+
+    private final int sampleEvery;
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong traced = new AtomicLong(0);
+    private final AtomicReferenceArray<Trace> traces;
+
+    /**
+     * Creates a new tracer.
+     *
+     * @param sampleEvery
+     *            trace every n-th request
+     * @param capacity
+     *            number of finished traces to keep
+     */
+    public RequestTracer(int sampleEvery, int capacity) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.traces = new AtomicReferenceArray<Trace>(capacity);
+    }
+
+    /**
+     * Gets the tracer used for user requests.
+     *
+     * @return the tracer or <tt>null</tt> if tracing is disabled
+     */
+    public static RequestTracer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the tracer used for user requests.
+     *
+     * @param tracer
+     *            the tracer or <tt>null</tt> to disable tracing
+     */
+    public static void setInstance(RequestTracer tracer) {
+        instance = tracer;
+    }
+
+    /**
+     * Starts tracing the current thread's request if it is sampled.
+     *
+     * @param name
+     *            a description of the request, e.g. its URL
+     *
+     * @return the trace or <tt>null</tt> if the request is not traced
+     */
+    public Trace begin(String name) {
+        if (requests.getAndIncrement() % sampleEvery != 0) {
+            return null;
+        }
+        final Trace trace = new Trace(traced.getAndIncrement(), name);
+        current.set(trace);
+        return trace;
+    }
+
+    /**
+     * Finishes the given trace and stores it in the ring buffer.
+     *
+     * @param trace
+     *            the trace returned by {@link #begin(String)} (may be
+     *            <tt>null</tt>)
+     */
+    public void end(Trace trace) {
+        if (trace != null) {
+            current.remove();
+            trace.duration = trace.now();
+            // publishes the trace (and its spans) to readers
+            traces.set((int) (trace.seq % traces.length()), trace);
+        }
+    }
+
+    /**
+     * Starts a new span of the current thread's trace.
+     *
+     * @param name
+     *            the name of the span
+     * @param category
+     *            the category of the span, e.g. {@link #CAT_DB}
+     *
+     * @return the span or <tt>null</tt> if the current request is not traced
+     */
+    public static Span startSpan(String name, String category) {
+        final Trace trace = current.get();
+        if (trace == null || trace.spans.size() >= MAX_SPANS_PER_TRACE) {
+            return null;
+        }
+        final Span span = new Span(name, category, trace.now());
+        trace.spans.add(span);
+        return span;
+    }
+
+    /**
+     * Ends the given span.
+     *
+     * @param span
+     *            the span returned by {@link #startSpan(String, String)} (may
+     *            be <tt>null</tt>)
+     */
+    public static void endSpan(Span span) {
+        if (span != null) {
+            final Trace trace = current.get();
+            if (trace != null) {
+                span.duration = trace.now() - span.start;
+            }
+        }
+    }
+
+    /**
+     * Ends the given span of a request list sent to Scalaris.
+     *
+     * @param span
+     *            the span returned by {@link #startSpan(String, String)} (may
+     *            be <tt>null</tt>)
+     * @param ops
+     *            the operations of the request list
+     */
+    public static void endSpan(Span span, Collection<? extends Operation> ops) {
+        if (span != null) {
+            span.addKeys(ops);
+            endSpan(span);
+        }
+    }
+
+    /**
+     * Ends the given span of a single operation.
+     *
+     * @param span
+     *            the span returned by {@link #startSpan(String, String)} (may
+     *            be <tt>null</tt>)
+     * @param op
+     *            the type of the operation
+     * @param key
+     *            the key of the operation
+     * @param value
+     *            the value read or written (may be <tt>null</tt>)
+     */
+    public static void endSpan(Span span, InvolvedKey.OP op, String key,
+            ErlangValue value) {
+        if (span != null) {
+            span.addKey(op.toString() + key);
+            if (value != null) {
+                span.setBytes(sizeOf(value.value()));
+            }
+            endSpan(span);
+        }
+    }
+
+    /**
+     * Gets the size of the given value in the Erlang external term format,
+     * i.e. (roughly) the number of bytes transferred for it.
+     * 
+     * Note: this encodes the value again and should thus only be used for
+     * traced requests.
+     *
+     * @param value
+     *            an Erlang value
+     *
+     * @return the size in bytes
+     */
+    protected static long sizeOf(OtpErlangObject value) {
+        return new OtpOutputStream(value).size();
+    }
+
+    /**
+     * Gets all finished traces in the ring buffer (oldest first).
+     *
+     * @return a list of traces
+     */
+    public List<Trace> getTraces() {
+        final int capacity = traces.length();
+        final long last = traced.get();
+        final List<Trace> result = new ArrayList<Trace>(capacity);
+        for (long seq = Math.max(0, last - capacity); seq < last; ++seq) {
+            final Trace trace = traces.get((int) (seq % capacity));
+            // skip unfinished or overwritten traces
+            if (trace != null && trace.seq == seq) {
+                result.add(trace);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes all finished traces in the Chrome trace event format (JSON).
+     * Each trace is shown as a separate thread with the request as the
+     * outermost span.
+     *
+     * @param out
+     *            the writer to write to (will be flushed, not closed)
+     */
+    public void writeChromeTrace(Writer out) {
+        final PrintWriter pw = new PrintWriter(out);
+        pw.print("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (Trace trace : getTraces()) {
+            final long ts = trace.startMillis * 1000;
+            if (!first) {
+                pw.print(',');
+            }
+            first = false;
+            pw.print("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+            pw.print(trace.seq);
+            pw.print(",\"args\":{\"name\":");
+            writeJsonString(pw, "request " + trace.seq);
+            pw.print("}}");
+            writeEvent(pw, trace.seq, ts, trace.duration, trace.name, "request",
+                    null, -1);
+            for (Span span : trace.spans) {
+                if (span.duration >= 0) {
+                    writeEvent(pw, trace.seq, ts + span.start, span.duration,
+                            span.name, span.category, span.keys, span.bytes);
+                }
+            }
+        }
+        pw.print("\n]}\n");
+        pw.flush();
+    }
+
+    private static void writeEvent(PrintWriter pw, long tid, long ts,
+            long duration, String name, String category, List<String> keys,
+            long bytes) {
+        pw.print(",\n{\"name\":");
+        writeJsonString(pw, name == null ? "" : name);
+        pw.print(",\"cat\":");
+        writeJsonString(pw, category);
+        pw.print(",\"ph\":\"X\",\"pid\":1,\"tid\":");
+        pw.print(tid);
+        pw.print(",\"ts\":");
+        pw.print(ts);
+        pw.print(",\"dur\":");
+        pw.print(duration);
+        pw.print(",\"args\":{");
+        boolean first = true;
+        if (keys != null) {
+            pw.print("\"keys\":[");
+            for (int i = 0; i < keys.size(); ++i) {
+                if (i > 0) {
+                    pw.print(',');
+                }
+                writeJsonString(pw, keys.get(i));
+            }
+            pw.print(']');
+            first = false;
+        }
+        if (bytes >= 0) {
+            pw.print(first ? "" : ",");
+            pw.print("\"bytes\":");
+            pw.print(bytes);
+        }
+        pw.print("}}");
+    }
+
+    private static void writeJsonString(PrintWriter pw, String str) {
+        pw.print('"');
+        for (int i = 0; i < str.length(); ++i) {
+            final char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    pw.print("\\\"");
+                    break;
+                case '\\':
+                    pw.print("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        pw.print(String.format("\\u%04x", (int) c));
+                    } else {
+                        pw.print(c);
+                    }
+            }
+        }
+        pw.print('"');
+    }
+}
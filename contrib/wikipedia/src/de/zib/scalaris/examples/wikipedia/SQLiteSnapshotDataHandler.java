@@ -0,0 +1,249 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+
+import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace;
+import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
+
+/**
+ * Serves (current) page revisions from a read-only SQLite snapshot of the
+ * wiki as created by
+ * {@link de.zib.scalaris.examples.wikipedia.data.xml.WikiDumpXml2SQLite}.
+ *
+ * SQLite connections may only be used by the thread which opened them, so
+ * each thread gets its own connection (with memory-mapped I/O and prepared
+ * statements) on first use. Pages changed since the snapshot was taken need
+ * to be reported via {@link #markModified(NormalisedTitle)} - they are not
+ * served from the snapshot any more. These titles are kept in a journal file
+ * next to the snapshot (<tt>&lt;snapshot&gt;.modified</tt>) so that they
+ * survive restarts. Changes made while this wiki instance was not running are
+ * not recognised though, i.e. the journal of all instances using the same
+ * snapshot needs to be complete.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class SQLiteSnapshotDataHandler {
+    /**
+     * Maximum number of bytes of the snapshot to access via memory-mapped
+     * I/O (per connection, sharing the OS' page cache).
+     */
+    public static final long MMAP_SIZE = 1024l * 1024l * 1024l;
+    /**
+     * Page cache size per connection (most pages are read via mmap).
+     */
+    public static final long CACHE_SIZE = 8l * 1024l * 1024l;
+
+    protected final String fileName;
+    protected final Set<NormalisedTitle> modified = Collections
+            .newSetFromMap(new ConcurrentHashMap<NormalisedTitle, Boolean>());
+    protected final File journalFile;
+    protected Writer journal = null;
+    protected volatile boolean closed = false;
+
+    protected final ThreadLocal<SQLiteDataHandler.Connection> connections = new ThreadLocal<SQLiteDataHandler.Connection>();
+
+    /**
+     * Creates a data handler for the given snapshot and reads the journal of
+     * modified pages.
+     *
+     * @param fileName
+     *            the name of the SQLite DB file
+     *
+     * @throws FileNotFoundException
+     *             if the snapshot does not exist
+     */
+    public SQLiteSnapshotDataHandler(String fileName)
+            throws FileNotFoundException {
+        if (!new File(fileName).isFile()) {
+            throw new FileNotFoundException("snapshot not found: " + fileName);
+        }
+        this.fileName = fileName;
+        this.journalFile = new File(fileName + ".modified");
+        readJournal();
+        try {
+            journal = new OutputStreamWriter(new FileOutputStream(journalFile,
+                    true), "UTF-8");
+        } catch (IOException e) {
+            System.err.println("cannot write journal of modified pages ("
+                    + journalFile + "): " + e.getMessage());
+        }
+    }
+
+    private void readJournal() {
+        if (!journalFile.isFile()) {
+            return;
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    journalFile), "UTF-8"));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    try {
+                        modified.add(NormalisedTitle.fromNormalised(line));
+                    } catch (IllegalArgumentException e) {
+                        // incompletely written last line
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("cannot read journal of modified pages ("
+                    + journalFile + "): " + e.getMessage());
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the given page as modified, i.e. it will not be served from the
+     * snapshot any more.
+     *
+     * @param title
+     *            the title of the page
+     */
+    public void markModified(NormalisedTitle title) {
+        if (modified.add(title)) {
+            synchronized (this) {
+                if (journal != null) {
+                    try {
+                        journal.write(title.toString());
+                        journal.write('\n');
+                        journal.flush();
+                    } catch (IOException e) {
+                        System.err.println("cannot write journal of modified pages ("
+                                + journalFile + "): " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given page has been modified since the snapshot.
+     *
+     * @param title
+     *            the title of the page
+     *
+     * @return <tt>true</tt> if the page should not be served from the
+     *         snapshot
+     */
+    public boolean isModified(NormalisedTitle title) {
+        return modified.contains(title);
+    }
+
+    /**
+     * Gets the connection of the current thread (opens it if necessary).
+     *
+     * @return a connection or <tt>null</tt> if it could not be opened
+     */
+    protected SQLiteDataHandler.Connection getConnection() {
+        SQLiteDataHandler.Connection connection = connections.get();
+        if (connection == null) {
+            SQLiteConnection db = null;
+            try {
+                db = SQLiteDataHandler.openDB(fileName, true, CACHE_SIZE);
+                // ignored by SQLite versions without mmap support:
+                db.exec("PRAGMA mmap_size = " + MMAP_SIZE + ";");
+                connection = new SQLiteDataHandler.Connection(db);
+                connections.set(connection);
+            } catch (SQLiteException e) {
+                System.err.println("cannot open snapshot " + fileName + ": "
+                        + e.getMessage());
+                if (db != null) {
+                    db.dispose();
+                }
+                return null;
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Retrieves the current version of a page from the snapshot unless it has
+     * been modified since.
+     *
+     * @param title
+     *            the title of the page
+     * @param nsObject
+     *            the namespace for page title de-normalisation
+     *
+     * @return a result object with the page and revision on success,
+     *         <tt>null</tt> if the page needs to be read from the primary DB,
+     *         i.e. it was modified, it does not exist in the snapshot or the
+     *         snapshot is not available
+     */
+    public RevisionResult getRevision(NormalisedTitle title,
+            MyNamespace nsObject) {
+        if (closed || isModified(title)) {
+            return null;
+        }
+        final SQLiteDataHandler.Connection connection = getConnection();
+        if (connection == null) {
+            return null;
+        }
+        final RevisionResult result = SQLiteDataHandler.getRevision(
+                connection, title, nsObject);
+        if (!result.success) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Stops serving pages from the snapshot and closes the journal.
+     *
+     * Note: the SQLite connections can only be disposed by their threads -
+     * except for the current thread's connection, they are left to the
+     * garbage collector.
+     */
+    public synchronized void close() {
+        closed = true;
+        final SQLiteDataHandler.Connection connection = connections.get();
+        if (connection != null) {
+            connection.dispose();
+            connections.remove();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+            }
+            journal = null;
+        }
+    }
+}
@@ -19,7 +19,10 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import com.ericsson.otp.erlang.OtpErlangString;
@@ -28,18 +31,26 @@ import de.zib.scalaris.Connection;
 import de.zib.scalaris.ConnectionException;
 import de.zib.scalaris.ErlangValue;
 import de.zib.scalaris.ErlangValue.ListElementConverter;
+import de.zib.scalaris.NotFoundException;
 import de.zib.scalaris.ScalarisVM;
+import de.zib.scalaris.Transaction;
 import de.zib.scalaris.TransactionSingleOp;
 import de.zib.scalaris.UnknownException;
+import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_BUCKETS_WITH_WCACHE;
+import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_STRIPED_COUNTER;
+import de.zib.scalaris.examples.wikipedia.Options.IBuckets;
 import de.zib.scalaris.examples.wikipedia.Options.Optimisation;
 import de.zib.scalaris.examples.wikipedia.Options.STORE_CONTRIB_TYPE;
+import de.zib.scalaris.examples.wikipedia.Options.TRADITIONAL;
 import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace.NamespaceEnum;
 import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
 import de.zib.scalaris.examples.wikipedia.data.Contribution;
+import de.zib.scalaris.examples.wikipedia.data.RevisionTextCodec;
 import de.zib.scalaris.examples.wikipedia.data.SiteInfo;
 import de.zib.scalaris.operations.Operation;
 import de.zib.scalaris.operations.PartialReadOp;
 import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.WriteOp;
 
 /**
  * Retrieves and writes values from/to Scalaris.
@@ -48,6 +59,87 @@ import de.zib.scalaris.operations.ReadOp;
  */
 public class ScalarisDataHandler {
     
+    /**
+     * Raw values of recently read or written pages (by page key) as stored
+     * in Scalaris, used to save pages optimistically.
+     * 
+     * @see Options#WIKI_SAVEPAGE_OPTIMISTIC_CACHE
+     */
+    private static final Map<String, ErlangValue> pageValueCache = Collections
+            .synchronizedMap(new LinkedHashMap<String, ErlangValue>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ErlangValue> eldest) {
+                    return size() > Options.getInstance().WIKI_SAVEPAGE_OPTIMISTIC_CACHE;
+                }
+            });
+    
+    /**
+     * Remembers the (raw) value of a page which has just been read from or
+     * written to Scalaris.
+     * 
+     * @param pageKey
+     *            the key of the page
+     * @param value
+     *            the page's value as stored in Scalaris
+     */
+    protected static void cachePageValue(String pageKey, ErlangValue value) {
+        if (Options.getInstance().WIKI_SAVEPAGE_OPTIMISTIC_CACHE > 0) {
+            pageValueCache.put(pageKey, value);
+        }
+    }
+    
+    /**
+     * Gets the last known (raw) value of a page.
+     * 
+     * @param pageKey
+     *            the key of the page
+     * 
+     * @return the page's value or <tt>null</tt> if not cached
+     */
+    protected static ErlangValue getCachedPageValue(String pageKey) {
+        return pageValueCache.get(pageKey);
+    }
+    
+    /**
+     * Removes the (raw) value of a page from the cache, e.g. because it is
+     * outdated.
+     * 
+     * @param pageKey
+     *            the key of the page
+     */
+    protected static void uncachePageValue(String pageKey) {
+        pageValueCache.remove(pageKey);
+    }
+    
+    /**
+     * Queue for contributions and edit statistics which are written after a
+     * page has been saved (<tt>null</tt> to write them synchronously).
+     */
+    private static volatile WriteBehindQueue writeBehindQueue = null;
+    
+    /**
+     * Sets the queue to write contributions and edit statistics with.
+     * 
+     * @param queue
+     *            the (started) queue or <tt>null</tt> to write these
+     *            synchronously after a page has been saved
+     */
+    public static void setWriteBehindQueue(WriteBehindQueue queue) {
+        writeBehindQueue = queue;
+    }
+    
+    /**
+     * Gets the queue to write contributions and edit statistics with.
+     * 
+     * @return the queue or <tt>null</tt> if these should be written
+     *         synchronously
+     */
+    protected static WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+    
     /**
      * Gets the key to store {@link SiteInfo} objects at.
      * 
@@ -109,6 +201,42 @@ public class ScalarisDataHandler {
     public final static String getContributionListKey(String contributor) {
         return contributor + ":user:contrib";
     }
+    
+    /**
+     * Gets the key to store the revision text dictionary with the given ID at.
+     * 
+     * @param id  the dictionary ID
+     * 
+     * @return Scalaris key
+     */
+    public final static String getTextDictionaryKey(int id) {
+        return "textdict:" + id;
+    }
+    
+    /**
+     * Gets the key to store the ID of the current revision text dictionary of
+     * the given namespace at.
+     * 
+     * @param namespace  the namespace ID or <tt>null</tt> for the default
+     *                   dictionary
+     * 
+     * @return Scalaris key
+     */
+    public final static String getTextDictionaryCurrentKey(Integer namespace) {
+        if (namespace == null) {
+            return "textdict:current";
+        }
+        return "textdict:current:" + namespace;
+    }
+    
+    /**
+     * Gets the key to store the last used revision text dictionary ID at.
+     * 
+     * @return Scalaris key
+     */
+    public final static String getTextDictionaryLastIdKey() {
+        return "textdict:lastid";
+    }
 
     /**
      * Retrieves the Scalaris version string.
@@ -181,6 +309,53 @@ public class ScalarisDataHandler {
                 "page list:" + namespace);
     }
 
+    /**
+     * Gets the number of parts the page list of each namespace is split into,
+     * i.e. the number of buckets of the {@link ScalarisOpType#PAGE_LIST}
+     * optimisation. Each part can be read independently with
+     * {@link #getPageList(int, int, Connection)}.
+     * 
+     * Lists with a write cache ({@link APPEND_INCREMENT_BUCKETS_WITH_WCACHE})
+     * need all buckets in order to remove deleted elements and are thus only
+     * read as a whole, i.e. in a single part.
+     * 
+     * @return the number of parts (at least <tt>1</tt>)
+     */
+    public final static int getPageListParts() {
+        final Optimisation optimisation = Options.getInstance().OPTIMISATIONS.get(ScalarisOpType.PAGE_LIST);
+        if (optimisation instanceof IBuckets
+                && !(optimisation instanceof APPEND_INCREMENT_BUCKETS_WITH_WCACHE)) {
+            return ((IBuckets) optimisation).getBuckets();
+        }
+        return 1;
+    }
+
+    /**
+     * Retrieves a part of the list of available pages in the given namespace
+     * from Scalaris.
+     * 
+     * @param namespace
+     *            the namespace ID
+     * @param part
+     *            the part to read (<tt>0 &lt;= part &lt; </tt>
+     *            {@link #getPageListParts()})
+     * @param connection
+     *            the connection to Scalaris
+     * 
+     * @return a result object with the page list on success
+     */
+    public final static ValueResult<List<NormalisedTitle>> getPageList(
+            int namespace, int part, Connection connection) {
+        if (getPageListParts() == 1) {
+            return getPageList(namespace, connection);
+        }
+        final long timeAtStart = System.currentTimeMillis();
+        // a single bucket is a plain list
+        return getPageList2(connection, new TRADITIONAL(),
+                Arrays.asList(getPageListKey(namespace) + ":" + part), false,
+                timeAtStart, "page list:" + namespace + ":" + part);
+    }
+
     /**
      * Retrieves a list of pages linking to the given page from Scalaris.
      * 
@@ -248,8 +423,36 @@ public class ScalarisDataHandler {
             Connection connection, ScalarisOpType opType,
             Collection<String> scalaris_keys, boolean failNotFound,
             final long timeAtStart, String statName) {
+        return getPageList2(connection,
+                Options.getInstance().OPTIMISATIONS.get(opType), scalaris_keys,
+                failNotFound, timeAtStart, statName);
+    }
+
+    /**
+     * Retrieves a list of pages from Scalaris.
+     * 
+     * @param connection
+     *            the connection to Scalaris
+     * @param optimisation
+     *            the list optimisation to use
+     * @param scalaris_keys
+     *            the keys under which the page list is stored in Scalaris
+     * @param failNotFound
+     *            whether the operation should fail if the key is not found or
+     *            not
+     * @param timeAtStart
+     *            the start time of the method using this method
+     * @param statName
+     *            name for the time measurement statistics
+     * 
+     * @return a result object with the page list on success
+     */
+    protected final static ValueResult<List<NormalisedTitle>> getPageList2(
+            Connection connection, Optimisation optimisation,
+            Collection<String> scalaris_keys, boolean failNotFound,
+            final long timeAtStart, String statName) {
         ValueResult<List<NormalisedTitle>> result = getPageList3(connection,
-                opType, scalaris_keys, failNotFound, timeAtStart, statName,
+                optimisation, scalaris_keys, failNotFound, timeAtStart, statName,
                 new ErlangConverter<List<NormalisedTitle>>() {
                     @Override
                     public List<NormalisedTitle> convert(ErlangValue v)
@@ -309,6 +512,43 @@ public class ScalarisDataHandler {
             Collection<String> scalaris_keys, boolean failNotFound,
             final long timeAtStart, String statName,
             ErlangConverter<List<T>> listConv, ErlangConverter<T> elemConv) {
+        return getPageList3(connection,
+                Options.getInstance().OPTIMISATIONS.get(opType), scalaris_keys,
+                failNotFound, timeAtStart, statName, listConv, elemConv);
+    }
+
+    /**
+     * Retrieves a list of pages from Scalaris.
+     * 
+     * @param <T>
+     *            list type
+     * 
+     * @param connection
+     *            the connection to Scalaris
+     * @param optimisation
+     *            the list optimisation to use
+     * @param scalaris_keys
+     *            the keys under which the page list is stored in Scalaris
+     * @param failNotFound
+     *            whether the operation should fail if no key is found (in which
+     *            case the value is <tt>null</tt>) or not
+     * @param timeAtStart
+     *            the start time of the method using this method
+     * @param statName
+     *            name for the time measurement statistics
+     * @param listConv
+     *            converter to make an {@link ErlangValue} to a {@link List} of
+     *            <tt>T</tt>
+     * @param elemConv
+     *            converter to make an {@link ErlangValue} to a <tt>T</tt>
+     * 
+     * @return a result object with the page list on success
+     */
+    protected final static <T> ValueResult<List<T>> getPageList3(
+            Connection connection, Optimisation optimisation,
+            Collection<String> scalaris_keys, boolean failNotFound,
+            final long timeAtStart, String statName,
+            ErlangConverter<List<T>> listConv, ErlangConverter<T> elemConv) {
         List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
         
         if (connection == null) {
@@ -321,8 +561,7 @@ public class ScalarisDataHandler {
                 new TransactionSingleOp(connection), involvedKeys);
 
         final ScalarisReadListOp1<T> readOp = new ScalarisReadListOp1<T>(
-                scalaris_keys, Options.getInstance().OPTIMISATIONS.get(opType),
-                listConv, elemConv, failNotFound);
+                scalaris_keys, optimisation, listConv, elemConv, failNotFound);
         executor.addOp(readOp);
         try {
             executor.run();
@@ -477,6 +716,182 @@ public class ScalarisDataHandler {
                 statName, System.currentTimeMillis() - timeAtStart);
     }
 
+    /**
+     * Retrieves a revision text dictionary from Scalaris.
+     * 
+     * @param connection
+     *            the connection to Scalaris
+     * @param id
+     *            the dictionary ID
+     * 
+     * @return a result object with the dictionary on success
+     */
+    public final static ValueResult<byte[]> getTextDictionary(
+            Connection connection, int id) {
+        final long timeAtStart = System.currentTimeMillis();
+        final String statName = "TEXT_DICTIONARY:" + id;
+        List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
+        if (connection == null) {
+            return new ValueResult<byte[]>(false, involvedKeys,
+                    "no connection to Scalaris", true, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        }
+
+        final String key = getTextDictionaryKey(id);
+        TransactionSingleOp scalaris_single = new TransactionSingleOp(connection);
+        try {
+            involvedKeys.add(new InvolvedKey(InvolvedKey.OP.READ, key));
+            final byte[] dictionary = scalaris_single.read(key).binaryValue();
+            return new ValueResult<byte[]>(involvedKeys, dictionary, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        } catch (Exception e) {
+            return new ValueResult<byte[]>(false, involvedKeys,
+                    e.getClass().getCanonicalName() + " reading \"" + key
+                            + "\" from Scalaris: " + e.getMessage(),
+                    e instanceof ConnectionException, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        }
+    }
+
+    /**
+     * Retrieves the current revision text dictionaries of all namespaces from
+     * Scalaris and sets them up in the {@link RevisionTextCodec}.
+     * 
+     * @param connection
+     *            the connection to Scalaris
+     * 
+     * @return a result object with the number of (distinct) current
+     *         dictionaries on success
+     */
+    public final static ValueResult<Integer> loadTextDictionaries(
+            Connection connection) {
+        final long timeAtStart = System.currentTimeMillis();
+        final String statName = "TEXT_DICTIONARIES";
+        List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
+        if (connection == null) {
+            return new ValueResult<Integer>(false, involvedKeys,
+                    "no connection to Scalaris", true, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        }
+
+        final List<Integer> namespaces = new ArrayList<Integer>(NamespaceEnum.values().length + 1);
+        namespaces.add(null);
+        for (NamespaceEnum ns : NamespaceEnum.values()) {
+            namespaces.add(ns.getId());
+        }
+        TransactionSingleOp scalaris_single = new TransactionSingleOp(connection);
+        TransactionSingleOp.RequestList requests = new TransactionSingleOp.RequestList();
+        for (Integer namespace : namespaces) {
+            requests.addOp(new ReadOp(getTextDictionaryCurrentKey(namespace)));
+        }
+        TransactionSingleOp.ResultList results;
+        try {
+            addInvolvedKeys(involvedKeys, requests.getRequests());
+            results = scalaris_single.req_list(requests);
+        } catch (Exception e) {
+            return new ValueResult<Integer>(false, involvedKeys,
+                    e.getClass().getCanonicalName() + " reading text dictionary IDs from Scalaris: "
+                            + e.getMessage(), e instanceof ConnectionException,
+                    statName, System.currentTimeMillis() - timeAtStart);
+        }
+
+        final Map<Integer, Integer> currentIds = new LinkedHashMap<Integer, Integer>();
+        final Map<Integer, byte[]> dictionaries = new LinkedHashMap<Integer, byte[]>();
+        for (int i = 0; i < namespaces.size(); ++i) {
+            try {
+                final int id = results.processReadAt(i).intValue();
+                currentIds.put(namespaces.get(i), id);
+                if (!dictionaries.containsKey(id)) {
+                    ValueResult<byte[]> dictResult = getTextDictionary(connection, id);
+                    involvedKeys.addAll(dictResult.involvedKeys);
+                    if (!dictResult.success) {
+                        return new ValueResult<Integer>(false, involvedKeys,
+                                dictResult.message, dictResult.connect_failed,
+                                statName, System.currentTimeMillis() - timeAtStart);
+                    }
+                    dictionaries.put(id, dictResult.value);
+                }
+            } catch (NotFoundException e) {
+                // no dictionary for this namespace
+            } catch (Exception e) {
+                return new ValueResult<Integer>(false, involvedKeys,
+                        e.getClass().getCanonicalName() + " reading \""
+                                + getTextDictionaryCurrentKey(namespaces.get(i))
+                                + "\" from Scalaris: " + e.getMessage(),
+                        false, statName, System.currentTimeMillis() - timeAtStart);
+            }
+        }
+        for (Map.Entry<Integer, byte[]> dictionary : dictionaries.entrySet()) {
+            RevisionTextCodec.registerDictionary(dictionary.getKey(), dictionary.getValue());
+        }
+        for (Map.Entry<Integer, Integer> currentId : currentIds.entrySet()) {
+            RevisionTextCodec.setCurrentDictionary(currentId.getKey(), currentId.getValue());
+        }
+        return new ValueResult<Integer>(involvedKeys, dictionaries.size(),
+                statName, System.currentTimeMillis() - timeAtStart);
+    }
+
+    /**
+     * Stores a new version of the revision text dictionary of a namespace in
+     * Scalaris and makes it the current one (also in the local
+     * {@link RevisionTextCodec}).
+     * 
+     * Existing dictionaries are never changed so that revisions compressed
+     * with older versions can still be read.
+     * 
+     * @param connection
+     *            the connection to Scalaris
+     * @param namespace
+     *            the namespace ID or <tt>null</tt> for the default dictionary
+     * @param dictionary
+     *            the (trained) dictionary
+     * 
+     * @return a result object with the new dictionary's ID on success
+     */
+    public final static ValueResult<Integer> writeTextDictionary(
+            Connection connection, Integer namespace, byte[] dictionary) {
+        final long timeAtStart = System.currentTimeMillis();
+        final String statName = "TEXT_DICTIONARY_WRITE";
+        List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
+        if (connection == null) {
+            return new ValueResult<Integer>(false, involvedKeys,
+                    "no connection to Scalaris", true, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        }
+
+        Transaction scalaris_tx = new Transaction(connection);
+        try {
+            int id;
+            try {
+                involvedKeys.add(new InvolvedKey(InvolvedKey.OP.READ, getTextDictionaryLastIdKey()));
+                id = scalaris_tx.read(getTextDictionaryLastIdKey()).intValue() + 1;
+            } catch (NotFoundException e) {
+                id = 1;
+            }
+            Transaction.RequestList requests = new Transaction.RequestList();
+            requests.addOp(new WriteOp(getTextDictionaryLastIdKey(), id));
+            requests.addOp(new WriteOp(getTextDictionaryKey(id), dictionary));
+            requests.addOp(new WriteOp(getTextDictionaryCurrentKey(namespace), id));
+            requests.addCommit();
+            addInvolvedKeys(involvedKeys, requests.getRequests());
+            Transaction.ResultList results = scalaris_tx.req_list(requests);
+            for (int i = 0; i < 3; ++i) {
+                results.processWriteAt(i);
+            }
+            results.processCommitAt(3);
+
+            RevisionTextCodec.registerDictionary(id, dictionary);
+            RevisionTextCodec.setCurrentDictionary(namespace, id);
+            return new ValueResult<Integer>(involvedKeys, id, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        } catch (Exception e) {
+            return new ValueResult<Integer>(false, involvedKeys,
+                    e.getClass().getCanonicalName() + " writing text dictionary to Scalaris: "
+                            + e.getMessage(), e instanceof ConnectionException,
+                    statName, System.currentTimeMillis() - timeAtStart);
+        }
+    }
+
     /**
      * Retrieves an integral number from Scalaris.
      * 
@@ -551,6 +966,15 @@ public class ScalarisDataHandler {
                     break;
             }
         }
+        APPEND_INCREMENT_STRIPED_COUNTER stripedCounter = null;
+        if (optimisation instanceof APPEND_INCREMENT_STRIPED_COUNTER) {
+            stripedCounter = (APPEND_INCREMENT_STRIPED_COUNTER) optimisation;
+            final BigInteger cachedSum = stripedCounter.getCachedSum(scalaris_keys.toString());
+            if (cachedSum != null) {
+                return new ValueResult<BigInteger>(involvedKeys, cachedSum, statName,
+                        System.currentTimeMillis() - timeAtStart);
+            }
+        }
         final ScalarisReadNumberOp1 readOp = new ScalarisReadNumberOp1(scalaris_keys,
                 optimisation, failNotFound);
         executor.addOp(readOp);
@@ -564,6 +988,9 @@ public class ScalarisDataHandler {
                     statName, System.currentTimeMillis() - timeAtStart);
         }
         
+        if (stripedCounter != null) {
+            stripedCounter.setCachedSum(scalaris_keys.toString(), readOp.getValue());
+        }
         return new ValueResult<BigInteger>(involvedKeys, readOp.getValue(), statName,
                 System.currentTimeMillis() - timeAtStart);
     }
@@ -21,9 +21,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.zib.scalaris.Connection;
 import de.zib.scalaris.ConnectionException;
+import de.zib.scalaris.EmptyListException;
+import de.zib.scalaris.ErlangValue;
+import de.zib.scalaris.NotAListException;
 import de.zib.scalaris.NotFoundException;
 import de.zib.scalaris.Transaction;
 import de.zib.scalaris.TransactionSingleOp;
@@ -35,6 +39,7 @@ import de.zib.scalaris.examples.wikipedia.data.ShortRevision;
 import de.zib.scalaris.executor.ScalarisOp;
 import de.zib.scalaris.executor.ScalarisReadOp;
 import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.ReadRandomFromListOp;
 
 /**
  * @author Nico Kruber, kruber@zib.de
@@ -64,6 +69,16 @@ public class ScalarisDataHandlerNormalised extends ScalarisDataHandler {
         return title + ":page";
     }
     
+    /**
+     * Removes the cached (raw) value of a page, e.g. because it has been
+     * changed by another wiki instance.
+     * 
+     * @param title     the title of the page
+     */
+    public static void uncachePage(NormalisedTitle title) {
+        uncachePageValue(getPageKey(title));
+    }
+    
     /**
      * Gets the key to store the list of revisions of a page at.
      * 
@@ -147,7 +162,12 @@ public class ScalarisDataHandlerNormalised extends ScalarisDataHandler {
         TransactionSingleOp.ResultList results;
         try {
             addInvolvedKeys(involvedKeys, requests.getRequests());
-            results = scalaris_single.req_list(requests);
+            final RequestTracer.Span span = RequestTracer.startSpan("req_list", RequestTracer.CAT_DB);
+            try {
+                results = scalaris_single.req_list(requests);
+            } finally {
+                RequestTracer.endSpan(span, requests.getRequests());
+            }
         } catch (Exception e) {
             return new PageHistoryResult(false, involvedKeys,
                     e.getClass().getCanonicalName() + " reading \"" + getPageKey(title)
@@ -245,7 +265,15 @@ public class ScalarisDataHandlerNormalised extends ScalarisDataHandler {
         scalaris_key = getPageKey(title);
         try {
             involvedKeys.add(new InvolvedKey(OP.READ, scalaris_key));
-            page = scalaris_single.read(scalaris_key).jsonValue(Page.class);
+            final RequestTracer.Span span = RequestTracer.startSpan("read page", RequestTracer.CAT_DB);
+            ErlangValue pageValue = null;
+            try {
+                pageValue = scalaris_single.read(scalaris_key);
+            } finally {
+                RequestTracer.endSpan(span, OP.READ, scalaris_key, pageValue);
+            }
+            page = pageValue.jsonValue(Page.class);
+            cachePageValue(scalaris_key, pageValue);
         } catch (NotFoundException e) {
             return new RevisionResult(false, involvedKeys,
                     "page not found at \"" + scalaris_key + "\"", false, title,
@@ -264,7 +292,14 @@ public class ScalarisDataHandlerNormalised extends ScalarisDataHandler {
             scalaris_key = getRevKey(title, id);
             try {
                 involvedKeys.add(new InvolvedKey(OP.READ, scalaris_key));
-                revision = scalaris_single.read(scalaris_key).jsonValue(Revision.class);
+                final RequestTracer.Span span = RequestTracer.startSpan("read revision", RequestTracer.CAT_DB);
+                ErlangValue revValue = null;
+                try {
+                    revValue = scalaris_single.read(scalaris_key);
+                } finally {
+                    RequestTracer.endSpan(span, OP.READ, scalaris_key, revValue);
+                }
+                revision = revValue.jsonValue(Revision.class);
             } catch (NotFoundException e) {
                 return new RevisionResult(false, involvedKeys,
                         "revision not found at \"" + scalaris_key + "\"",
@@ -348,6 +383,90 @@ public class ScalarisDataHandlerNormalised extends ScalarisDataHandler {
                 statName, System.currentTimeMillis() - timeAtStart);
     }
 
+    /**
+     * Checks which of the given pages exist (in a single request to
+     * Scalaris).
+     * 
+     * Instead of reading the (large) page objects including their current
+     * revision's text, a {@link ReadRandomFromListOp} is issued for each
+     * page key which fails with <tt>not_found</tt> for non-existing pages and
+     * with <tt>not_a_list</tt> (no value transferred) for existing ones.
+     * Pages whose page objects are cached locally are not requested at all.
+     * 
+     * @param connection
+     *            the connection to Scalaris
+     * @param titles
+     *            the titles of the pages
+     * 
+     * @return a result object with a map of each title to whether it exists
+     *         on success (titles whose existence could not be determined are
+     *         not included)
+     */
+    public static ValueResult<Map<NormalisedTitle, Boolean>> pagesExist(
+            Connection connection, Collection<NormalisedTitle> titles) {
+        final long timeAtStart = System.currentTimeMillis();
+        final String statName = "PAGES_EXIST";
+        List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
+        if (connection == null) {
+            return new ValueResult<Map<NormalisedTitle, Boolean>>(false,
+                    involvedKeys, "no connection to Scalaris", true, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        }
+
+        final Map<NormalisedTitle, Boolean> exist = new HashMap<NormalisedTitle, Boolean>(titles.size());
+        final List<NormalisedTitle> requested = new ArrayList<NormalisedTitle>(titles.size());
+        TransactionSingleOp.RequestList requests = new TransactionSingleOp.RequestList();
+        for (NormalisedTitle title : titles) {
+            final String key = getPageKey(title);
+            if (getCachedPageValue(key) != null) {
+                exist.put(title, true);
+            } else {
+                requests.addOp(new ReadRandomFromListOp(key));
+                requested.add(title);
+            }
+        }
+        if (requested.isEmpty()) {
+            return new ValueResult<Map<NormalisedTitle, Boolean>>(involvedKeys,
+                    exist, statName, System.currentTimeMillis() - timeAtStart);
+        }
+
+        TransactionSingleOp scalaris_single = new TransactionSingleOp(connection);
+        TransactionSingleOp.ResultList results;
+        try {
+            addInvolvedKeys(involvedKeys, requests.getRequests());
+            final RequestTracer.Span span = RequestTracer.startSpan("req_list", RequestTracer.CAT_DB);
+            try {
+                results = scalaris_single.req_list(requests);
+            } finally {
+                RequestTracer.endSpan(span, requests.getRequests());
+            }
+        } catch (Exception e) {
+            return new ValueResult<Map<NormalisedTitle, Boolean>>(false,
+                    involvedKeys, e.getClass().getCanonicalName() + " reading "
+                            + requested + " from Scalaris: " + e.getMessage(),
+                    e instanceof ConnectionException, statName,
+                    System.currentTimeMillis() - timeAtStart);
+        }
+
+        for (int i = 0; i < requested.size(); ++i) {
+            final NormalisedTitle title = requested.get(i);
+            try {
+                ((ReadRandomFromListOp) results.get(i)).processResult();
+                exist.put(title, true);
+            } catch (NotFoundException e) {
+                exist.put(title, false);
+            } catch (NotAListException e) {
+                exist.put(title, true);
+            } catch (EmptyListException e) {
+                exist.put(title, true);
+            } catch (Exception e) {
+                // unknown - leave it to the caller
+            }
+        }
+        return new ValueResult<Map<NormalisedTitle, Boolean>>(involvedKeys,
+                exist, statName, System.currentTimeMillis() - timeAtStart);
+    }
+
     /**
      * Retrieves a list of pages in the given category from Scalaris.
      * 
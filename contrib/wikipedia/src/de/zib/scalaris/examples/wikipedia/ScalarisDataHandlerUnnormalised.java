@@ -28,6 +28,7 @@ import java.util.Set;
 import de.zib.scalaris.AbortException;
 import de.zib.scalaris.Connection;
 import de.zib.scalaris.ConnectionException;
+import de.zib.scalaris.ErlangValue;
 import de.zib.scalaris.NotFoundException;
 import de.zib.scalaris.Transaction;
 import de.zib.scalaris.examples.wikipedia.Options.STORE_CONTRIB_TYPE;
@@ -303,13 +304,74 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
     public static SavePageResult savePage(final Connection connection, final String title0,
             final Revision newRev, final int prevRevId, final Map<String, String> restrictions,
             final SiteInfo siteinfo, final String username, final MyNamespace nsObject) {
-        long timeAtStart = System.currentTimeMillis();
+        final long timeAtStart = System.currentTimeMillis();
+        final List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
+        if (connection != null) {
+            // optimistic save using the last known page object (if available)
+            final ErlangValue cachedPage = getCachedPageValue(getPageKey(title0, nsObject));
+            if (cachedPage != null) {
+                final SavePageResult result = savePage(connection, title0,
+                        newRev, prevRevId, restrictions, siteinfo, username,
+                        nsObject, cachedPage, involvedKeys, timeAtStart);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return savePage(connection, title0, newRev, prevRevId, restrictions,
+                siteinfo, username, nsObject, null, involvedKeys, timeAtStart);
+    }
+
+    /**
+     * Saves or edits a page with the given parameters.
+     * 
+     * If a cached page object is given, the page is not read first. Instead,
+     * the new page is written with a test-and-set operation (against the
+     * cached page) in the same request list as all other operations and the
+     * commit, i.e. the whole save needs a single request in this case.
+     * 
+     * @param connection
+     *            the connection to use
+     * @param title0
+     *            the (unnormalised) title of the page
+     * @param newRev
+     *            the new revision to add
+     * @param prevRevId
+     *            the version of the previously existing revision or <tt>-1</tt>
+     *            if there was no previous revision
+     * @param restrictions
+     *            new restrictions of the page or <tt>null</tt> if they should
+     *            not be changed
+     * @param siteinfo
+     *            information about the wikipedia (used for parsing categories
+     *            and templates)
+     * @param username
+     *            name of the user editing the page (for enforcing restrictions)
+     * @param nsObject
+     *            the namespace for page title normalisation
+     * @param cachedPage
+     *            the last known value of the page (as stored in Scalaris) or
+     *            <tt>null</tt> to read the page first
+     * @param involvedKeys
+     *            all keys that have been read or written during the operation
+     * @param timeAtStart0
+     *            the time the (first) save attempt started
+     * 
+     * @return success status or <tt>null</tt> if the optimistic save failed
+     *         (the cached page is outdated) and should be re-tried by
+     *         reading the page first
+     */
+    private static SavePageResult savePage(final Connection connection, final String title0,
+            final Revision newRev, final int prevRevId, final Map<String, String> restrictions,
+            final SiteInfo siteinfo, final String username, final MyNamespace nsObject,
+            final ErlangValue cachedPage, final List<InvolvedKey> involvedKeys,
+            final long timeAtStart0) {
+        long timeAtStart = timeAtStart0;
         final String statName = "SAVE:" + title0;
         Page oldPage = null;
         Page newPage = null;
         List<ShortRevision> newShortRevs = null;
         BigInteger pageEdits = null;
-        List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
         if (connection == null) {
             return new SavePageResult(false, involvedKeys,
                     "no connection to Scalaris", true, oldPage, newPage,
@@ -322,48 +384,72 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
         Transaction scalaris_tx = new Transaction(connection);
 
         // check that the current version is still up-to-date:
-        // read old version first, then write
+        // read old version first (unless optimistic), then write
         String pageInfoKey = getPageKey(title0, nsObject);
         
-        Transaction.RequestList requests = new Transaction.RequestList();
-        requests.addOp(new ReadOp(pageInfoKey));
-        
-        Transaction.ResultList results;
-        try {
-            addInvolvedKeys(involvedKeys, requests.getRequests());
-            results = scalaris_tx.req_list(requests);
-        } catch (Exception e) {
-            return new SavePageResult(false, involvedKeys,
-                    e.getClass().getCanonicalName() + " getting page info (" + pageInfoKey
-                            + ") from Scalaris: " + e.getMessage(),
-                    e instanceof ConnectionException, oldPage, newPage,
-                    newShortRevs, pageEdits, statName,
-                    System.currentTimeMillis() - timeAtStart);
-        }
-
         int oldRevId;
-        try {
-            oldPage = results.processReadAt(0).jsonValue(Page.class);
-            newPage = new Page(oldPage.getTitle(), oldPage.getId(),
-                    oldPage.isRedirect(), new LinkedHashMap<String, String>(
-                            oldPage.getRestrictions()), newRev);
-            oldRevId = oldPage.getCurRev().getId();
-        } catch (NotFoundException e) {
-            // this is ok and means that the page did not exist yet
-            newPage = new Page(title0, 1, false,
-                    new LinkedHashMap<String, String>(), newRev);
-            oldRevId = 0;
-        } catch (Exception e) {
-            return new SavePageResult(false, involvedKeys,
-                    e.getClass().getCanonicalName() + " reading \"" + pageInfoKey
-                            + "\" from Scalaris: " + e.getMessage(),
-                    e instanceof ConnectionException, oldPage, newPage,
-                    newShortRevs, pageEdits, statName,
-                    System.currentTimeMillis() - timeAtStart);
+        if (cachedPage != null) {
+            try {
+                oldPage = cachedPage.jsonValue(Page.class);
+                newPage = new Page(oldPage.getTitle(), oldPage.getId(),
+                        oldPage.isRedirect(), new LinkedHashMap<String, String>(
+                                oldPage.getRestrictions()), newRev);
+                oldRevId = oldPage.getCurRev().getId();
+            } catch (Exception e) {
+                uncachePageValue(pageInfoKey);
+                return null;
+            }
+        } else {
+            Transaction.RequestList requests = new Transaction.RequestList();
+            requests.addOp(new ReadOp(pageInfoKey));
+
+            Transaction.ResultList results;
+            try {
+                addInvolvedKeys(involvedKeys, requests.getRequests());
+                final RequestTracer.Span span = RequestTracer.startSpan("req_list", RequestTracer.CAT_DB);
+                try {
+                    results = scalaris_tx.req_list(requests);
+                } finally {
+                    RequestTracer.endSpan(span, requests.getRequests());
+                }
+            } catch (Exception e) {
+                return new SavePageResult(false, involvedKeys,
+                        e.getClass().getCanonicalName() + " getting page info (" + pageInfoKey
+                                + ") from Scalaris: " + e.getMessage(),
+                        e instanceof ConnectionException, oldPage, newPage,
+                        newShortRevs, pageEdits, statName,
+                        System.currentTimeMillis() - timeAtStart);
+            }
+
+            try {
+                final ErlangValue oldPageValue = results.processReadAt(0);
+                oldPage = oldPageValue.jsonValue(Page.class);
+                newPage = new Page(oldPage.getTitle(), oldPage.getId(),
+                        oldPage.isRedirect(), new LinkedHashMap<String, String>(
+                                oldPage.getRestrictions()), newRev);
+                oldRevId = oldPage.getCurRev().getId();
+                cachePageValue(pageInfoKey, oldPageValue);
+            } catch (NotFoundException e) {
+                // this is ok and means that the page did not exist yet
+                newPage = new Page(title0, 1, false,
+                        new LinkedHashMap<String, String>(), newRev);
+                oldRevId = 0;
+            } catch (Exception e) {
+                return new SavePageResult(false, involvedKeys,
+                        e.getClass().getCanonicalName() + " reading \"" + pageInfoKey
+                                + "\" from Scalaris: " + e.getMessage(),
+                        e instanceof ConnectionException, oldPage, newPage,
+                        newShortRevs, pageEdits, statName,
+                        System.currentTimeMillis() - timeAtStart);
+            }
         }
         newRev.setId(oldRevId + 1);
         
         if (!newPage.checkEditAllowed(username)) {
+            if (cachedPage != null) {
+                // restrictions may have changed - check the current page
+                return null;
+            }
             return new SavePageResult(false, involvedKeys,
                     "operation not allowed: edit is restricted", false,
                     oldPage, newPage, newShortRevs, pageEdits,
@@ -375,6 +461,10 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
          * if it is -1, then there should not be an old page
          */
         if ((prevRevId > 0 && prevRevId != oldRevId) || (prevRevId == -1 && oldPage != null)) {
+            if (cachedPage != null) {
+                // the cached page may be outdated - check the current page
+                return null;
+            }
             return new SavePageResult(false, involvedKeys, "curRev(" + oldRevId
                     + ") != oldRev(" + prevRevId + ")", false, oldPage,
                     newPage, newShortRevs, pageEdits, statName,
@@ -389,7 +479,17 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
         Set<String> oldCats;
         Set<String> oldTpls;
         Set<String> oldLnks;
-        if (oldPage != null && oldPage.getCurRev() != null) {
+        if (oldPage != null && oldPage.hasPageLists()) {
+            // re-use the lists stored with the previous version (no re-rendering)
+            oldCats = new HashSet<String>(oldPage.getCategories());
+            oldTpls = new HashSet<String>(oldPage.getTemplates());
+            if (Options.getInstance().WIKI_USE_BACKLINKS) {
+                oldLnks = new HashSet<String>(oldPage.getLinks());
+            } else {
+                // use empty link lists to turn back-links off
+                oldLnks = new HashSet<String>();
+            }
+        } else if (oldPage != null && oldPage.getCurRev() != null) {
             // get a list of previous categories and templates:
             wikiModel.setUp();
             final long timeAtRenderStart = System.currentTimeMillis();
@@ -454,6 +554,9 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
                 }, ScalarisOpType.TEMPLATE_PAGE_LIST, null);
         // use empty link lists to turn back-links off
         final Set<String> newLnks = Options.getInstance().WIKI_USE_BACKLINKS ? wikiModel.getLinks() : new HashSet<String>();
+        // store all lists with the page so that the next save does not need
+        // to render this revision again
+        newPage.setPageLists(newCats, newTpls, wikiModel.getLinks());
         Difference lnkDiff = new Difference(oldLnks, newLnks,
                 new Difference.GetPageListKey() {
                     @Override
@@ -464,6 +567,7 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
         
 
         // now save the changes:
+        final ErlangValue newPageValue;
         do {
             final MyScalarisTxOpExecutor executor0 = new MyScalarisTxOpExecutor(
                     scalaris_tx, involvedKeys);
@@ -502,7 +606,12 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
                 executor.addAppend(ScalarisOpType.PAGE_LIST, pageListKey, normTitleStr, ScalarisOpType.PAGE_COUNT, pageCountKey);
             }
 
-            executor.addWrite(ScalarisOpType.PAGE, getPageKey(title0, nsObject), newPage);
+            newPageValue = new ErlangValue(newPage);
+            if (cachedPage != null) {
+                executor.addTestAndSet(ScalarisOpType.PAGE, pageInfoKey, cachedPage, newPageValue);
+            } else {
+                executor.addWrite(ScalarisOpType.PAGE, pageInfoKey, newPageValue);
+            }
             if (oldPage != null) {
                 executor.addWrite(ScalarisOpType.REVISION, getRevKey(title0, oldPage.getCurRev().getId(), nsObject), oldPage.getCurRev());
             }
@@ -511,6 +620,12 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
             try {
                 executor.getExecutor().run();
             } catch (Exception e) {
+                if (cachedPage != null && !(e instanceof ConnectionException)) {
+                    // most likely a conflict due to an outdated cached page
+                    // -> re-try reading the page first
+                    uncachePageValue(pageInfoKey);
+                    return null;
+                }
                 SavePageResult result = new SavePageResult(false, involvedKeys,
                         e.getClass().getCanonicalName() + " writing page \"" + title0
                                 + "\" to Scalaris: " + e.getMessage(),
@@ -523,6 +638,7 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
                 return result;
             }
         } while (false);
+        cachePageValue(pageInfoKey, newPageValue);
         
         if (Options.getInstance().WIKI_STORE_CONTRIBUTIONS == STORE_CONTRIB_TYPE.OUTSIDE_TX) {
             addContribution(scalaris_tx, oldPage, newPage, involvedKeys);
@@ -535,7 +651,8 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
     }
     
     /**
-     * Increases the number of overall page edits statistic.
+     * Increases the number of overall page edits statistic (or queues the
+     * increment if a write-behind queue is set).
      * 
      * @param scalaris_tx
      *            the transaction object to use
@@ -545,6 +662,11 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
     private static void increasePageEditStat(
             Transaction scalaris_tx, List<InvolvedKey> involvedKeys) {
         // increase number of page edits (for statistics)
+        final WriteBehindQueue writeBehind = getWriteBehindQueue();
+        if (writeBehind != null) {
+            writeBehind.addIncrement(ScalarisOpType.EDIT_STAT, getStatsPageEditsKey(), 1, getStatsPageEditsKey());
+            return;
+        }
         // as this is not that important, use a separate transaction and do not
         // fail if updating the value fails
         final MyScalarisTxOpExecutor executor0 = new MyScalarisTxOpExecutor(
@@ -561,7 +683,8 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
     }
 
     /**
-     * Adds a contribution to the list of contributions of the user.
+     * Adds a contribution to the list of contributions of the user (or
+     * queues it if a write-behind queue is set).
      * 
      * @param scalaris_tx
      *            the transaction object to use
@@ -574,6 +697,13 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
      */
     private static void addContribution(
             Transaction scalaris_tx, Page oldPage, Page newPage, List<InvolvedKey> involvedKeys) {
+        String scalaris_key = getContributionListKey(newPage.getCurRev().getContributor().toString());
+        final WriteBehindQueue writeBehind = getWriteBehindQueue();
+        if (writeBehind != null) {
+            writeBehind.addAppend(ScalarisOpType.CONTRIBUTION, scalaris_key,
+                    Arrays.asList(new Contribution(oldPage, newPage)), null, null);
+            return;
+        }
         // as this is not that important, use a separate transaction and do not
         // fail if updating the value fails
         final MyScalarisTxOpExecutor executor0 = new MyScalarisTxOpExecutor(
@@ -582,7 +712,6 @@ public class ScalarisDataHandlerUnnormalised extends ScalarisDataHandler {
         MyScalarisOpExecWrapper executor = new MyScalarisOpExecWrapper(
                 executor0);
 
-        String scalaris_key = getContributionListKey(newPage.getCurRev().getContributor().toString());
         executor.addAppend(ScalarisOpType.CONTRIBUTION, scalaris_key,
                 Arrays.asList(new Contribution(oldPage, newPage)), null, null);
         try {
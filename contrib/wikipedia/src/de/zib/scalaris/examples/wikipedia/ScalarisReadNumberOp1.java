@@ -10,6 +10,7 @@ import de.zib.scalaris.RequestList;
 import de.zib.scalaris.ResultList;
 import de.zib.scalaris.UnknownException;
 import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_BUCKETS_WITH_WCACHE;
+import de.zib.scalaris.examples.wikipedia.Options.APPEND_INCREMENT_STRIPED_COUNTER;
 import de.zib.scalaris.examples.wikipedia.Options.IBuckets;
 import de.zib.scalaris.examples.wikipedia.Options.Optimisation;
 import de.zib.scalaris.executor.ScalarisOp;
@@ -47,6 +48,9 @@ public class ScalarisReadNumberOp1 implements ScalarisOp {
             this.buckets = opt2.getReadBuckets() + opt2.getWriteBuckets();
         } else if (optimisation instanceof IBuckets) {
             this.buckets = ((IBuckets) optimisation).getBuckets();
+        } else if (optimisation instanceof APPEND_INCREMENT_STRIPED_COUNTER) {
+            // the un-striped key plus all stripes
+            this.buckets = ((APPEND_INCREMENT_STRIPED_COUNTER) optimisation).getStripes() + 1;
         } else {
             this.buckets = 1;
         }
@@ -79,7 +83,13 @@ public class ScalarisReadNumberOp1 implements ScalarisOp {
      */
     protected int prepareRead(final RequestList requests) {
         for (String key : keys) {
-            if (!(optimisation instanceof IBuckets)) {
+            if (optimisation instanceof APPEND_INCREMENT_STRIPED_COUNTER) {
+                // the un-striped key may still hold a value, e.g. from the import
+                requests.addOp(new ReadOp(key));
+                for (int i = 0; i < buckets - 1; ++i) {
+                    requests.addOp(new ReadOp(key + ":" + i));
+                }
+            } else if (!(optimisation instanceof IBuckets)) {
                 requests.addOp(new ReadOp(key));
             } else {
                 for (int i = 0; i < buckets; ++i) {
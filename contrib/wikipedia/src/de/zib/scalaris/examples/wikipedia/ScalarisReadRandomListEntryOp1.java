@@ -3,10 +3,13 @@ package de.zib.scalaris.examples.wikipedia;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import com.ericsson.otp.erlang.OtpErlangException;
 
@@ -27,6 +30,11 @@ import de.zib.scalaris.operations.ReadRandomFromListOp;
 
 /**
  * Implements a random list entry read operation.
+ * 
+ * If reading from a single bucket of an {@link IPartialRead} optimisation,
+ * the bucket is chosen with a probability proportional to its (last seen)
+ * list length so that each list element is (approximately) equally likely to
+ * be selected while only a single partial read is sent to Scalaris.
  *
  * @param <T> the type of objects in the list
  *
@@ -42,6 +50,15 @@ public class ScalarisReadRandomListEntryOp1<T> implements ScalarisOp {
     final Random random;
     final private Optimisation optimisation;
     final private boolean readOnlyOneBucket;
+    /**
+     * Last seen list lengths of the buckets of each key (<tt>-1</tt> if
+     * unknown).
+     */
+    final private static ConcurrentMap<String, AtomicIntegerArray> bucketLengths = new ConcurrentHashMap<String, AtomicIntegerArray>();
+    /**
+     * Indices of the buckets read by {@link #prepareRead(RequestList)}.
+     */
+    final private List<Integer> readBuckets = new ArrayList<Integer>();
 
     /**
      * Creates a new (random) list entry read operation.
@@ -120,12 +137,13 @@ public class ScalarisReadRandomListEntryOp1<T> implements ScalarisOp {
      */
     protected int prepareRead(final RequestList requests) {
         for (String key : keys) {
-            HashSet<String> bucketKeys = new HashSet<String>(bucketsPerKey);
+            LinkedHashSet<String> bucketKeys = new LinkedHashSet<String>(bucketsPerKey);
             if (!(optimisation instanceof IBuckets)) {
                 bucketKeys.add(key);
             } else if (!readOnlyOneBucket) {
                 for (int i = 0; i < bucketsPerKey; ++i) {
                     bucketKeys.add(key + ":" + i);
+                    readBuckets.add(i);
                 }
             } else if (optimisation instanceof APPEND_INCREMENT_BUCKETS_WITH_WCACHE_ADDONLY) {
                 APPEND_INCREMENT_BUCKETS_WITH_WCACHE_ADDONLY optimisation2 = (APPEND_INCREMENT_BUCKETS_WITH_WCACHE_ADDONLY) optimisation;
@@ -133,6 +151,8 @@ public class ScalarisReadRandomListEntryOp1<T> implements ScalarisOp {
                 int readBuckets = optimisation2.getReadBuckets();
                 bucketKeys.add(key + ":" + random.nextInt(readBuckets));
                 bucketKeys.add(key + ":" + (random.nextInt(optimisation2.getBuckets() - readBuckets) + readBuckets));
+            } else if (optimisation instanceof IPartialRead) {
+                bucketKeys.add(key + ":" + chooseBucket(key, ((IBuckets) optimisation).getBuckets()));
             } else {
                 bucketKeys.add(key + ":" + random.nextInt(((IBuckets) optimisation).getBuckets()));
             }
@@ -150,6 +170,99 @@ public class ScalarisReadRandomListEntryOp1<T> implements ScalarisOp {
         return 0;
     }
 
+    /**
+     * Gets the estimated list lengths of the buckets of the given key.
+     * 
+     * @param key
+     *            the key under which the list is stored in Scalaris
+     * @param buckets
+     *            number of buckets of the key
+     * 
+     * @return the (shared) bucket lengths
+     */
+    private static AtomicIntegerArray getBucketLengths(final String key, final int buckets) {
+        AtomicIntegerArray lengths = bucketLengths.get(key);
+        if (lengths == null || lengths.length() != buckets) {
+            final AtomicIntegerArray newLengths = new AtomicIntegerArray(buckets);
+            for (int i = 0; i < buckets; ++i) {
+                newLengths.set(i, -1);
+            }
+            if (lengths == null) {
+                lengths = bucketLengths.putIfAbsent(key, newLengths);
+                if (lengths == null) {
+                    lengths = newLengths;
+                }
+            } else {
+                bucketLengths.put(key, newLengths);
+                lengths = newLengths;
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Chooses a bucket with a probability proportional to its estimated list
+     * length. Buckets with unknown lengths are assumed to be as long as the
+     * average known bucket (or all equally long if no length is known).
+     * 
+     * @param key
+     *            the key under which the list is stored in Scalaris
+     * @param buckets
+     *            number of buckets of the key
+     * 
+     * @return the index of the chosen bucket
+     */
+    private int chooseBucket(final String key, final int buckets) {
+        final AtomicIntegerArray lengths = getBucketLengths(key, buckets);
+        final long[] weights = new long[buckets];
+        long knownSum = 0;
+        int known = 0;
+        for (int i = 0; i < buckets; ++i) {
+            weights[i] = lengths.get(i);
+            if (weights[i] >= 0) {
+                knownSum += weights[i];
+                ++known;
+            }
+        }
+        final long unknownWeight = (known == 0) ? 1 : Math.max(1, knownSum / known);
+        long total = 0;
+        for (int i = 0; i < buckets; ++i) {
+            if (weights[i] < 0) {
+                weights[i] = unknownWeight;
+            }
+            total += weights[i];
+        }
+        int bucket = 0;
+        if (total > 0) {
+            long r = (long) (random.nextDouble() * total);
+            while (bucket < buckets - 1 && r >= weights[bucket]) {
+                r -= weights[bucket];
+                ++bucket;
+            }
+        } else {
+            bucket = random.nextInt(buckets);
+        }
+        readBuckets.add(bucket);
+        return bucket;
+    }
+
+    /**
+     * Remembers the list length of a bucket read by this operation.
+     * 
+     * @param key
+     *            the key under which the list is stored in Scalaris
+     * @param opIdx
+     *            index of the bucket's read operation in {@link #readBuckets}
+     * @param length
+     *            the list length of the bucket
+     */
+    private void updateBucketLength(final String key, final int opIdx, final int length) {
+        if (optimisation instanceof IBuckets && opIdx < readBuckets.size()) {
+            getBucketLengths(key, ((IBuckets) optimisation).getBuckets()).set(
+                    readBuckets.get(opIdx), length);
+        }
+    }
+
     /**
      * Verifies the read operation(s) and creates the full list.
      *
@@ -176,17 +289,21 @@ public class ScalarisReadRandomListEntryOp1<T> implements ScalarisOp {
              */
             TreeMap<Integer, T> valueMap = new TreeMap<Integer, T>();
             Integer listLen = 0;
-            for (int x = 0; x < keys.size(); ++x) {
-                for (int i = 0; i < bucketsPerKey; ++i) {
+            int opIdx = 0;
+            for (String key : keys) {
+                for (int i = 0; i < bucketsPerKey; ++i, ++opIdx) {
                     try {
                         ReadRandomFromListOp.Result res = ((ReadRandomFromListOp) results.get(firstOp++)).processResult();
+                        updateBucketLength(key, opIdx, res.listLength);
                         listLen += res.listLength;
                         valueMap.put(listLen, elemConv.convert(res.randomElement));
                     } catch (NotFoundException e) {
+                        updateBucketLength(key, opIdx, 0);
                         ++notFound;
                         lastNotFound = e;
                     } catch (EmptyListException e) {
                         // this is ok - we simply ignore this partition
+                        updateBucketLength(key, opIdx, 0);
                     }
                 }
             }
@@ -0,0 +1,367 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.zib.scalaris.examples.wikipedia.bliki.WikiPageBeanBase;
+
+/**
+ * Aggregates timing values (in milliseconds) into histograms over sliding
+ * time windows.
+ *
+ * Each histogram is divided into time slots (e.g. one per minute) and each
+ * time slot into a number of stripes which are chosen by the recording
+ * thread. Values are thus recorded with a few atomic operations and without
+ * any global lock. The bins of the histograms have a relative precision of
+ * 12.5% (exact values below 16ms).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class StatsAggregator {
+    /**
+     * Name of the histogram with the time spent in the web server.
+     */
+    public static final String SERVER_TIME = "server_time";
+    /**
+     * Name of the histogram with the time spent in the DB.
+     */
+    public static final String DB_TIME = "db_time";
+    /**
+     * Name of the histogram with the time spent rendering pages.
+     */
+    public static final String RENDER_TIME = "render_time";
+    /**
+     * Prefix of the histograms with the times of single DB operations.
+     */
+    public static final String OP_PREFIX = "op:";
+
+    protected static final int SUB_BITS = 3;
+    protected static final int SUB_BINS = 1 << SUB_BITS;
+    protected static final int LINEAR_BINS = 2 * SUB_BINS;
+    /**
+     * Values larger than <tt>2^MAX_EXP</tt> ms (about 4.6 hours) are put
+     * into the last bin.
+     */
+    protected static final int MAX_EXP = 23;
+    protected static final int BINS = LINEAR_BINS + (MAX_EXP - SUB_BITS) * SUB_BINS;
+    protected static final int STRIPES = 4;
+
+    protected final long slotMillis;
+    protected final int slots;
+    protected final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * Creates a new aggregator.
+     *
+     * @param slotMillis
+     *            length of a time slot (milliseconds)
+     * @param slots
+     *            number of time slots to keep, i.e. the maximum window is
+     *            <tt>slotMillis * slots</tt>
+     */
+    public StatsAggregator(long slotMillis, int slots) {
+        this.slotMillis = slotMillis;
+        this.slots = slots;
+    }
+
+    /**
+     * Gets the bin of the given value.
+     *
+     * @param value
+     *            a value
+     *
+     * @return the bin index
+     */
+    protected static int binOf(long value) {
+        if (value < LINEAR_BINS) {
+            return (int) Math.max(value, 0);
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int idx = LINEAR_BINS + (exp - SUB_BITS - 1) * SUB_BINS
+                + (int) ((value >>> (exp - SUB_BITS)) & (SUB_BINS - 1));
+        return Math.min(idx, BINS - 1);
+    }
+
+    /**
+     * Gets the largest value of the given bin.
+     *
+     * @param bin
+     *            a bin index
+     *
+     * @return the upper bound (inclusive)
+     */
+    protected static long binUpperBound(int bin) {
+        if (bin < LINEAR_BINS) {
+            return bin;
+        }
+        final int exp = (bin - LINEAR_BINS) / SUB_BINS + SUB_BITS + 1;
+        final int sub = (bin - LINEAR_BINS) % SUB_BINS;
+        return ((long) (SUB_BINS + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Values of a single time slot.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    protected static class Slot {
+        final long epoch;
+        final AtomicLongArray bins = new AtomicLongArray(STRIPES * BINS);
+        final AtomicLongArray sums = new AtomicLongArray(STRIPES);
+        final AtomicLongArray maxs = new AtomicLongArray(STRIPES);
+
+        Slot(long epoch) {
+            this.epoch = epoch;
+        }
+
+        void add(long value) {
+            final int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            bins.incrementAndGet(stripe * BINS + binOf(value));
+            sums.addAndGet(stripe, value);
+            long max;
+            while ((max = maxs.get(stripe)) < value
+                    && !maxs.compareAndSet(stripe, max, value)) {
+            }
+        }
+    }
+
+    /**
+     * Histogram over a sliding time window.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    protected class Histogram {
+        final AtomicReferenceArray<Slot> slotArray = new AtomicReferenceArray<Slot>(slots);
+
+        void add(long timestamp, long value) {
+            final long epoch = timestamp / slotMillis;
+            final int idx = (int) (epoch % slots);
+            while (true) {
+                final Slot slot = slotArray.get(idx);
+                if (slot != null && slot.epoch == epoch) {
+                    slot.add(value);
+                    return;
+                } else if (slot != null && slot.epoch > epoch) {
+                    // too old to be recorded
+                    return;
+                } else if (slotArray.compareAndSet(idx, slot, new Slot(epoch))) {
+                    // outdated slot replaced - now record the value
+                }
+            }
+        }
+
+        Snapshot snapshot(long now, long windowMillis) {
+            final long curEpoch = now / slotMillis;
+            final long minEpoch = curEpoch - Math.min(slots,
+                    Math.max(1, (windowMillis + slotMillis - 1) / slotMillis)) + 1;
+            final Snapshot result = new Snapshot();
+            for (int i = 0; i < slots; ++i) {
+                final Slot slot = slotArray.get(i);
+                if (slot != null && slot.epoch >= minEpoch && slot.epoch <= curEpoch) {
+                    for (int s = 0; s < STRIPES; ++s) {
+                        for (int b = 0; b < BINS; ++b) {
+                            final long count = slot.bins.get(s * BINS + b);
+                            result.bins[b] += count;
+                            result.count += count;
+                        }
+                        result.sum += slot.sums.get(s);
+                        result.max = Math.max(result.max, slot.maxs.get(s));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Merged values of a histogram inside a time window.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static class Snapshot {
+        protected final long[] bins = new long[BINS];
+        protected long count = 0;
+        protected long sum = 0;
+        protected long max = 0;
+
+        /**
+         * Gets the number of recorded values.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the mean of the recorded values.
+         *
+         * @return the mean or <tt>0</tt> if there are no values
+         */
+        public double getMean() {
+            return count == 0 ? 0.0 : ((double) sum) / count;
+        }
+
+        /**
+         * Gets the maximum recorded value.
+         *
+         * @return the maximum or <tt>0</tt> if there are no values
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the given percentile of the recorded values, i.e. the upper
+         * bound of the bin containing it.
+         *
+         * @param percentile
+         *            the percentile (between <tt>0</tt> and <tt>100</tt>)
+         *
+         * @return the value or <tt>0</tt> if there are no values
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1,
+                    (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+            long seen = 0;
+            for (int b = 0; b < BINS; ++b) {
+                seen += bins[b];
+                if (seen >= rank) {
+                    return Math.min(binUpperBound(b), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param name
+     *            the name of the histogram
+     * @param value
+     *            the value to record (milliseconds)
+     */
+    public void add(String name, long value) {
+        add(name, System.currentTimeMillis(), value);
+    }
+
+    protected void add(String name, long timestamp, long value) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            final Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.add(timestamp, value);
+    }
+
+    /**
+     * Records the timings of a page request, i.e. the {@link #SERVER_TIME},
+     * the {@link #DB_TIME} (the sum of all stats of the page), the
+     * {@link #RENDER_TIME} and the times of the single DB operations (see
+     * {@link #getOpName(String)}). Stats from previous operations, i.e. with
+     * a <tt>" (last op)"</tt> suffix, are ignored.
+     *
+     * @param page
+     *            the page bean with the collected stats
+     * @param serverTime
+     *            the time spent in the web server
+     *
+     * @return the time spent in the DB
+     */
+    public long add(WikiPageBeanBase page, long serverTime) {
+        final long now = System.currentTimeMillis();
+        long dbTime = 0l;
+        for (Entry<String, List<Long>> stats : page.getStats().entrySet()) {
+            final String statName = stats.getKey();
+            if (!statName.endsWith(" (last op)")) {
+                final String opName = OP_PREFIX + getOpName(statName);
+                for (Long stat : stats.getValue()) {
+                    dbTime += stat;
+                    add(opName, now, stat);
+                }
+            }
+        }
+        add(SERVER_TIME, now, serverTime);
+        add(DB_TIME, now, dbTime);
+        add(RENDER_TIME, now, serverTime - dbTime);
+        return dbTime;
+    }
+
+    /**
+     * Gets the operation name of a stat name, i.e. everything before the
+     * first <tt>':'</tt> (which is usually followed by a page title), e.g.
+     * <tt>"PAGE"</tt> for <tt>"PAGE:Main Page"</tt>.
+     *
+     * @param statName
+     *            the name of a stat
+     *
+     * @return the operation name
+     */
+    public static String getOpName(String statName) {
+        final int colon = statName.indexOf(':');
+        return colon == -1 ? statName : statName.substring(0, colon);
+    }
+
+    /**
+     * Gets the values of a histogram inside a time window.
+     *
+     * @param name
+     *            the name of the histogram
+     * @param windowMillis
+     *            the length of the time window (milliseconds), rounded up to
+     *            whole time slots and capped by the number of slots
+     *
+     * @return the merged values (empty if there is no such histogram)
+     */
+    public Snapshot getSnapshot(String name, long windowMillis) {
+        final Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            return new Snapshot();
+        }
+        return histogram.snapshot(System.currentTimeMillis(), windowMillis);
+    }
+
+    /**
+     * Gets the names of all histograms.
+     *
+     * @return a sorted set of names
+     */
+    public Set<String> getNames() {
+        return new TreeSet<String>(histograms.keySet());
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        histograms.clear();
+    }
+}
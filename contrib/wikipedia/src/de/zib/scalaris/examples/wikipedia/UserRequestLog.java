@@ -0,0 +1,284 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded log of user requests.
+ *
+ * Each thread writes fixed-size records into its own ring buffer, i.e.
+ * without any locks or allocations. Readers merge the records of all ring
+ * buffers which are not older than the configured time window. Since each
+ * ring buffer is bounded, very old records may also be overwritten by newer
+ * ones before they leave the time window.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class UserRequestLog {
+    /**
+     * Default number of records per thread.
+     */
+    public static final int DEFAULT_RECORDS_PER_THREAD = 4096;
+    /**
+     * Size of a single record in the binary format (see
+     * {@link #writeBinary(OutputStream)}).
+     */
+    public static final int BINARY_RECORD_SIZE = 8 + 5 * 4;
+
+    /**
+     * A single (immutable) user request.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static class Record {
+        /**
+         * Time of the request (milliseconds since the epoch).
+         */
+        public final long timestamp;
+        /**
+         * Hash code of the requested page title.
+         */
+        public final int titleHash;
+        /**
+         * Hash code of the service user (<tt>0</tt> if none).
+         */
+        public final int serviceUserHash;
+        /**
+         * Time spent in the web server (milliseconds).
+         */
+        public final int serverTime;
+        /**
+         * Time spent in the DB (milliseconds).
+         */
+        public final int dbTime;
+        /**
+         * Time spent rendering the page, i.e. server time without DB time
+         * (milliseconds).
+         */
+        public final int renderTime;
+
+        protected Record(long timestamp, int titleHash, int serviceUserHash,
+                int serverTime, int dbTime, int renderTime) {
+            this.timestamp = timestamp;
+            this.titleHash = titleHash;
+            this.serviceUserHash = serviceUserHash;
+            this.serverTime = serverTime;
+            this.dbTime = dbTime;
+            this.renderTime = renderTime;
+        }
+    }
+
+    /**
+     * Ring buffer of a single (writer) thread.
+     *
+     * The writer publishes a record by increasing {@link #head} after writing
+     * its fields. Readers use the head before and after copying records to
+     * detect records which may have been overwritten in the meantime. One
+     * additional slot is reserved for the record currently being written.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private static class Ring {
+        final long[] timestamp;
+        final int[] titleHash;
+        final int[] serviceUserHash;
+        final int[] serverTime;
+        final int[] dbTime;
+        final int[] renderTime;
+        /**
+         * Number of records ever written to this ring.
+         */
+        volatile long head = 0;
+
+        Ring(int capacity) {
+            ++capacity;
+            timestamp = new long[capacity];
+            titleHash = new int[capacity];
+            serviceUserHash = new int[capacity];
+            serverTime = new int[capacity];
+            dbTime = new int[capacity];
+            renderTime = new int[capacity];
+        }
+
+        void add(long timestamp, int titleHash, int serviceUserHash,
+                int serverTime, int dbTime, int renderTime) {
+            final long head0 = head;
+            final int idx = (int) (head0 % this.timestamp.length);
+            this.timestamp[idx] = timestamp;
+            this.titleHash[idx] = titleHash;
+            this.serviceUserHash[idx] = serviceUserHash;
+            this.serverTime[idx] = serverTime;
+            this.dbTime[idx] = dbTime;
+            this.renderTime[idx] = renderTime;
+            head = head0 + 1;
+        }
+
+        void copyTo(List<Record> records, long minTimestamp) {
+            final int capacity = timestamp.length;
+            final long head1 = head;
+            final List<Record> copied = new ArrayList<Record>();
+            final List<Long> copiedPos = new ArrayList<Long>();
+            for (long i = Math.max(0, head1 - capacity + 1); i < head1; ++i) {
+                final int idx = (int) (i % capacity);
+                if (timestamp[idx] >= minTimestamp) {
+                    copied.add(new Record(timestamp[idx], titleHash[idx],
+                            serviceUserHash[idx], serverTime[idx], dbTime[idx],
+                            renderTime[idx]));
+                    copiedPos.add(i);
+                }
+            }
+            // the writer may have (partly) overwritten the slot of record
+            // (head2 - capacity) already while we were copying
+            final long head2 = head;
+            for (int i = 0; i < copied.size(); ++i) {
+                if (copiedPos.get(i) > head2 - capacity) {
+                    records.add(copied.get(i));
+                }
+            }
+        }
+    }
+
+    private final long window;
+    private final int recordsPerThread;
+    private final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<Ring>();
+    private final ThreadLocal<Ring> ring = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            final Ring ring = new Ring(recordsPerThread);
+            rings.add(ring);
+            return ring;
+        }
+    };
+
+    /**
+     * Creates a new log.
+     *
+     * @param windowMinutes
+     *            only keep records of the last x minutes
+     * @param recordsPerThread
+     *            maximum number of records per thread
+     */
+    public UserRequestLog(int windowMinutes, int recordsPerThread) {
+        this.window = windowMinutes * 60l * 1000l;
+        this.recordsPerThread = recordsPerThread;
+    }
+
+    /**
+     * Adds a user request to the log of the current thread.
+     *
+     * @param timestamp
+     *            time of the request (milliseconds since the epoch)
+     * @param title
+     *            the requested page title (may be <tt>null</tt>)
+     * @param serviceUser
+     *            the service user (may be <tt>null</tt>)
+     * @param serverTime
+     *            time spent in the web server (milliseconds)
+     * @param dbTime
+     *            time spent in the DB (milliseconds)
+     */
+    public void add(long timestamp, String title, String serviceUser,
+            long serverTime, long dbTime) {
+        ring.get().add(timestamp, title == null ? 0 : title.hashCode(),
+                serviceUser == null ? 0 : serviceUser.hashCode(),
+                (int) serverTime, (int) dbTime, (int) (serverTime - dbTime));
+    }
+
+    /**
+     * Gets all records inside the time window (merged from all threads and
+     * sorted by their timestamps).
+     *
+     * @return a list of records
+     */
+    public List<Record> getRecords() {
+        final long minTimestamp = System.currentTimeMillis() - window;
+        final List<Record> records = new ArrayList<Record>();
+        for (Ring ring : rings) {
+            ring.copyTo(records, minTimestamp);
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record o1, Record o2) {
+                return o1.timestamp < o2.timestamp ? -1
+                        : (o1.timestamp > o2.timestamp ? 1 : 0);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Writes all records inside the time window as CSV (with a header line).
+     *
+     * @param out
+     *            the writer to write to (will be flushed, not closed)
+     */
+    public void writeCsv(Writer out) {
+        final PrintWriter pw = new PrintWriter(out);
+        pw.println("timestamp,title_hash,service_user_hash,server_time,db_time,render_time");
+        for (Record r : getRecords()) {
+            pw.print(r.timestamp);
+            pw.print(',');
+            pw.print(r.titleHash);
+            pw.print(',');
+            pw.print(r.serviceUserHash);
+            pw.print(',');
+            pw.print(r.serverTime);
+            pw.print(',');
+            pw.print(r.dbTime);
+            pw.print(',');
+            pw.println(r.renderTime);
+        }
+        pw.flush();
+    }
+
+    /**
+     * Writes all records inside the time window in a compact binary format:
+     * the number of records (4 bytes) followed by the records, each
+     * consisting of the timestamp (8 bytes), the title hash, the service user
+     * hash, the server time, the DB time and the render time (4 bytes each),
+     * all big endian.
+     *
+     * @param out
+     *            the stream to write to (will be flushed, not closed)
+     *
+     * @throws IOException
+     *             if writing to the stream fails
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        final List<Record> records = getRecords();
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(records.size());
+        for (Record r : records) {
+            dos.writeLong(r.timestamp);
+            dos.writeInt(r.titleHash);
+            dos.writeInt(r.serviceUserHash);
+            dos.writeInt(r.serverTime);
+            dos.writeInt(r.dbTime);
+            dos.writeInt(r.renderTime);
+        }
+        dos.flush();
+    }
+}
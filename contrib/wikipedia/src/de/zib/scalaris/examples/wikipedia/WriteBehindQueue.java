@@ -0,0 +1,553 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.zib.scalaris.Connection;
+import de.zib.scalaris.ConnectionPool;
+import de.zib.scalaris.Transaction;
+
+/**
+ * Collects secondary updates, i.e. contributions and edit statistics, which
+ * do not need to be written inside the request saving a page and writes
+ * them in batched transactions on background workers.
+ *
+ * Increments of the same key are coalesced into a single increment and
+ * values appended to the same list are combined into a single append
+ * operation. Every queued operation is also written to a local spool
+ * directory before returning and spool files are removed only after all of
+ * their operations have been flushed. Operations of spool files left behind
+ * (e.g. after a crash or shutting down while a flush failed) are re-queued
+ * by {@link #start(int)}, i.e. operations are written at least once.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class WriteBehindQueue {
+    /**
+     * Maximum number of (coalesced) operations per transaction.
+     */
+    public static final int MAX_OPS_PER_TX = 50;
+    /**
+     * Number of failed flushes after which an operation is dropped.
+     */
+    public static final int MAX_FAILURES = 10;
+    private static final int MAX_WAIT_FOR_CONNECTION = 10000; // 10s
+    private static final String SPOOL_PREFIX = "spool-";
+    private static final String SPOOL_SUFFIX = ".dat";
+
+    private final ConnectionPool cPool;
+    private final File spoolDir;
+    private final int workers;
+
+    /**
+     * Queued operations by their coalescing ID (in insertion order).
+     */
+    private LinkedHashMap<String, QueuedOp> pending = new LinkedHashMap<String, QueuedOp>();
+    /**
+     * Spool files whose operations are all contained in {@link #pending}
+     * (including the current one).
+     */
+    private List<File> pendingSpools = new ArrayList<File>();
+    private File curSpoolFile = null;
+    private ObjectOutputStream curSpool = null;
+    private long nextSpoolId = 0;
+
+    private ScheduledExecutorService flusher = null;
+    private ExecutorService workerPool = null;
+
+    /**
+     * Creates a new (stopped) write-behind queue.
+     *
+     * @param cPool
+     *            the connection pool to get connections for flushing from
+     * @param spoolDir
+     *            directory to spool queued operations to (will be created if
+     *            it does not exist)
+     * @param workers
+     *            number of threads executing the batched transactions
+     */
+    public WriteBehindQueue(final ConnectionPool cPool, final File spoolDir,
+            final int workers) {
+        this.cPool = cPool;
+        this.spoolDir = spoolDir;
+        this.workers = workers;
+    }
+
+    /**
+     * Queues an increment of a number.
+     *
+     * @param opType    the type of the operation
+     * @param key       the key of the value to increment
+     * @param toAdd     the value to increment by
+     * @param belongsTo the object this number belongs to, e.g. a page title to
+     *                  determine the partition the value gets added to
+     *
+     * @see MyScalarisOpExecWrapper#addIncrement(ScalarisOpType, String, Number, Object)
+     */
+    public void addIncrement(final ScalarisOpType opType, final String key,
+            final int toAdd, final String belongsTo) {
+        enqueue(new IncrementOp(opType, key, toAdd, belongsTo));
+    }
+
+    /**
+     * Queues a list append operation.
+     *
+     * @param opType      the type of the operation
+     * @param key         the key to append the value to
+     * @param toAdd       the value to add (must be serialisable)
+     * @param countOpType the type of the countKey operation (may be the same
+     *                    as <tt>opType</tt> or <tt>null</tt> if
+     *                    <tt>countKey</tt> is)
+     * @param countKey    the key for the counter of the entries in the list
+     *                    (may be <tt>null</tt>)
+     *
+     * @see MyScalarisOpExecWrapper#addAppend(ScalarisOpType, String, Object, ScalarisOpType, String)
+     */
+    public void addAppend(final ScalarisOpType opType, final String key,
+            final Object toAdd, final ScalarisOpType countOpType,
+            final String countKey) {
+        enqueue(new AppendOp(opType, key, toAdd, countOpType, countKey));
+    }
+
+    /**
+     * Gets the number of (coalesced) operations waiting to be flushed.
+     *
+     * @return number of queued operations
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Re-queues operations from existing spool files and starts flushing the
+     * queue periodically.
+     *
+     * @param delay
+     *            time (in milliseconds) between two flushes
+     */
+    public synchronized void start(final int delay) {
+        if (flusher != null) {
+            return;
+        }
+        recover();
+        workerPool = Executors.newFixedThreadPool(workers);
+        flusher = Executors.newSingleThreadScheduledExecutor();
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops flushing the queue periodically and tries to flush all queued
+     * operations one last time. Operations which could not be written
+     * remain in the spool directory.
+     */
+    public void stop() {
+        final ScheduledExecutorService flusher0;
+        synchronized (this) {
+            flusher0 = flusher;
+            flusher = null;
+        }
+        if (flusher0 == null) {
+            return;
+        }
+        flusher0.shutdown();
+        try {
+            flusher0.awaitTermination(MAX_WAIT_FOR_CONNECTION, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (this) {
+            workerPool.shutdown();
+            workerPool = null;
+            closeSpool();
+        }
+    }
+
+    /**
+     * Writes all currently queued operations in batches of at most
+     * {@link #MAX_OPS_PER_TX} operations, each in its own transaction.
+     * Operations of failed batches are queued again.
+     *
+     * @return the number of successfully written (coalesced) operations
+     */
+    public int flush() {
+        final List<QueuedOp> ops;
+        final List<File> spools;
+        final ExecutorService workerPool0;
+        synchronized (this) {
+            if (pending.isEmpty() || workerPool == null) {
+                return 0;
+            }
+            ops = new ArrayList<QueuedOp>(pending.values());
+            pending = new LinkedHashMap<String, QueuedOp>();
+            closeSpool();
+            spools = pendingSpools;
+            pendingSpools = new ArrayList<File>();
+            workerPool0 = workerPool;
+        }
+
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        final List<List<QueuedOp>> batches = new ArrayList<List<QueuedOp>>();
+        for (int i = 0; i < ops.size(); i += MAX_OPS_PER_TX) {
+            final List<QueuedOp> batch = ops.subList(i,
+                    Math.min(i + MAX_OPS_PER_TX, ops.size()));
+            batches.add(batch);
+            results.add(workerPool0.submit(new BatchWriter(batch)));
+        }
+
+        int written = 0;
+        final List<QueuedOp> failed = new ArrayList<QueuedOp>();
+        for (int i = 0; i < batches.size(); ++i) {
+            boolean success = false;
+            try {
+                success = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+            }
+            if (success) {
+                written += batches.get(i).size();
+            } else {
+                failed.addAll(batches.get(i));
+            }
+        }
+
+        synchronized (this) {
+            for (QueuedOp op : failed) {
+                if (++op.failures >= MAX_FAILURES) {
+                    System.err.println("write-behind: dropping " + op);
+                } else {
+                    merge(op);
+                    spool(op);
+                }
+            }
+        }
+        // failed ops are in the current spool now
+        for (File spool : spools) {
+            spool.delete();
+        }
+        return written;
+    }
+
+    /**
+     * Adds an operation to the spool and the queue.
+     *
+     * @param op
+     *            the operation to queue
+     */
+    private synchronized void enqueue(final QueuedOp op) {
+        spool(op);
+        merge(op);
+    }
+
+    /**
+     * Merges an operation into a queued operation with the same coalescing
+     * ID or queues it if there is none.
+     *
+     * @param op
+     *            the operation to merge
+     */
+    private void merge(final QueuedOp op) {
+        final String id = op.getId();
+        final QueuedOp queued = pending.get(id);
+        if (queued == null) {
+            pending.put(id, op);
+        } else {
+            queued.merge(op);
+        }
+    }
+
+    /**
+     * Writes the given operation to the current spool file (creating it if
+     * necessary).
+     *
+     * @param op
+     *            the operation to spool
+     */
+    private void spool(final QueuedOp op) {
+        try {
+            if (curSpool == null) {
+                spoolDir.mkdirs();
+                curSpoolFile = new File(spoolDir, SPOOL_PREFIX
+                        + System.currentTimeMillis() + "-" + (nextSpoolId++)
+                        + SPOOL_SUFFIX);
+                curSpool = new ObjectOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(curSpoolFile)));
+                pendingSpools.add(curSpoolFile);
+            }
+            curSpool.writeObject(op);
+            curSpool.reset();
+            curSpool.flush();
+        } catch (IOException e) {
+            System.err.println("write-behind: cannot spool " + op + ": " + e.getMessage());
+            closeSpool();
+        }
+    }
+
+    /**
+     * Closes the current spool file (if open).
+     */
+    private void closeSpool() {
+        if (curSpool != null) {
+            try {
+                curSpool.close();
+            } catch (IOException e) {
+            }
+            curSpool = null;
+            curSpoolFile = null;
+        }
+    }
+
+    /**
+     * Queues all operations of existing spool files, writes them to a new
+     * spool file and deletes the old files.
+     */
+    private void recover() {
+        final File[] files = spoolDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SPOOL_PREFIX) && name.endsWith(SPOOL_SUFFIX);
+            }
+        });
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files);
+        int recovered = 0;
+        for (File file : files) {
+            ObjectInputStream in = null;
+            try {
+                in = new ObjectInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+                while (true) {
+                    final QueuedOp op = (QueuedOp) in.readObject();
+                    spool(op);
+                    merge(op);
+                    ++recovered;
+                }
+            } catch (IOException e) {
+                // end of file or an incompletely written last operation
+            } catch (ClassNotFoundException e) {
+                System.err.println("write-behind: invalid spool file " + file);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+        if (curSpool != null) {
+            // all recovered operations are in the current spool now
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        System.out.println("write-behind: re-queued " + recovered + " operations");
+    }
+
+    /**
+     * Writes a batch of operations in a single transaction.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private class BatchWriter implements java.util.concurrent.Callable<Boolean> {
+        private final List<QueuedOp> batch;
+
+        public BatchWriter(final List<QueuedOp> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public Boolean call() {
+            Connection connection = null;
+            try {
+                connection = cPool.getConnection(MAX_WAIT_FOR_CONNECTION);
+                if (connection == null) {
+                    return false;
+                }
+                final MyScalarisTxOpExecutor executor0 = new MyScalarisTxOpExecutor(
+                        new Transaction(connection), new ArrayList<InvolvedKey>());
+                executor0.setCommitLast(true);
+                final MyScalarisOpExecWrapper executor = new MyScalarisOpExecWrapper(
+                        executor0);
+                for (QueuedOp op : batch) {
+                    op.addTo(executor);
+                }
+                executor.getExecutor().run();
+                return true;
+            } catch (Exception e) {
+                return false;
+            } finally {
+                if (connection != null) {
+                    cPool.releaseConnection(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * A queued operation.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private static abstract class QueuedOp implements Serializable {
+        private static final long serialVersionUID = 1L;
+        protected final ScalarisOpType opType;
+        protected final String key;
+        /**
+         * Number of failed attempts to write this operation.
+         */
+        protected transient int failures = 0;
+
+        protected QueuedOp(final ScalarisOpType opType, final String key) {
+            this.opType = opType;
+            this.key = key;
+        }
+
+        /**
+         * Gets an ID which is equal for all operations which can be merged.
+         *
+         * @return the coalescing ID
+         */
+        public abstract String getId();
+
+        /**
+         * Merges the given operation (with the same ID) into this one.
+         *
+         * @param other
+         *            the operation to merge
+         */
+        public abstract void merge(QueuedOp other);
+
+        /**
+         * Adds the operation to the given executor.
+         *
+         * @param executor
+         *            the executor to use
+         */
+        public abstract void addTo(MyScalarisOpExecWrapper executor);
+    }
+
+    /**
+     * A queued increment operation.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private static class IncrementOp extends QueuedOp {
+        private static final long serialVersionUID = 1L;
+        private int toAdd;
+        private final String belongsTo;
+
+        public IncrementOp(final ScalarisOpType opType, final String key,
+                final int toAdd, final String belongsTo) {
+            super(opType, key);
+            this.toAdd = toAdd;
+            this.belongsTo = belongsTo;
+        }
+
+        @Override
+        public String getId() {
+            return "inc:" + opType + ":" + key + ":" + belongsTo;
+        }
+
+        @Override
+        public void merge(QueuedOp other) {
+            toAdd += ((IncrementOp) other).toAdd;
+            failures = Math.max(failures, other.failures);
+        }
+
+        @Override
+        public void addTo(MyScalarisOpExecWrapper executor) {
+            executor.addIncrement(opType, key, toAdd, belongsTo);
+        }
+
+        @Override
+        public String toString() {
+            return "increment(" + opType + ", " + key + ", " + toAdd + ")";
+        }
+    }
+
+    /**
+     * A queued list append operation.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private static class AppendOp extends QueuedOp {
+        private static final long serialVersionUID = 1L;
+        private final ArrayList<Object> toAdd;
+        private final ScalarisOpType countOpType;
+        private final String countKey;
+
+        public AppendOp(final ScalarisOpType opType, final String key,
+                final Object toAdd, final ScalarisOpType countOpType,
+                final String countKey) {
+            super(opType, key);
+            this.toAdd = new ArrayList<Object>(1);
+            this.toAdd.add(toAdd);
+            this.countOpType = countOpType;
+            this.countKey = countKey;
+        }
+
+        @Override
+        public String getId() {
+            return "app:" + opType + ":" + key + ":" + countOpType + ":" + countKey;
+        }
+
+        @Override
+        public void merge(QueuedOp other) {
+            toAdd.addAll(((AppendOp) other).toAdd);
+            failures = Math.max(failures, other.failures);
+        }
+
+        @Override
+        public void addTo(MyScalarisOpExecWrapper executor) {
+            executor.addAppendRemove(opType, key, toAdd,
+                    new ArrayList<Object>(0), countOpType, countKey);
+        }
+
+        @Override
+        public String toString() {
+            return "append(" + opType + ", " + key + ", " + toAdd + ")";
+        }
+    }
+}
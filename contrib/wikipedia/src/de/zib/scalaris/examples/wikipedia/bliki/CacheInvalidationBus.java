@@ -0,0 +1,352 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.bliki;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.zib.scalaris.Connection;
+import de.zib.scalaris.ConnectionPool;
+import de.zib.scalaris.PubSub;
+
+/**
+ * Broadcasts changed pages to all wiki servlets subscribed to the same
+ * Scalaris pub/sub topic so that they can keep their caches coherent.
+ *
+ * Each bus publishes <tt>(title, revision id)</tt> tuples after successful
+ * saves and receives the notifications of all other instances via the
+ * JSON-RPC <tt>notify</tt> calls of <tt>api_pubsub</tt> through an
+ * embedded HTTP server. Notifications sent by this bus itself are ignored.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class CacheInvalidationBus {
+    /**
+     * Pub/sub topic all notifications are published at.
+     */
+    public static final String TOPIC = "wiki:cache_invalidation";
+    private static final int MAX_WAIT_FOR_CONNECTION = 10000; // 10s
+
+    /**
+     * Receives notifications about changed pages.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static interface Listener {
+        /**
+         * Will be called if a page has been changed by another wiki
+         * instance.
+         *
+         * @param title
+         *            the (normalised) title of the changed page
+         * @param revId
+         *            the ID of the page's new revision
+         */
+        public abstract void onPageChanged(NormalisedTitle title, int revId);
+    }
+
+    private final ConnectionPool cPool;
+    private final URL url;
+    private final Listener listener;
+    private final String senderId = new BigInteger(64, new Random()).toString(16);
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor();
+    private HttpServer server = null;
+
+    /**
+     * Creates a new (stopped) invalidation bus.
+     *
+     * @param cPool
+     *            the connection pool to get connections for publishing from
+     * @param url
+     *            the URL to receive notifications at (this bus' HTTP server
+     *            will listen at its port and path)
+     * @param listener
+     *            listener for changes from other wiki instances
+     *
+     * @throws MalformedURLException
+     *             if the URL is invalid
+     */
+    public CacheInvalidationBus(final ConnectionPool cPool, final String url,
+            final Listener listener) throws MalformedURLException {
+        this.cPool = cPool;
+        this.url = new URL(url);
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the embedded HTTP server and subscribes its URL to
+     * {@link #TOPIC}.
+     *
+     * @throws IOException
+     *             if the HTTP server could not be started
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(url.getPath().isEmpty() ? "/" : url.getPath(),
+                new NotifyHandler());
+        server.start();
+
+        Connection connection = null;
+        try {
+            connection = cPool.getConnection(MAX_WAIT_FOR_CONNECTION);
+            if (connection == null) {
+                throw new IOException("could not get a connection to Scalaris, waited " + MAX_WAIT_FOR_CONNECTION + "ms");
+            }
+            new PubSub(connection).subscribe(TOPIC, url.toString());
+        } catch (IOException e) {
+            stopServer();
+            throw e;
+        } catch (Exception e) {
+            stopServer();
+            throw new IOException("could not subscribe " + url + " to " + TOPIC + ": " + e.getMessage(), e);
+        } finally {
+            if (connection != null) {
+                cPool.releaseConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes from {@link #TOPIC} and stops the embedded HTTP server as
+     * well as publishing notifications.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        Connection connection = null;
+        try {
+            connection = cPool.getConnection(MAX_WAIT_FOR_CONNECTION);
+            if (connection != null) {
+                new PubSub(connection).unsubscribe(TOPIC, url.toString());
+            }
+        } catch (Exception e) {
+            System.err.println("could not unsubscribe " + url + " from " + TOPIC + ": " + e.getMessage());
+        } finally {
+            if (connection != null) {
+                cPool.releaseConnection(connection);
+            }
+        }
+        stopServer();
+        publisher.shutdown();
+    }
+
+    private void stopServer() {
+        server.stop(0);
+        server = null;
+    }
+
+    /**
+     * Publishes a changed page to all other wiki instances (asynchronously).
+     *
+     * @param title
+     *            the (normalised) title of the changed page
+     * @param revId
+     *            the ID of the page's new revision
+     */
+    public void publish(final NormalisedTitle title, final int revId) {
+        final String content = createContent(senderId, title, revId);
+        publisher.execute(new Runnable() {
+            @Override
+            public void run() {
+                Connection connection = null;
+                try {
+                    connection = cPool.getConnection(MAX_WAIT_FOR_CONNECTION);
+                    if (connection != null) {
+                        new PubSub(connection).publish(TOPIC, content);
+                    }
+                } catch (Exception e) {
+                    System.err.println("could not publish " + content + " to " + TOPIC + ": " + e.getMessage());
+                } finally {
+                    if (connection != null) {
+                        cPool.releaseConnection(connection);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes a notification of the pub/sub system and informs the
+     * listener about pages changed by other wiki instances.
+     *
+     * @param topic
+     *            the topic the notification was published at
+     * @param content
+     *            the notification's content
+     *
+     * @return <tt>true</tt> if the notification was valid, <tt>false</tt>
+     *         otherwise
+     */
+    public boolean notify(final String topic, final String content) {
+        if (!TOPIC.equals(topic)) {
+            return false;
+        }
+        final String[] parts = content.split(" ", 3);
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            if (!parts[0].equals(senderId)) {
+                final int revId = Integer.parseInt(parts[1]);
+                final NormalisedTitle title = NormalisedTitle
+                        .fromNormalised(URLDecoder.decode(parts[2], "UTF-8"));
+                listener.onPageChanged(title, revId);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the content of a notification.
+     *
+     * Note: <tt>api_pubsub</tt> does not JSON-encode non-ASCII strings
+     * properly, we therefore only send ASCII characters.
+     *
+     * @param senderId
+     *            the ID of the sending bus
+     * @param title
+     *            the (normalised) title of the changed page
+     * @param revId
+     *            the ID of the page's new revision
+     *
+     * @return <tt>senderId revId urlEncodedTitle</tt>
+     */
+    static String createContent(final String senderId,
+            final NormalisedTitle title, final int revId) {
+        try {
+            return senderId + " " + revId + " "
+                    + URLEncoder.encode(title.toString(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Extracts the (string) parameters of a JSON-RPC call.
+     *
+     * @param request
+     *            the JSON-RPC request
+     *
+     * @return the parameters or <tt>null</tt> if the request could not be
+     *         parsed
+     */
+    static List<String> parseJsonRpcParams(final String request) {
+        final int paramsIdx = request.indexOf("\"params\"");
+        if (paramsIdx == -1) {
+            return null;
+        }
+        int i = request.indexOf('[', paramsIdx);
+        if (i == -1) {
+            return null;
+        }
+        final List<String> params = new ArrayList<String>(2);
+        final StringBuilder sb = new StringBuilder();
+        ++i;
+        while (i < request.length()) {
+            char c = request.charAt(i);
+            if (c == ']') {
+                return params;
+            } else if (c == '"') {
+                sb.setLength(0);
+                for (++i; i < request.length() && (c = request.charAt(i)) != '"'; ++i) {
+                    if (c == '\\' && i + 1 < request.length()) {
+                        c = request.charAt(++i);
+                        switch (c) {
+                            case 'b': sb.append('\b'); break;
+                            case 'f': sb.append('\f'); break;
+                            case 'n': sb.append('\n'); break;
+                            case 'r': sb.append('\r'); break;
+                            case 't': sb.append('\t'); break;
+                            case 'u':
+                                if (i + 4 >= request.length()) {
+                                    return null;
+                                }
+                                sb.append((char) Integer.parseInt(request.substring(i + 1, i + 5), 16));
+                                i += 4;
+                                break;
+                            default: sb.append(c);
+                        }
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                params.add(sb.toString());
+            }
+            ++i;
+        }
+        return null;
+    }
+
+    /**
+     * Handles the JSON-RPC <tt>notify</tt> calls of the pub/sub system.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private class NotifyHandler implements HttpHandler {
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            final InputStream is = exchange.getRequestBody();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buf = new byte[1024];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                body.write(buf, 0, read);
+            }
+            is.close();
+
+            final List<String> params = parseJsonRpcParams(body.toString("ISO-8859-1"));
+            final byte[] response;
+            if (params != null && params.size() == 2
+                    && CacheInvalidationBus.this.notify(params.get(0), params.get(1))) {
+                response = "{\"jsonrpc\":\"2.0\",\"result\":\"ok\",\"id\":null}".getBytes("UTF-8");
+            } else {
+                response = "{\"jsonrpc\":\"2.0\",\"error\":\"invalid notification\",\"id\":null}".getBytes("UTF-8");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            final OutputStream os = exchange.getResponseBody();
+            os.write(response);
+            os.close();
+        }
+    }
+}
@@ -16,15 +16,19 @@
 package de.zib.scalaris.examples.wikipedia.bliki;
 
 import java.security.InvalidParameterException;
+import java.util.AbstractSet;
 import java.util.Collection;
-import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
 
 import com.skjegstad.utils.BloomFilter;
 
 import de.zib.scalaris.examples.wikipedia.Options;
 import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace.NamespaceEnum;
+import de.zib.tools.IntArrayList;
 
 /**
  * Base class for a cache for set of the existing pages. This class provides no
@@ -90,6 +94,9 @@ public class ExistingPagesCache {
     /**
      * Add the given page title to the pages cache.
      * 
+     * Implementations are thread-safe, i.e. a cache may be filled from
+     * multiple threads.
+     * 
      * @param element
      *            page title to add
      */
@@ -157,6 +164,67 @@ public class ExistingPagesCache {
         return new HashSet<NormalisedTitle>(0);
     }
 
+    /**
+     * Gets the IDs of all titles of the given namespace in the
+     * {@link #getTitleTable()} (a compact alternative to
+     * {@link #getList(NamespaceEnum)}).
+     * 
+     * Be sure to check for this capability with {@link #hasFullList()}!
+     * 
+     * @param ns
+     *            the namespace to get page titles for
+     * 
+     * @return a list of title IDs
+     * 
+     * @see #hasFullList()
+     */
+    public IntArrayList getIdList(NamespaceEnum ns) {
+        return new IntArrayList(0);
+    }
+
+    /**
+     * Gets the table mapping the IDs of {@link #getIdList(NamespaceEnum)} to
+     * titles.
+     * 
+     * Be sure to check for this capability with {@link #hasFullList()}!
+     * 
+     * @return a title table (empty if there is no full list)
+     * 
+     * @see #hasFullList()
+     */
+    public TitleTable getTitleTable() {
+        return new TitleTable();
+    }
+
+    /**
+     * Gets whether the pages cache implementation supports
+     * {@link #getRandom(NamespaceEnum, Random)}.
+     * 
+     * @return support for {@link #getRandom(NamespaceEnum, Random)}
+     */
+    public boolean hasRandom() {
+        return false;
+    }
+
+    /**
+     * Gets a random page title in the given namespace (in constant time).
+     * 
+     * Be sure to check for this capability with {@link #hasRandom()}!
+     * 
+     * @param ns
+     *            the namespace to get a page title for
+     * @param random
+     *            the random number generator to use
+     * 
+     * @return a page title or <tt>null</tt> if there is no page in the
+     *         namespace
+     * 
+     * @see #hasRandom()
+     */
+    public NormalisedTitle getRandom(NamespaceEnum ns, Random random) {
+        return null;
+    }
+
     /**
      * Existing pages cache using bloom filters.
      * 
@@ -181,12 +249,12 @@ public class ExistingPagesCache {
         }
 
         @Override
-        public void add(NormalisedTitle element) {
+        public synchronized void add(NormalisedTitle element) {
             bloom.add(element);
         }
 
         @Override
-        public void addAll(Collection<? extends NormalisedTitle> elements) {
+        public synchronized void addAll(Collection<? extends NormalisedTitle> elements) {
             bloom.addAll(elements);
         }
 
@@ -202,18 +270,20 @@ public class ExistingPagesCache {
     }
 
     /**
-     * Existing pages cache using a hash set to cache the full list.
+     * Existing pages cache keeping the full list of titles in a
+     * {@link TitleTable}.
+     * 
+     * Since the table numbers the titles of each namespace densely in the
+     * order they were added and titles are never removed from the cache,
+     * random pages can be selected in constant time and each title is only
+     * stored once.
      * 
      * @author Nico Kruber, kruber@zib.de
      */
     public static class ExistingPagesCacheFull extends ExistingPagesCache {
-        protected final EnumMap<NamespaceEnum, Set<NormalisedTitle>> cache = new EnumMap<NamespaceEnum, Set<NormalisedTitle>>(
-                NamespaceEnum.class);
+        protected final TitleTable titles = new TitleTable();
 
         protected ExistingPagesCacheFull(int size) {
-            for (NamespaceEnum ns : NamespaceEnum.values()) {
-                cache.put(ns, new HashSet<NormalisedTitle>());
-            }
         }
 
         protected ExistingPagesCacheFull(
@@ -224,7 +294,7 @@ public class ExistingPagesCache {
 
         @Override
         public void add(NormalisedTitle element) {
-            cache.get(NamespaceEnum.fromId(element.namespace)).add(element);
+            titles.intern(element);
         }
 
         @Override
@@ -241,7 +311,7 @@ public class ExistingPagesCache {
         
         @Override
         public boolean contains(NormalisedTitle element) {
-            return cache.get(NamespaceEnum.fromId(element.namespace)).contains(element);
+            return titles.contains(element);
         }
 
         @Override
@@ -249,9 +319,79 @@ public class ExistingPagesCache {
             return true;
         }
 
+        /**
+         * Gets a (read-only) view of the titles of the given namespace.
+         * 
+         * @param ns
+         *            the namespace
+         * 
+         * @return a set of page titles
+         */
         @Override
-        public Set<NormalisedTitle> getList(NamespaceEnum ns) {
-            return cache.get(ns);
+        public Set<NormalisedTitle> getList(final NamespaceEnum ns) {
+            return new AbstractSet<NormalisedTitle>() {
+                @Override
+                public Iterator<NormalisedTitle> iterator() {
+                    final int size = size();
+                    return new Iterator<NormalisedTitle>() {
+                        private int pos = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return pos < size;
+                        }
+
+                        @Override
+                        public NormalisedTitle next() {
+                            if (pos >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            return titles.get(titles.getIdAt(ns.getId(), pos++));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return (o instanceof NormalisedTitle)
+                            && ((NormalisedTitle) o).namespace.intValue() == ns.getId()
+                            && titles.contains((NormalisedTitle) o);
+                }
+
+                @Override
+                public int size() {
+                    return titles.size(ns.getId());
+                }
+            };
+        }
+
+        @Override
+        public IntArrayList getIdList(NamespaceEnum ns) {
+            return titles.getIds(ns.getId());
+        }
+
+        @Override
+        public TitleTable getTitleTable() {
+            return titles;
+        }
+
+        @Override
+        public boolean hasRandom() {
+            return true;
+        }
+
+        @Override
+        public NormalisedTitle getRandom(NamespaceEnum ns, Random random) {
+            final int size = titles.size(ns.getId());
+            if (size == 0) {
+                return null;
+            }
+            return titles.get(titles.getIdAt(ns.getId(), random.nextInt(size)));
         }
     }
 }
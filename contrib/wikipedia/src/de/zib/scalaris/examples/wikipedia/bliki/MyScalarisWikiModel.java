@@ -15,9 +15,13 @@
  */
 package de.zib.scalaris.examples.wikipedia.bliki;
 
+import java.util.Collection;
+import java.util.Map;
+
 import de.zib.scalaris.Connection;
 import de.zib.scalaris.examples.wikipedia.RevisionResult;
 import de.zib.scalaris.examples.wikipedia.ScalarisDataHandlerNormalised;
+import de.zib.scalaris.examples.wikipedia.ValueResult;
 
 /**
  * Wiki model using Scalaris to fetch (new) data, e.g. templates.
@@ -93,4 +97,10 @@ public class MyScalarisWikiModel extends MyWikiModel {
         return ScalarisDataHandlerNormalised.getRevision(connection, pageName);
     }
 
+    @Override
+    protected ValueResult<Map<NormalisedTitle, Boolean>> pagesExistInDB(
+            Collection<NormalisedTitle> titles) {
+        return ScalarisDataHandlerNormalised.pagesExist(connection, titles);
+    }
+
 }
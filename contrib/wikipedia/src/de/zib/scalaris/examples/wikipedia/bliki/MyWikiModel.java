@@ -43,7 +43,9 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang.StringEscapeUtils;
 
 import de.zib.scalaris.examples.wikipedia.InvolvedKey;
+import de.zib.scalaris.examples.wikipedia.RequestTracer;
 import de.zib.scalaris.examples.wikipedia.RevisionResult;
+import de.zib.scalaris.examples.wikipedia.ValueResult;
 import de.zib.tools.LinkedMultiHashMap;
 
 /**
@@ -159,6 +161,24 @@ public class MyWikiModel extends WikiModel {
 
     protected Map<NormalisedTitle, String> pageCache = new HashMap<NormalisedTitle, String>();
 
+    /**
+     * Existence of internal link targets as determined by
+     * {@link #checkLinkTargets(String)} before rendering a page (not reset
+     * in {@link #setUp()} since the parser calls it during rendering).
+     */
+    protected Map<NormalisedTitle, Boolean> pageExistsCache = new HashMap<NormalisedTitle, Boolean>();
+
+    /**
+     * Maximum number of link targets to check in the DB (in a single
+     * request) before rendering a page.
+     */
+    protected static final int MAX_LINK_TARGETS_TO_CHECK = 1000;
+
+    /**
+     * Pattern to extract internal link targets from a wiki text.
+     */
+    protected static final Pattern MATCH_WIKI_LINK_TARGET = Pattern.compile("\\[\\[\\s*(:?[^\\[\\]|#{}<>\\n]+)");
+
     /**
      * Text of the page to render, i.e. given to
      * {@link #renderPageWithCache(String)} or
@@ -520,7 +540,16 @@ public class MyWikiModel extends WikiModel {
         } else if (hasDBConnection()) {
             String text = null;
             // System.out.println("retrievePage(" + namespace + ", " + articleName + ")");
-            RevisionResult getRevResult = getRevFromDB(pageName);
+            final RequestTracer.Span span = RequestTracer.startSpan("template", RequestTracer.CAT_WIKI);
+            if (span != null) {
+                span.addKey(pageName.toString());
+            }
+            RevisionResult getRevResult;
+            try {
+                getRevResult = getRevFromDB(pageName);
+            } finally {
+                RequestTracer.endSpan(span);
+            }
             addStats(getRevResult.stats);
             addInvolvedKeys(getRevResult.involvedKeys);
             if (getRevResult.success) {
@@ -580,6 +609,70 @@ public class MyWikiModel extends WikiModel {
                 false, title.toString(), 0l);
     }
 
+    protected ValueResult<Map<NormalisedTitle, Boolean>> pagesExistInDB(
+            Collection<NormalisedTitle> titles) {
+        return new ValueResult<Map<NormalisedTitle, Boolean>>(false,
+                new ArrayList<InvolvedKey>(), "no DB connection", true,
+                "PAGES_EXIST", 0l);
+    }
+
+    /**
+     * Collects the targets of all internal links in the given wiki text and
+     * determines their existence with a single DB request (see
+     * {@link #pagesExistInDB(Collection)}). The results are put into
+     * {@link #pageExistsCache} and used by
+     * {@link #appendInternalLink(String, String, String, String, boolean)}.
+     * 
+     * Only titles for which the {@link #existingPages} cache is not
+     * conclusive are checked, i.e. none if it has a full list and only the
+     * ones it (maybe falsely) contains if it is a bloom filter. Links
+     * created by templates are not found here and are resolved as before.
+     * 
+     * @param rawWikiText
+     *            the wiki text to render
+     */
+    protected void checkLinkTargets(String rawWikiText) {
+        pageExistsCache = new HashMap<NormalisedTitle, Boolean>();
+        if (rawWikiText == null || existingPages.hasFullList() || !hasDBConnection()) {
+            return;
+        }
+        final Set<NormalisedTitle> titles = new HashSet<NormalisedTitle>();
+        final Matcher matcher = MATCH_WIKI_LINK_TARGET.matcher(rawWikiText);
+        while (matcher.find() && titles.size() < MAX_LINK_TARGETS_TO_CHECK) {
+            String target = matcher.group(1).trim();
+            final boolean leadingColon = target.startsWith(":");
+            if (leadingColon) {
+                target = target.substring(1).trim();
+            }
+            if (target.isEmpty() || !isValidTitle(target)) {
+                continue;
+            }
+            final String[] nsTitle = splitAtColon(target);
+            final String ns = nsTitle[0].trim();
+            if (!ns.isEmpty()
+                    && (isInterWiki(ns) || isImageNamespace(ns) || isMediaNamespace(ns)
+                            || (!leadingColon && isCategoryNamespace(ns)))) {
+                // no page links
+                continue;
+            }
+            final NormalisedTitle title = normalisePageTitle(target);
+            if (pageExistsCache.containsKey(title) || pageCache.containsKey(title)
+                    || (existingPages.hasContains() && !existingPages.contains(title))) {
+                continue;
+            }
+            titles.add(title);
+        }
+        if (titles.isEmpty()) {
+            return;
+        }
+        final ValueResult<Map<NormalisedTitle, Boolean>> result = pagesExistInDB(titles);
+        addStats(result.stats);
+        addInvolvedKeys(result.involvedKeys);
+        if (result.success) {
+            pageExistsCache.putAll(result.value);
+        }
+    }
+
     /* (non-Javadoc)
      * @see info.bliki.wiki.model.AbstractWikiModel#encodeTitleToUrl(java.lang.String, boolean)
      */
@@ -716,8 +809,14 @@ public class MyWikiModel extends WikiModel {
             appendInterWikiLink(nsTitle[0], nsTitle[1], topicDescription, nsTitle[1].isEmpty() && topicDescription.equals(topic0));
         } else {
             boolean pageExists = true;
-            if (existingPages.hasContains()) {
-                pageExists = existingPages.contains(normalisePageTitle(topic0));
+            final NormalisedTitle title = normalisePageTitle(topic0);
+            final Boolean exists = pageExistsCache.get(title);
+            if (exists != null) {
+                pageExists = exists;
+            } else if (pageCache.containsKey(title)) {
+                pageExists = pageCache.get(title) != null;
+            } else if (existingPages.hasContains()) {
+                pageExists = existingPages.contains(title);
             }
             super.appendInternalLink(topic0, hashSection, topicDescription, cssClass, parseRecursive, pageExists);
         }
@@ -1081,6 +1180,12 @@ public class MyWikiModel extends WikiModel {
      */
     public String renderPageWithCache(ITextConverter converter, String rawWikiText) {
         renderWikiText = rawWikiText;
+        if (converter != null) {
+            // no need to check links if only analysing the wiki text
+            checkLinkTargets(rawWikiText);
+        } else {
+            pageExistsCache = new HashMap<NormalisedTitle, Boolean>();
+        }
         return super.render(converter, rawWikiText, true);
     }
 
@@ -1098,6 +1203,7 @@ public class MyWikiModel extends WikiModel {
      */
     public String renderPageWithCache(String rawWikiText) {
         renderWikiText = rawWikiText;
+        checkLinkTargets(rawWikiText);
         return super.render(new HTMLConverter(), rawWikiText, true);
     }
 }
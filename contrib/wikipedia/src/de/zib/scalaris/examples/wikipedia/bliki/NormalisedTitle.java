@@ -15,6 +15,10 @@ public class NormalisedTitle {
      * The page title without the namespace.
      */
     public final String title;
+    /**
+     * Cached hash code (<tt>0</tt> if not computed yet).
+     */
+    private int hash = 0;
     
     /**
      * Constructor.
@@ -137,6 +141,12 @@ public class NormalisedTitle {
     
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        // avoid creating the full title string for each hash lookup
+        int h = hash;
+        if (h == 0) {
+            h = 31 * namespace.intValue() + title.hashCode();
+            hash = h;
+        }
+        return h;
     }
 }
\ No newline at end of file
@@ -0,0 +1,493 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.bliki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import de.zib.tools.IntArrayList;
+import de.zib.tools.IntSet;
+
+/**
+ * Interning table for {@link NormalisedTitle} objects.
+ *
+ * Each title gets a compact (non-negative) <tt>int</tt> ID with the index of
+ * its namespace in the upper {@link #NS_BITS} bits and a per-namespace
+ * sequence number in the lower {@link #LOCAL_BITS} bits. Sets and lists of
+ * titles can thus be stored as {@link IntSet} or {@link IntArrayList} and
+ * each distinct title is kept as a single (pooled) object only.
+ *
+ * Titles are never removed. All methods are thread-safe; lookups do not
+ * lock, adding a title only locks its namespace.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class TitleTable {
+    /**
+     * Number of bits of an ID for the namespace index.
+     */
+    public static final int NS_BITS = 5;
+    /**
+     * Number of bits of an ID for the title inside its namespace.
+     */
+    public static final int LOCAL_BITS = 31 - NS_BITS;
+    /**
+     * Maximum number of namespaces in a table.
+     */
+    public static final int MAX_NAMESPACES = 1 << NS_BITS;
+    /**
+     * Maximum number of titles per namespace.
+     */
+    public static final int MAX_TITLES_PER_NAMESPACE = 1 << LOCAL_BITS;
+    /**
+     * ID returned for unknown titles.
+     */
+    public static final int NO_ID = -1;
+
+    private static final int LOCAL_MASK = MAX_TITLES_PER_NAMESPACE - 1;
+
+    /**
+     * Titles of a single namespace: a dense array of titles (index = local
+     * ID) and a hash index (open addressing with linear probing) of
+     * <tt>local ID + 1</tt> values (<tt>0</tt> marks a free slot).
+     *
+     * Only {@link #add(NormalisedTitle)} locks the table. Readers get a
+     * consistent view without locking by reading the volatile {@link #size}
+     * before the volatile {@link #storage}: all titles with a local ID below
+     * this size are then visible in the arrays (which are replaced when
+     * growing). Index slots of titles which are added concurrently are
+     * ignored.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    protected static class NamespaceTable {
+        /**
+         * The arrays of a table (replaced as a whole when growing).
+         */
+        private static final class Storage {
+            final NormalisedTitle[] titles;
+            final int[] index;
+
+            Storage(final NormalisedTitle[] titles, final int[] index) {
+                this.titles = titles;
+                this.index = index;
+            }
+        }
+
+        final Integer namespace;
+        private volatile Storage storage = new Storage(new NormalisedTitle[16], new int[32]);
+        private volatile int size = 0;
+
+        NamespaceTable(Integer namespace) {
+            this.namespace = namespace;
+        }
+
+        private static int hash(final String title) {
+            final int h = title.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Finds the slot of the given title or the free slot to put it into
+         * (only call while holding the lock).
+         */
+        private static int slot(final Storage cur, final String title) {
+            final int mask = cur.index.length - 1;
+            int pos = hash(title) & mask;
+            while (cur.index[pos] != 0 && !cur.titles[cur.index[pos] - 1].title.equals(title)) {
+                pos = (pos + 1) & mask;
+            }
+            return pos;
+        }
+
+        int find(final String title) {
+            final int curSize = size;
+            final Storage cur = storage;
+            final int mask = cur.index.length - 1;
+            int pos = hash(title) & mask;
+            int local;
+            while ((local = cur.index[pos] - 1) != -1) {
+                if (local >= curSize) {
+                    // added concurrently - the slot was free in our view and
+                    // thus ends the probe sequence
+                    return -1;
+                }
+                if (cur.titles[local].title.equals(title)) {
+                    return local;
+                }
+                pos = (pos + 1) & mask;
+            }
+            return -1;
+        }
+
+        synchronized int add(final NormalisedTitle title) {
+            Storage cur = storage;
+            final int pos = slot(cur, title.title);
+            if (cur.index[pos] != 0) {
+                return cur.index[pos] - 1;
+            }
+            final int local = size;
+            if (local == MAX_TITLES_PER_NAMESPACE) {
+                throw new IllegalStateException("too many titles in namespace "
+                        + namespace);
+            }
+            if (local == cur.titles.length) {
+                cur = new Storage(Arrays.copyOf(cur.titles, local << 1), cur.index);
+                storage = cur;
+            }
+            // pool the namespace object, too
+            cur.titles[local] = (title.namespace == namespace) ? title
+                    : new NormalisedTitle(namespace, title.title);
+            cur.index[pos] = local + 1;
+            // publishes the new title to readers
+            size = local + 1;
+            if ((local + 1) * 2 > cur.index.length) {
+                rehash(cur, local + 1);
+            }
+            return local;
+        }
+
+        private void rehash(final Storage cur, final int curSize) {
+            final Storage next = new Storage(cur.titles, new int[cur.index.length << 1]);
+            for (int local = 0; local < curSize; ++local) {
+                next.index[slot(next, cur.titles[local].title)] = local + 1;
+            }
+            storage = next;
+        }
+
+        NormalisedTitle get(final int local) {
+            final int curSize = size;
+            return local < curSize ? storage.titles[local] : null;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Namespace tables by namespace index (copy-on-write, only appended
+     * under the table's lock).
+     */
+    private volatile NamespaceTable[] namespaces = new NamespaceTable[0];
+
+    /**
+     * Creates an empty table.
+     */
+    public TitleTable() {
+    }
+
+    private int findNamespaceIndex(final int namespace) {
+        final NamespaceTable[] curNamespaces = namespaces;
+        for (int i = 0; i < curNamespaces.length; ++i) {
+            if (curNamespaces[i].namespace.intValue() == namespace) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized int addNamespace(final Integer namespace) {
+        int nsIdx = findNamespaceIndex(namespace);
+        if (nsIdx == -1) {
+            if (namespaces.length == MAX_NAMESPACES) {
+                throw new IllegalStateException("too many namespaces");
+            }
+            final NamespaceTable[] newNamespaces = Arrays.copyOf(namespaces,
+                    namespaces.length + 1);
+            nsIdx = namespaces.length;
+            newNamespaces[nsIdx] = new NamespaceTable(namespace);
+            namespaces = newNamespaces;
+        }
+        return nsIdx;
+    }
+
+    /**
+     * Gets the ID of the given title and adds it to the table if it is not
+     * in there yet.
+     *
+     * @param title
+     *            the title
+     *
+     * @return the title's ID
+     *
+     * @throws IllegalStateException
+     *             if the table is full
+     */
+    public int intern(final NormalisedTitle title) throws IllegalStateException {
+        int nsIdx = findNamespaceIndex(title.namespace);
+        if (nsIdx == -1) {
+            nsIdx = addNamespace(title.namespace);
+        }
+        return (nsIdx << LOCAL_BITS) | namespaces[nsIdx].add(title);
+    }
+
+    /**
+     * Parses the given normalised title (see
+     * {@link NormalisedTitle#fromNormalised(String)}) and gets its ID, adding
+     * it to the table if it is not in there yet.
+     *
+     * @param normTitleStr
+     *            a normalised title of the form <tt>namespace:title</tt>
+     *
+     * @return the title's ID
+     *
+     * @throws IllegalArgumentException
+     *             if the parameter string was not a normalised title
+     * @throws IllegalStateException
+     *             if the table is full
+     */
+    public int internNormalised(final String normTitleStr)
+            throws IllegalArgumentException, IllegalStateException {
+        return intern(NormalisedTitle.fromNormalised(normTitleStr));
+    }
+
+    /**
+     * Gets the pooled instance of the given title, i.e. the one stored in the
+     * table (adds the title if it is not in the table yet).
+     *
+     * @param title
+     *            the title
+     *
+     * @return an equal title object which is shared by all callers
+     *
+     * @throws IllegalStateException
+     *             if the table is full
+     */
+    public NormalisedTitle pool(final NormalisedTitle title)
+            throws IllegalStateException {
+        return get(intern(title));
+    }
+
+    /**
+     * Gets the ID of the given title without adding it to the table.
+     *
+     * @param title
+     *            the title
+     *
+     * @return the title's ID or {@link #NO_ID} if it is not in the table
+     */
+    public int getId(final NormalisedTitle title) {
+        final int nsIdx = findNamespaceIndex(title.namespace);
+        if (nsIdx == -1) {
+            return NO_ID;
+        }
+        final int local = namespaces[nsIdx].find(title.title);
+        return local == -1 ? NO_ID : (nsIdx << LOCAL_BITS) | local;
+    }
+
+    /**
+     * Checks whether the table contains the given title.
+     *
+     * @param title
+     *            the title
+     *
+     * @return <tt>true</tt> if the title is in the table
+     */
+    public boolean contains(final NormalisedTitle title) {
+        return getId(title) != NO_ID;
+    }
+
+    /**
+     * Gets the title with the given ID.
+     *
+     * @param id
+     *            an ID returned by this table
+     *
+     * @return the (pooled) title or <tt>null</tt> if there is no such ID
+     */
+    public NormalisedTitle get(final int id) {
+        final NamespaceTable[] curNamespaces = namespaces;
+        final int nsIdx = id >>> LOCAL_BITS;
+        if (id < 0 || nsIdx >= curNamespaces.length) {
+            return null;
+        }
+        return curNamespaces[nsIdx].get(id & LOCAL_MASK);
+    }
+
+    /**
+     * Gets the namespace number of the title with the given ID.
+     *
+     * @param id
+     *            an ID returned by this table
+     *
+     * @return the namespace number
+     *
+     * @throws IllegalArgumentException
+     *             if there is no such namespace
+     */
+    public int getNamespace(final int id) throws IllegalArgumentException {
+        final NamespaceTable[] curNamespaces = namespaces;
+        final int nsIdx = id >>> LOCAL_BITS;
+        if (id < 0 || nsIdx >= curNamespaces.length) {
+            throw new IllegalArgumentException("invalid ID: " + id);
+        }
+        return curNamespaces[nsIdx].namespace;
+    }
+
+    /**
+     * Gets the number of titles in the given namespace.
+     *
+     * @param namespace
+     *            the namespace number
+     *
+     * @return the number of titles
+     */
+    public int size(final int namespace) {
+        final int nsIdx = findNamespaceIndex(namespace);
+        return nsIdx == -1 ? 0 : namespaces[nsIdx].size();
+    }
+
+    /**
+     * Gets the number of titles in all namespaces.
+     *
+     * @return the number of titles
+     */
+    public int size() {
+        int result = 0;
+        for (NamespaceTable nsTable : namespaces) {
+            result += nsTable.size();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the ID of the title with the given position inside its namespace,
+     * i.e. titles of a namespace are numbered in the order they were added,
+     * starting at <tt>0</tt>.
+     *
+     * @param namespace
+     *            the namespace number
+     * @param position
+     *            the position inside the namespace
+     *
+     * @return the title's ID or {@link #NO_ID} if there is no such title
+     */
+    public int getIdAt(final int namespace, final int position) {
+        final int nsIdx = findNamespaceIndex(namespace);
+        if (nsIdx == -1 || position < 0 || position >= namespaces[nsIdx].size()) {
+            return NO_ID;
+        }
+        return (nsIdx << LOCAL_BITS) | position;
+    }
+
+    /**
+     * Gets the IDs of all titles in the given namespace (in the order they
+     * were added).
+     *
+     * @param namespace
+     *            the namespace number
+     *
+     * @return a list of IDs
+     */
+    public IntArrayList getIds(final int namespace) {
+        final int nsIdx = findNamespaceIndex(namespace);
+        if (nsIdx == -1) {
+            return new IntArrayList(0);
+        }
+        final int size = namespaces[nsIdx].size();
+        final IntArrayList result = new IntArrayList(size);
+        for (int local = 0; local < size; ++local) {
+            result.add((nsIdx << LOCAL_BITS) | local);
+        }
+        return result;
+    }
+
+    /**
+     * Converts the given titles to IDs (adding them to the table if
+     * necessary).
+     *
+     * @param titles
+     *            a collection of titles
+     *
+     * @return a list of IDs (in iteration order)
+     */
+    public IntArrayList toIdList(final Collection<? extends NormalisedTitle> titles) {
+        final IntArrayList result = new IntArrayList(titles.size());
+        for (NormalisedTitle title : titles) {
+            result.add(intern(title));
+        }
+        return result;
+    }
+
+    /**
+     * Converts the given titles to a set of IDs (adding them to the table if
+     * necessary).
+     *
+     * @param titles
+     *            a collection of titles
+     *
+     * @return a set of IDs
+     */
+    public IntSet toIdSet(final Collection<? extends NormalisedTitle> titles) {
+        final IntSet result = new IntSet(titles.size());
+        for (NormalisedTitle title : titles) {
+            result.add(intern(title));
+        }
+        return result;
+    }
+
+    /**
+     * Converts the given IDs to (pooled) titles.
+     *
+     * @param ids
+     *            a list of IDs
+     *
+     * @return a list of titles (in the same order)
+     */
+    public List<NormalisedTitle> toTitleList(final IntArrayList ids) {
+        final List<NormalisedTitle> result = new ArrayList<NormalisedTitle>(ids.size());
+        for (int i = 0; i < ids.size(); ++i) {
+            result.add(get(ids.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Converts the given IDs to (pooled) titles.
+     *
+     * @param ids
+     *            a set of IDs
+     *
+     * @return a list of titles (in no particular order)
+     */
+    public List<NormalisedTitle> toTitleList(final IntSet ids) {
+        final List<NormalisedTitle> result = new ArrayList<NormalisedTitle>(ids.size());
+        for (IntSet.Iterator it = ids.iterator(); it.hasNext();) {
+            result.add(get(it.next()));
+        }
+        return result;
+    }
+
+    /**
+     * Converts the given IDs to normalised title strings (see
+     * {@link NormalisedTitle#toString()}).
+     *
+     * @param ids
+     *            a list of IDs
+     *
+     * @return a list of normalised titles (in the same order)
+     */
+    public List<String> toNormalisedStrings(final IntArrayList ids) {
+        final List<String> result = new ArrayList<String>(ids.size());
+        for (int i = 0; i < ids.size(); ++i) {
+            result.add(get(ids.get(i)).toString());
+        }
+        return result;
+    }
+}
@@ -20,6 +20,7 @@ import info.bliki.api.User;
 import info.bliki.wiki.model.Configuration;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
@@ -29,7 +30,6 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.EnumMap;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -40,7 +40,11 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -61,8 +65,10 @@ import de.zib.scalaris.examples.wikipedia.InvolvedKey;
 import de.zib.scalaris.examples.wikipedia.NamespaceUtils;
 import de.zib.scalaris.examples.wikipedia.Options;
 import de.zib.scalaris.examples.wikipedia.PageHistoryResult;
+import de.zib.scalaris.examples.wikipedia.RequestTracer;
 import de.zib.scalaris.examples.wikipedia.RevisionResult;
 import de.zib.scalaris.examples.wikipedia.SavePageResult;
+import de.zib.scalaris.examples.wikipedia.UserRequestLog;
 import de.zib.scalaris.examples.wikipedia.ValueResult;
 import de.zib.scalaris.examples.wikipedia.WikiServletContext;
 import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace.NamespaceEnum;
@@ -121,7 +127,13 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
     
     protected List<WikiEventHandler> eventHandlers = new LinkedList<WikiEventHandler>();
     
-    protected ExistingPagesCache existingPages = ExistingPagesCache.createCache(100);
+    protected volatile ExistingPagesCache existingPages = ExistingPagesCache.createCache(100);
+
+    /**
+     * Maximum number of threads (and connections) reading page lists when
+     * re-building {@link #existingPages}.
+     */
+    protected static final int PAGES_CACHE_REBUILD_THREADS = 8;
 
     protected static final EnumMap<SpecialPage, String> SPECIAL_SUFFIX_EN = MyWikiModel.SPECIAL_SUFFIX.get("en");
     protected EnumMap<SpecialPage, String> SPECIAL_SUFFIX_LANG;
@@ -131,9 +143,11 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
      */
     protected final List<NormalisedTitle> specialPages;
     
-    protected static LinkedList<Map<String, Object>>[] userReqLogs = null;
-    protected static int curReqLog = 0;
-    protected static int curReqLogStartTime = 0;
+    /**
+     * Log of user requests (only set if {@link Options#LOG_USER_REQS} is
+     * larger than <tt>0</tt>).
+     */
+    protected static UserRequestLog userReqLog = null;
 
     /**
      * Creates the servlet. 
@@ -159,7 +173,6 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
      * Servlet initialisation: imports options from the servlet info, and
      * initialises it.
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final void init(ServletConfig config) throws ServletException {
         super.init(config);
@@ -172,12 +185,13 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
         startExistingPagesUpdate();
         existingPages.addAll(specialPages);
         if (Options.getInstance().LOG_USER_REQS > 0) {
-            userReqLogs = new LinkedList[Options.getInstance().LOG_USER_REQS];
-            for (int i = 0; i < userReqLogs.length; ++i) {
-                userReqLogs[i] = new LinkedList<Map<String, Object>>();
-            }
-            // integer resolution should be enough
-            curReqLogStartTime = (int) (System.currentTimeMillis() / 1000);
+            userReqLog = new UserRequestLog(Options.getInstance().LOG_USER_REQS,
+                    UserRequestLog.DEFAULT_RECORDS_PER_THREAD);
+        }
+        if (Options.getInstance().TRACE_USER_REQS > 0) {
+            RequestTracer.setInstance(new RequestTracer(
+                    Options.getInstance().TRACE_USER_REQS,
+                    RequestTracer.DEFAULT_CAPACITY));
         }
         
         startAutoImport();
@@ -205,11 +219,16 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
                 config.getInitParameter("WIKI_USE_BACKLINKS"),
                 config.getInitParameter("WIKI_SAVEPAGE_RETRIES"),
                 config.getInitParameter("WIKI_SAVEPAGE_RETRY_DELAY"),
+                config.getInitParameter("WIKI_SAVEPAGE_OPTIMISTIC_CACHE"),
                 config.getInitParameter("WIKI_PAGES_CACHE_IMPL"),
                 config.getInitParameter("WIKI_REBUILD_PAGES_CACHE"),
                 config.getInitParameter("WIKI_STORE_CONTRIBUTIONS"),
+                config.getInitParameter("WIKI_WRITE_BEHIND_DELAY"),
+                config.getInitParameter("WIKI_CACHE_INVALIDATION_URL"),
+                config.getInitParameter("WIKI_READ_SNAPSHOT"),
                 config.getInitParameter("WIKI_OPTIMISATIONS"),
                 config.getInitParameter("LOG_USER_REQS"),
+                config.getInitParameter("TRACE_USER_REQS"),
                 config.getInitParameter("SCALARIS_NODE_DISCOVERY"));
         System.out.println("Effective optimisations: " + options.OPTIMISATIONS.toString());
     }
@@ -333,6 +352,32 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
     public void destroy() {
     }
 
+    /**
+     * Traces the request if enabled by {@link Options#TRACE_USER_REQS} and
+     * the request is sampled.
+     * 
+     * @see javax.servlet.http.HttpServlet#service(HttpServletRequest request,
+     *      HttpServletResponse response)
+     */
+    @Override
+    protected void service(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+        final RequestTracer tracer = RequestTracer.getInstance();
+        if (tracer == null) {
+            super.service(request, response);
+            return;
+        }
+        final String query = request.getQueryString();
+        final RequestTracer.Trace trace = tracer.begin(request.getMethod()
+                + " " + request.getRequestURI()
+                + (query == null ? "" : "?" + query));
+        try {
+            super.service(request, response);
+        } finally {
+            tracer.end(trace);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -348,6 +393,15 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
             showImage(request, response, image);
             return;
         }
+        String userReqLogFormat = request.getParameter("get_user_req_log");
+        if (userReqLogFormat != null) {
+            showUserRequestLog(response, userReqLogFormat);
+            return;
+        }
+        if (request.getParameter("get_trace") != null) {
+            showTrace(response);
+            return;
+        }
 
         final String serviceUser = getParam(request, "service_user");
         
@@ -792,24 +846,12 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
         page.setTitle(title);
         final Random random = new Random();
         ValueResult<NormalisedTitle> result;
-        if (existingPages.hasFullList()) {
+        final NormalisedTitle randValue;
+        if (existingPages.hasRandom()
+                && (randValue = existingPages.getRandom(NamespaceEnum.MAIN_NAMESPACE_KEY, random)) != null) {
             final long timeAtStart = System.currentTimeMillis();
             final String statName = "RANDOM_PAGE";
             final List<InvolvedKey> involvedKeys = new ArrayList<InvolvedKey>();
-            final Set<NormalisedTitle> pages = existingPages.getList(NamespaceEnum.MAIN_NAMESPACE_KEY);
-            final int randIdx = random.nextInt(pages.size());
-            // no real other option to get a random element from a set :(
-            int i = 0;
-            NormalisedTitle randValue = null;
-            for (Iterator<NormalisedTitle> iterator = pages.iterator(); iterator.hasNext();) {
-                if (i == randIdx) {
-                    randValue = iterator.next();
-                    break;
-                } else {
-                    iterator.next();
-                }
-                ++i;
-            }
             result = new ValueResult<NormalisedTitle>(involvedKeys, randValue,
                     statName, System.currentTimeMillis() - timeAtStart);
         } else {
@@ -878,13 +920,34 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
         // get revision id to load:
         int req_oldid = getParam_oldid(request);
 
-        RevisionResult result = getRevision(connection, title, req_oldid, namespace);
+        RevisionResult result = getRevisionForView(connection, title, req_oldid, page);
         page.addStats(result.stats);
         page.getInvolvedKeys().addAll(result.involvedKeys);
         handleViewPage2(request, response, title, connection, page, req_oldid,
                 result);
     }
 
+    /**
+     * Retrieves the given version of a page for a page view. Sub-classes may
+     * serve (some) page views from a different source than
+     * {@link #getRevision(Object, String, int, MyNamespace)}.
+     * 
+     * @param connection
+     *            connection to the database
+     * @param title
+     *            the title of the page
+     * @param id
+     *            the id of the version (<tt>-1</tt> for the current version)
+     * @param page
+     *            the bean for the page
+     * 
+     * @return a result object with the page and revision on success
+     */
+    protected RevisionResult getRevisionForView(Connection connection,
+            String title, int id, WikiPageBean page) {
+        return getRevision(connection, title, id, namespace);
+    }
+
     private void handleViewPage2(HttpServletRequest request,
             HttpServletResponse response, String title, Connection connection,
             WikiPageBean page, int req_oldid, RevisionResult result)
@@ -964,7 +1027,13 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
         wikiModel.setNamespaceName(namespace.getNamespaceByNumber(titleN.namespace));
         wikiModel.setPageName(titleN.title);
         if (renderer > 0) {
-            String mainText = wikiModel.renderPageWithCache(result.revision.unpackedText());
+            final RequestTracer.Span span = RequestTracer.startSpan("render", RequestTracer.CAT_WIKI);
+            String mainText;
+            try {
+                mainText = wikiModel.renderPageWithCache(result.revision.unpackedText());
+            } finally {
+                RequestTracer.endSpan(span);
+            }
             if (titleN.namespace.equals(MyNamespace.CATEGORY_NAMESPACE_KEY)) {
                 ValueResult<List<NormalisedTitle>> catPagesResult = getPagesInCategory(connection, titleN);
                 page.addStats(catPagesResult.stats);
@@ -1897,7 +1966,7 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
             contributor.setIp(request.getRemoteAddr());
             String timestamp = Revision.calendarToString(Calendar.getInstance(TimeZone.getTimeZone("UTC")));
             Revision newRev = new Revision(-1, timestamp, minorChange, contributor, summary);
-            newRev.setUnpackedText(content);
+            newRev.setUnpackedText(content, NormalisedTitle.fromUnnormalised(title, namespace).namespace);
 
             SavePageResult result;
             int retries = 0;
@@ -1979,7 +2048,12 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
         String[] titleParts = wikiModel.splitNsTitle(title);
         wikiModel.setNamespaceName(titleParts[0]);
         wikiModel.setPageName(titleParts[1]);
-        page.setPreview(wikiModel.renderPageWithCache(content));
+        final RequestTracer.Span span = RequestTracer.startSpan("render preview", RequestTracer.CAT_WIKI);
+        try {
+            page.setPreview(wikiModel.renderPageWithCache(content));
+        } finally {
+            RequestTracer.endSpan(span);
+        }
         page.setIncludes(wikiModel.getIncludes());
         page.setTemplates(wikiModel.getTemplatesNoMagicWords());
         page.addStats(wikiModel.getStats());
@@ -2032,6 +2106,67 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
         response.sendRedirect(realImageUrl);
     }
 
+    /**
+     * Exports the user request log (if enabled by
+     * {@link Options#LOG_USER_REQS}).
+     * 
+     * @param response
+     *            the response of the current operation
+     * @param format
+     *            the export format, i.e. <tt>"bin"</tt> for the binary format
+     *            or CSV otherwise
+     * 
+     * @throws IOException
+     * 
+     * @see UserRequestLog#writeCsv(java.io.Writer)
+     * @see UserRequestLog#writeBinary(java.io.OutputStream)
+     */
+    private void showUserRequestLog(final HttpServletResponse response,
+            final String format) throws IOException {
+        final UserRequestLog log = userReqLog;
+        if (log == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "user request log disabled");
+        } else if (format.equals("bin")) {
+            response.setContentType("application/octet-stream");
+            final OutputStream out = response.getOutputStream();
+            log.writeBinary(out);
+            out.close();
+        } else {
+            response.setContentType("text/csv");
+            response.setCharacterEncoding("UTF-8");
+            final PrintWriter out = response.getWriter();
+            log.writeCsv(out);
+            out.close();
+        }
+    }
+
+    /**
+     * Exports the traces of the last sampled requests (if enabled by
+     * {@link Options#TRACE_USER_REQS}) in the Chrome trace event format.
+     * 
+     * @param response
+     *            the response of the current operation
+     * 
+     * @throws IOException
+     * 
+     * @see RequestTracer#writeChromeTrace(java.io.Writer)
+     */
+    private void showTrace(final HttpServletResponse response)
+            throws IOException {
+        final RequestTracer tracer = RequestTracer.getInstance();
+        if (tracer == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "request tracing disabled");
+        } else {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            final PrintWriter out = response.getWriter();
+            tracer.writeChromeTrace(out);
+            out.close();
+        }
+    }
+
     /**
      * Retrieves the URL of an image from the Wikipedia related to the base URL
      * of this wiki.
@@ -2300,24 +2435,86 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
 
     /**
      * Updates the bloom filter of existing pages for quick checks.
+     * 
+     * The page lists of all namespaces (and all their parts, see
+     * {@link #getPageListParts()}) are read in parallel, each with its own
+     * connection, and added to a new cache which replaces the old one only if
+     * all reads were successful.
      */
     protected void updateExistingPages() {
-        if (initialized) {
-            Connection connection = getConnection(null);
-            if (connection != null) {
-                try {
-                    ValueResult<List<NormalisedTitle>> result = getPageList(connection);
-                    if (result.success) {
-                        List<NormalisedTitle> pages = result.value;
-                        pages.addAll(specialPages);
-                        ExistingPagesCache filter = ExistingPagesCache.createCache(pages);
-                        existingPages = filter;
+        if (!initialized) {
+            return;
+        }
+        Connection connection = getConnection(null);
+        if (connection == null) {
+            return;
+        }
+        final ValueResult<BigInteger> countResult;
+        try {
+            countResult = getPageCount(connection);
+        } finally {
+            releaseConnection(null, connection);
+        }
+        if (!countResult.success) {
+            return;
+        }
+        final int expectedSize = countResult.value.intValue() + specialPages.size();
+        final ExistingPagesCache newCache = ExistingPagesCache
+                .createCache(expectedSize + expectedSize / 10);
+
+        final int parts = getPageListParts();
+        final NamespaceEnum[] namespaces = NamespaceEnum.values();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math
+                .min(PAGES_CACHE_REBUILD_THREADS, namespaces.length * parts));
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(
+                namespaces.length * parts);
+        for (final NamespaceEnum ns : namespaces) {
+            for (int i = 0; i < parts; ++i) {
+                final int part = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        Connection conn = getConnection(null);
+                        if (conn == null) {
+                            return false;
+                        }
+                        try {
+                            ValueResult<List<NormalisedTitle>> result = getPageList(
+                                    ns.getId(), part, conn);
+                            if (result.success) {
+                                newCache.addAll(result.value);
+                            }
+                            return result.success;
+                        } finally {
+                            releaseConnection(null, conn);
+                        }
                     }
-                } finally {
-                    releaseConnection(null, connection);
-                }
+                }));
+            }
+        }
+        executor.shutdown();
+
+        boolean success = true;
+        for (Future<Boolean> result : results) {
+            try {
+                success = result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                success = false;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                success = false;
+            }
+            if (!success) {
+                // no need to read the remaining lists
+                executor.shutdownNow();
+                break;
             }
         }
+        if (success) {
+            newCache.addAll(specialPages);
+            existingPages = newCache;
+        }
     }
     
     @Override
@@ -2335,37 +2532,18 @@ public abstract class WikiServlet<Connection> extends HttpServlet implements
             }
             releaseConnection(null, connection);
         }
-        if (userReqLogs != null && userReqLogs.length > 0) {
-            int timestamp_s = (int) (timestamp / 1000);
-            // build log entry:
-            Map<String, Object> entry = new HashMap<String, Object>();
-            entry.put("timestamp", timestamp_s);
-            entry.put("serviceuser", serviceUser == null ? "" : serviceUser);
-            entry.put("servertime", servertime);
-            
-            // get the correct bucket:
-            LinkedList<Map<String, Object>> curReqLogList;
-            synchronized (userReqLogs) {
-                curReqLogList = userReqLogs[curReqLog];
-                int diffInMin = (timestamp_s - curReqLogStartTime) / 60;
-                if (diffInMin > 0) {
-                    if (diffInMin > userReqLogs.length) {
-                        for (LinkedList<Map<String, Object>> log : userReqLogs) {
-                            log.clear();
-                        }
-                        curReqLog = 0;
-                        curReqLogList = userReqLogs[curReqLog];
-                    } else  {
-                        while ((curReqLogStartTime + 60) < timestamp_s) {
-                            curReqLogList = userReqLogs[curReqLog];
-                            curReqLogList.clear();
-                            curReqLog = (++curReqLog) % userReqLogs.length;
-                        }
+        final UserRequestLog log = userReqLog;
+        if (log != null) {
+            long dbTime = 0l;
+            for (Entry<String, List<Long>> stats : page.getStats().entrySet()) {
+                // exclude stats from previous operations, e.g. during random page view
+                if (!stats.getKey().endsWith(" (last op)")) {
+                    for (Long stat : stats.getValue()) {
+                        dbTime += stat;
                     }
-                    curReqLogStartTime += 60 * diffInMin;
                 }
             }
-            curReqLogList.add(entry);
+            log.add(timestamp, page.getTitle(), serviceUser, servertime, dbTime);
         }
     }
 }
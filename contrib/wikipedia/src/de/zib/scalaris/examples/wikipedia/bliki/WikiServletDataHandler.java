@@ -254,6 +254,32 @@ public interface WikiServletDataHandler<Connection> {
      */
     public ValueResult<List<NormalisedTitle>> getPageList(int namespace, Connection connection);
     
+    /**
+     * Gets the number of parts the page list of each namespace is split into
+     * in the DB (each of which can be read independently).
+     * 
+     * @return the number of parts (at least <tt>1</tt>)
+     * 
+     * @see #getPageList(int, int, Object)
+     */
+    public int getPageListParts();
+    
+    /**
+     * Retrieves a part of the list of available pages in the given namespace
+     * from the DB.
+     * 
+     * @param namespace
+     *            the namespace ID
+     * @param part
+     *            the part to read (<tt>0 &lt;= part &lt; </tt>
+     *            {@link #getPageListParts()})
+     * @param connection
+     *            the connection to the DB
+     * 
+     * @return a result object with the page list on success
+     */
+    public ValueResult<List<NormalisedTitle>> getPageList(int namespace, int part, Connection connection);
+    
     /**
      * Retrieves a list of pages in the given category from the DB.
      * 
@@ -16,6 +16,7 @@
 package de.zib.scalaris.examples.wikipedia.bliki;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -46,12 +47,16 @@ import de.zib.scalaris.TransactionSingleOp;
 import de.zib.scalaris.examples.wikipedia.Options;
 import de.zib.scalaris.examples.wikipedia.PageHistoryResult;
 import de.zib.scalaris.examples.wikipedia.RevisionResult;
+import de.zib.scalaris.examples.wikipedia.SQLiteSnapshotDataHandler;
 import de.zib.scalaris.examples.wikipedia.SavePageResult;
+import de.zib.scalaris.examples.wikipedia.ScalarisDataHandler;
 import de.zib.scalaris.examples.wikipedia.ScalarisDataHandlerNormalised;
 import de.zib.scalaris.examples.wikipedia.ScalarisDataHandlerUnnormalised;
 import de.zib.scalaris.examples.wikipedia.ValueResult;
+import de.zib.scalaris.examples.wikipedia.WriteBehindQueue;
 import de.zib.scalaris.examples.wikipedia.data.Contribution;
 import de.zib.scalaris.examples.wikipedia.data.Revision;
+import de.zib.scalaris.examples.wikipedia.data.RevisionTextCodec;
 import de.zib.scalaris.examples.wikipedia.data.SiteInfo;
 import de.zib.scalaris.examples.wikipedia.data.xml.SAXParsingInterruptedException;
 import de.zib.scalaris.examples.wikipedia.data.xml.WikiDump;
@@ -70,8 +75,12 @@ public class WikiServletScalaris extends WikiServlet<Connection> {
     private static final long serialVersionUID = 1L;
     private static final int CONNECTION_POOL_SIZE = 200;
     private static final int MAX_WAIT_FOR_CONNECTION = 10000; // 10s
+    private static final int WRITE_BEHIND_WORKERS = 2;
     
     private ConnectionPool cPool;
+    private WriteBehindQueue writeBehindQueue = null;
+    private CacheInvalidationBus invalidationBus = null;
+    private volatile SQLiteSnapshotDataHandler snapshot = null;
     protected NodeDiscovery nodeDiscovery;
     private boolean autoImport;
 
@@ -122,6 +131,98 @@ public class WikiServletScalaris extends WikiServlet<Connection> {
             nodeDiscovery = new NodeDiscovery(cPool);
             nodeDiscovery.startWithFixedDelay(Options.getInstance().SCALARIS_NODE_DISCOVERY);
         }
+        RevisionTextCodec.setDictionaryLoader(new RevisionTextCodec.DictionaryLoader() {
+            @Override
+            public byte[] load(int id) {
+                Connection connection = getConnection(null);
+                if (connection == null) {
+                    return null;
+                }
+                try {
+                    ValueResult<byte[]> result = ScalarisDataHandler.getTextDictionary(connection, id);
+                    if (!result.success) {
+                        System.err.println("failed to load text dictionary " + id + ": " + result.message);
+                        return null;
+                    }
+                    return result.value;
+                } finally {
+                    releaseConnection(null, connection);
+                }
+            }
+        });
+        Connection connection = getConnection(null);
+        if (connection != null) {
+            try {
+                ValueResult<Integer> result = ScalarisDataHandler.loadTextDictionaries(connection);
+                if (!result.success) {
+                    System.err.println("failed to load text dictionaries: " + result.message);
+                }
+            } finally {
+                releaseConnection(null, connection);
+            }
+        }
+        if (Options.getInstance().WIKI_WRITE_BEHIND_DELAY > 0) {
+            String spoolPath = config.getServletContext().getRealPath("/WEB-INF/write-behind");
+            File spoolDir;
+            if (spoolPath != null) {
+                spoolDir = new File(spoolPath);
+            } else {
+                spoolDir = new File(System.getProperty("java.io.tmpdir"), "scalaris-wiki-write-behind");
+            }
+            writeBehindQueue = new WriteBehindQueue(cPool, spoolDir, WRITE_BEHIND_WORKERS);
+            writeBehindQueue.start(Options.getInstance().WIKI_WRITE_BEHIND_DELAY);
+            ScalarisDataHandler.setWriteBehindQueue(writeBehindQueue);
+        }
+        if (Options.getInstance().WIKI_READ_SNAPSHOT != null) {
+            String snapshotPath = Options.getInstance().WIKI_READ_SNAPSHOT;
+            if (!new File(snapshotPath).isAbsolute()) {
+                snapshotPath = config.getServletContext().getRealPath("/WEB-INF/" + snapshotPath);
+            }
+            try {
+                snapshot = new SQLiteSnapshotDataHandler(snapshotPath);
+            } catch (FileNotFoundException e) {
+                System.err.println("failed to open the read snapshot: " + e.getMessage());
+            }
+        }
+        if (Options.getInstance().WIKI_CACHE_INVALIDATION_URL != null) {
+            try {
+                invalidationBus = new CacheInvalidationBus(cPool,
+                        Options.getInstance().WIKI_CACHE_INVALIDATION_URL,
+                        new CacheInvalidationBus.Listener() {
+                            @Override
+                            public void onPageChanged(NormalisedTitle title, int revId) {
+                                existingPages.add(title);
+                                if (snapshot != null) {
+                                    snapshot.markModified(title);
+                                }
+                                ScalarisDataHandlerNormalised.uncachePage(title);
+                            }
+                        });
+                invalidationBus.start();
+            } catch (IOException e) {
+                System.err.println("failed to start the cache invalidation bus: " + e.getMessage());
+                invalidationBus = null;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (invalidationBus != null) {
+            invalidationBus.stop();
+            invalidationBus = null;
+        }
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+        if (writeBehindQueue != null) {
+            ScalarisDataHandler.setWriteBehindQueue(null);
+            writeBehindQueue.stop();
+            writeBehindQueue = null;
+        }
+        RevisionTextCodec.setDictionaryLoader(null);
+        super.destroy();
     }
 
     @Override
@@ -541,6 +642,24 @@ public class WikiServletScalaris extends WikiServlet<Connection> {
         return ScalarisDataHandlerUnnormalised.getRevision(connection, title, id, nsObject);
     }
 
+    /**
+     * Serves anonymous views of the current version of pages which have not
+     * been changed since the snapshot (if set) from the snapshot.
+     */
+    @Override
+    protected RevisionResult getRevisionForView(Connection connection,
+            String title, int id, WikiPageBean page) {
+        final SQLiteSnapshotDataHandler snapshot0 = snapshot;
+        if (snapshot0 != null && id < 0 && page.getServiceUser().isEmpty()) {
+            final RevisionResult result = snapshot0.getRevision(
+                    NormalisedTitle.fromUnnormalised(title, namespace), namespace);
+            if (result != null) {
+                return result;
+            }
+        }
+        return super.getRevisionForView(connection, title, id, page);
+    }
+
     @Override
     public ValueResult<List<NormalisedTitle>> getPageList(Connection connection) {
         return ScalarisDataHandlerUnnormalised.getPageList(connection);
@@ -551,6 +670,16 @@ public class WikiServletScalaris extends WikiServlet<Connection> {
         return ScalarisDataHandlerUnnormalised.getPageList(namespace, connection);
     }
 
+    @Override
+    public int getPageListParts() {
+        return ScalarisDataHandlerUnnormalised.getPageListParts();
+    }
+
+    @Override
+    public ValueResult<List<NormalisedTitle>> getPageList(int namespace, int part, Connection connection) {
+        return ScalarisDataHandlerUnnormalised.getPageList(namespace, part, connection);
+    }
+
     @Override
     public ValueResult<List<NormalisedTitle>> getPagesInCategory(Connection connection, NormalisedTitle title) {
         return ScalarisDataHandlerNormalised.getPagesInCategory(connection, title);
@@ -611,7 +740,16 @@ public class WikiServletScalaris extends WikiServlet<Connection> {
     public SavePageResult savePage(Connection connection, String title,
             Revision newRev, int prevRevId, Map<String, String> restrictions,
             SiteInfo siteinfo, String username, final MyNamespace nsObject) {
-        return ScalarisDataHandlerUnnormalised.savePage(connection, title, newRev,
-                prevRevId, restrictions, siteinfo, username, nsObject);
+        final SavePageResult result = ScalarisDataHandlerUnnormalised.savePage(
+                connection, title, newRev, prevRevId, restrictions, siteinfo,
+                username, nsObject);
+        if (result.success && snapshot != null) {
+            snapshot.markModified(NormalisedTitle.fromUnnormalised(title, nsObject));
+        }
+        if (result.success && invalidationBus != null) {
+            invalidationBus.publish(NormalisedTitle.fromUnnormalised(title, nsObject),
+                    result.newPage.getCurRev().getId());
+        }
+        return result;
     }
 }
@@ -16,7 +16,10 @@
 package de.zib.scalaris.examples.wikipedia.data;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -56,6 +59,26 @@ public class Page implements Serializable {
      */
     protected Revision curRev = null;
 
+    /**
+     * Categories of the current revision (un-normalised names as returned by
+     * the wiki model, without namespace) or <tt>null</tt> if unknown, e.g. for
+     * pages stored before these were recorded.
+     */
+    protected List<String> categories = null;
+
+    /**
+     * Templates of the current revision (un-normalised names as returned by
+     * the wiki model, without namespace and magic words) or <tt>null</tt> if
+     * unknown.
+     */
+    protected List<String> templates = null;
+
+    /**
+     * Links of the current revision (un-normalised titles as returned by the
+     * wiki model) or <tt>null</tt> if unknown.
+     */
+    protected List<String> links = null;
+
     /**
      * Creates a new page with default values (this page is invalid until all of
      * them have been set!).
@@ -175,6 +198,94 @@ public class Page implements Serializable {
         this.restrictions = restrictions;
     }
 
+    /**
+     * Gets the categories of the current revision.
+     * 
+     * @return the (un-normalised) category names or <tt>null</tt> if unknown
+     */
+    public List<String> getCategories() {
+        return categories;
+    }
+
+    /**
+     * Sets the categories of the current revision.
+     * 
+     * @param categories
+     *            the (un-normalised) category names or <tt>null</tt> if
+     *            unknown
+     */
+    public void setCategories(List<String> categories) {
+        this.categories = categories;
+    }
+
+    /**
+     * Gets the templates of the current revision.
+     * 
+     * @return the (un-normalised) template names or <tt>null</tt> if unknown
+     */
+    public List<String> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Sets the templates of the current revision.
+     * 
+     * @param templates
+     *            the (un-normalised) template names or <tt>null</tt> if
+     *            unknown
+     */
+    public void setTemplates(List<String> templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * Gets the links of the current revision.
+     * 
+     * @return the (un-normalised) link targets or <tt>null</tt> if unknown
+     */
+    public List<String> getLinks() {
+        return links;
+    }
+
+    /**
+     * Sets the links of the current revision.
+     * 
+     * @param links
+     *            the (un-normalised) link targets or <tt>null</tt> if unknown
+     */
+    public void setLinks(List<String> links) {
+        this.links = links;
+    }
+
+    /**
+     * Sets the categories, templates and links of the current revision as
+     * extracted by the wiki model while rendering it.
+     * 
+     * @param categories
+     *            the (un-normalised) category names
+     * @param templates
+     *            the (un-normalised) template names
+     * @param links
+     *            the (un-normalised) link targets
+     */
+    public void setPageLists(Collection<String> categories,
+            Collection<String> templates, Collection<String> links) {
+        this.categories = new ArrayList<String>(categories);
+        this.templates = new ArrayList<String>(templates);
+        this.links = new ArrayList<String>(links);
+    }
+
+    /**
+     * Checks whether the categories, templates and links of the current
+     * revision are known, i.e. whether {@link #getCategories()},
+     * {@link #getTemplates()} and {@link #getLinks()} are all non-<tt>null</tt>.
+     * 
+     * @return <tt>true</tt> if the page lists are available
+     */
+    public boolean hasPageLists() {
+        return categories != null && templates != null && links != null;
+    }
+
     /**
      * Checks if a user is allows to edit the given page.
      * 
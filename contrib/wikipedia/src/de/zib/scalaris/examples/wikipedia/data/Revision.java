@@ -15,13 +15,8 @@
  */
 package de.zib.scalaris.examples.wikipedia.data;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.Calendar;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -66,6 +61,12 @@ public class Revision implements Serializable {
      */
     protected byte[] pText = packText("");
 
+    /**
+     * the content (text) of the revision (un-compressed, lazily decoded from
+     * {@link #pText})
+     */
+    protected transient String text = null;
+
     /**
      * Creates a new revision with invalid data. Use the setters to make it a
      * valid revision.
@@ -146,10 +147,27 @@ public class Revision implements Serializable {
     /**
      * Gets the un-compressed revision text.
      * 
+     * The text is only de-compressed once and cached afterwards.
+     * 
      * @return the text
      */
     public String unpackedText() {
-        return unpackText(pText);
+        String text0 = text;
+        if (text0 == null) {
+            text0 = unpackText(pText);
+            text = text0;
+        }
+        return text0;
+    }
+
+    /**
+     * Gets a read-only view on the un-compressed revision text without
+     * creating a copy of the (cached) text.
+     * 
+     * @return the text
+     */
+    public CharSequence unpackedTextView() {
+        return unpackedText();
     }
 
     /**
@@ -162,22 +180,11 @@ public class Revision implements Serializable {
      * 
      * @throws RuntimeException
      *             if de-compressing the text did not work
+     * 
+     * @see RevisionTextCodec#unpack(byte[])
      */
     protected static String unpackText(byte[] text) throws RuntimeException {
-        try {
-            ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
-            ByteArrayInputStream bis = new ByteArrayInputStream(text);
-            GZIPInputStream gis = new GZIPInputStream(bis);
-            byte[] bbuf = new byte[256];
-            int read = 0;
-            while ((read = gis.read(bbuf)) >= 0) {
-                unpacked.write(bbuf, 0, read);
-            }
-            gis.close();
-            return new String(unpacked.toString("UTF-8"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return RevisionTextCodec.unpack(text);
     }
 
     /**
@@ -190,18 +197,11 @@ public class Revision implements Serializable {
      * 
      * @throws RuntimeException
      *             if compressing the text did not work
+     * 
+     * @see RevisionTextCodec#pack(String, Integer)
      */
     protected static byte[] packText(String text) throws RuntimeException {
-        try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            GZIPOutputStream gos = new GZIPOutputStream(bos);
-            gos.write(text.getBytes("UTF-8"));
-            gos.flush();
-            gos.close();
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return RevisionTextCodec.pack(text, null);
     }
 
     /**
@@ -261,6 +261,7 @@ public class Revision implements Serializable {
     public void setB64pText(String text) {
         Base64 b64 = new Base64(0);
         this.pText = b64.decode(text);
+        this.text = null;
     }
 
     /**
@@ -269,6 +270,7 @@ public class Revision implements Serializable {
      */
     public void setPackedText(byte[] text) {
         this.pText = text;
+        this.text = null;
     }
 
     /**
@@ -277,6 +279,19 @@ public class Revision implements Serializable {
      */
     public void setUnpackedText(String text) {
         this.pText = packText(text);
+        this.text = text;
+    }
+
+    /**
+     * @param text
+     *            the (unpacked) text to set
+     * @param namespace
+     *            the namespace ID of the revision's page (selects the
+     *            compression dictionary)
+     */
+    public void setUnpackedText(String text, int namespace) {
+        this.pText = RevisionTextCodec.pack(text, namespace);
+        this.text = text;
     }
 
     /**
@@ -0,0 +1,281 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses revision texts.
+ *
+ * Without a dictionary, texts are GZIP-compressed. If a (trained) dictionary
+ * is set for a namespace via {@link #setCurrentDictionary(Integer, int)}, texts
+ * are deflated with this preset dictionary instead which compresses small
+ * pages a lot better. Dictionaries are immutable and identified by a (version)
+ * ID which is stored in front of each compressed text so that texts packed
+ * with older dictionaries can always be decompressed. Unknown dictionaries
+ * are fetched with the {@link DictionaryLoader} set by
+ * {@link #setDictionaryLoader(DictionaryLoader)}.
+ *
+ * Format of texts packed with a dictionary: <tt>'D'</tt> (1 byte),
+ * dictionary ID (4 bytes, big endian), zlib stream using the dictionary.
+ * Dictionaries can be trained with
+ * {@link de.zib.scalaris.examples.wikipedia.data.xml.SQLiteValueCodec#trainDictionary(java.util.List, int)}
+ * from UTF-8 encoded sample texts.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class RevisionTextCodec {
+    /**
+     * Maximum size of a dictionary (the window size of the deflate algorithm).
+     */
+    public static final int MAX_DICT_SIZE = 32 * 1024;
+
+    /**
+     * First byte of texts packed with a dictionary (GZIP streams always start
+     * with <tt>0x1f</tt>).
+     */
+    protected static final byte TAG_DICT = (byte) 'D';
+    protected static final int HEADER_SIZE = 5;
+
+    /**
+     * Loads dictionaries which are not known locally.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    public static interface DictionaryLoader {
+        /**
+         * Loads the dictionary with the given ID.
+         *
+         * @param id
+         *            the dictionary ID
+         *
+         * @return the dictionary or <tt>null</tt> if it could not be loaded
+         */
+        public abstract byte[] load(int id);
+    }
+
+    private static final ConcurrentMap<Integer, byte[]> dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+    private static final ConcurrentMap<Integer, Integer> currentDictionaries = new ConcurrentHashMap<Integer, Integer>();
+    private static volatile int defaultDictionary = 0;
+    private static volatile DictionaryLoader loader = null;
+
+    private RevisionTextCodec() {
+    }
+
+    /**
+     * Registers a dictionary.
+     *
+     * @param id
+     *            the dictionary ID (must be positive)
+     * @param dictionary
+     *            the dictionary
+     *
+     * @throws IllegalArgumentException
+     *             if the ID is invalid or the dictionary is too large
+     */
+    public static void registerDictionary(int id, byte[] dictionary)
+            throws IllegalArgumentException {
+        if (id <= 0) {
+            throw new IllegalArgumentException("invalid dictionary ID: " + id);
+        }
+        if (dictionary.length > MAX_DICT_SIZE) {
+            throw new IllegalArgumentException("dictionary too large: " + dictionary.length);
+        }
+        dictionaries.put(id, dictionary);
+    }
+
+    /**
+     * Sets the dictionary to use when packing texts of the given namespace.
+     *
+     * @param namespace
+     *            the namespace ID or <tt>null</tt> to set the default
+     *            dictionary (used for namespaces without a dictionary)
+     * @param id
+     *            the ID of a registered dictionary or <tt>0</tt> to disable
+     *            dictionary compression
+     *
+     * @throws IllegalArgumentException
+     *             if the dictionary is not registered
+     */
+    public static void setCurrentDictionary(Integer namespace, int id)
+            throws IllegalArgumentException {
+        if (id != 0 && !dictionaries.containsKey(id)) {
+            throw new IllegalArgumentException("unknown dictionary ID: " + id);
+        }
+        if (namespace == null) {
+            defaultDictionary = id;
+        } else if (id == 0) {
+            currentDictionaries.remove(namespace);
+        } else {
+            currentDictionaries.put(namespace, id);
+        }
+    }
+
+    /**
+     * Sets the loader for dictionaries which are not registered locally.
+     *
+     * @param loader
+     *            the loader to use (may be <tt>null</tt>)
+     */
+    public static void setDictionaryLoader(DictionaryLoader loader) {
+        RevisionTextCodec.loader = loader;
+    }
+
+    /**
+     * Gets the dictionary with the given ID, loading it if necessary.
+     *
+     * @param id
+     *            the dictionary ID
+     *
+     * @return the dictionary
+     *
+     * @throws RuntimeException
+     *             if the dictionary is unknown
+     */
+    protected static byte[] dictionary(int id) throws RuntimeException {
+        byte[] dict = dictionaries.get(id);
+        if (dict == null) {
+            final DictionaryLoader loader0 = loader;
+            if (loader0 != null) {
+                dict = loader0.load(id);
+            }
+            if (dict == null) {
+                throw new RuntimeException("unknown text dictionary: " + id);
+            }
+            registerDictionary(id, dict);
+        }
+        return dict;
+    }
+
+    /**
+     * Compresses the given text with the current dictionary of the given
+     * namespace.
+     *
+     * @param text
+     *            the un-compressed text
+     * @param namespace
+     *            the namespace ID of the text's page or <tt>null</tt> if
+     *            unknown
+     *
+     * @return the compressed text
+     *
+     * @throws RuntimeException
+     *             if compressing the text did not work
+     */
+    public static byte[] pack(String text, Integer namespace) throws RuntimeException {
+        Integer id = (namespace == null) ? null : currentDictionaries.get(namespace);
+        if (id == null) {
+            id = defaultDictionary;
+        }
+        try {
+            if (id == 0) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                GZIPOutputStream gos = new GZIPOutputStream(bos);
+                gos.write(text.getBytes("UTF-8"));
+                gos.flush();
+                gos.close();
+                return bos.toByteArray();
+            }
+            final byte[] input = text.getBytes("UTF-8");
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                deflater.setDictionary(dictionary(id));
+                deflater.setInput(input);
+                deflater.finish();
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(
+                        HEADER_SIZE + input.length / 2 + 16);
+                bos.write(TAG_DICT);
+                bos.write(id >>> 24);
+                bos.write(id >>> 16);
+                bos.write(id >>> 8);
+                bos.write(id);
+                final byte[] bbuf = new byte[1024];
+                while (!deflater.finished()) {
+                    final int written = deflater.deflate(bbuf);
+                    bos.write(bbuf, 0, written);
+                }
+                return bos.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * De-compresses the given text and returns it as a string.
+     *
+     * @param text
+     *            the compressed text
+     *
+     * @return the de-compressed text
+     *
+     * @throws RuntimeException
+     *             if de-compressing the text did not work
+     */
+    public static String unpack(byte[] text) throws RuntimeException {
+        try {
+            if (text.length < HEADER_SIZE || text[0] != TAG_DICT) {
+                ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+                ByteArrayInputStream bis = new ByteArrayInputStream(text);
+                GZIPInputStream gis = new GZIPInputStream(bis);
+                byte[] bbuf = new byte[256];
+                int read = 0;
+                while ((read = gis.read(bbuf)) >= 0) {
+                    unpacked.write(bbuf, 0, read);
+                }
+                gis.close();
+                return unpacked.toString("UTF-8");
+            }
+            final int id = ((text[1] & 0xff) << 24) | ((text[2] & 0xff) << 16)
+                    | ((text[3] & 0xff) << 8) | (text[4] & 0xff);
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(text, HEADER_SIZE, text.length - HEADER_SIZE);
+                ByteArrayOutputStream unpacked = new ByteArrayOutputStream(text.length * 4);
+                final byte[] bbuf = new byte[1024];
+                while (!inflater.finished()) {
+                    final int read = inflater.inflate(bbuf);
+                    if (read == 0) {
+                        if (inflater.needsDictionary()) {
+                            inflater.setDictionary(dictionary(id));
+                        } else if (inflater.needsInput()) {
+                            throw new IOException("truncated text");
+                        }
+                    }
+                    unpacked.write(bbuf, 0, read);
+                }
+                return unpacked.toString("UTF-8");
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
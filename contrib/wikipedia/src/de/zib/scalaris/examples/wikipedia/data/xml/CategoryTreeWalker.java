@@ -0,0 +1,470 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.data.xml;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteStatement;
+
+import de.zib.scalaris.examples.wikipedia.SQLiteDataHandler;
+import de.zib.scalaris.examples.wikipedia.ScalarisDataHandlerNormalised;
+import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace;
+import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace.NamespaceEnum;
+import de.zib.scalaris.examples.wikipedia.bliki.MyWikiModel;
+import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
+import de.zib.scalaris.examples.wikipedia.data.SiteInfo;
+import de.zib.tools.IntSet;
+
+/**
+ * Extracts all pages in a set of categories directly from the category tree
+ * DB created by {@link WikiDumpGetCategoryTreeHandler}.
+ *
+ * In contrast to
+ * {@link WikiDumpGetCategoryTreeHandler#getPagesInCategories(String, Set, Set, int, java.util.Map, java.util.Map, java.util.Map, PrintStream, boolean)}
+ * no trees are read into memory. Instead, all edges are followed in the DB
+ * using the integer page IDs of the <tt>pages</tt> table: each step of a
+ * (breadth-first) search puts the current frontier into a temporary table
+ * and joins it with the edge tables. Visited pages are kept in primitive
+ * {@link IntSet}s and page titles are only read for the final result.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class CategoryTreeWalker {
+    private static final String CATEGORY_PREFIX = NamespaceEnum.CATEGORY_NAMESPACE_KEY.getId() + ":%";
+    private static final String TEMPLATE_PREFIX = NamespaceEnum.TEMPLATE_NAMESPACE_KEY.getId() + ":%";
+    private static final String MEDIAWIKI_PREFIX = NamespaceEnum.MEDIAWIKI_NAMESPACE_KEY.getId() + ":%";
+
+    /**
+     * Includes (and redirects) of a page as well as pages redirecting to it.
+     */
+    private static final String[] DEPENDENCIES = {
+        "SELECT include FROM includes INNER JOIN frontier ON includes.title == frontier.id;",
+        "SELECT title FROM redirects INNER JOIN frontier ON redirects.redirect == frontier.id;"};
+    /**
+     * Templates used by a template.
+     */
+    private static final String[] SUB_TEMPLATES = {
+        "SELECT templates.template FROM templates INNER JOIN frontier ON templates.title == frontier.id " +
+        "INNER JOIN pages ON pages.id == frontier.id WHERE pages.title LIKE '" + TEMPLATE_PREFIX + "';"};
+    /**
+     * Categories in a category.
+     */
+    private static final String[] SUB_CATEGORIES = {
+        "SELECT categories.title FROM categories INNER JOIN frontier ON categories.category == frontier.id " +
+        "INNER JOIN pages ON pages.id == categories.title WHERE pages.title LIKE '" + CATEGORY_PREFIX + "';"};
+    /**
+     * Categories or templates using a category or template.
+     */
+    private static final String[] SUB_TEMPLATE_USERS = {
+        "SELECT templates.title FROM templates INNER JOIN frontier ON templates.template == frontier.id " +
+        "INNER JOIN pages ON pages.id == templates.title " +
+        "WHERE pages.title LIKE '" + CATEGORY_PREFIX + "' OR pages.title LIKE '" + TEMPLATE_PREFIX + "';"};
+    /**
+     * Pages in a category or using a template.
+     */
+    private static final String[] PAGES_IN_CATEGORIES = {
+        "SELECT categories.title FROM categories INNER JOIN frontier ON categories.category == frontier.id;",
+        "SELECT templates.title FROM templates INNER JOIN frontier ON templates.template == frontier.id;"};
+    private static final String[] CATEGORIES_OF = {
+        "SELECT category FROM categories INNER JOIN frontier ON categories.title == frontier.id;"};
+    private static final String[] TEMPLATES_OF = {
+        "SELECT template FROM templates INNER JOIN frontier ON templates.title == frontier.id;"};
+    private static final String[] LINKS_OF = {
+        "SELECT link FROM links INNER JOIN frontier ON links.title == frontier.id;"};
+
+    private final SQLiteConnection db;
+    private final PrintStream msgOut;
+    private final MyNamespace namespace;
+    /**
+     * Requested pages or categories which are not in the DB.
+     */
+    private final Set<NormalisedTitle> unknownTitles = new HashSet<NormalisedTitle>();
+
+    /**
+     * Creates a walker on the given DB connection.
+     *
+     * @param db
+     *            connection to the category tree DB (must not be read-only)
+     * @param msgOut
+     *            the output stream to write status messages to
+     *
+     * @throws SQLiteException
+     *             if setting up the DB fails
+     * @throws RuntimeException
+     *             if the siteinfo cannot be read
+     */
+    protected CategoryTreeWalker(SQLiteConnection db, PrintStream msgOut)
+            throws SQLiteException, RuntimeException {
+        this.db = db;
+        this.msgOut = msgOut;
+        SiteInfo siteInfo = WikiDumpGetCategoryTreeHandler.readSiteInfo(db);
+        this.namespace = new MyNamespace(siteInfo);
+        // trees created by older versions may lack the reverse indices:
+        WikiDumpGetCategoryTreeHandler.createIndices(db);
+        db.exec("CREATE TEMPORARY TABLE frontier(id INTEGER PRIMARY KEY ASC);");
+    }
+
+    /**
+     * Extracts all pages in the given categories from the given DB.
+     *
+     * @param dbFileName
+     *            name of the DB file
+     * @param allowedCats0
+     *            include all pages in these categories (un-normalised page
+     *            titles)
+     * @param allowedPages0
+     *            a number of pages to include, also parses these pages for more
+     *            links (un-normalised page titles)
+     * @param depth
+     *            follow links this deep
+     * @param msgOut
+     *            the output stream to write status messages to
+     * @param normalised
+     *            whether the pages should be returned as normalised page titles
+     *            or not
+     *
+     * @return a (sorted) set of page titles
+     *
+     * @throws RuntimeException
+     *             if any error occurs
+     */
+    public static SortedSet<String> getPagesInCategories(String dbFileName,
+            Set<String> allowedCats0, Set<String> allowedPages0, int depth,
+            PrintStream msgOut, boolean normalised) throws RuntimeException {
+        SQLiteConnection db = null;
+        try {
+            // set 256MB cache_size:
+            db = SQLiteDataHandler.openDB(dbFileName, false, 256l*1024l*1024l);
+            CategoryTreeWalker walker = new CategoryTreeWalker(db, msgOut);
+            return walker.getPagesInCategories(allowedCats0, allowedPages0, depth, normalised);
+        } catch (SQLiteException e) {
+            System.err.println("read of pages in categories failed (sqlite error: " + e.toString() + ")");
+            throw new RuntimeException(e);
+        } finally {
+            if (db != null) {
+                db.dispose();
+            }
+        }
+    }
+
+    /**
+     * Extracts all pages in the given categories.
+     *
+     * @param allowedCats0
+     *            include all pages in these categories (un-normalised page
+     *            titles)
+     * @param allowedPages0
+     *            a number of pages to include, also parses these pages for more
+     *            links (un-normalised page titles)
+     * @param depth
+     *            follow links this deep
+     * @param normalised
+     *            whether the pages should be returned as normalised page titles
+     *            or not
+     *
+     * @return a (sorted) set of page titles
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    protected SortedSet<String> getPagesInCategories(Set<String> allowedCats0,
+            Set<String> allowedPages0, int depth, boolean normalised)
+            throws SQLiteException {
+        unknownTitles.clear();
+        ArrayList<NormalisedTitle> allowedCats = new ArrayList<NormalisedTitle>(allowedCats0.size());
+        MyWikiModel.normalisePageTitles(allowedCats0, namespace, allowedCats);
+        ArrayList<NormalisedTitle> allowedPages = new ArrayList<NormalisedTitle>(allowedPages0.size());
+        MyWikiModel.normalisePageTitles(allowedPages0, namespace, allowedPages);
+
+        WikiDumpHandler.println(msgOut, " determining sub-categories of " + allowedCats0.toString() + "");
+        IntSet allowedCatsFull = getSubCategories(getPageIds(allowedCats));
+        WikiDumpHandler.println(msgOut, " found " + allowedCatsFull.size() + " categories or templates");
+
+        IntSet currentPages = getPageIds(allowedPages);
+        currentPages.addAll(allowedCatsFull);
+        setFrontier(allowedCatsFull);
+        select(PAGES_IN_CATEGORIES, currentPages);
+
+        IntSet allPages = getRecursivePages(currentPages, depth);
+
+        // note: need to sort case-sensitively (wiki is only case-insensitive at the first char)
+        final ArrayList<NormalisedTitle> normalisedPages = getPageTitles(allPages);
+        normalisedPages.addAll(unknownTitles);
+        final TreeSet<String> pages = new TreeSet<String>();
+        if (normalised) {
+            pages.addAll(ScalarisDataHandlerNormalised.normList2normStringList(normalisedPages));
+        } else {
+            MyWikiModel.denormalisePageTitles(normalisedPages, namespace, pages);
+        }
+        return pages;
+    }
+
+    /**
+     * Gets the given categories and all their sub-categories (and their
+     * dependencies).
+     *
+     * @param allowedCats
+     *            IDs of the root categories
+     *
+     * @return the set of the given categories and all their sub-categories
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private IntSet getSubCategories(IntSet allowedCats) throws SQLiteException {
+        IntSet allowedCatsFull = new IntSet();
+        IntSet frontier = closure(allowedCats, DEPENDENCIES, allowedCatsFull);
+        while (!frontier.isEmpty()) {
+            allowedCatsFull.addAll(frontier);
+            WikiDumpHandler.println(msgOut, "  adding sub-categories and sub-templates of " + frontier.size() + " categories or templates");
+            setFrontier(frontier);
+            IntSet candidates = select(SUB_CATEGORIES, new IntSet());
+            IntSet templates = select(SUB_TEMPLATE_USERS, new IntSet());
+            candidates.addAll(closure(templates, SUB_TEMPLATES, null));
+            frontier = closure(candidates, DEPENDENCIES, allowedCatsFull);
+        }
+        return allowedCatsFull;
+    }
+
+    /**
+     * Gets all pages and their dependencies, follows links recursively.
+     *
+     * @param currentPages
+     *            the pages to start with
+     * @param depth
+     *            follow links this deep
+     *
+     * @return the IDs of all pages (without the MediaWiki pages which are
+     *         always included)
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private IntSet getRecursivePages(IntSet currentPages, int depth)
+            throws SQLiteException {
+        WikiDumpHandler.println(msgOut, "adding all mediawiki pages");
+        // add all auto-included pages
+        final IntSet autoIncluded = selectPageIds("SELECT id FROM pages WHERE title LIKE '" + MEDIAWIKI_PREFIX + "';");
+        currentPages.addAll(autoIncluded);
+        // there may be empty links
+        final IntSet emptyLinks = selectPageIds("SELECT id FROM pages WHERE title == '';");
+
+        IntSet allPages = new IntSet();
+        while (depth >= 0) {
+            WikiDumpHandler.println(msgOut, "recursion level: " + depth);
+            WikiDumpHandler.println(msgOut, " adding " + currentPages.size() + " pages");
+            IntSet pageLinks = new IntSet();
+            IntSet frontier = closure(currentPages, DEPENDENCIES, allPages);
+            while (!frontier.isEmpty()) {
+                allPages.addAll(frontier);
+                WikiDumpHandler.println(msgOut, "  adding categories, templates and links of " + frontier.size() + " pages");
+                setFrontier(frontier);
+                IntSet candidates = select(CATEGORIES_OF, new IntSet());
+                IntSet templates = select(TEMPLATES_OF, new IntSet());
+                select(LINKS_OF, pageLinks);
+                candidates.addAll(closure(templates, SUB_TEMPLATES, null));
+                frontier = closure(candidates, DEPENDENCIES, allPages);
+                if (!frontier.isEmpty()) {
+                    WikiDumpHandler.println(msgOut, " adding " + frontier.size() + " dependencies");
+                }
+            }
+            // for the next recursion:
+            for (IntSet.Iterator it = emptyLinks.iterator(); it.hasNext();) {
+                pageLinks.remove(it.next());
+            }
+            currentPages = pageLinks;
+            --depth;
+        }
+        // these pages will be automatically included even if not in the page
+        // list -> do not include them for a smaller more readable page list
+        for (IntSet.Iterator it = autoIncluded.iterator(); it.hasNext();) {
+            allPages.remove(it.next());
+        }
+        return allPages;
+    }
+
+    /**
+     * Computes the transitive closure of the given pages by following the
+     * edges of the given queries (breadth-first).
+     *
+     * @param start
+     *            the pages to start with
+     * @param edges
+     *            queries selecting the neighbours of all pages in the
+     *            <tt>frontier</tt> table
+     * @param exclude
+     *            pages to ignore, i.e. not to return and not to follow (may be
+     *            <tt>null</tt>)
+     *
+     * @return the pages reachable from <tt>start</tt> (including
+     *         <tt>start</tt>) without the excluded ones
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private IntSet closure(IntSet start, String[] edges, IntSet exclude)
+            throws SQLiteException {
+        IntSet result = new IntSet(start.size());
+        IntSet frontier = new IntSet(start.size());
+        addNew(start, exclude, result, frontier);
+        while (!frontier.isEmpty()) {
+            setFrontier(frontier);
+            IntSet neighbours = select(edges, new IntSet());
+            frontier = new IntSet();
+            addNew(neighbours, exclude, result, frontier);
+        }
+        return result;
+    }
+
+    /**
+     * Adds all values of <tt>values</tt> which are neither excluded nor in
+     * <tt>result</tt> to both <tt>result</tt> and <tt>added</tt>.
+     */
+    private static void addNew(IntSet values, IntSet exclude, IntSet result,
+            IntSet added) {
+        for (IntSet.Iterator it = values.iterator(); it.hasNext();) {
+            final int value = it.next();
+            if ((exclude == null || !exclude.contains(value)) && result.add(value)) {
+                added.add(value);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the temporary <tt>frontier</tt> table.
+     *
+     * @param frontier
+     *            the page IDs to put into the table
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private void setFrontier(IntSet frontier) throws SQLiteException {
+        db.exec("DELETE FROM frontier;");
+        SQLiteStatement stmt = null;
+        db.exec("BEGIN;");
+        try {
+            stmt = db.prepare("INSERT INTO frontier (id) VALUES (?);");
+            for (IntSet.Iterator it = frontier.iterator(); it.hasNext();) {
+                stmt.bind(1, it.next()).stepThrough().reset();
+            }
+            db.exec("COMMIT;");
+        } finally {
+            if (stmt != null) {
+                stmt.dispose();
+            }
+            if (!db.getAutoCommit()) {
+                db.exec("ROLLBACK;");
+            }
+        }
+    }
+
+    /**
+     * Executes the given queries (on the current frontier) and adds all
+     * returned page IDs to the given set.
+     *
+     * @param queries
+     *            queries returning page IDs
+     * @param result
+     *            the set to add to
+     *
+     * @return <tt>result</tt>
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private IntSet select(String[] queries, IntSet result) throws SQLiteException {
+        for (String query : queries) {
+            SQLiteStatement stmt = db.prepare(query);
+            try {
+                while (stmt.step()) {
+                    result.add(stmt.columnInt(0));
+                }
+            } finally {
+                stmt.dispose();
+            }
+        }
+        return result;
+    }
+
+    private IntSet selectPageIds(String query) throws SQLiteException {
+        return select(new String[] {query}, new IntSet());
+    }
+
+    /**
+     * Looks up the IDs of the given pages. Pages that are not in the DB are
+     * added to {@link #unknownTitles}.
+     *
+     * @param titles
+     *            normalised page titles
+     *
+     * @return a set of page IDs
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private IntSet getPageIds(Collection<NormalisedTitle> titles) throws SQLiteException {
+        IntSet result = new IntSet(titles.size());
+        SQLiteStatement stmt = db.prepare("SELECT id FROM pages WHERE title == ?;");
+        try {
+            for (NormalisedTitle title : titles) {
+                stmt.bind(1, title.toString());
+                if (stmt.step()) {
+                    result.add(stmt.columnInt(0));
+                } else {
+                    unknownTitles.add(title);
+                }
+                stmt.reset();
+            }
+        } finally {
+            stmt.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the titles of the given pages.
+     *
+     * @param pageIds
+     *            page IDs
+     *
+     * @return a list of normalised page titles
+     *
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    private ArrayList<NormalisedTitle> getPageTitles(IntSet pageIds) throws SQLiteException {
+        ArrayList<NormalisedTitle> result = new ArrayList<NormalisedTitle>(pageIds.size());
+        setFrontier(pageIds);
+        SQLiteStatement stmt = db.prepare("SELECT pages.title FROM pages INNER JOIN frontier ON pages.id == frontier.id;");
+        try {
+            while (stmt.step()) {
+                result.add(NormalisedTitle.fromNormalised(stmt.columnString(0)));
+            }
+        } finally {
+            stmt.dispose();
+        }
+        return result;
+    }
+}
@@ -25,18 +25,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
 import java.util.zip.GZIPInputStream;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import de.zib.scalaris.examples.wikipedia.data.xml.util.MultiStreamBZip2InputStream;
+import de.zib.scalaris.examples.wikipedia.data.xml.util.ReadAheadInputStream;
 import de.zib.scalaris.examples.wikipedia.data.xml.util.SevenZInputStream;
 
 import org.xml.sax.InputSource;
@@ -44,9 +48,14 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import de.zib.scalaris.Connection;
+import de.zib.scalaris.ConnectionException;
+import de.zib.scalaris.ConnectionFactory;
 import de.zib.scalaris.examples.wikipedia.Options;
-import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
+import de.zib.scalaris.examples.wikipedia.ScalarisDataHandler;
+import de.zib.scalaris.examples.wikipedia.ValueResult;
 import de.zib.scalaris.examples.wikipedia.data.Revision;
+import de.zib.scalaris.examples.wikipedia.data.RevisionTextCodec;
 import de.zib.scalaris.examples.wikipedia.data.xml.WikiDumpHandler.ReportAtShutDown;
 
 /**
@@ -61,6 +70,12 @@ public class Main {
      */
     public final static Set<String> blacklist = new HashSet<String>();
     
+    /**
+     * Minimum number of sample pages of a namespace to train an own text
+     * dictionary for it.
+     */
+    protected final static int MIN_TEXT_DICT_SAMPLES = 100;
+    
     private static enum ImportType {
         IMPORT_XML,
         IMPORT_DB,
@@ -96,6 +111,8 @@ public class Main {
                     doDumpdbAddlinks(filename, Arrays.copyOfRange(args, 2, args.length));
                 } else if (args[1].equals("dumpdb-filter")) {
                     doDumpdbFilter(filename, Arrays.copyOfRange(args, 2, args.length));
+                } else if (args[1].equals("train-dict")) {
+                    doTrainDict(filename, Arrays.copyOfRange(args, 2, args.length));
                 }
             }
         } catch (SAXException e) {
@@ -158,12 +175,21 @@ public class Main {
             }
             ++i;
             
+            // resume a previous (interrupted) import?
+            boolean resume = false;
+            if (args.length > i) {
+                resume = Boolean.parseBoolean(args[i]);
+            }
+            ++i;
+            
             if (filename.endsWith(".db") && numberOfImporters > 0 && myNumber > 0) {
                 WikiDumpHandler.println(System.out, "wiki import from " + filename);
                 WikiDumpHandler.println(System.out, " importers   : " + numberOfImporters);
                 WikiDumpHandler.println(System.out, " my import nr: " + myNumber);
+                WikiDumpHandler.println(System.out, " resume      : " + resume);
                 WikiDumpPreparedSQLiteToScalaris handler =
                         new WikiDumpPreparedSQLiteToScalaris(filename, options, numberOfImporters, myNumber);
+                handler.setResume(resume);
                 handler.setUp();
                 WikiDumpPreparedSQLiteToScalaris.ReportAtShutDown shutdownHook = handler.new ReportAtShutDown();
                 Runtime.getRuntime().addShutdownHook(shutdownHook);
@@ -263,12 +289,131 @@ public class Main {
             WikiDumpHandler.println(System.out, " max revisions : " + maxRevisions);
             WikiDumpHandler.println(System.out, " min time      : " + (minTime == null ? "null" : Revision.calendarToString(minTime)));
             WikiDumpHandler.println(System.out, " max time      : " + (maxTime == null ? "null" : Revision.calendarToString(maxTime)));
+            loadTextDictionaries();
             WikiDumpHandler handler = new WikiDumpToScalarisHandler(
                     blacklist, whitelist, maxRevisions, minTime, maxTime);
             runXmlHandler(handler, getFileReader(filename));
         }
     }
 
+    /**
+     * Loads the current revision text dictionaries from Scalaris so that
+     * imported revisions are compressed with them.
+     */
+    private static void loadTextDictionaries() {
+        Connection connection = null;
+        try {
+            connection = ConnectionFactory.getInstance().createConnection();
+            ValueResult<Integer> result = ScalarisDataHandler.loadTextDictionaries(connection);
+            if (result.success) {
+                WikiDumpHandler.println(System.out, " text dicts    : " + result.value);
+            } else {
+                System.err.println("failed to load text dictionaries: " + result.message);
+            }
+        } catch (ConnectionException e) {
+            System.err.println("failed to load text dictionaries: " + e.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Trains revision text dictionaries from (a sample of) the pages in the
+     * Wikipedia XML dump from the given file and stores them in Scalaris.
+     * 
+     * A dictionary is trained for every namespace with at least
+     * {@link #MIN_TEXT_DICT_SAMPLES} samples and a default dictionary for
+     * all other namespaces.
+     * 
+     * @param filename
+     * @param args
+     * 
+     * @throws RuntimeException
+     * @throws IOException
+     * @throws SAXException
+     * @throws FileNotFoundException
+     */
+    private static void doTrainDict(String filename, String[] args)
+            throws RuntimeException, IOException, SAXException,
+            FileNotFoundException {
+        int i = 0;
+        int maxSamples = 1000;
+        if (args.length > i && !args[i].isEmpty()) {
+            try {
+                maxSamples = Integer.parseInt(args[i]);
+            } catch (NumberFormatException e) {
+                System.err.println("no number: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        ++i;
+        
+        int dictSize = RevisionTextCodec.MAX_DICT_SIZE;
+        if (args.length > i && !args[i].isEmpty()) {
+            try {
+                dictSize = Math.min(Integer.parseInt(args[i]), RevisionTextCodec.MAX_DICT_SIZE);
+            } catch (NumberFormatException e) {
+                System.err.println("no number: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        ++i;
+
+        WikiDumpHandler.println(System.out, "training text dictionaries from " + filename);
+        WikiDumpHandler.println(System.out, " max samples : " + maxSamples);
+        WikiDumpHandler.println(System.out, " dict size   : " + dictSize);
+        WikiDumpTrainTextDictionaryHandler handler =
+                new WikiDumpTrainTextDictionaryHandler(blacklist, null, maxSamples);
+        runXmlHandler(handler, getFileReader(filename));
+
+        final Map<Integer, byte[]> dictionaries = new LinkedHashMap<Integer, byte[]>();
+        dictionaries.put(null, trainTextDict(handler.getAllSamples(), dictSize));
+        for (Map.Entry<Integer, List<String>> samples : handler.getSamples().entrySet()) {
+            if (samples.getValue().size() >= MIN_TEXT_DICT_SAMPLES) {
+                dictionaries.put(samples.getKey(), trainTextDict(samples.getValue(), dictSize));
+            }
+        }
+        
+        Connection connection = null;
+        try {
+            connection = ConnectionFactory.getInstance().createConnection();
+            for (Map.Entry<Integer, byte[]> dictionary : dictionaries.entrySet()) {
+                final String nsStr = (dictionary.getKey() == null) ? "default" : dictionary.getKey().toString();
+                if (dictionary.getValue().length == 0) {
+                    WikiDumpHandler.println(System.out, " namespace " + nsStr + ": no common text");
+                    continue;
+                }
+                ValueResult<Integer> result = ScalarisDataHandler.writeTextDictionary(
+                        connection, dictionary.getKey(), dictionary.getValue());
+                if (result.success) {
+                    WikiDumpHandler.println(System.out, " namespace " + nsStr
+                            + ": dictionary " + result.value + " ("
+                            + dictionary.getValue().length + " bytes)");
+                } else {
+                    System.err.println("failed to write text dictionary of namespace " + nsStr + ": " + result.message);
+                    System.exit(-1);
+                }
+            }
+        } catch (ConnectionException e) {
+            System.err.println("failed to connect to Scalaris: " + e.getMessage());
+            System.exit(-1);
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+    
+    private static byte[] trainTextDict(List<String> samples, int dictSize) {
+        final List<byte[]> samplesUtf8 = new ArrayList<byte[]>(samples.size());
+        for (String sample : samples) {
+            samplesUtf8.add(sample.getBytes(Charset.forName("UTF-8")));
+        }
+        return SQLiteValueCodec.trainDictionary(samplesUtf8, dictSize);
+    }
+
     /**
      * Exits from the VM if the handler had an error in the previous import
      * step.
@@ -310,20 +455,32 @@ public class Main {
         Options dbWriteOptions = new Options();
         if (args.length > i) {
             dbWriteOptionsStr = args[i];
-            Options.parseOptions(dbWriteOptions, null, null, null, null, null, null, null, null, dbWriteOptionsStr, null, null);
+            Options.parseOptions(dbWriteOptions, null, null, null, null, null, null, null, null, null, null, null, null, dbWriteOptionsStr, null, null, null);
         } else {
             System.err.println("need a new optimisation scheme for convert; arguments given: " + Arrays.toString(args));
             System.exit(-1);
             return;
         }
         ++i;
+        
+        int dictSamples = 0;
+        if (args.length > i && !args[i].isEmpty()) {
+            try {
+                dictSamples = Integer.parseInt(args[i]);
+            } catch (NumberFormatException e) {
+                System.err.println("no number: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        ++i;
 
         WikiDumpHandler.println(System.out, "converting");
         WikiDumpHandler.println(System.out, " from    : " + dbReadFileName);
         WikiDumpHandler.println(System.out, " to      : " + dbWriteFileName);
         WikiDumpHandler.println(System.out, " options : " + dbWriteOptionsStr);
+        WikiDumpHandler.println(System.out, " dict    : " + dictSamples + " samples");
         
-        WikiDumpConvertPreparedSQLite handler = new WikiDumpConvertPreparedSQLite(dbReadFileName, dbWriteFileName, dbWriteOptions);
+        WikiDumpConvertPreparedSQLite handler = new WikiDumpConvertPreparedSQLite(dbReadFileName, dbWriteFileName, dbWriteOptions, dictSamples);
         handler.setUp();
         WikiDumpConvertPreparedSQLite.ReportAtShutDown shutdownHook = handler.new ReportAtShutDown();
         Runtime.getRuntime().addShutdownHook(shutdownHook);
@@ -561,7 +718,8 @@ public class Main {
      * 
      * Gets the category and template trees from a file, i.e.
      * <tt>filename + "-trees.db"</tt>, or if this does not exist, builds the
-     * trees and stores them to this file.
+     * trees and stores them to this file. The trees are then walked inside
+     * the DB, see {@link CategoryTreeWalker}.
      * 
      * @param filename
      *            the name of the xml wiki dump file
@@ -585,16 +743,10 @@ public class Main {
             Set<String> allowedPages, LinkedList<String> rootCategories,
             int recursionLvl) throws RuntimeException, FileNotFoundException,
             IOException, SAXException {
-        Map<NormalisedTitle, Set<NormalisedTitle>> templateTree = new HashMap<NormalisedTitle, Set<NormalisedTitle>>();
-        Map<NormalisedTitle, Set<NormalisedTitle>> includeTree = new HashMap<NormalisedTitle, Set<NormalisedTitle>>();
-        Map<NormalisedTitle, Set<NormalisedTitle>> referenceTree = new HashMap<NormalisedTitle, Set<NormalisedTitle>>();
-
         File trees = new File(filename + "-trees.db");
         if (trees.exists()) {
-            // read trees from tree file
-            WikiDumpHandler.println(System.out, "reading category tree from " + trees.getAbsolutePath() + " ...");
-            WikiDumpGetCategoryTreeHandler.readTrees(trees.getAbsolutePath(),
-                    templateTree, includeTree, referenceTree);
+            // use existing tree file
+            WikiDumpHandler.println(System.out, "using category tree from " + trees.getAbsolutePath() + " ...");
         } else {
             // build trees from xml file
             // need to get all subcategories recursively, as they must be
@@ -603,16 +755,15 @@ public class Main {
             WikiDumpGetCategoryTreeHandler handler = new WikiDumpGetCategoryTreeHandler(
                     blacklist, null, maxTime, trees.getPath());
             runXmlHandler(handler, getFileReader(filename));
-            WikiDumpGetCategoryTreeHandler.readTrees(trees.getAbsolutePath(),
-                    templateTree, includeTree, referenceTree);
         }
 
         WikiDumpHandler.println(System.out, "creating list of pages to import (recursion level: " + recursionLvl + ") ...");
         Set<String> allowedCats = new HashSet<String>(rootCategories);
 
-        return WikiDumpGetCategoryTreeHandler.getPagesInCategories(
+        // walk the trees in the DB (they may not fit into memory)
+        return CategoryTreeWalker.getPagesInCategories(
                 trees.getAbsolutePath(), allowedCats, allowedPages, recursionLvl,
-                templateTree, includeTree, referenceTree, System.out, false);
+                System.out, false);
     }
     
     /**
@@ -636,12 +787,15 @@ public class Main {
             String file = files[i];
             InputStream is;
 
+            // decompress in a separate thread (parallel to XML parsing)
             if (file.endsWith(".xml.gz")) {
-                is = new GZIPInputStream(new FileInputStream(file));
+                is = new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file)));
             } else if (file.endsWith(".xml.bz2")) {
-                is = new BZip2CompressorInputStream(new FileInputStream(file));
+                // multistream dumps are decompressed by multiple threads
+                is = MultiStreamBZip2InputStream.open(new File(file),
+                        Runtime.getRuntime().availableProcessors());
             } else if (file.endsWith(".xml.7z")) {
-                is = new SevenZInputStream(new File(file));
+                is = new ReadAheadInputStream(new SevenZInputStream(new File(file)));
             } else if (file.endsWith(".xml")) {
                 is = new FileInputStream(file);
             } else {
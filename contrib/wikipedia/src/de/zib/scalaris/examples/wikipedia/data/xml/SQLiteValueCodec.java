@@ -0,0 +1,503 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.data.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteStatement;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+import de.zib.scalaris.CommonErlangObjects;
+import de.zib.scalaris.ErlangValue;
+
+/**
+ * Encodes and decodes the values of the <tt>objects</tt> table of a prepared
+ * SQLite DB.
+ *
+ * Values are stored as raw bytes without any Java serialisation. The first
+ * byte identifies the format:
+ * <ul>
+ * <li><tt>131</tt> - the Erlang external term format exactly as it is sent to
+ * Scalaris, i.e. the contents of the binary created by
+ * {@link CommonErlangObjects#encode(OtpErlangObject)}</li>
+ * <li><tt>'R'</tt> - values which are not encoded into a binary by
+ * {@link CommonErlangObjects#encode(OtpErlangObject)}, e.g. numbers, followed
+ * by their Erlang external term format</li>
+ * <li><tt>'D'</tt> - an uncompressed Erlang term which has been deflated with
+ * a preset dictionary: <tt>'D', DictId (1 byte), Size (4 bytes), Data</tt>;
+ * the dictionaries are stored in the {@link #DICT_TABLE} table of the same DB</li>
+ * <li><tt>0x1f</tt> - the legacy format, i.e. a GZIP-compressed Java
+ * serialisation of the {@link OtpErlangBinary} (read support only)</li>
+ * </ul>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class SQLiteValueCodec {
+    /**
+     * Name of the table storing the compression dictionaries.
+     */
+    public static final String DICT_TABLE = "codec_dicts";
+    /**
+     * Default (maximum) size of a trained dictionary (the deflate window size).
+     */
+    public static final int MAX_DICT_SIZE = 32 * 1024;
+
+    protected static final byte TAG_ETF = (byte) OtpExternal.versionTag;
+    protected static final byte TAG_RAW = (byte) 'R';
+    protected static final byte TAG_DICT = (byte) 'D';
+    protected static final byte TAG_LEGACY_GZIP = (byte) 0x1f;
+
+    /**
+     * Length of the segments the dictionary is trained with.
+     */
+    private static final int TRAIN_SEGMENT_SIZE = 32;
+
+    protected final Map<Integer, byte[]> dictionaries = new HashMap<Integer, byte[]>();
+    protected int encodeDictId = -1;
+
+    /**
+     * Creates a codec without compression dictionaries, i.e. values are
+     * encoded in the (compressed) Erlang external term format.
+     */
+    public SQLiteValueCodec() {
+    }
+
+    /**
+     * Gets the dictionary which is used for encoding.
+     *
+     * @return the dictionary or <tt>null</tt> if there is none
+     */
+    public byte[] getEncodeDictionary() {
+        if (encodeDictId == -1) {
+            return null;
+        }
+        return dictionaries.get(encodeDictId);
+    }
+
+    /**
+     * Adds a new dictionary and uses it for encoding from now on.
+     *
+     * @param dictionary
+     *            the dictionary to use
+     *
+     * @return the ID of the new dictionary
+     */
+    public int addEncodeDictionary(byte[] dictionary) {
+        int dictId = 0;
+        while (dictionaries.containsKey(dictId)) {
+            ++dictId;
+        }
+        if (dictId > 255) {
+            throw new IllegalStateException("too many dictionaries");
+        }
+        dictionaries.put(dictId, dictionary);
+        encodeDictId = dictId;
+        return dictId;
+    }
+
+    /**
+     * Encodes the given object to the Erlang value used by Scalaris and
+     * converts this value to bytes for use by SQLite.
+     *
+     * @param value
+     *            the value to encode
+     *
+     * @return the byte array
+     */
+    public <T> byte[] encode(T value) {
+        return encodeErlang(ErlangValue.convertToErlang(value));
+    }
+
+    /**
+     * Converts the given Erlang value to bytes for use by SQLite.
+     *
+     * @param value
+     *            the (not yet Scalaris-encoded) Erlang value
+     *
+     * @return the byte array
+     */
+    public byte[] encodeErlang(OtpErlangObject value) {
+        final OtpErlangObject encoded = CommonErlangObjects.encode(value);
+        if (!(encoded instanceof OtpErlangBinary)) {
+            final OtpOutputStream oos = new OtpOutputStream();
+            oos.write(TAG_RAW);
+            oos.write1(OtpExternal.versionTag);
+            oos.write_any(encoded);
+            return oos.toByteArray();
+        }
+        final byte[] etf = ((OtpErlangBinary) encoded).binaryValue();
+        final byte[] dict = getEncodeDictionary();
+        if (dict == null) {
+            return etf;
+        }
+        final OtpOutputStream oos = new OtpOutputStream();
+        oos.write_any(value);
+        final byte[] dictCompressed = deflateDict(encodeDictId, dict,
+                oos.toByteArray(), 0, oos.size());
+        return (dictCompressed.length < etf.length) ? dictCompressed : etf;
+    }
+
+    /**
+     * Converts the given bytes from SQLite into the Scalaris-encoded value, i.e.
+     * the value that Scalaris stores and which may be written with a
+     * {@link WikiDumpPreparedSQLiteToScalaris.WriteCompressedOp}.
+     *
+     * @param value
+     *            the byte array from SQLite
+     *
+     * @return the encoded Erlang value
+     *
+     * @throws IOException
+     *             if the value can not be read
+     */
+    public OtpErlangObject decodeEncoded(byte[] value) throws IOException {
+        if (value.length == 0) {
+            throw new IOException("empty value");
+        }
+        switch (value[0]) {
+            case TAG_ETF:
+                return new OtpErlangBinary(value);
+            case TAG_RAW:
+                try {
+                    return new OtpInputStream(value, 1, value.length - 1, 0).read_any();
+                } catch (OtpErlangDecodeException e) {
+                    throw new IOException(e);
+                }
+            case TAG_DICT:
+                return new OtpErlangBinary(inflateDictToEtf(value, true));
+            case TAG_LEGACY_GZIP:
+                try {
+                    return WikiDumpXml2SQLite.<OtpErlangObject>objectFromBytes(value);
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("unknown value format: " + value[0]);
+        }
+    }
+
+    /**
+     * Converts the given bytes from SQLite into the decoded Erlang value.
+     *
+     * @param value
+     *            the byte array from SQLite
+     *
+     * @return the decoded Erlang value
+     *
+     * @throws IOException
+     *             if the value can not be read
+     */
+    public OtpErlangObject decode(byte[] value) throws IOException {
+        try {
+            if (value.length > 0 && value[0] == TAG_DICT) {
+                // no need to re-compress the term:
+                return new OtpInputStream(inflateDictToEtf(value, false)).read_any();
+            }
+            return CommonErlangObjects.decode(decodeEncoded(value));
+        } catch (OtpErlangDecodeException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Converts the given bytes from SQLite into the decoded Erlang value.
+     *
+     * @param value
+     *            the byte array from SQLite
+     *
+     * @return the decoded value
+     *
+     * @throws IOException
+     *             if the value can not be read
+     */
+    public ErlangValue decodeValue(byte[] value) throws IOException {
+        return new ErlangValue(decode(value));
+    }
+
+    /**
+     * Converts bytes from SQLite (in any supported format) into the format
+     * this codec writes. Values which are already in this format are returned
+     * as is.
+     *
+     * @param value
+     *            the byte array from SQLite
+     *
+     * @return the (re-)encoded byte array
+     *
+     * @throws IOException
+     *             if the value can not be read
+     */
+    public byte[] transcode(byte[] value) throws IOException {
+        if (value.length > 0) {
+            if (value[0] == TAG_ETF && encodeDictId == -1) {
+                return value;
+            } else if (value[0] == TAG_RAW) {
+                return value;
+            } else if (value[0] == TAG_DICT && (value[1] & 0xff) == encodeDictId) {
+                return value;
+            }
+        }
+        return encodeErlang(decode(value));
+    }
+
+    private static byte[] deflateDict(int dictId, byte[] dict, byte[] data,
+            int offset, int length) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(dict);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 2 + 16);
+            bos.write(TAG_DICT);
+            bos.write(dictId);
+            final byte[] sizeBytes = ByteBuffer.allocate(4).putInt(length).array();
+            bos.write(sizeBytes, 0, sizeBytes.length);
+            final byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(buf);
+                bos.write(buf, 0, count);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates a dictionary-compressed value.
+     *
+     * @param value
+     *            the value (including the header)
+     * @param compress
+     *            whether to create a compressed external term format (as
+     *            Scalaris stores it) or an uncompressed one
+     *
+     * @return the term in the Erlang external term format
+     *
+     * @throws IOException
+     *             if the dictionary is unknown or the data is corrupt
+     */
+    private byte[] inflateDictToEtf(byte[] value, boolean compress) throws IOException {
+        final int dictId = value[1] & 0xff;
+        final byte[] dict = dictionaries.get(dictId);
+        if (dict == null) {
+            throw new IOException("unknown compression dictionary: " + dictId);
+        }
+        final int size = ByteBuffer.wrap(value, 2, 4).getInt();
+        final byte[] raw = new byte[size];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value, 6, value.length - 6);
+            int pos = 0;
+            while (pos < size) {
+                final int count = inflater.inflate(raw, pos, size - pos);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dict);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IOException("truncated value");
+                    }
+                }
+                pos += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+
+        if (!compress) {
+            final byte[] etf = new byte[size + 1];
+            etf[0] = TAG_ETF;
+            System.arraycopy(raw, 0, etf, 1, size);
+            return etf;
+        }
+        // compressed external term format: 131, 80, UncompressedSize, zlib(Term)
+        final Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(size / 2 + 16);
+            bos.write(TAG_ETF);
+            bos.write(OtpExternal.compressedTag);
+            final byte[] sizeBytes = ByteBuffer.allocate(4).putInt(size).array();
+            bos.write(sizeBytes, 0, sizeBytes.length);
+            final byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(buf);
+                bos.write(buf, 0, count);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Trains a preset dictionary for the deflate algorithm from a number of
+     * sample values.
+     *
+     * Splits all samples into segments and selects those segments which occur
+     * in most samples. The most frequent segments are placed at the end of
+     * the dictionary since deflate can reference these with shorter
+     * distances.
+     *
+     * @param samples
+     *            sample values (uncompressed Erlang terms)
+     * @param maxSize
+     *            maximum size of the dictionary (should not exceed
+     *            {@link #MAX_DICT_SIZE})
+     *
+     * @return a dictionary (may be empty if there are no common segments)
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int maxSize) {
+        final HashMap<ByteBuffer, Integer> segments = new HashMap<ByteBuffer, Integer>();
+        for (byte[] sample : samples) {
+            for (int i = 0; i + TRAIN_SEGMENT_SIZE <= sample.length; i += TRAIN_SEGMENT_SIZE / 2) {
+                final ByteBuffer segment = ByteBuffer.wrap(sample, i, TRAIN_SEGMENT_SIZE).slice();
+                final Integer count = segments.get(segment);
+                segments.put(segment, (count == null) ? 1 : (count + 1));
+            }
+        }
+        final List<Entry<ByteBuffer, Integer>> sorted =
+                new ArrayList<Entry<ByteBuffer, Integer>>(segments.size());
+        for (Entry<ByteBuffer, Integer> segment : segments.entrySet()) {
+            // segments only occurring once do not help
+            if (segment.getValue() > 1) {
+                sorted.add(segment);
+            }
+        }
+        // most frequent first
+        Collections.sort(sorted, new Comparator<Entry<ByteBuffer, Integer>>() {
+            @Override
+            public int compare(Entry<ByteBuffer, Integer> o1, Entry<ByteBuffer, Integer> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        final int dictSegments = Math.min(sorted.size(), maxSize / TRAIN_SEGMENT_SIZE);
+        final byte[] dict = new byte[dictSegments * TRAIN_SEGMENT_SIZE];
+        for (int i = 0; i < dictSegments; ++i) {
+            // fill from the end so that the most frequent segments are last
+            sorted.get(i).getKey().duplicate().get(dict,
+                    dict.length - (i + 1) * TRAIN_SEGMENT_SIZE, TRAIN_SEGMENT_SIZE);
+        }
+        return dict;
+    }
+
+    /**
+     * Trains a dictionary from the given Scalaris-encoded values.
+     *
+     * @param samples
+     *            sample values from SQLite (in any supported format)
+     * @param maxSize
+     *            maximum size of the dictionary
+     *
+     * @return a dictionary
+     *
+     * @throws IOException
+     *             if a value can not be read
+     *
+     * @see #trainDictionary(List, int)
+     */
+    public byte[] trainDictionaryFromValues(List<byte[]> samples, int maxSize)
+            throws IOException {
+        final List<byte[]> rawSamples = new ArrayList<byte[]>(samples.size());
+        for (byte[] sample : samples) {
+            final OtpOutputStream oos = new OtpOutputStream();
+            oos.write_any(decode(sample));
+            rawSamples.add(oos.toByteArray());
+        }
+        return trainDictionary(rawSamples, maxSize);
+    }
+
+    /**
+     * Creates a codec with all dictionaries of the given DB (if there are
+     * any).
+     *
+     * @param db
+     *            the DB to read from
+     *
+     * @return a codec which is able to decode all values in the DB
+     *
+     * @throws SQLiteException
+     *             if reading the dictionaries failed
+     */
+    public static SQLiteValueCodec readFrom(SQLiteConnection db) throws SQLiteException {
+        final SQLiteValueCodec codec = new SQLiteValueCodec();
+        final SQLiteStatement checkStmt = db
+                .prepare("SELECT name FROM sqlite_master WHERE type='table' AND name=?;");
+        try {
+            checkStmt.bind(1, DICT_TABLE);
+            if (!checkStmt.step()) {
+                return codec;
+            }
+        } finally {
+            checkStmt.dispose();
+        }
+        final SQLiteStatement stmt = db.prepare("SELECT id, dict FROM " + DICT_TABLE + ";");
+        try {
+            while (stmt.step()) {
+                codec.dictionaries.put(stmt.columnInt(0), stmt.columnBlob(1));
+            }
+        } finally {
+            stmt.dispose();
+        }
+        return codec;
+    }
+
+    /**
+     * Writes all dictionaries of this codec to the given DB.
+     *
+     * @param db
+     *            the DB to write to
+     *
+     * @throws SQLiteException
+     *             if writing the dictionaries failed
+     */
+    public void writeTo(SQLiteConnection db) throws SQLiteException {
+        if (dictionaries.isEmpty()) {
+            return;
+        }
+        db.exec("CREATE TABLE IF NOT EXISTS " + DICT_TABLE + "(id INTEGER PRIMARY KEY, dict BLOB);");
+        final SQLiteStatement stmt = db.prepare("REPLACE INTO " + DICT_TABLE + " (id, dict) VALUES (?, ?);");
+        try {
+            for (Entry<Integer, byte[]> dict : dictionaries.entrySet()) {
+                stmt.bind(1, dict.getKey()).bind(2, dict.getValue()).stepThrough().reset();
+            }
+        } finally {
+            stmt.dispose();
+        }
+    }
+}
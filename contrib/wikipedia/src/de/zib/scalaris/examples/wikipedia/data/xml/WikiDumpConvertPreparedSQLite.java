@@ -88,6 +88,17 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
 
     final Options dbWriteOptions;
     
+    /**
+     * Number of values to train a compression dictionary with (<tt>0</tt>
+     * for no dictionary compression).
+     */
+    final int dictSamples;
+    
+    /**
+     * Codec to read values from the old DB and write values to the new DB.
+     */
+    SQLiteValueCodec codec = null;
+    
     /**
      * Constructor.
      * 
@@ -104,9 +115,32 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
     public WikiDumpConvertPreparedSQLite(String dbReadFileName,
             String dbWriteFileName, Options dbWriteOptions)
             throws RuntimeException {
+        this(dbReadFileName, dbWriteFileName, dbWriteOptions, 0);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param dbReadFileName
+     *            the name of the database file to read from
+     * @param dbWriteFileName
+     *            the name of the database file to write to
+     * @param dbWriteOptions
+     *            optimisation scheme of the DB to write
+     * @param dictSamples
+     *            number of values to train a compression dictionary with
+     *            (<tt>0</tt> for no dictionary compression)
+     * 
+     * @throws RuntimeException
+     *             if the connection to Scalaris fails
+     */
+    public WikiDumpConvertPreparedSQLite(String dbReadFileName,
+            String dbWriteFileName, Options dbWriteOptions, int dictSamples)
+            throws RuntimeException {
         this.dbReadFileName = dbReadFileName;
         this.dbWriteFileName = dbWriteFileName;
         this.dbWriteOptions = dbWriteOptions;
+        this.dictSamples = dictSamples;
     }
 
     /**
@@ -224,6 +258,7 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                     dbWrite = SQLiteDataHandler.openDB(dbWriteFileName, false);
                     dbWrite.exec("CREATE TABLE objects(scalaris_key STRING PRIMARY KEY ASC, scalaris_value);");
                     stWrite = WikiDumpPrepareSQLiteForScalarisHandler.createWriteStmt(dbWrite);
+                    codec.writeTo(dbWrite);
                 } catch (SQLiteException e) {
                     throw new RuntimeException(e);
                 }
@@ -304,26 +339,29 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
         protected final String countKey;
         protected final byte[] value;
         protected final SQLiteStatement stWrite;
+        protected final SQLiteValueCodec codec;
         private final WikiDump importer;
         
         public SQLiteCopyList(WikiDump importer, String key, byte[] value,
-                String countKey, SQLiteStatement stWrite) {
+                String countKey, SQLiteStatement stWrite, SQLiteValueCodec codec) {
             this.importer = importer;
             this.key = key;
             this.value = value;
             this.stWrite = stWrite;
             this.countKey = countKey;
+            this.codec = codec;
         }
         
-        public static Collection<KVPair<Object>> splitOp(String key, String countKey, byte[] value) throws ClassNotFoundException, ClassCastException, IOException {
+        public static Collection<KVPair<Object>> splitOp(String key,
+                String countKey, byte[] value, SQLiteValueCodec codec)
+                throws ClassCastException, IOException {
             List<KVPair<Object>> result = new ArrayList<KVPair<Object>>(2);
             // write list
             result.add(new KVPair<Object>(key, value));
             // write count (if available)
             if (countKey != null) {
                 int listSize = ErlangValue.otpObjectToOtpList(
-                        WikiDumpPrepareSQLiteForScalarisHandler
-                                .objectFromBytes2(value).value()).arity();
+                        codec.decode(value)).arity();
                 result.add(new KVPair<Object>(countKey, listSize));
             }
             
@@ -333,14 +371,14 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
         @Override
         public void run() {
             try {
-                Collection<KVPair<Object>> operations = splitOp(key, countKey, value);
+                Collection<KVPair<Object>> operations = splitOp(key, countKey, value, codec);
                 for (KVPair<Object> kvPair : operations) {
                     try {
                         byte[] valueB;
                         if (kvPair.value instanceof byte[]) {
-                            valueB = (byte[]) kvPair.value;
+                            valueB = codec.transcode((byte[]) kvPair.value);
                         } else {
-                            valueB = WikiDumpPrepareSQLiteForScalarisHandler.objectToBytes(kvPair.value);
+                            valueB = codec.encode(kvPair.value);
                         }
                         stWrite.bind(1, kvPair.key).bind(2, valueB).stepThrough();
                     } catch (SQLiteException e) {
@@ -355,8 +393,6 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                 }
             } catch (IOException e) {
                 importer.error("split of " + key + " failed (error: " + e.toString() + ")");
-            } catch (ClassNotFoundException e) {
-                importer.error("split of " + key + " failed (error: " + e.toString() + ")");
             } catch (ClassCastException e) {
                 importer.error("split of " + key + " failed (error: " + e.toString() + ")");
             }
@@ -369,22 +405,24 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
         protected List<ErlangValue> value;
         protected final SQLiteStatement stWrite;
         protected final IBuckets optimisation;
+        protected final SQLiteValueCodec codec;
         private final WikiDump importer;
         
         public SQLiteWriteBucketListJob(WikiDump importer, String key,
                 List<ErlangValue> value, String countKey,
                 SQLiteStatement stWrite,
-                IBuckets optimisation) {
+                IBuckets optimisation, SQLiteValueCodec codec) {
             this.importer = importer;
             this.key = key;
             this.value = value;
             this.stWrite = stWrite;
             this.optimisation = optimisation;
             this.countKey = countKey;
+            this.codec = codec;
         }
 
         protected static HashMap<String, List<ErlangValue>> splitList(IBuckets optimisation, List<ErlangValue> value)
-                throws RuntimeException, ClassNotFoundException, IOException {
+                throws RuntimeException {
             // split lists:
             int bucketsToUse;
             if (optimisation instanceof IReadBuckets) {
@@ -426,22 +464,18 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                         // write list
                         final String key2 = key + newList.getKey();
                         try {
-                            stWrite.bind(1, key2).bind(2, WikiDumpPrepareSQLiteForScalarisHandler.objectToBytes(newList.getValue())).stepThrough();
+                            stWrite.bind(1, key2).bind(2, codec.encode(newList.getValue())).stepThrough();
                         } catch (SQLiteException e) {
                             importer.error("write of " + key2 + " failed (sqlite error: " + e.toString() + ")");
-                        } catch (IOException e) {
-                            importer.error("write of " + key2 + " failed (error: " + e.toString() + ")");
                         }
                         // write count (if available)
                         if (countKey != null) {
                             final String countKey2 = countKey + newList.getKey();
                             try {
                                 stWrite.reset();
-                                stWrite.bind(1, countKey2).bind(2, WikiDumpPrepareSQLiteForScalarisHandler.objectToBytes(newList.getValue().size())).stepThrough();
+                                stWrite.bind(1, countKey2).bind(2, codec.encode(newList.getValue().size())).stepThrough();
                             } catch (SQLiteException e) {
                                 importer.error("write of " + countKey2 + " failed (sqlite error: " + e.toString() + ")");
-                            } catch (IOException e) {
-                                importer.error("write of " + countKey2 + " failed (error: " + e.toString() + ")");
                             }
                         }
                     } finally {
@@ -464,16 +498,18 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
         protected final int value;
         protected final SQLiteStatement stWrite;
         protected final IBuckets optimisation;
+        protected final SQLiteValueCodec codec;
         private final WikiDump importer;
         
         public SQLiteWriteBucketCounterJob(WikiDump importer, String key,
                 int value, SQLiteStatement stWrite,
-                IBuckets optimisation) {
+                IBuckets optimisation, SQLiteValueCodec codec) {
             this.importer = importer;
             this.key = key;
             this.value = value;
             this.stWrite = stWrite;
             this.optimisation = optimisation;
+            this.codec = codec;
         }
         
         public static Collection<KVPair<Integer>> splitCounter(IBuckets optimisation, String key, int value) {
@@ -510,11 +546,9 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
             Collection<KVPair<Integer>> operations = splitCounter(optimisation, key, value);
             for (KVPair<Integer> kvPair : operations) {
                 try {
-                    stWrite.bind(1, kvPair.key).bind(2, WikiDumpPrepareSQLiteForScalarisHandler.objectToBytes(kvPair.value)).stepThrough();
+                    stWrite.bind(1, kvPair.key).bind(2, codec.encode(kvPair.value)).stepThrough();
                 } catch (SQLiteException e) {
                     importer.error("write of " + kvPair.key + " failed (sqlite error: " + e.toString() + ")");
-                } catch (IOException e) {
-                    importer.error("write of " + kvPair.key + " failed (error: " + e.toString() + ")");
                 } finally {
                     try {
                         stWrite.reset();
@@ -589,8 +623,7 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                         IBuckets optimisation = (IBuckets) convOp.optimisation;
                         switch (convOp.listOrCount) {
                             case LIST:
-                                List<ErlangValue> listVal = WikiDumpPrepareSQLiteForScalarisHandler
-                                        .objectFromBytes2(value).listValue();
+                                List<ErlangValue> listVal = codec.decodeValue(value).listValue();
                                 String countKey;
                                 if (convOp.countKeyOptimisation == null) {
                                     // integrated counter
@@ -604,11 +637,10 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                                         final int countValue = listSize;
                                         addSQLiteJob(new SQLiteWriteBucketCounterJob(
                                                 this, convOp.countKey, countValue, stWrite,
-                                                (IBuckets) convOp.countKeyOptimisation));
+                                                (IBuckets) convOp.countKeyOptimisation, codec));
                                     } else {
                                         // copy counter
-                                        final byte[] countValue = WikiDumpPrepareSQLiteForScalarisHandler
-                                                .objectToBytes(listSize);
+                                        final byte[] countValue = codec.encode(listSize);
                                         addSQLiteJob(new SQLiteWriteBytesJob(
                                                 this, convOp.countKey,
                                                 countValue, stWrite));
@@ -616,14 +648,13 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                                 }
                                 addSQLiteJob(new SQLiteWriteBucketListJob(
                                         this, key, listVal, countKey,
-                                        stWrite, optimisation));
+                                        stWrite, optimisation, codec));
                                 break;
                             case COUNTER:
-                                final int countValue = WikiDumpPrepareSQLiteForScalarisHandler
-                                        .objectFromBytes2(value).intValue();
+                                final int countValue = codec.decodeValue(value).intValue();
                                 addSQLiteJob(new SQLiteWriteBucketCounterJob(
                                         this, key, countValue, stWrite,
-                                        optimisation));
+                                        optimisation, codec));
                                 break;
                             default:
                                 break;
@@ -631,9 +662,10 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
                     } else if (convOp.optimisation != null ) {
                         assert (convOp.countKeyOptimisation == null);
                         if (convOp.listOrCount == ListOrCountOp.LIST) {
-                            addSQLiteJob(new SQLiteCopyList(this, key, value, convOp.countKey, stWrite));
+                            addSQLiteJob(new SQLiteCopyList(this, key, value, convOp.countKey, stWrite, codec));
                         } else {
-                            addSQLiteJob(new SQLiteWriteBytesJob(this, key, value, stWrite));
+                            // copy the bytes (only re-encoded if the format differs)
+                            addSQLiteJob(new SQLiteWriteBytesJob(this, key, codec.transcode(value), stWrite));
                         }
                     }
                     if ((importedKeys % PRINT_SCALARIS_KV_PAIRS_EVERY) == 0) {
@@ -648,9 +680,6 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
         } catch (SQLiteException e) {
             error("read failed (sqlite error: " + e.toString() + ")");
             throw new RuntimeException(e);
-        } catch (ClassNotFoundException e) {
-            error("read failed (sqlite error: " + e.toString() + ")");
-            throw new RuntimeException(e);
         } catch (IOException e) {
             error("read failed (error: " + e.toString() + ")");
             throw new RuntimeException(e);
@@ -764,10 +793,17 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
     public void setUp() {
         try {
             dbRead = SQLiteDataHandler.openDB(dbReadFileName, true, null);
+            codec = SQLiteValueCodec.readFrom(dbRead);
+            if (dictSamples > 0) {
+                trainDictionary();
+            }
             stRead = dbRead.prepare("SELECT scalaris_key, scalaris_value FROM objects");
         } catch (SQLiteException e) {
             error("Cannot read database: " + dbReadFileName);
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            error("Cannot train compression dictionary: " + e.toString());
+            throw new RuntimeException(e);
         }
         println("Converting prepared SQLite wiki dump ...");
         sqliteWorker.start();
@@ -781,6 +817,38 @@ public class WikiDumpConvertPreparedSQLite implements WikiDump {
         }
     }
 
+    /**
+     * Trains a compression dictionary with (up to) {@link #dictSamples}
+     * values evenly distributed over the objects table and sets it as the
+     * encoding dictionary of {@link #codec}.
+     * 
+     * @throws SQLiteException
+     * @throws IOException
+     */
+    private void trainDictionary() throws SQLiteException, IOException {
+        println("Training compression dictionary with " + dictSamples + " values ...");
+        final List<byte[]> samples = new ArrayList<byte[]>(dictSamples);
+        final SQLiteStatement stmt = dbRead
+                .prepare("SELECT scalaris_value FROM objects WHERE (rowid % "
+                        + "(SELECT MAX(1, COUNT(*) / ?) FROM objects)) == 0 LIMIT ?;");
+        try {
+            stmt.bind(1, dictSamples).bind(2, dictSamples);
+            while (stmt.step()) {
+                samples.add(stmt.columnBlob(0));
+            }
+        } finally {
+            stmt.dispose();
+        }
+        final byte[] dict = codec.trainDictionaryFromValues(samples,
+                SQLiteValueCodec.MAX_DICT_SIZE);
+        if (dict.length > 0) {
+            codec.addEncodeDictionary(dict);
+            println("  dictionary size: " + dict.length + " bytes");
+        } else {
+            println("  no common data found - not using a dictionary");
+        }
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#finalize()
      */
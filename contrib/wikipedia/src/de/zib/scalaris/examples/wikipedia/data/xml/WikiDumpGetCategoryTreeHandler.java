@@ -29,6 +29,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 
 import com.almworks.sqlite4java.SQLiteConnection;
 import com.almworks.sqlite4java.SQLiteException;
@@ -37,8 +38,10 @@ import com.almworks.sqlite4java.SQLiteStatement;
 import de.zib.scalaris.examples.wikipedia.SQLiteDataHandler;
 import de.zib.scalaris.examples.wikipedia.ScalarisDataHandlerNormalised;
 import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace;
+import de.zib.scalaris.examples.wikipedia.bliki.MyParsingWikiModel;
 import de.zib.scalaris.examples.wikipedia.bliki.MyWikiModel;
 import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
+import de.zib.scalaris.examples.wikipedia.bliki.TitleTable;
 import de.zib.scalaris.examples.wikipedia.data.Page;
 import de.zib.scalaris.examples.wikipedia.data.SiteInfo;
 
@@ -155,78 +158,110 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
     /**
      * Builds the category tree.
      * 
+     * The page is analysed in one of the page analysis threads and written
+     * in the original order, see {@link #submitPageJob(Callable)}.
+     * 
      * @param page_xml
      *            the page object extracted from XML
      */
     @Override
     protected void export(XmlPage page_xml) {
-        Page page = page_xml.getPage();
-
-        if (page.getCurRev() != null && wikiModel != null) {
-            wikiModel.setUp();
-            final NormalisedTitle normTitle = wikiModel.normalisePageTitle(page.getTitle());
-            wikiModel.setNamespaceName(wikiModel.getNamespace().getNamespaceByNumber(normTitle.namespace));
-            wikiModel.setPageName(normTitle.title);
-            wikiModel.renderPageWithCache(null, page.getCurRev().unpackedText());
-            
-            // categories:
-            do {
-                final Set<String> pageCategories_raw = wikiModel.getCategories().keySet();
-                ArrayList<NormalisedTitle> pageCategories = new ArrayList<NormalisedTitle>(pageCategories_raw.size());
-                for (String cat_raw: pageCategories_raw) {
-                    NormalisedTitle category = new NormalisedTitle(
-                            MyNamespace.CATEGORY_NAMESPACE_KEY,
-                            MyWikiModel.normaliseName(cat_raw));
-                    pageCategories.add(category);
+        // get a copy of the page (page_xml will be re-used)
+        final Page page = page_xml.getPage();
+        submitPageJob(new Callable<Runnable>() {
+            @Override
+            public Runnable call() {
+                return analysePage(page);
+            }
+        });
+    }
+
+    /**
+     * Analyses the given page (executed in one of the page analysis threads)
+     * and creates the job writing the results to the DB.
+     * 
+     * @param page
+     *            the page to analyse
+     * 
+     * @return a job writing the page's dependencies
+     */
+    private Runnable analysePage(final Page page) {
+        final MyParsingWikiModel wikiModel = getAnalysisWikiModel();
+        if (page.getCurRev() == null || wikiModel == null) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    countPage();
                 }
+            };
+        }
+        wikiModel.setUp();
+        final NormalisedTitle normTitle = wikiModel.normalisePageTitle(page.getTitle());
+        wikiModel.setNamespaceName(wikiModel.getNamespace().getNamespaceByNumber(normTitle.namespace));
+        wikiModel.setPageName(normTitle.title);
+        wikiModel.renderPageWithCache(null, page.getCurRev().unpackedText());
+
+        // categories:
+        final Set<String> pageCategories_raw = wikiModel.getCategories().keySet();
+        final ArrayList<NormalisedTitle> pageCategories = new ArrayList<NormalisedTitle>(pageCategories_raw.size());
+        for (String cat_raw: pageCategories_raw) {
+            NormalisedTitle category = new NormalisedTitle(
+                    MyNamespace.CATEGORY_NAMESPACE_KEY,
+                    MyWikiModel.normaliseName(cat_raw));
+            pageCategories.add(category);
+        }
+
+        // templates:
+        final Set<String> pageTemplates_raw = wikiModel.getTemplatesNoMagicWords();
+        final ArrayList<NormalisedTitle> pageTemplates = new ArrayList<NormalisedTitle>(pageTemplates_raw.size());
+        for (String tpl_raw: pageTemplates_raw) {
+            NormalisedTitle template = new NormalisedTitle(
+                    MyNamespace.TEMPLATE_NAMESPACE_KEY,
+                    MyWikiModel.normaliseName(tpl_raw));
+            pageTemplates.add(template);
+        }
+
+        // includes:
+        final Set<String> pageIncludes = wikiModel.getIncludes();
+        final ArrayList<NormalisedTitle> normPageIncludes = new ArrayList<NormalisedTitle>(pageIncludes.size());
+        wikiModel.normalisePageTitles(pageIncludes, normPageIncludes);
+
+        // redirections:
+        final String pageRedirLink = wikiModel.getRedirectLink();
+        final NormalisedTitle normPageRedirLink = (pageRedirLink == null) ? null
+                : wikiModel.normalisePageTitle(pageRedirLink);
+
+        // links:
+        final Set<String> pageLinks = wikiModel.getLinks();
+        final ArrayList<NormalisedTitle> normPageLinks = new ArrayList<NormalisedTitle>(pageLinks.size());
+        wikiModel.normalisePageTitles(pageLinks, normPageLinks);
+
+        wikiModel.tearDown();
+
+        return new Runnable() {
+            @Override
+            public void run() {
                 writeValues(stWriteCategories, normTitle, pageCategories);
-            } while(false);
-            
-            // templates:
-            do {
-                final Set<String> pageTemplates_raw = wikiModel.getTemplatesNoMagicWords();
-                ArrayList<NormalisedTitle> pageTemplates = new ArrayList<NormalisedTitle>(pageTemplates_raw.size());
-                for (String tpl_raw: pageTemplates_raw) {
-                    NormalisedTitle template = new NormalisedTitle(
-                            MyNamespace.TEMPLATE_NAMESPACE_KEY,
-                            MyWikiModel.normaliseName(tpl_raw));
-                    pageTemplates.add(template);
-                }
                 writeValues(stWriteTemplates, normTitle, pageTemplates);
-            } while (false);
-            
-            // includes:
-            do {
-                Set<String> pageIncludes = wikiModel.getIncludes();
-                if (!pageIncludes.isEmpty()) {
-                    // make sure, the pageIncludes set is not changed anymore (deferred processing in the thread taking place):
-                    ArrayList<NormalisedTitle> normPageIncludes = new ArrayList<NormalisedTitle>(pageIncludes.size());
-                    wikiModel.normalisePageTitles(pageIncludes, normPageIncludes);
+                if (!normPageIncludes.isEmpty()) {
                     writeValues(stWriteIncludes, normTitle, normPageIncludes);
                 }
-            } while (false);
-            
-            // redirections:
-            do {
-                String pageRedirLink = wikiModel.getRedirectLink();
-                if (pageRedirLink != null) {
-                    writeValue(stWriteRedirects, normTitle, wikiModel.normalisePageTitle(pageRedirLink));
+                if (normPageRedirLink != null) {
+                    writeValue(stWriteRedirects, normTitle, normPageRedirLink);
                 }
-            } while(false);
-            
-            // links:
-            do {
-                Set<String> pageLinks = wikiModel.getLinks();
-                if (!pageLinks.isEmpty()) {
-                    // make sure, the pageIncludes set is not changed anymore (deferred processing in the thread taking place):
-                    ArrayList<NormalisedTitle> normPageLinks = new ArrayList<NormalisedTitle>(pageLinks.size());
-                    wikiModel.normalisePageTitles(pageLinks, normPageLinks);
+                if (!normPageLinks.isEmpty()) {
                     writeValues(stWriteLinks, normTitle, normPageLinks);
                 }
-            } while(false);
-            
-            wikiModel.tearDown();
-        }
+                countPage();
+            }
+        };
+    }
+
+    /**
+     * Increases the page count and prints the progress (executed in the
+     * export thread).
+     */
+    private void countPage() {
         ++pageCount;
         // only export page list every UPDATE_PAGELIST_EVERY pages:
         if ((pageCount % PRINT_PAGES_EVERY) == 0) {
@@ -269,17 +304,40 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
             Set<NormalisedTitle> subChilds = tree.get(curChild);
             if (subChilds != null) {
                 // only add new children to the root list
-                // (remove already processed ones)
+                // (skip already processed ones)
                 // -> prevents endless loops in circles
-                Set<NormalisedTitle> newChilds = new HashSet<NormalisedTitle>(subChilds);
-                newChilds.removeAll(allChildren);
-                allChildren.addAll(newChilds);
-                roots.addAll(newChilds);
+                for (NormalisedTitle subChild : subChilds) {
+                    if (allChildren.add(subChild)) {
+                        roots.add(subChild);
+                    }
+                }
             }
         }
         return allChildren;
     }
 
+    /**
+     * Creates the indices on the edge tables of a category tree DB (if they
+     * do not exist yet).
+     * 
+     * @param db
+     *            connection to the category tree DB
+     * 
+     * @throws SQLiteException
+     *             if an error occurs
+     */
+    static void createIndices(SQLiteConnection db) throws SQLiteException {
+        db.exec("CREATE INDEX IF NOT EXISTS cat_titles ON categories(title);");
+        db.exec("CREATE INDEX IF NOT EXISTS tpl_titles ON templates(title);");
+        db.exec("CREATE INDEX IF NOT EXISTS incl_titles ON includes(title);");
+        db.exec("CREATE INDEX IF NOT EXISTS redir_titles ON redirects(title);");
+        db.exec("CREATE INDEX IF NOT EXISTS lnk_titles ON links(title);");
+        // reverse edges (see CategoryTreeWalker):
+        db.exec("CREATE INDEX IF NOT EXISTS cat_categories ON categories(category);");
+        db.exec("CREATE INDEX IF NOT EXISTS tpl_templates ON templates(template);");
+        db.exec("CREATE INDEX IF NOT EXISTS redir_redirects ON redirects(redirect);");
+    }
+
     /* (non-Javadoc)
      * @see de.zib.scalaris.examples.wikipedia.data.xml.WikiDumpHandler#setUp()
      */
@@ -317,6 +375,9 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
     /**
      * Reads the given parameter trees from the DB file.
      * 
+     * Titles are pooled, i.e. each distinct title is only kept once in the
+     * trees.
+     * 
      * @param dbFileName
      *            name of the DB file
      * @param templateTree
@@ -336,6 +397,7 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
             throws RuntimeException {
         SQLiteConnection db = null;
         SQLiteStatement stmt = null;
+        final TitleTable titles = new TitleTable();
         try {
             db = SQLiteDataHandler.openDB(dbFileName, true);
             stmt = db
@@ -344,8 +406,8 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
                             "INNER JOIN pages AS tpl ON templates.template == tpl.id " +
                             "WHERE page.title LIKE '" + (new NormalisedTitle(MyNamespace.TEMPLATE_NAMESPACE_KEY, "")).toString() + "%';");
             while (stmt.step()) {
-                NormalisedTitle pageTitle = NormalisedTitle.fromNormalised(stmt.columnString(0));
-                NormalisedTitle template = NormalisedTitle.fromNormalised(stmt.columnString(1));
+                NormalisedTitle pageTitle = titles.pool(NormalisedTitle.fromNormalised(stmt.columnString(0)));
+                NormalisedTitle template = titles.pool(NormalisedTitle.fromNormalised(stmt.columnString(1)));
                 updateMap(templateTree, pageTitle, template);
             }
             stmt.dispose();
@@ -354,8 +416,8 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
                             "includes INNER JOIN pages AS page ON includes.title == page.id " +
                             "INNER JOIN pages AS incl ON includes.include == incl.id;");
             while (stmt.step()) {
-                NormalisedTitle pageTitle = NormalisedTitle.fromNormalised(stmt.columnString(0));
-                NormalisedTitle include = NormalisedTitle.fromNormalised(stmt.columnString(1));
+                NormalisedTitle pageTitle = titles.pool(NormalisedTitle.fromNormalised(stmt.columnString(0)));
+                NormalisedTitle include = titles.pool(NormalisedTitle.fromNormalised(stmt.columnString(1)));
                 updateMap(includeTree, pageTitle, include);
             }
             stmt.dispose();
@@ -364,8 +426,8 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
                             "redirects INNER JOIN pages AS page ON redirects.title == page.id " +
                             "INNER JOIN pages AS redir ON redirects.redirect == redir.id;");
             while (stmt.step()) {
-                NormalisedTitle pageTitle = NormalisedTitle.fromNormalised(stmt.columnString(0));
-                NormalisedTitle redirect = NormalisedTitle.fromNormalised(stmt.columnString(1));
+                NormalisedTitle pageTitle = titles.pool(NormalisedTitle.fromNormalised(stmt.columnString(0)));
+                NormalisedTitle redirect = titles.pool(NormalisedTitle.fromNormalised(stmt.columnString(1)));
                 updateMap(referenceTree, redirect, pageTitle);
             }
         } catch (SQLiteException e) {
@@ -384,6 +446,10 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
     /**
      * Extracts all pages in the given categories from the given DB.
      * 
+     * Note: this needs all trees in memory - use
+     * {@link CategoryTreeWalker#getPagesInCategories(String, Set, Set, int, PrintStream, boolean)}
+     * for large dumps.
+     * 
      * @param dbFileName
      *            name of the DB file
      * @param allowedCats0
@@ -817,11 +883,7 @@ public class WikiDumpGetCategoryTreeHandler extends WikiDumpHandler {
                     job.run();
                 }
                 try {
-                    db.exec("CREATE INDEX cat_titles ON categories(title);");
-                    db.exec("CREATE INDEX tpl_titles ON templates(title);");
-                    db.exec("CREATE INDEX incl_titles ON includes(title);");
-                    db.exec("CREATE INDEX redir_titles ON redirects(title);");
-                    db.exec("CREATE INDEX lnk_titles ON links(title);");
+                    createIndices(db);
                 } catch (SQLiteException e) {
                     throw new RuntimeException(e);
                 }
@@ -22,6 +22,13 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -52,6 +59,24 @@ public abstract class WikiDumpHandler extends DefaultHandler implements WikiDump
     private Set<NormalisedTitle> whitelist = null;
     
     protected MyParsingWikiModel wikiModel;
+
+    /**
+     * Wiki models for the threads analysing pages, see
+     * {@link #getAnalysisWikiModel()}.
+     */
+    private ThreadLocal<MyParsingWikiModel> analysisWikiModels = null;
+
+    /**
+     * Number of threads analysing pages in parallel, see
+     * {@link #submitPageJob(Callable)}.
+     */
+    private int analysisThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Currently running page analysis pipeline (<tt>null</tt> if not
+     * started).
+     */
+    private PageJobPipeline pageJobs = null;
     
     /**
      * The time at the start of an import operation.
@@ -263,7 +288,16 @@ public abstract class WikiDumpHandler extends DefaultHandler implements WikiDump
     }
     
     private void setUpWikiModel(SiteInfo siteinfo) {
-        wikiModel = new MyParsingWikiModel("", "", new MyNamespace(siteinfo));
+        // pending pages have been analysed with the old siteinfo:
+        finishPageJobs();
+        final MyNamespace namespace = new MyNamespace(siteinfo);
+        wikiModel = new MyParsingWikiModel("", "", namespace);
+        analysisWikiModels = new ThreadLocal<MyParsingWikiModel>() {
+            @Override
+            protected MyParsingWikiModel initialValue() {
+                return new MyParsingWikiModel("", "", namespace);
+            }
+        };
         // we are now able to normalise the page titles in the whitelist:
         if (whitelist0 != null) {
             this.whitelist = new HashSet<NormalisedTitle>(whitelist0.size());
@@ -295,6 +329,92 @@ public abstract class WikiDumpHandler extends DefaultHandler implements WikiDump
      */
     protected abstract void export(XmlPage page);
 
+    /**
+     * Sets the number of threads analysing pages in parallel (default: number
+     * of available processors). Must be called before the import starts.
+     * 
+     * @param analysisThreads
+     *            the number of threads, values <tt>&lt;= 1</tt> process all
+     *            pages in the parsing thread
+     */
+    public void setAnalysisThreads(int analysisThreads) {
+        this.analysisThreads = analysisThreads;
+    }
+
+    /**
+     * Gets the wiki model to use for analysing pages in the current thread.
+     * 
+     * Each thread executing page jobs submitted via
+     * {@link #submitPageJob(Callable)} uses its own model, only the parsing
+     * thread uses {@link #wikiModel}.
+     * 
+     * @return a wiki model set up with the current siteinfo or <tt>null</tt>
+     *         if no siteinfo has been read yet
+     */
+    protected MyParsingWikiModel getAnalysisWikiModel() {
+        if (analysisThreads <= 1 || analysisWikiModels == null) {
+            return wikiModel;
+        }
+        return analysisWikiModels.get();
+    }
+
+    /**
+     * Submits a page job to the analysis pipeline.
+     * 
+     * The job itself is executed by one of {@link #analysisThreads} threads
+     * (in any order) and should do the CPU-intensive work, e.g. rendering
+     * the page with {@link #getAnalysisWikiModel()}. The returned
+     * {@link Runnable} (if not <tt>null</tt>) is executed by a single export
+     * thread in the order the jobs have been submitted and may thus safely
+     * update the handler's state and export the results.
+     * 
+     * If parallel analysis is disabled, both are executed immediately in the
+     * calling thread.
+     * 
+     * @param job
+     *            the job to execute
+     * 
+     * @throws RuntimeException
+     *             if a previous job failed or the calling thread was
+     *             interrupted
+     */
+    protected void submitPageJob(Callable<Runnable> job) throws RuntimeException {
+        if (analysisThreads <= 1) {
+            try {
+                Runnable export = job.call();
+                if (export != null) {
+                    export.run();
+                }
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        if (pageJobs == null) {
+            pageJobs = new PageJobPipeline(analysisThreads);
+            pageJobs.start();
+        }
+        pageJobs.submit(job);
+    }
+
+    /**
+     * Waits for all submitted page jobs to finish and stops the analysis
+     * pipeline (a new one will be started with the next submitted job).
+     * 
+     * @throws RuntimeException
+     *             if any of the jobs failed or the calling thread was
+     *             interrupted
+     */
+    protected void finishPageJobs() throws RuntimeException {
+        if (pageJobs != null) {
+            PageJobPipeline oldPageJobs = pageJobs;
+            pageJobs = null;
+            oldPageJobs.finish();
+        }
+    }
+
     /* (non-Javadoc)
      * @see de.zib.scalaris.examples.wikipedia.data.xml.WikiDump#setUp()
      */
@@ -307,6 +427,121 @@ public abstract class WikiDumpHandler extends DefaultHandler implements WikiDump
      */
     @Override
     public void tearDown() {
+        finishPageJobs();
+    }
+
+    /**
+     * Pipeline analysing pages in a thread pool and exporting the results in
+     * the original page order in a separate thread.
+     * 
+     * The number of pages in the pipeline is bounded so that the parsing
+     * thread blocks if analysing or exporting is too slow.
+     * 
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private static class PageJobPipeline extends Thread {
+        private final static Future<Runnable> END = new FutureTask<Runnable>(
+                new Callable<Runnable>() {
+                    @Override
+                    public Runnable call() {
+                        return null;
+                    }
+                });
+        private final ExecutorService executor;
+        private final ArrayBlockingQueue<Future<Runnable>> jobs;
+        private volatile Throwable failure = null;
+
+        /**
+         * Creates a new pipeline.
+         * 
+         * @param threads
+         *            number of threads analysing pages
+         */
+        public PageJobPipeline(int threads) {
+            super("WikiDumpHandler.PageJobPipeline");
+            executor = Executors.newFixedThreadPool(threads);
+            jobs = new ArrayBlockingQueue<Future<Runnable>>(4 * threads);
+        }
+
+        /**
+         * Submits a new job.
+         * 
+         * @param job
+         *            the job to execute
+         * 
+         * @throws RuntimeException
+         *             if a previous job failed or the calling thread was
+         *             interrupted
+         */
+        public void submit(Callable<Runnable> job) throws RuntimeException {
+            checkFailure();
+            try {
+                jobs.put(executor.submit(job));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Waits for all jobs to finish and stops the pipeline.
+         * 
+         * @throws RuntimeException
+         *             if any job failed or the calling thread was interrupted
+         */
+        public void finish() throws RuntimeException {
+            try {
+                jobs.put(END);
+                join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                executor.shutdownNow();
+            }
+            checkFailure();
+        }
+
+        private void checkFailure() throws RuntimeException {
+            final Throwable e = failure;
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Future<Runnable> job;
+                try {
+                    job = jobs.take();
+                } catch (InterruptedException e) {
+                    failure = e;
+                    return;
+                }
+                if (job == END) {
+                    return;
+                }
+                // keep taking jobs after a failure so that the parsing
+                // thread does not block (it will stop at the next submit)
+                if (failure != null) {
+                    job.cancel(false);
+                    continue;
+                }
+                try {
+                    Runnable export = job.get();
+                    if (export != null) {
+                        export.run();
+                    }
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+        }
     }
 
     /**
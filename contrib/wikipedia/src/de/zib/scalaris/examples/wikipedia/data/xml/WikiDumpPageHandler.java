@@ -6,9 +6,11 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace;
 import de.zib.scalaris.examples.wikipedia.bliki.MyNamespace.NamespaceEnum;
+import de.zib.scalaris.examples.wikipedia.bliki.MyParsingWikiModel;
 import de.zib.scalaris.examples.wikipedia.bliki.MyWikiModel;
 import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
 import de.zib.scalaris.examples.wikipedia.data.Page;
@@ -107,52 +109,122 @@ public abstract class WikiDumpPageHandler extends WikiDumpHandler {
     }
 
     /**
-     * Exports the given page (including all revisions) to Scalaris
+     * Exports the given page (including all revisions) to Scalaris.
+     * 
+     * The page is analysed in one of the page analysis threads and exported
+     * in the original order, see {@link #submitPageJob(Callable)}.
      * 
      * @param page_xml
      *            the page object extracted from XML
      */
     @Override
     protected void export(XmlPage page_xml) {
-        Page page = page_xml.getPage();
-        ++pageCount;
-        
-        if (page.getCurRev() != null) {
-            List<Revision> revisions = page_xml.getRevisions();
-            List<ShortRevision> revisions_short = ShortRevision.fromRevisions(revisions);
-            Collections.sort(revisions, Collections.reverseOrder(new byRevId()));
-            Collections.sort(revisions_short, Collections.reverseOrder(new byShortRevId()));
-
-            assert(wikiModel != null);
-            final NormalisedTitle normTitle = wikiModel.normalisePageTitle(page.getTitle());
-            if (!revisions.isEmpty()) {
-                wikiModel.setUp();
-                wikiModel.setNamespaceName(wikiModel.getNamespace().getNamespaceByNumber(normTitle.namespace));
-                wikiModel.setPageName(normTitle.title);
-                wikiModel.renderPageWithCache(null, revisions.get(0).unpackedText());
-                for (String cat_raw: wikiModel.getCategories().keySet()) {
-                    NormalisedTitle category = new NormalisedTitle(
-                            MyNamespace.CATEGORY_NAMESPACE_KEY,
-                            MyWikiModel.normaliseName(cat_raw));
+        // get copies of the page and its revisions (page_xml will be re-used)
+        final Page page = page_xml.getPage();
+        final List<Revision> revisions = page_xml.getRevisions();
+        submitPageJob(new Callable<Runnable>() {
+            @Override
+            public Runnable call() {
+                return analysePage(page, revisions);
+            }
+        });
+    }
+
+    /**
+     * Analyses the given page (executed in one of the page analysis threads)
+     * and creates the job exporting the results.
+     * 
+     * @param page
+     *            the page to analyse
+     * @param revisions
+     *            all revisions of the page
+     * 
+     * @return a job updating the page lists and exporting the page
+     */
+    private Runnable analysePage(final Page page, final List<Revision> revisions) {
+        if (page.getCurRev() == null) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    exportPage(null, null, null, null, false);
+                }
+            };
+        }
+        final List<ShortRevision> revisions_short = ShortRevision.fromRevisions(revisions);
+        Collections.sort(revisions, Collections.reverseOrder(new byRevId()));
+        Collections.sort(revisions_short, Collections.reverseOrder(new byShortRevId()));
+
+        final MyParsingWikiModel wikiModel = getAnalysisWikiModel();
+        assert(wikiModel != null);
+        final NormalisedTitle normTitle = wikiModel.normalisePageTitle(page.getTitle());
+        final ArrayList<NormalisedTitle> categories = new ArrayList<NormalisedTitle>();
+        final ArrayList<NormalisedTitle> templates = new ArrayList<NormalisedTitle>();
+        final ArrayList<NormalisedTitle> links = new ArrayList<NormalisedTitle>();
+        boolean isArticle = false;
+        if (!revisions.isEmpty()) {
+            wikiModel.setUp();
+            wikiModel.setNamespaceName(wikiModel.getNamespace().getNamespaceByNumber(normTitle.namespace));
+            wikiModel.setPageName(normTitle.title);
+            wikiModel.renderPageWithCache(null, revisions.get(0).unpackedText());
+            for (String cat_raw: wikiModel.getCategories().keySet()) {
+                categories.add(new NormalisedTitle(
+                        MyNamespace.CATEGORY_NAMESPACE_KEY,
+                        MyWikiModel.normaliseName(cat_raw)));
+            }
+            for (String tpl_raw: wikiModel.getTemplatesNoMagicWords()) {
+                templates.add(new NormalisedTitle(
+                        MyNamespace.TEMPLATE_NAMESPACE_KEY,
+                        MyWikiModel.normaliseName(tpl_raw)));
+            }
+            wikiModel.normalisePageTitles(wikiModel.getLinks(), links);
+            page.setPageLists(wikiModel.getCategories().keySet(),
+                    wikiModel.getTemplatesNoMagicWords(), wikiModel.getLinks());
+            isArticle = MyWikiModel.isArticle(normTitle.namespace,
+                    wikiModel.getLinks(), wikiModel.getCategories().keySet());
+            wikiModel.tearDown();
+        }
+        final boolean isArticle0 = isArticle;
+        return new Runnable() {
+            @Override
+            public void run() {
+                for (NormalisedTitle category : categories) {
                     newCategories.put1(category, normTitle);
                 }
-                for (String tpl_raw: wikiModel.getTemplatesNoMagicWords()) {
-                    NormalisedTitle template = new NormalisedTitle(
-                            MyNamespace.TEMPLATE_NAMESPACE_KEY,
-                            MyWikiModel.normaliseName(tpl_raw));
+                for (NormalisedTitle template : templates) {
                     newTemplates.put1(template, normTitle);
                 }
-                for (String link: wikiModel.getLinks()) {
-                    newBackLinks.put1(wikiModel.normalisePageTitle(link),
-                            normTitle);
+                for (NormalisedTitle link : links) {
+                    newBackLinks.put1(link, normTitle);
                 }
-                if (MyWikiModel.isArticle(normTitle.namespace, wikiModel
-                        .getLinks(), wikiModel.getCategories().keySet())) {
-                    ++articleCount;
-                }
-                wikiModel.tearDown();
+                exportPage(page, revisions, revisions_short, normTitle, isArticle0);
+            }
+        };
+    }
+
+    /**
+     * Exports an analysed page (executed in the export thread).
+     * 
+     * @param page
+     *            the page to export or <tt>null</tt> if it has no current
+     *            revision (only counted)
+     * @param revisions
+     *            all revisions of the page (sorted by their IDs, descending)
+     * @param revisions_short
+     *            all short revisions of the page (sorted by their IDs,
+     *            descending)
+     * @param normTitle
+     *            the normalised page title
+     * @param isArticle
+     *            whether the page is an article
+     */
+    private void exportPage(Page page, List<Revision> revisions,
+            List<ShortRevision> revisions_short, NormalisedTitle normTitle,
+            boolean isArticle) {
+        ++pageCount;
+        if (page != null) {
+            if (isArticle) {
+                ++articleCount;
             }
-    
             doExport(page, revisions, revisions_short, normTitle);
         }
         if ((pageCount % UPDATE_PAGELIST_EVERY) == 0) {
@@ -29,10 +29,8 @@ import java.util.concurrent.ArrayBlockingQueue;
 import com.almworks.sqlite4java.SQLiteConnection;
 import com.almworks.sqlite4java.SQLiteException;
 import com.almworks.sqlite4java.SQLiteStatement;
-import com.ericsson.otp.erlang.OtpErlangDecodeException;
 import com.ericsson.otp.erlang.OtpErlangObject;
 
-import de.zib.scalaris.CommonErlangObjects;
 import de.zib.scalaris.ErlangValue;
 import de.zib.scalaris.examples.wikipedia.SQLiteDataHandler;
 import de.zib.scalaris.examples.wikipedia.ScalarisDataHandler;
@@ -64,6 +62,11 @@ public class WikiDumpPrepareSQLiteForScalarisHandler extends WikiDumpPageHandler
     protected String dbFileName;
     protected ArrayBlockingQueue<Runnable> sqliteJobs = new ArrayBlockingQueue<Runnable>(UPDATE_PAGELIST_EVERY);
     SQLiteWorker sqliteWorker = new SQLiteWorker();
+    /**
+     * Codec for the values in the objects table (without dictionary
+     * compression which is only applied when converting a DB).
+     */
+    static final SQLiteValueCodec codec = new SQLiteValueCodec();
     
     /**
      * Sets up a SAX XmlHandler exporting all parsed pages except the ones in a
@@ -107,16 +110,50 @@ public class WikiDumpPrepareSQLiteForScalarisHandler extends WikiDumpPageHandler
     }
 
     /**
+     * Encodes the given object to the erlang value used by Scalaris and
+     * writes it to SQLite (see {@link SQLiteValueCodec}).
+     * 
      * @param <T>
-     * @param siteinfo
+     * @param stWrite
+     *            write statement
      * @param key
-     * @throws IOException
-     * @throws FileNotFoundException
+     *            key to write to
+     * @param value
+     *            the value to write
+     * 
+     * @throws RuntimeException
+     *             if writing to the DB fails
      */
     static <T> void writeObject(SQLiteStatement stWrite, String key, T value)
             throws RuntimeException {
-        WikiDumpXml2SQLite.writeObject(stWrite, key,
-                CommonErlangObjects.encode(ErlangValue.convertToErlang(value)));
+        writeBytes(stWrite, key, objectToBytes(value));
+    }
+
+    /**
+     * Writes an already encoded value to SQLite.
+     * 
+     * @param stWrite
+     *            write statement
+     * @param key
+     *            key to write to
+     * @param value
+     *            the encoded value
+     * 
+     * @throws RuntimeException
+     *             if writing to the DB fails
+     */
+    static void writeBytes(SQLiteStatement stWrite, String key, byte[] value)
+            throws RuntimeException {
+        try {
+            try {
+                stWrite.bind(1, key).bind(2, value).stepThrough();
+            } finally {
+                stWrite.reset();
+            }
+        } catch (SQLiteException e) {
+            System.err.println("write of " + key + " failed (sqlite error: " + e.toString() + ")");
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -128,53 +165,40 @@ public class WikiDumpPrepareSQLiteForScalarisHandler extends WikiDumpPageHandler
      * 
      * @return the byte array
      * 
-     * @throws IOException
-     * 
      * @see {@link #objectFromBytes(byte[])}
      */
-    static <T> byte[] objectToBytes(T value) throws IOException {
-        return WikiDumpXml2SQLite.objectToBytes(CommonErlangObjects
-                .encode(ErlangValue.convertToErlang(value)));
+    static <T> byte[] objectToBytes(T value) {
+        return codec.encode(value);
     }
 
     /**
-     * Reads an encoded Scalaris value from a (compressed) byte array.
+     * Reads an encoded Scalaris value from a byte array.
      * 
      * @param value  the byte array to get the object from
      * 
      * @return the encoded object
      * 
      * @throws IOException
-     * @throws ClassNotFoundException
      * 
      * @see #objectToBytes(Object)
      */
-    static OtpErlangObject objectFromBytes(byte[] value) throws IOException,
-            ClassNotFoundException {
-        return WikiDumpXml2SQLite.<OtpErlangObject>objectFromBytes(value);
+    static OtpErlangObject objectFromBytes(byte[] value) throws IOException {
+        return codec.decodeEncoded(value);
     }
 
     /**
-     * Reads a compressed and encoded Scalaris value from a (compressed) byte array.
+     * Reads and decodes a Scalaris value from a byte array.
      * 
      * @param value  the byte array to get the object from
      * 
      * @return the decoded object
      * 
      * @throws IOException
-     * @throws ClassNotFoundException
      * 
      * @see #objectToBytes(Object)
      */
-    static ErlangValue objectFromBytes2(byte[] value) throws IOException,
-            ClassNotFoundException {
-        OtpErlangObject value2;
-        try {
-            value2 = CommonErlangObjects.decode(objectFromBytes(value));
-        } catch (OtpErlangDecodeException e) {
-            throw new RuntimeException(e);
-        }
-        return new ErlangValue(value2);
+    static ErlangValue objectFromBytes2(byte[] value) throws IOException {
+        return codec.decodeValue(value);
     }
 
     /**
@@ -187,12 +211,17 @@ public class WikiDumpPrepareSQLiteForScalarisHandler extends WikiDumpPageHandler
      * 
      * @return the Erlang-encoded object
      * 
-     * @throws IOException
+     * @throws RuntimeException
      * @throws FileNotFoundException
      */
     static OtpErlangObject readObject(SQLiteStatement stRead, String key)
             throws RuntimeException, FileNotFoundException {
-        return WikiDumpXml2SQLite.<OtpErlangObject>readObject(stRead, key);
+        try {
+            return objectFromBytes(readBytes(stRead, key));
+        } catch (IOException e) {
+            System.err.println("read of " + key + " failed (error: " + e.toString() + ")");
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -205,18 +234,35 @@ public class WikiDumpPrepareSQLiteForScalarisHandler extends WikiDumpPageHandler
      * 
      * @return the decoded object
      * 
-     * @throws IOException
+     * @throws RuntimeException
      * @throws FileNotFoundException
      */
     static ErlangValue readObject2(SQLiteStatement stRead, String key)
             throws RuntimeException, FileNotFoundException {
         try {
-            OtpErlangObject value = CommonErlangObjects.decode(readObject(
-                    stRead, key));
-            return new ErlangValue(value);
-        } catch (FileNotFoundException e) {
-            throw e;
-        } catch (OtpErlangDecodeException e) {
+            return objectFromBytes2(readBytes(stRead, key));
+        } catch (IOException e) {
+            System.err.println("read of " + key + " failed (error: " + e.toString() + ")");
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] readBytes(SQLiteStatement stRead, String key)
+            throws RuntimeException, FileNotFoundException {
+        try {
+            try {
+                stRead.bind(1, key);
+                if (stRead.step()) {
+                    // there should only be one result
+                    return stRead.columnBlob(0);
+                } else {
+                    throw new FileNotFoundException();
+                }
+            } finally {
+                stRead.reset();
+            }
+        } catch (SQLiteException e) {
+            System.err.println("read of " + key + " failed (sqlite error: " + e.toString() + ")");
             throw new RuntimeException(e);
         }
     }
@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.math.BigInteger;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -36,6 +38,7 @@ import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
 
+import de.zib.scalaris.AbortException;
 import de.zib.scalaris.CommonErlangObjects;
 import de.zib.scalaris.Connection;
 import de.zib.scalaris.ConnectionException;
@@ -43,6 +46,7 @@ import de.zib.scalaris.ConnectionFactory;
 import de.zib.scalaris.ErlangValue;
 import de.zib.scalaris.RoundRobinConnectionPolicy;
 import de.zib.scalaris.TransactionSingleOp;
+import de.zib.scalaris.UnknownException;
 import de.zib.scalaris.examples.wikipedia.Options;
 import de.zib.scalaris.examples.wikipedia.SQLiteDataHandler;
 import de.zib.scalaris.examples.wikipedia.Options.IBuckets;
@@ -63,13 +67,28 @@ import de.zib.scalaris.operations.WriteOp;
 public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
     private static final int MAX_SCALARIS_CONNECTIONS = Runtime.getRuntime().availableProcessors() * 4;
     private static final int REQUEST_BUNDLE_SIZE = 10;
-    private static final int PRINT_SCALARIS_KV_PAIRS_EVERY = 5000;
+    /**
+     * Number of K/V pairs after which the import progress is check-pointed.
+     */
+    private static final int CHECKPOINT_EVERY = 5000;
     private ArrayBlockingQueue<TransactionSingleOp> scalaris_single = new ArrayBlockingQueue<TransactionSingleOp>(MAX_SCALARIS_CONNECTIONS);
     
     private ExecutorService executor = WikiDumpToScalarisHandler
             .createExecutor(MAX_SCALARIS_CONNECTIONS);
     
     protected TransactionSingleOp.RequestList requests = new TransactionSingleOp.RequestList();
+    /**
+     * Rows with operations in {@link #requests}.
+     */
+    private ArrayList<ImportRow> bundleRows = new ArrayList<ImportRow>(REQUEST_BUNDLE_SIZE);
+    /**
+     * Rows that failed to import since the last checkpoint.
+     */
+    private final ArrayList<ImportRow> failedRows = new ArrayList<ImportRow>();
+    /**
+     * The row currently being imported.
+     */
+    private ImportRow curRow = null;
     
     /**
      * The time at the start of an import operation.
@@ -89,6 +108,7 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
     protected boolean stop = false;
     
     protected SQLiteConnection db = null;
+    protected SQLiteValueCodec codec = null;
     
     protected final String dbFileName;
     protected final int numberOfImporters;
@@ -96,6 +116,7 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
     protected final ConnectionFactory cFactory;
     protected boolean errorDuringImport = false;
     protected final Options dbWriteOptions;
+    protected boolean resume = false;
 
     /**
      * Sets up a SAX XmlHandler exporting all parsed pages except the ones in a
@@ -259,63 +280,99 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
 //        this.stop = true;
     }
 
+    /**
+     * Sets whether to resume a previous (interrupted) import instead of
+     * starting from scratch.
+     * 
+     * If set, all K/V pairs which failed to import previously are retried
+     * first and the import then continues after the last checkpoint of this
+     * importer (see {@link #numberOfImporters} and {@link #myNumber}).
+     * 
+     * @param resume
+     *            whether to resume the import
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
     /**
      * Writes all K/V pairs to Scalaris.
      * 
      * Note that this process can not be stopped as the resulting view may not
-     * be consistent.
+     * be consistent. Progress is check-pointed into the DB every
+     * {@link #CHECKPOINT_EVERY} K/V pairs though, together with all keys
+     * that failed to import, so that an interrupted import can be resumed
+     * (see {@link #setResume(boolean)}).
      */
     public void writeToScalaris() {
         println("Importing key/value pairs to Scalaris...");
         SQLiteStatement st = null;
         try {
             importStart();
+            // rows of this importer: firstRowId <= rowid < endRowId
+            long firstRowId = Long.MIN_VALUE;
+            long endRowId = Long.MAX_VALUE;
             if (numberOfImporters > 1) {
                 final SQLiteStatement countStmt = db.prepare("SELECT COUNT(*) FROM objects;");
                 try {
                     if (countStmt.step()) {
                         final long stepSize = countStmt.columnLong(0) / numberOfImporters;
-                        final long offset = (myNumber - 1) * stepSize;
-                        final long limit = (myNumber == numberOfImporters) ? -1 : stepSize;
-                        st = db.prepare("SELECT scalaris_key, scalaris_value FROM objects LIMIT " + limit + " OFFSET " + offset + ";");
+                        firstRowId = getRowIdAt((myNumber - 1) * stepSize);
+                        if (myNumber != numberOfImporters) {
+                            endRowId = getRowIdAt(myNumber * stepSize);
+                        }
                     } else {
                         throw new RuntimeException("cannot count table objects");
                     }
                 } finally {
                     countStmt.dispose();
                 }
-                
-            } else {
-                st = db.prepare("SELECT scalaris_key, scalaris_value FROM objects;");
             }
-            while (st.step()) {
-                String key = st.columnString(0);
-                byte[] value = st.columnBlob(1);
-                try {
-                    writeToScalaris(key, value);
-                } catch (ClassNotFoundException e) {
-                    error("read of " + key + " failed (error: " + e.toString() + ")");
-                    throw new RuntimeException(e);
-                } catch (IOException e) {
-                    error("read of " + key + " failed (error: " + e.toString() + ")");
-                    throw new RuntimeException(e);
+            
+            // note: Long.MIN_VALUE - 1 would wrap around to Long.MAX_VALUE
+            long lastRowId = (firstRowId == Long.MIN_VALUE) ? Long.MIN_VALUE : firstRowId - 1;
+            if (resume) {
+                final Long checkpoint = readCheckpoint();
+                if (checkpoint != null) {
+                    lastRowId = checkpoint;
                 }
+                println("resuming import after row " + lastRowId);
+                retryFailedRows(firstRowId, endRowId, lastRowId);
+            } else {
+                resetCheckpoint(firstRowId, endRowId);
             }
-            // some requests may be left over
-            Runnable worker = new WikiDumpToScalarisHandler.MyScalarisSingleRunnable(
-                    this, requests, scalaris_single, "");
-            executor.execute(worker);
-            requests = new TransactionSingleOp.RequestList();
-            executor.shutdown();
-            boolean shutdown = false;
-            while (!shutdown) {
-                try {
-                    shutdown = executor.awaitTermination(1, TimeUnit.MINUTES);
-                } catch (InterruptedException e) {
+            
+            st = db.prepare("SELECT rowid, scalaris_key, scalaris_value FROM objects WHERE rowid > ? AND rowid < ? ORDER BY rowid LIMIT " + CHECKPOINT_EVERY + ";");
+            int rows;
+            long scannedRows = 0;
+            do {
+                // read in chunks so that the DB is not locked while writing
+                // the checkpoint
+                st.bind(1, lastRowId).bind(2, endRowId);
+                rows = 0;
+                while (st.step()) {
+                    ++rows;
+                    lastRowId = st.columnLong(0);
+                    importRow(lastRowId, st.columnString(1), st.columnBlob(2));
+                }
+                st.reset();
+                scannedRows += rows;
+                writeCheckpoint(lastRowId, null);
+                println("imported K/V pairs to Scalaris: " + importedKeys);
+            } while (rows == CHECKPOINT_EVERY);
+            if (!resume) {
+                // sanity check: a fresh import must have visited all rows
+                final long expectedRows = countRows(firstRowId, endRowId);
+                if (scannedRows != expectedRows) {
+                    error("imported only " + scannedRows + " of "
+                            + expectedRows + " K/V pairs of rows ["
+                            + firstRowId + ", " + endRowId + ")");
                 }
             }
+            executor.shutdown();
             importEnd();
         } catch (SQLiteException e) {
+            error("import from " + dbFileName + " failed: " + e.toString());
             e.printStackTrace();
         } finally {
             if (st != null) {
@@ -323,12 +380,341 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
             }
         }
     }
+
+    /**
+     * Gets the rowid of the object at the given position (ordered by rowid).
+     * 
+     * @param offset
+     *            the position of the object
+     * 
+     * @return its rowid or {@link Long#MAX_VALUE} if there is no such object
+     * 
+     * @throws SQLiteException
+     *             if reading the DB fails
+     */
+    private long getRowIdAt(long offset) throws SQLiteException {
+        final SQLiteStatement stmt = db.prepare("SELECT rowid FROM objects ORDER BY rowid LIMIT 1 OFFSET ?;");
+        try {
+            stmt.bind(1, offset);
+            return stmt.step() ? stmt.columnLong(0) : Long.MAX_VALUE;
+        } finally {
+            stmt.dispose();
+        }
+    }
+
+    /**
+     * Counts the objects with <tt>firstRowId &lt;= rowid &lt; endRowId</tt>.
+     * 
+     * @param firstRowId
+     *            the first rowid of the range
+     * @param endRowId
+     *            the rowid after the range
+     * 
+     * @return the number of objects in the range
+     * 
+     * @throws SQLiteException
+     *             if reading the DB fails
+     */
+    private long countRows(long firstRowId, long endRowId) throws SQLiteException {
+        final SQLiteStatement stmt = db.prepare("SELECT COUNT(*) FROM objects WHERE rowid >= ? AND rowid < ?;");
+        try {
+            stmt.bind(1, firstRowId).bind(2, endRowId);
+            return stmt.step() ? stmt.columnLong(0) : 0;
+        } finally {
+            stmt.dispose();
+        }
+    }
+
+    /**
+     * Imports a single K/V pair (asynchronously).
+     * 
+     * @param rowId
+     *            the rowid of the K/V pair in the objects table
+     * @param key
+     *            the key
+     * @param value
+     *            the (encoded) value
+     */
+    private void importRow(long rowId, String key, byte[] value) {
+        curRow = new ImportRow(rowId, key);
+        try {
+            writeToScalaris(key, value);
+        } catch (IOException e) {
+            error("read of " + key + " failed (error: " + e.toString() + ")");
+            recordFailure(Arrays.asList(curRow), e.toString());
+        }
+    }
+
+    /**
+     * Re-imports all K/V pairs of this importer which previously failed.
+     * 
+     * @param firstRowId
+     *            first rowid of this importer
+     * @param endRowId
+     *            first rowid of the next importer
+     * @param lastRowId
+     *            the last check-pointed rowid
+     * 
+     * @throws SQLiteException
+     *             if reading the DB fails
+     */
+    private void retryFailedRows(long firstRowId, long endRowId, long lastRowId)
+            throws SQLiteException {
+        ArrayList<Long> failed = new ArrayList<Long>();
+        SQLiteStatement stmt = db.prepare("SELECT rowid FROM import_failed WHERE rowid >= ? AND rowid < ? ORDER BY rowid;");
+        try {
+            stmt.bind(1, firstRowId).bind(2, endRowId);
+            while (stmt.step()) {
+                failed.add(stmt.columnLong(0));
+            }
+        } finally {
+            stmt.dispose();
+        }
+        if (failed.isEmpty()) {
+            return;
+        }
+        println("retrying " + failed.size() + " failed K/V pairs");
+        stmt = db.prepare("SELECT scalaris_key, scalaris_value FROM objects WHERE rowid == ?;");
+        try {
+            for (Long rowId : failed) {
+                stmt.bind(1, rowId);
+                if (stmt.step()) {
+                    importRow(rowId, stmt.columnString(0), stmt.columnBlob(1));
+                }
+                stmt.reset();
+            }
+        } finally {
+            stmt.dispose();
+        }
+        writeCheckpoint(lastRowId, failed);
+    }
+
+    /**
+     * Gets the last check-pointed rowid of this importer.
+     * 
+     * @return a rowid or <tt>null</tt> if there is no checkpoint
+     * 
+     * @throws SQLiteException
+     *             if reading the DB fails
+     */
+    private Long readCheckpoint() throws SQLiteException {
+        final SQLiteStatement stmt = db.prepare("SELECT last_rowid FROM import_progress WHERE importer == ? AND importers == ?;");
+        try {
+            stmt.bind(1, myNumber).bind(2, numberOfImporters);
+            return stmt.step() ? stmt.columnLong(0) : null;
+        } finally {
+            stmt.dispose();
+        }
+    }
+
+    /**
+     * Removes the checkpoint and all failed keys of this importer (when
+     * starting from scratch).
+     * 
+     * @param firstRowId
+     *            first rowid of this importer
+     * @param endRowId
+     *            first rowid of the next importer
+     * 
+     * @throws SQLiteException
+     *             if writing the DB fails
+     */
+    private void resetCheckpoint(long firstRowId, long endRowId) throws SQLiteException {
+        SQLiteStatement stmt1 = null;
+        SQLiteStatement stmt2 = null;
+        db.exec("BEGIN IMMEDIATE;");
+        try {
+            stmt1 = db.prepare("DELETE FROM import_progress WHERE importer == ? AND importers == ?;");
+            stmt1.bind(1, myNumber).bind(2, numberOfImporters).stepThrough();
+            stmt2 = db.prepare("DELETE FROM import_failed WHERE rowid >= ? AND rowid < ?;");
+            stmt2.bind(1, firstRowId).bind(2, endRowId).stepThrough();
+            db.exec("COMMIT;");
+        } finally {
+            if (stmt1 != null) {
+                stmt1.dispose();
+            }
+            if (stmt2 != null) {
+                stmt2.dispose();
+            }
+            if (!db.getAutoCommit()) {
+                db.exec("ROLLBACK;");
+            }
+        }
+    }
+
+    /**
+     * Waits for all outstanding requests to finish and then atomically
+     * stores the given rowid as the new checkpoint together with all keys
+     * that failed to import since the last checkpoint.
+     * 
+     * @param lastRowId
+     *            the rowid to store as checkpoint
+     * @param retried
+     *            rowids of previously failed K/V pairs which have been
+     *            re-imported (may be <tt>null</tt>)
+     * 
+     * @throws SQLiteException
+     *             if writing the DB fails
+     */
+    private void writeCheckpoint(long lastRowId, Collection<Long> retried) throws SQLiteException {
+        // some requests may be left over
+        flushRequests("keys up to " + lastRowId);
+        // wait for all threads to finish (otherwise we would take a lot of
+        // memory, especially if the connection to Scalaris is slow)
+        executor.shutdown();
+        boolean shutdown = false;
+        while (!shutdown) {
+            try {
+                shutdown = executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+            }
+        }
+        executor = WikiDumpToScalarisHandler.createExecutor(MAX_SCALARIS_CONNECTIONS);
+
+        ArrayList<ImportRow> failed;
+        synchronized (failedRows) {
+            failed = new ArrayList<ImportRow>(failedRows);
+            failedRows.clear();
+        }
+        SQLiteStatement stmt = null;
+        db.exec("BEGIN IMMEDIATE;");
+        try {
+            if (retried != null) {
+                stmt = db.prepare("DELETE FROM import_failed WHERE rowid == ?;");
+                for (Long rowId : retried) {
+                    stmt.bind(1, rowId).stepThrough().reset();
+                }
+                stmt.dispose();
+            }
+            stmt = db.prepare("REPLACE INTO import_failed (rowid, scalaris_key, error) VALUES (?, ?, ?);");
+            for (ImportRow row : failed) {
+                stmt.bind(1, row.rowId).bind(2, row.key).bind(3, row.error).stepThrough().reset();
+            }
+            stmt.dispose();
+            stmt = db.prepare("REPLACE INTO import_progress (importer, importers, last_rowid) VALUES (?, ?, ?);");
+            stmt.bind(1, myNumber).bind(2, numberOfImporters).bind(3, lastRowId).stepThrough();
+            db.exec("COMMIT;");
+        } finally {
+            if (stmt != null) {
+                stmt.dispose();
+            }
+            if (!db.getAutoCommit()) {
+                db.exec("ROLLBACK;");
+            }
+        }
+        if (!failed.isEmpty()) {
+            println("recorded " + failed.size() + " failed K/V pairs for later retry");
+        }
+    }
+
+    /**
+     * Records the given rows as failed (they will be written to the
+     * <tt>import_failed</tt> table at the next checkpoint).
+     * 
+     * @param rows
+     *            the rows that failed to import
+     * @param reason
+     *            the reason of the failure
+     */
+    private void recordFailure(Collection<ImportRow> rows, String reason) {
+        synchronized (failedRows) {
+            for (ImportRow row : rows) {
+                row.error = reason;
+                failedRows.add(row);
+            }
+        }
+    }
+
+    /**
+     * Sends all collected requests to Scalaris (asynchronously).
+     * 
+     * @param note
+     *            note to use in error messages
+     */
+    private void flushRequests(String note) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        Runnable worker = new MyScalarisBundleRunnable(requests, bundleRows, note);
+        executor.execute(worker);
+        requests = new TransactionSingleOp.RequestList();
+        bundleRows = new ArrayList<ImportRow>(REQUEST_BUNDLE_SIZE);
+    }
+
+    /**
+     * A single row of the objects table that is being imported.
+     * 
+     * @author Nico Kruber, kruber@zib.de
+     */
+    protected static class ImportRow {
+        public final long rowId;
+        public final String key;
+        public String error = null;
+
+        public ImportRow(long rowId, String key) {
+            this.rowId = rowId;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Executes a request bundle similar to
+     * {@link WikiDumpToScalarisHandler.MyScalarisSingleRunnable} but records
+     * all rows of a failed bundle for a later retry.
+     * 
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private class MyScalarisBundleRunnable implements Runnable {
+        private final TransactionSingleOp.RequestList requests;
+        private final List<ImportRow> rows;
+        private final String note;
+        private TransactionSingleOp connection;
+
+        public MyScalarisBundleRunnable(TransactionSingleOp.RequestList requests,
+                List<ImportRow> rows, String note) {
+            this.requests = requests;
+            this.rows = rows;
+            this.note = note;
+            try {
+                this.connection = scalaris_single.take();
+            } catch (InterruptedException e) {
+                error("write of " + note + " interrupted while getting connection to Scalaris");
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                TransactionSingleOp.ResultList results = connection.req_list(requests);
+                for (int i = 0; i < results.size(); ++i) {
+                    results.processWriteAt(i);
+                }
+            } catch (ConnectionException e) {
+                error("write of " + note + " failed with connection error");
+                recordFailure(rows, e.toString());
+            } catch (AbortException e) {
+                error("write of " + note + " failed with abort");
+                recordFailure(rows, e.toString());
+            } catch (UnknownException e) {
+                error("write of " + note + " failed with unknown error");
+                recordFailure(rows, e.toString());
+            }
+            try {
+                scalaris_single.put(connection);
+            } catch (InterruptedException e) {
+                error("Interrupted while putting back a connection to Scalaris");
+                throw new RuntimeException(e);
+            }
+        }
+    }
     
-    protected void writeToScalaris(String key, byte[] value) throws ClassNotFoundException, IOException {
+    protected void writeToScalaris(String key, byte[] value) throws IOException {
         ++importedKeys;
+        final int bundleOps = requests.size();
         if (dbWriteOptions == null) {
-            OtpErlangObject valueOtp = WikiDumpPrepareSQLiteForScalarisHandler
-                    .objectFromBytes(value);
+            // values are already encoded for Scalaris - no need to decode them
+            OtpErlangObject valueOtp = codec.decodeEncoded(value);
             requests.addOp(new WriteCompressedOp(key, valueOtp));
         } else {
             ConvertOp convOp = WikiDumpConvertPreparedSQLite.getConvertOp(key, dbWriteOptions);
@@ -343,8 +729,7 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
                 switch (convOp.listOrCount) {
                     case LIST:
                         try {
-                            List<ErlangValue> listVal = WikiDumpPrepareSQLiteForScalarisHandler
-                                    .objectFromBytes2(value).listValue();
+                            List<ErlangValue> listVal = codec.decodeValue(value).listValue();
                             HashMap<String, List<ErlangValue>> newLists = SQLiteWriteBucketListJob
                                     .splitList(optimisation, listVal);
                             for (Entry<String, List<ErlangValue>> newList : newLists.entrySet()) {
@@ -377,12 +762,12 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
                             }
                         } catch (Exception e) {
                             println("write of " + key + " failed (error: " + e.toString() + ")");
+                            recordFailure(Arrays.asList(curRow), e.toString());
                             return;
                         }
                         break;
                     case COUNTER:
-                        int counter = WikiDumpPrepareSQLiteForScalarisHandler
-                                .objectFromBytes2(value).intValue();
+                        int counter = codec.decodeValue(value).intValue();
                         Collection<KVPair<Integer>> newCounters = SQLiteWriteBucketCounterJob
                                 .splitCounter(optimisation, key, counter);
                         for (KVPair<Integer> kvPair : newCounters) {
@@ -395,12 +780,11 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
             } else if (convOp.optimisation != null ) {
                 assert (convOp.countKeyOptimisation == null);
                 if (convOp.listOrCount == ListOrCountOp.LIST) {
-                    Collection<KVPair<Object>> operations = SQLiteCopyList.splitOp(key, convOp.countKey, value);
+                    Collection<KVPair<Object>> operations = SQLiteCopyList.splitOp(key, convOp.countKey, value, codec);
                     for (KVPair<Object> kvPair : operations) {
                         OtpErlangObject valueOtpCompressed;
                         if (kvPair.value instanceof byte[]) {
-                            valueOtpCompressed = WikiDumpPrepareSQLiteForScalarisHandler
-                                    .objectFromBytes((byte[]) kvPair.value);
+                            valueOtpCompressed = codec.decodeEncoded((byte[]) kvPair.value);
                         } else {
                             valueOtpCompressed = CommonErlangObjects
                                     .encode(ErlangValue.convertToErlang(kvPair.value));
@@ -409,33 +793,17 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
                     }
                 } else {
                     // write object as is
-                    OtpErlangObject valueOtp = WikiDumpPrepareSQLiteForScalarisHandler
-                            .objectFromBytes(value);
+                    OtpErlangObject valueOtp = codec.decodeEncoded(value);
                     requests.addOp(new WriteCompressedOp(key, valueOtp));
                 }
             }
         }
+        if (requests.size() > bundleOps) {
+            bundleRows.add(curRow);
+        }
         // bundle requests:
         if (requests.size() >= REQUEST_BUNDLE_SIZE) {
-            Runnable worker = new WikiDumpToScalarisHandler.MyScalarisSingleRunnable(
-                    this, requests, scalaris_single, "keys up to " + key);
-            executor.execute(worker);
-            requests = new TransactionSingleOp.RequestList();
-        }
-        if ((importedKeys % PRINT_SCALARIS_KV_PAIRS_EVERY) == 0) {
-            // wait for all threads to finish (otherwise we would take a lot of
-            // memory, especially if the connection to Scalaris is slow)
-            executor.shutdown();
-            boolean shutdown = false;
-            while (!shutdown) {
-                try {
-                    shutdown = executor.awaitTermination(1, TimeUnit.MINUTES);
-                } catch (InterruptedException e) {
-                }
-            }
-            executor = WikiDumpToScalarisHandler.createExecutor(MAX_SCALARIS_CONNECTIONS);
-            
-            println("imported K/V pairs to Scalaris: " + importedKeys);
+            flushRequests("keys up to " + key);
         }
     }
     
@@ -501,7 +869,15 @@ public class WikiDumpPreparedSQLiteToScalaris implements WikiDump {
     @Override
     public void setUp() {
         try {
-            db = SQLiteDataHandler.openDB(dbFileName, true, null);
+            db = SQLiteDataHandler.openDB(dbFileName, false, null);
+            // checkpoints need to be durable (multiple importers may share
+            // the DB file)
+            db.exec("PRAGMA journal_mode = DELETE;");
+            db.exec("PRAGMA synchronous = NORMAL;");
+            db.setBusyTimeout(60000);
+            db.exec("CREATE TABLE IF NOT EXISTS import_progress(importer INTEGER, importers INTEGER, last_rowid INTEGER, PRIMARY KEY(importer, importers));");
+            db.exec("CREATE TABLE IF NOT EXISTS import_failed(rowid INTEGER PRIMARY KEY ASC, scalaris_key STRING, error STRING);");
+            codec = SQLiteValueCodec.readFrom(db);
         } catch (SQLiteException e) {
             error("Cannot read database: " + dbFileName);
             throw new RuntimeException(e);
@@ -0,0 +1,136 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.data.xml;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import de.zib.scalaris.examples.wikipedia.bliki.MyParsingWikiModel;
+import de.zib.scalaris.examples.wikipedia.data.Page;
+import de.zib.scalaris.examples.wikipedia.data.RevisionTextCodec;
+
+/**
+ * Collects (random) samples of current revision texts from a Wikipedia XML
+ * dump for training the dictionaries of the {@link RevisionTextCodec}, see
+ * {@link SQLiteValueCodec#trainDictionary(List, int)}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class WikiDumpTrainTextDictionaryHandler extends WikiDumpHandler {
+    /**
+     * Maximum number of characters of a sample text.
+     */
+    protected static final int MAX_SAMPLE_LENGTH = 16 * 1024;
+
+    protected final int maxSamples;
+    protected final Random random = new Random();
+    protected final Map<Integer, List<String>> samples = new HashMap<Integer, List<String>>();
+    protected final Map<Integer, Integer> seen = new HashMap<Integer, Integer>();
+    protected final List<String> allSamples = new ArrayList<String>();
+    protected int allSeen = 0;
+
+    /**
+     * Sets up a SAX XmlHandler collecting samples from all parsed pages
+     * except the ones in a blacklist.
+     *
+     * @param blacklist
+     *            a number of page titles to ignore
+     * @param whitelist
+     *            only sample these pages
+     * @param maxSamples
+     *            maximum number of samples per namespace (and in total)
+     */
+    public WikiDumpTrainTextDictionaryHandler(Set<String> blacklist,
+            Set<String> whitelist, int maxSamples) {
+        super(blacklist, whitelist, 1, null, (Calendar) null);
+        this.maxSamples = maxSamples;
+        // we only need a (cheap) sample in the parsing thread
+        setAnalysisThreads(1);
+    }
+
+    /**
+     * Exports the given siteinfo (nothing to do here).
+     *
+     * @param siteinfo
+     *            the siteinfo to export
+     */
+    @Override
+    protected void export(XmlSiteInfo siteinfo) {
+    }
+
+    /**
+     * Adds the page's current revision to the samples (reservoir sampling).
+     *
+     * @param page_xml
+     *            the page object extracted from XML
+     */
+    @Override
+    protected void export(XmlPage page_xml) {
+        final Page page = page_xml.getPage();
+        final MyParsingWikiModel wikiModel = getAnalysisWikiModel();
+        if (page.getCurRev() == null || wikiModel == null) {
+            return;
+        }
+        String text = page.getCurRev().unpackedText();
+        if (text.length() > MAX_SAMPLE_LENGTH) {
+            text = text.substring(0, MAX_SAMPLE_LENGTH);
+        }
+        final Integer namespace = wikiModel.normalisePageTitle(page.getTitle()).namespace;
+        List<String> nsSamples = samples.get(namespace);
+        if (nsSamples == null) {
+            nsSamples = new ArrayList<String>();
+            samples.put(namespace, nsSamples);
+        }
+        final Integer nsSeen = seen.get(namespace);
+        seen.put(namespace, (nsSeen == null) ? 1 : nsSeen + 1);
+        addSample(nsSamples, (nsSeen == null) ? 0 : nsSeen, text);
+        addSample(allSamples, allSeen++, text);
+    }
+
+    private void addSample(List<String> reservoir, int seenBefore, String text) {
+        if (reservoir.size() < maxSamples) {
+            reservoir.add(text);
+        } else {
+            final int idx = random.nextInt(seenBefore + 1);
+            if (idx < maxSamples) {
+                reservoir.set(idx, text);
+            }
+        }
+    }
+
+    /**
+     * Gets the collected samples of each namespace.
+     *
+     * @return a map of namespace IDs to sample texts
+     */
+    public Map<Integer, List<String>> getSamples() {
+        return samples;
+    }
+
+    /**
+     * Gets the collected samples of all namespaces.
+     *
+     * @return sample texts
+     */
+    public List<String> getAllSamples() {
+        return allSamples;
+    }
+}
@@ -0,0 +1,493 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.data.xml.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decompresses a multistream bz2 file, e.g. a
+ * <tt>*-pages-articles-multistream.xml.bz2</tt> wiki dump, using multiple
+ * threads.
+ *
+ * The file is split at stream boundaries into segments which are decompressed
+ * in parallel and delivered in their original order. Stream boundaries are
+ * taken from the dump's index file
+ * (<tt>*-pages-articles-multistream-index.txt[.bz2]</tt>) if it exists, or
+ * are found by looking for (byte-aligned) bz2 stream headers otherwise.
+ *
+ * Use {@link #open(File, int)} to get an appropriate stream for any bz2 file.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class MultiStreamBZip2InputStream extends InputStream {
+    /**
+     * Minimum (compressed) size of a segment decompressed by a single thread.
+     */
+    protected static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * Number of bytes to look at for a second stream header when probing a
+     * file without an index.
+     */
+    protected static final int PROBE_SIZE = 32 * 1024 * 1024;
+    /**
+     * Size of a bz2 stream header (<tt>"BZh[1-9]"</tt> followed by a block
+     * header or end of stream magic).
+     */
+    private static final int HEADER_SIZE = 10;
+    private static final int READ_SIZE = 256 * 1024;
+
+    private static final Future<byte[]> EOF = new FutureTask<byte[]>(
+            new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return null;
+                }
+            });
+
+    private final File file;
+    private final long[] streamOffsets;
+    private final ExecutorService executor;
+    private final ArrayBlockingQueue<Future<byte[]>> segments;
+    private final Splitter splitter;
+    private byte[] curSegment = null;
+    private int curPos = 0;
+    private boolean eof = false;
+
+    /**
+     * Creates a new stream decompressing the given file.
+     *
+     * @param file
+     *            the (multistream) bz2 file
+     * @param streamOffsets
+     *            sorted offsets of the streams inside the file or
+     *            <tt>null</tt> to look for stream headers
+     * @param threads
+     *            number of threads to decompress with
+     */
+    public MultiStreamBZip2InputStream(File file, long[] streamOffsets, int threads) {
+        this.file = file;
+        this.streamOffsets = streamOffsets;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.segments = new ArrayBlockingQueue<Future<byte[]>>(2 * threads);
+        this.splitter = new Splitter();
+        this.splitter.start();
+    }
+
+    /**
+     * Opens the given bz2 file for reading. Uses a
+     * {@link MultiStreamBZip2InputStream} if the file consists of multiple
+     * streams, otherwise a (sequential) {@link BZip2CompressorInputStream}
+     * reading ahead in a separate thread.
+     *
+     * @param file
+     *            the bz2 file
+     * @param threads
+     *            maximum number of threads to decompress with
+     *
+     * @return a stream with the decompressed contents
+     *
+     * @throws IOException
+     *             if reading the file or its index fails
+     */
+    public static InputStream open(File file, int threads) throws IOException {
+        if (threads > 1) {
+            long[] offsets = readIndex(getIndexFile(file));
+            if (offsets != null || isMultiStream(file)) {
+                return new MultiStreamBZip2InputStream(file, offsets, threads);
+            }
+        }
+        return new ReadAheadInputStream(new BZip2CompressorInputStream(
+                new BufferedInputStream(new FileInputStream(file)), true));
+    }
+
+    /**
+     * Gets the index file belonging to a multistream wiki dump.
+     *
+     * @param file
+     *            the dump file, e.g.
+     *            <tt>enwiki-20130805-pages-articles-multistream.xml.bz2</tt>
+     *
+     * @return the index file, e.g.
+     *         <tt>enwiki-20130805-pages-articles-multistream-index.txt.bz2</tt>
+     *         or <tt>null</tt> if there is none
+     */
+    public static File getIndexFile(File file) {
+        final String name = file.getName();
+        if (!name.endsWith(".xml.bz2")) {
+            return null;
+        }
+        final String base = name.substring(0, name.length() - ".xml.bz2".length());
+        for (String suffix : new String[] {"-index.txt.bz2", "-index.txt"}) {
+            File index = new File(file.getParentFile(), base + suffix);
+            if (index.isFile()) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the stream offsets from a multistream index file (one
+     * <tt>offset:pageid:title</tt> line per page).
+     *
+     * @param index
+     *            the index file (may be <tt>null</tt>)
+     *
+     * @return sorted stream offsets (including <tt>0</tt>) or <tt>null</tt> if
+     *         there is no index
+     *
+     * @throws IOException
+     *             if reading the index fails
+     */
+    public static long[] readIndex(File index) throws IOException {
+        if (index == null) {
+            return null;
+        }
+        InputStream is = new BufferedInputStream(new FileInputStream(index));
+        if (index.getName().endsWith(".bz2")) {
+            is = new BZip2CompressorInputStream(is, true);
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            long[] offsets = new long[1024];
+            int count = 1; // offsets[0] = 0 (siteinfo and first pages)
+            String line;
+            while ((line = br.readLine()) != null) {
+                final int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                final long offset = Long.parseLong(line.substring(0, colon));
+                if (offset != offsets[count - 1]) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, 2 * count);
+                    }
+                    offsets[count++] = offset;
+                }
+            }
+            offsets = Arrays.copyOf(offsets, count);
+            Arrays.sort(offsets);
+            return offsets;
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid index file " + index, e);
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Checks whether the given bz2 file consists of multiple streams by
+     * looking for a second stream header in the first {@link #PROBE_SIZE}
+     * bytes.
+     *
+     * @param file
+     *            the bz2 file
+     *
+     * @return whether the file is a multistream bz2 file
+     *
+     * @throws IOException
+     *             if reading the file fails
+     */
+    public static boolean isMultiStream(File file) throws IOException {
+        final int len = (int) Math.min(file.length(), PROBE_SIZE);
+        byte[] data = new byte[len];
+        InputStream is = new FileInputStream(file);
+        try {
+            int pos = 0, read;
+            while (pos < len && (read = is.read(data, pos, len - pos)) != -1) {
+                pos += read;
+            }
+            return findStreamHeader(data, 1, pos) != -1;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Looks for a bz2 stream header at byte boundaries.
+     *
+     * @param data
+     *            the data to search in
+     * @param from
+     *            first position to check
+     * @param to
+     *            end of the valid data
+     *
+     * @return the position of the first header found or <tt>-1</tt>
+     */
+    static int findStreamHeader(byte[] data, int from, int to) {
+        for (int i = from; i <= to - HEADER_SIZE; ++i) {
+            if (data[i] == 'B' && data[i + 1] == 'Z' && data[i + 2] == 'h'
+                    && data[i + 3] >= '1' && data[i + 3] <= '9'
+                    && (isMagic(data, i + 4, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59) // block
+                     || isMagic(data, i + 4, 0x17, 0x72, 0x45, 0x38, 0x50, 0x90))) { // eos
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isMagic(byte[] data, int pos, int... magic) {
+        for (int i = 0; i < magic.length; ++i) {
+            if ((data[pos + i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decompresses a segment of complete bz2 streams.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private static class DecompressJob implements Callable<byte[]> {
+        private final byte[] segment;
+
+        public DecompressJob(byte[] segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            BZip2CompressorInputStream is = new BZip2CompressorInputStream(
+                    new ByteArrayInputStream(segment), true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(5 * segment.length);
+            byte[] buf = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            is.close();
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Thread reading the file and splitting it into segments at stream
+     * boundaries.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private class Splitter extends Thread {
+        private volatile Throwable failure = null;
+        private volatile boolean stop = false;
+        /**
+         * Data read but not submitted yet (starts with a stream header).
+         */
+        private byte[] data = new byte[2 * MIN_SEGMENT_SIZE];
+        private int dataLen = 0;
+        /**
+         * File offset of <tt>data[0]</tt>.
+         */
+        private long dataStart = 0;
+        /**
+         * Next position in {@link #data} to look for a stream header.
+         */
+        private int scanPos = MIN_SEGMENT_SIZE;
+        /**
+         * Index into {@link #streamOffsets} of the next possible segment
+         * boundary.
+         */
+        private int nextOffset = 0;
+
+        public Splitter() {
+            super("MultiStreamBZip2InputStream.Splitter");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(file);
+                while (!stop) {
+                    if (dataLen + READ_SIZE > data.length) {
+                        data = Arrays.copyOf(data, 2 * data.length);
+                    }
+                    final int read = is.read(data, dataLen, READ_SIZE);
+                    if (read == -1) {
+                        break;
+                    }
+                    dataLen += read;
+                    int cut;
+                    while ((cut = nextCut()) != -1) {
+                        submit(cut);
+                    }
+                }
+                if (dataLen > 0) {
+                    submit(dataLen);
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException e) {
+                    }
+                }
+                try {
+                    segments.put(EOF);
+                } catch (InterruptedException e) {
+                    // only happens during close() - nobody is reading anymore
+                }
+            }
+        }
+
+        /**
+         * Gets the position of the next segment boundary in the data read so
+         * far (creating segments of at least {@link #MIN_SEGMENT_SIZE}
+         * bytes).
+         *
+         * @return a position in {@link #data} or <tt>-1</tt> if more data is
+         *         needed
+         */
+        private int nextCut() {
+            if (streamOffsets != null) {
+                final long minOffset = dataStart + MIN_SEGMENT_SIZE;
+                while (nextOffset < streamOffsets.length
+                        && streamOffsets[nextOffset] < minOffset) {
+                    ++nextOffset;
+                }
+                if (nextOffset < streamOffsets.length
+                        && streamOffsets[nextOffset] < dataStart + dataLen) {
+                    return (int) (streamOffsets[nextOffset] - dataStart);
+                }
+                return -1;
+            } else {
+                final int cut = findStreamHeader(data, scanPos, dataLen);
+                if (cut == -1) {
+                    scanPos = Math.max(scanPos, dataLen - HEADER_SIZE + 1);
+                }
+                return cut;
+            }
+        }
+
+        /**
+         * Submits <tt>data[0..cut)</tt> for decompression and moves the
+         * remaining data to the front.
+         *
+         * @param cut
+         *            end of the segment
+         *
+         * @throws InterruptedException
+         *             if interrupted while waiting for space in the queue
+         */
+        private void submit(int cut) throws InterruptedException {
+            final byte[] segment = Arrays.copyOf(data, cut);
+            System.arraycopy(data, cut, data, 0, dataLen - cut);
+            dataLen -= cut;
+            dataStart += cut;
+            scanPos = MIN_SEGMENT_SIZE;
+            segments.put(executor.submit(new DecompressJob(segment)));
+        }
+    }
+
+    /**
+     * Makes sure that {@link #curSegment} has data to read (blocks until data
+     * is available).
+     *
+     * @return <tt>false</tt> if the end of the stream has been reached
+     *
+     * @throws IOException
+     *             if reading or decompressing the file failed
+     */
+    private boolean fill() throws IOException {
+        while (!eof && (curSegment == null || curPos >= curSegment.length)) {
+            try {
+                final Future<byte[]> next = segments.take();
+                curPos = 0;
+                if (next == EOF) {
+                    eof = true;
+                    curSegment = null;
+                    executor.shutdown();
+                    final Throwable e = splitter.failure;
+                    if (e instanceof IOException) {
+                        throw (IOException) e;
+                    } else if (e != null) {
+                        throw new IOException(e);
+                    }
+                } else {
+                    curSegment = next.get();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return !eof;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return curSegment[curPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, curSegment.length - curPos);
+        System.arraycopy(curSegment, curPos, b, off, n);
+        curPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (curSegment == null) ? 0 : (curSegment.length - curPos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        splitter.stop = true;
+        splitter.interrupt();
+        executor.shutdownNow();
+        segments.clear();
+        eof = true;
+        curSegment = null;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.data.xml.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads another input stream in a separate thread, e.g. to decompress a wiki
+ * dump in parallel to parsing it.
+ *
+ * At most <tt>maxChunks</tt> chunks of data are read ahead, i.e. the reading
+ * thread blocks if the data is not consumed fast enough.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class ReadAheadInputStream extends InputStream {
+    /**
+     * Default size of a single chunk read ahead.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * Default maximum number of chunks read ahead.
+     */
+    public static final int DEFAULT_MAX_CHUNKS = 16;
+
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream in;
+    private final ArrayBlockingQueue<byte[]> chunks;
+    private final Reader reader;
+    private byte[] curChunk = null;
+    private int curPos = 0;
+    private boolean eof = false;
+
+    /**
+     * Creates a new stream reading from the given stream using default chunk
+     * sizes.
+     *
+     * @param in
+     *            the stream to read from
+     */
+    public ReadAheadInputStream(InputStream in) {
+        this(in, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CHUNKS);
+    }
+
+    /**
+     * Creates a new stream reading from the given stream.
+     *
+     * @param in
+     *            the stream to read from
+     * @param chunkSize
+     *            maximum size of a single chunk
+     * @param maxChunks
+     *            maximum number of chunks to read ahead
+     */
+    public ReadAheadInputStream(InputStream in, int chunkSize, int maxChunks) {
+        this.in = in;
+        this.chunks = new ArrayBlockingQueue<byte[]>(maxChunks);
+        this.reader = new Reader(chunkSize);
+        this.reader.start();
+    }
+
+    /**
+     * Thread reading the underlying stream.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private class Reader extends Thread {
+        private final int chunkSize;
+        private volatile IOException failure = null;
+        private volatile boolean stop = false;
+
+        public Reader(int chunkSize) {
+            super("ReadAheadInputStream.Reader");
+            setDaemon(true);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stop) {
+                    byte[] buf = new byte[chunkSize];
+                    int len = 0;
+                    int read = 0;
+                    // fill the whole chunk (if possible)
+                    while (len < chunkSize
+                            && (read = in.read(buf, len, chunkSize - len)) != -1) {
+                        len += read;
+                    }
+                    if (len > 0) {
+                        if (len < chunkSize) {
+                            byte[] buf2 = new byte[len];
+                            System.arraycopy(buf, 0, buf2, 0, len);
+                            buf = buf2;
+                        }
+                        chunks.put(buf);
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                failure = new IOException(e);
+            } finally {
+                try {
+                    chunks.put(EOF);
+                } catch (InterruptedException e) {
+                    // only happens during close() - nobody is reading anymore
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure that {@link #curChunk} has data to read (blocks until data
+     * is available).
+     *
+     * @return <tt>false</tt> if the end of the stream has been reached
+     *
+     * @throws IOException
+     *             if reading the underlying stream failed
+     */
+    private boolean fill() throws IOException {
+        while (!eof && (curChunk == null || curPos >= curChunk.length)) {
+            try {
+                curChunk = chunks.take();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            curPos = 0;
+            if (curChunk == EOF) {
+                eof = true;
+                curChunk = null;
+                if (reader.failure != null) {
+                    throw reader.failure;
+                }
+            }
+        }
+        return !eof;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return curChunk[curPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, curChunk.length - curPos);
+        System.arraycopy(curChunk, curPos, b, off, n);
+        curPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (curChunk == null) ? 0 : (curChunk.length - curPos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.stop = true;
+        reader.interrupt();
+        chunks.clear();
+        eof = true;
+        curChunk = null;
+        in.close();
+    }
+}
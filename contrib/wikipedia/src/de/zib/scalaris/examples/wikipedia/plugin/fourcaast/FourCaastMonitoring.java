@@ -17,14 +17,13 @@ package de.zib.scalaris.examples.wikipedia.plugin.fourcaast;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.List;
-import java.util.Map.Entry;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang.StringEscapeUtils;
 
 import de.zib.scalaris.examples.wikipedia.SavePageResult;
+import de.zib.scalaris.examples.wikipedia.StatsAggregator;
 import de.zib.scalaris.examples.wikipedia.ValueResult;
 import de.zib.scalaris.examples.wikipedia.WikiServletContext;
 import de.zib.scalaris.examples.wikipedia.bliki.NormalisedTitle;
@@ -37,12 +36,25 @@ import de.zib.scalaris.examples.wikipedia.plugin.WikiEventHandler;
 /**
  * Monitors page views and aggregates certain attributes.
  * 
+ * Besides the values of the last page view, histograms of the server, DB and
+ * render times as well as of the single DB operations are kept for the last
+ * {@link #SLOTS} minutes, see {@link StatsAggregator}.
+ * 
  * @author Nico Kruber, kruber@zib.de
  */
 public class FourCaastMonitoring implements WikiEventHandler, FourCaastMonitoringMBean {
     protected final WikiServletContext servlet;
     final static protected Record NULL_RECORD = new Record("", "", "", 0l, 0l, 0l);
-    protected Record lastRecord = NULL_RECORD; 
+    protected volatile Record lastRecord = NULL_RECORD;
+    /**
+     * Number of one-minute time slots the histograms are kept for.
+     */
+    public final static int SLOTS = 15;
+    /**
+     * Time window (in minutes) of the percentile attributes.
+     */
+    public final static int DEFAULT_WINDOW = 5;
+    protected final StatsAggregator stats = new StatsAggregator(60 * 1000, SLOTS);
 
     /**
      * Creates the plugin and stores the wiki servlet context.
@@ -86,22 +98,13 @@ public class FourCaastMonitoring implements WikiEventHandler, FourCaastMonitorin
         return true;
     }
     
-    protected synchronized void extractMonitoringStats(final WikiPageBeanBase page) {
+    protected void extractMonitoringStats(final WikiPageBeanBase page) {
         final Calendar now = GregorianCalendar.getInstance();
-        long dbTime = 0l;
-        for (Entry<String, List<Long>> stats : page.getStats().entrySet()) {
-            String statName = stats.getKey();
-            for (Long stat : stats.getValue()) {
-                if (statName.endsWith(" (last op)")) {
-                    // this is from a previous operation that lead to the
-                    // current page view, e.g. during random page view
-                    // -> exclude it here (there has already been a monitoring call for it)
-                } else {
-                    dbTime += stat;
-                }
-            }
-        }
         final long serverTime = System.currentTimeMillis() - page.getStartTime();
+        // note: stats from a previous operation that lead to the current page
+        // view, e.g. during random page view, are excluded here (there has
+        // already been a monitoring call for them)
+        final long dbTime = stats.add(page, serverTime);
         final long renderTime = serverTime - dbTime;
         lastRecord = new Record(page.getServiceUser(), Revision.calendarToString(now),
                 StringEscapeUtils.escapeJava(page.getTitle()),
@@ -109,9 +112,9 @@ public class FourCaastMonitoring implements WikiEventHandler, FourCaastMonitorin
     }
     
     @Override
-    public
-    synchronized void resetMonitoringStats() {
+    public void resetMonitoringStats() {
         lastRecord = NULL_RECORD;
+        stats.reset();
     }
 
     @Override
@@ -218,4 +221,110 @@ public class FourCaastMonitoring implements WikiEventHandler, FourCaastMonitorin
     public long getLastRenderTime() {
         return lastRecord.renderTime;
     }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getServerTimeP50()
+     */
+    @Override
+    public long getServerTimeP50() {
+        return getPercentile(StatsAggregator.SERVER_TIME, 50.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getServerTimeP95()
+     */
+    @Override
+    public long getServerTimeP95() {
+        return getPercentile(StatsAggregator.SERVER_TIME, 95.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getServerTimeP99()
+     */
+    @Override
+    public long getServerTimeP99() {
+        return getPercentile(StatsAggregator.SERVER_TIME, 99.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getDbTimeP50()
+     */
+    @Override
+    public long getDbTimeP50() {
+        return getPercentile(StatsAggregator.DB_TIME, 50.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getDbTimeP95()
+     */
+    @Override
+    public long getDbTimeP95() {
+        return getPercentile(StatsAggregator.DB_TIME, 95.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getDbTimeP99()
+     */
+    @Override
+    public long getDbTimeP99() {
+        return getPercentile(StatsAggregator.DB_TIME, 99.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getRenderTimeP50()
+     */
+    @Override
+    public long getRenderTimeP50() {
+        return getPercentile(StatsAggregator.RENDER_TIME, 50.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getRenderTimeP95()
+     */
+    @Override
+    public long getRenderTimeP95() {
+        return getPercentile(StatsAggregator.RENDER_TIME, 95.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getRenderTimeP99()
+     */
+    @Override
+    public long getRenderTimeP99() {
+        return getPercentile(StatsAggregator.RENDER_TIME, 99.0, DEFAULT_WINDOW);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getRequestCount()
+     */
+    @Override
+    public long getRequestCount() {
+        return stats.getSnapshot(StatsAggregator.SERVER_TIME,
+                DEFAULT_WINDOW * 60 * 1000l).getCount();
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getStatNames()
+     */
+    @Override
+    public String[] getStatNames() {
+        return stats.getNames().toArray(new String[0]);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getPercentile(java.lang.String, double, int)
+     */
+    @Override
+    public long getPercentile(String statName, double percentile, int windowMinutes) {
+        return stats.getSnapshot(statName, windowMinutes * 60 * 1000l)
+                .getPercentile(percentile);
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.plugin.fourcaast.FourCaastMonitoringMBean#getMean(java.lang.String, int)
+     */
+    @Override
+    public double getMean(String statName, int windowMinutes) {
+        return stats.getSnapshot(statName, windowMinutes * 60 * 1000l).getMean();
+    }
 }
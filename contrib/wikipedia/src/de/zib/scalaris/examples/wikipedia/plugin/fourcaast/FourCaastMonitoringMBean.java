@@ -63,4 +63,95 @@ public interface FourCaastMonitoringMBean {
 
     public abstract long getLastServerTime();
 
+
+    /**
+     * Gets the median server time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getServerTimeP50();
+
+    /**
+     * Gets the 95th percentile of the server time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getServerTimeP95();
+
+    /**
+     * Gets the 99th percentile of the server time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getServerTimeP99();
+
+    /**
+     * Gets the median DB time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getDbTimeP50();
+
+    /**
+     * Gets the 95th percentile of the DB time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getDbTimeP95();
+
+    /**
+     * Gets the 99th percentile of the DB time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getDbTimeP99();
+
+    /**
+     * Gets the median render time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getRenderTimeP50();
+
+    /**
+     * Gets the 95th percentile of the render time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getRenderTimeP95();
+
+    /**
+     * Gets the 99th percentile of the render time of the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getRenderTimeP99();
+
+    /**
+     * Gets the number of monitored requests in the last
+     * {@link FourCaastMonitoring#DEFAULT_WINDOW} minutes.
+     */
+    public abstract long getRequestCount();
+
+    /**
+     * Gets the names of all monitored stats, e.g. <tt>"server_time"</tt> or
+     * <tt>"op:PAGE"</tt>.
+     */
+    public abstract String[] getStatNames();
+
+    /**
+     * Gets a percentile of the given stat.
+     * 
+     * @param statName
+     *            the name of the stat (see {@link #getStatNames()})
+     * @param percentile
+     *            the percentile (between <tt>0</tt> and <tt>100</tt>)
+     * @param windowMinutes
+     *            time window (at most {@link FourCaastMonitoring#SLOTS}
+     *            minutes)
+     */
+    public abstract long getPercentile(String statName, double percentile, int windowMinutes);
+
+    /**
+     * Gets the mean of the given stat.
+     * 
+     * @param statName
+     *            the name of the stat (see {@link #getStatNames()})
+     * @param windowMinutes
+     *            time window (at most {@link FourCaastMonitoring#SLOTS}
+     *            minutes)
+     */
+    public abstract double getMean(String statName, int windowMinutes);
+
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples.wikipedia.tomcat;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter limiting the number of concurrent requests to the wiki servlet in
+ * order to fail fast (with <tt>503 Service Unavailable</tt>) instead of
+ * queueing requests for a DB connection during overload.
+ *
+ * The limit adapts to the observed latency (AIMD): each request finishing
+ * faster than <tt>targetLatency</tt> increases the limit by
+ * <tt>1/limit</tt> (if the limit was actually used), slower requests
+ * decrease it by the factor <tt>backoffRatio</tt> (at most once per
+ * <tt>targetLatency</tt> so that a single burst of slow requests does not
+ * collapse the limit). Only cheap reads may use
+ * the full limit, other requests (saves, previews and imports) are rejected
+ * once <tt>lowPriorityShare</tt> of the limit is in use. Image redirects are
+ * not limited.
+ *
+ * Supported init parameters (all optional): <tt>initialLimit</tt>,
+ * <tt>minLimit</tt>, <tt>maxLimit</tt>, <tt>targetLatency</tt> (ms),
+ * <tt>backoffRatio</tt>, <tt>lowPriorityShare</tt> and <tt>retryAfter</tt>
+ * (seconds).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class AdmissionControlFilter implements Filter {
+    private double minLimit = 10.0;
+    private double maxLimit = 200.0;
+    private long targetLatency = 1000;
+    private double backoffRatio = 0.9;
+    private double lowPriorityShare = 0.75;
+    private int retryAfter = 1;
+
+    /**
+     * Current limit (bits of a double value).
+     */
+    private final AtomicLong limit = new AtomicLong(Double.doubleToLongBits(20.0));
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong lastBackoff = new AtomicLong(0);
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        double initialLimit = getLimit();
+        Enumeration<String> paramNames = filterConfig.getInitParameterNames();
+        while (paramNames.hasMoreElements()) {
+            final String paramName = paramNames.nextElement();
+            final String paramValue = filterConfig.getInitParameter(paramName);
+            try {
+                if (paramName.equals("initialLimit")) {
+                    initialLimit = Double.parseDouble(paramValue);
+                } else if (paramName.equals("minLimit")) {
+                    minLimit = Double.parseDouble(paramValue);
+                } else if (paramName.equals("maxLimit")) {
+                    maxLimit = Double.parseDouble(paramValue);
+                } else if (paramName.equals("targetLatency")) {
+                    targetLatency = Long.parseLong(paramValue);
+                } else if (paramName.equals("backoffRatio")) {
+                    backoffRatio = Double.parseDouble(paramValue);
+                } else if (paramName.equals("lowPriorityShare")) {
+                    lowPriorityShare = Double.parseDouble(paramValue);
+                } else if (paramName.equals("retryAfter")) {
+                    retryAfter = Integer.parseInt(paramValue);
+                } else {
+                    String msg = "The property " + paramName
+                            + " is not defined for filters of type "
+                            + this.getClass().getName();
+                    throw new ServletException(msg);
+                }
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value for property "
+                        + paramName + ": " + paramValue, e);
+            }
+        }
+        if (minLimit < 1.0 || maxLimit < minLimit) {
+            throw new ServletException("Invalid limits: min=" + minLimit
+                    + ", max=" + maxLimit);
+        }
+        limit.set(Double.doubleToLongBits(clamp(initialLimit)));
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+        if (request.getParameter("get_image") != null) {
+            // image redirects do not need a DB connection
+            chain.doFilter(request, response);
+            return;
+        }
+        final double curLimit = getLimit();
+        final double maxInFlight = isLowPriority(request) ? Math.max(1.0,
+                curLimit * lowPriorityShare) : curLimit;
+        final int curInFlight = inFlight.incrementAndGet();
+        if (curInFlight > maxInFlight) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            final HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", Integer.toString(retryAfter));
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            inFlight.decrementAndGet();
+            update(System.currentTimeMillis() - startTime, curInFlight);
+        }
+    }
+
+    /**
+     * Checks whether the given request is an expensive one, i.e. a save (or
+     * preview) or an import, which is only admitted if the load is low
+     * enough.
+     *
+     * @param request
+     *            the request
+     *
+     * @return <tt>true</tt> if the request has a low priority
+     */
+    protected boolean isLowPriority(ServletRequest request) {
+        if (request instanceof HttpServletRequest
+                && "POST".equals(((HttpServletRequest) request).getMethod())) {
+            return true;
+        }
+        return request.getParameter("import") != null;
+    }
+
+    /**
+     * Adapts the limit to the latency of a finished request.
+     *
+     * @param latency
+     *            the request's latency (ms)
+     * @param usedLimit
+     *            number of requests in flight when the request was admitted
+     */
+    protected void update(long latency, int usedLimit) {
+        if (latency > targetLatency) {
+            final long now = System.currentTimeMillis();
+            final long last = lastBackoff.get();
+            if (now - last < targetLatency || !lastBackoff.compareAndSet(last, now)) {
+                return;
+            }
+        }
+        while (true) {
+            final long oldBits = limit.get();
+            final double oldLimit = Double.longBitsToDouble(oldBits);
+            final double newLimit;
+            if (latency > targetLatency) {
+                newLimit = clamp(oldLimit * backoffRatio);
+            } else if (usedLimit * 2 >= oldLimit) {
+                newLimit = clamp(oldLimit + 1.0 / oldLimit);
+            } else {
+                // limit not used - do not grow without any evidence
+                return;
+            }
+            if (newLimit == oldLimit
+                    || limit.compareAndSet(oldBits, Double.doubleToLongBits(newLimit))) {
+                return;
+            }
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.min(maxLimit, Math.max(minLimit, value));
+    }
+
+    /**
+     * Gets the current concurrency limit.
+     *
+     * @return the limit
+     */
+    public double getLimit() {
+        return Double.longBitsToDouble(limit.get());
+    }
+
+    /**
+     * Gets the number of requests currently being processed.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Gets the number of rejected requests.
+     *
+     * @return the number of rejected requests
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void destroy() {
+        // NOOP
+    }
+}
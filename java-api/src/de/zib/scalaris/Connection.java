@@ -20,9 +20,11 @@ import java.net.UnknownHostException;
 
 import com.ericsson.otp.erlang.OtpAuthException;
 import com.ericsson.otp.erlang.OtpConnection;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
 import com.ericsson.otp.erlang.OtpErlangExit;
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpInputStream;
 import com.ericsson.otp.erlang.OtpSelf;
 
 /**
@@ -31,7 +33,7 @@ import com.ericsson.otp.erlang.OtpSelf;
  *
  * @author Nico Kruber, kruber@zib.de
  *
- * @version 3.14
+ * @version 3.20
  * @since 2.3
  */
 public class Connection {
@@ -237,6 +239,81 @@ public class Connection {
         return doRPC(mod, fun, new OtpErlangList(args));
     }
 
+    /**
+     * Sends the given RPC and waits for a result but does not decode it. This
+     * allows callers to decode large results piece by piece, e.g. list
+     * elements one at a time, instead of creating the whole
+     * {@link OtpErlangObject} tree at once.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the encoded result of the call (positioned at the result term)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node or the remote node sends a message containing an
+     *             invalid cookie
+     *
+     * @since 3.20
+     */
+    public OtpInputStream doRPCBuf(final String mod, final String fun, final OtpErlangList args)
+            throws ConnectionException {
+        try {
+            boolean success = false;
+            while(!success) {
+                try {
+                    connection.sendRPC(mod, fun, args);
+                    final OtpInputStream result = connection.receiveBuf();
+                    // RPC results are sent as {rex, Result}:
+                    if (result.read_tuple_head() != 2
+                            || !result.read_atom().equals("rex")) {
+                        throw new ConnectionException("invalid RPC response");
+                    }
+                    success = true;
+                    return result;
+                } catch (final OtpErlangExit e) {
+                    connectionPolicy.nodeFailed(remote);
+                    // first re-try (connection was the first contact)
+                    remote = connectionPolicy.selectNode(1, remote, e);
+                    // reconnect (and then re-try the operation) if no exception was thrown:
+                    reconnect();
+                } catch (final OtpAuthException e) {
+                    connectionPolicy.nodeFailed(remote);
+                    // first re-try (connection was the first contact)
+                    remote = connectionPolicy.selectNode(1, remote, e);
+                    // reconnect (and then re-try the operation) if no exception was thrown:
+                    reconnect();
+                } catch (final OtpErlangDecodeException e) {
+                    throw new ConnectionException(e);
+                } catch (final IOException e) {
+                    connectionPolicy.nodeFailed(remote);
+                    // first re-try (connection was the first contact)
+                    remote = connectionPolicy.selectNode(1, remote, e);
+                    // reconnect (and then re-try the operation) if no exception was thrown:
+                    reconnect();
+                }
+            }
+            // this should not happen as there is only one way out of the while
+            // without throwing an exception
+            throw new InternalError();
+        } catch (final OtpErlangExit e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        } catch (final OtpAuthException e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        } catch (final IOException e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        }
+    }
+
     /**
      * Sends the given RPC and returns immediately.
      *
@@ -0,0 +1,161 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the aggregated result of deleting multiple keys.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ *
+ * @see ReplicatedDHT#deleteAll(java.util.Collection)
+ */
+public class DeleteAllResult {
+    /**
+     * Number of keys with at least the requested quorum of deleted replicas.
+     */
+    public int deleted = 0;
+    /**
+     * Number of keys which did not reach the requested quorum (even after
+     * re-trying).
+     */
+    public int failed = 0;
+    /**
+     * Number of re-tried deletes.
+     */
+    public int retries = 0;
+    /**
+     * Number of deletes which timed out (including re-tries).
+     */
+    public int timeouts = 0;
+    /**
+     * Number of successfully deleted replicas (final delete of each key).
+     */
+    public long ok = 0;
+    /**
+     * Skipped replicas because locks were set (final delete of each key).
+     */
+    public long locks_set = 0;
+    /**
+     * Skipped replicas because they did not exist (final delete of each key).
+     */
+    public long undef = 0;
+    /**
+     * Time (in milliseconds) the delete took.
+     */
+    public long timeMs = 0;
+
+    private final Map<String, DeleteResult> failedKeys = new HashMap<String, DeleteResult>();
+
+    /**
+     * Creates an empty result object.
+     */
+    DeleteAllResult() {
+    }
+
+    /**
+     * Records the final result of a key which reached the quorum.
+     *
+     * @param result
+     *            the result of the last delete
+     * @param retries
+     *            number of re-tries for this key
+     */
+    synchronized void addDeleted(final DeleteResult result, final int retries) {
+        ++deleted;
+        this.retries += retries;
+        add(result);
+    }
+
+    /**
+     * Records the final result of a key which did not reach the quorum.
+     *
+     * @param key
+     *            the key
+     * @param result
+     *            the result of the last delete (<tt>null</tt> if there is
+     *            none)
+     * @param retries
+     *            number of re-tries for this key
+     */
+    synchronized void addFailed(final String key, final DeleteResult result,
+            final int retries) {
+        ++failed;
+        this.retries += retries;
+        failedKeys.put(key, result);
+        if (result != null) {
+            add(result);
+        }
+    }
+
+    /**
+     * Records a timed out delete.
+     */
+    synchronized void addTimeout() {
+        ++timeouts;
+    }
+
+    private void add(final DeleteResult result) {
+        ok += result.ok;
+        locks_set += result.locks_set;
+        undef += result.undef;
+    }
+
+    /**
+     * Checks whether all keys reached the requested quorum.
+     *
+     * @return <tt>true</tt> if no key failed, <tt>false</tt> otherwise
+     */
+    public synchronized boolean hasDeletedAll() {
+        return failed == 0;
+    }
+
+    /**
+     * Gets the keys which did not reach the requested quorum together with
+     * the result of their last delete attempt (<tt>null</tt> if there is
+     * none).
+     *
+     * @return an unmodifiable map of failed keys
+     */
+    public synchronized Map<String, DeleteResult> getFailedKeys() {
+        return Collections.unmodifiableMap(new HashMap<String, DeleteResult>(failedKeys));
+    }
+
+    /**
+     * Gets the number of processed keys per second.
+     *
+     * @return the throughput
+     */
+    public synchronized double getKeysPerSecond() {
+        if (timeMs == 0) {
+            return 0.0;
+        }
+        return (deleted + failed) * 1000.0 / timeMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeleteAllResult(deleted=" + deleted + ", failed=" + failed
+                + ", retries=" + retries + ", timeouts=" + timeouts + ", ok="
+                + ok + ", locks_set=" + locks_set + ", undef=" + undef
+                + ", time=" + timeMs + "ms, keys/s=" + getKeysPerSecond() + ")";
+    }
+}
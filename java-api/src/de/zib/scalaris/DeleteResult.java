@@ -10,7 +10,7 @@ import com.ericsson.otp.erlang.OtpErlangList;
  * Stores the result of a delete operation.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.19
+ * @version 3.20
  * @since 2.2
  *
  * @see ReplicatedDHT#delete(String)
@@ -69,4 +69,20 @@ public class DeleteResult {
     public boolean hasDeletedAll() {
         return (ok + undef) == 4;
     }
+
+    /**
+     * Checks whether the delete operation has successfully deleted at least
+     * <tt>quorum</tt> replicas (replicas which did not exist are counted as
+     * successfully deleted as well).
+     *
+     * @param quorum
+     *            the minimum number of deleted replicas
+     *
+     * @return whether enough replicas were deleted or not
+     *
+     * @since 3.20
+     */
+    public boolean hasDeleted(final int quorum) {
+        return (ok + undef) >= quorum;
+    }
 }
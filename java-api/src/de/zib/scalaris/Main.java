@@ -15,6 +15,8 @@
  */
 package de.zib.scalaris;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
 import java.util.Comparator;
@@ -92,6 +94,11 @@ public class Main {
      *  -jmx,--jmxservice <node>                    starts a service exposing
      *                                              Scalaris monitoring values
      *                                              via JMX
+     *     --snapshot-export <file> <[threads]>     write a consistent snapshot
+     *                                              of all items to a file
+     *     --snapshot-restore <file> <[threads]>    write all items of a
+     *                                              snapshot file to an (empty)
+     *                                              ring
      * </code>
      * </pre>
      *
@@ -299,6 +306,42 @@ public class Main {
             } catch (final UnknownException e) {
                 printException("delete failed with unknown error", e, verbose);
             }
+        } else if (line.hasOption("snapshot-export") || line.hasOption("snapshot-restore")) {
+            final boolean export = line.hasOption("snapshot-export");
+            final String opt = export ? "snapshot-export" : "snapshot-restore";
+            final String[] optionValues = line.getOptionValues(opt);
+            checkArguments(optionValues, 1, options, opt);
+            final File file = new File(optionValues[0]);
+            int threads = 4;
+            if (optionValues.length >= 2) {
+                try {
+                    threads = Integer.parseInt(optionValues[1]);
+                } catch (final Exception e) {
+                    printException("Parsing failed", new ParseException(
+                            "wrong type for threads parameter of option " + opt
+                                    + " (parameters: <"
+                                    + options.getOption(opt).getArgName()
+                                    + ">)"), verbose);
+                }
+            }
+            try {
+                final SystemSnapshot snapshot = new SystemSnapshot().setParallelism(threads);
+                if (export) {
+                    System.out.println("snapshot-export(" + file + "): "
+                            + snapshot.exportTo(file) + " items");
+                } else {
+                    System.out.println("snapshot-restore(" + file + "): "
+                            + snapshot.restoreFrom(file) + " items");
+                }
+            } catch (final ConnectionException e) {
+                printException(opt + " failed with connection error", e, verbose);
+            } catch (final TimeoutException e) {
+                printException(opt + " failed with timeout", e, verbose);
+            } catch (final IOException e) {
+                printException(opt + " failed with I/O error", e, verbose);
+            } catch (final UnknownException e) {
+                printException(opt + " failed with unknown error", e, verbose);
+            }
         } else if (line.hasOption("lh")) { // get local host name
             System.out.println(ConnectionFactory.getLocalhostName());
         } else if (line.hasOption("monitor")) { // print monitoring data
@@ -529,6 +572,18 @@ public class Main {
         jmx.setOptionalArg(true);
         group.addOption(jmx);
 
+        final Option snapshotExport = new Option(null, "snapshot-export", true, "write a consistent snapshot of all items to a file");
+        snapshotExport.setArgName("file> <[threads]");
+        snapshotExport.setArgs(2);
+        snapshotExport.setOptionalArg(true);
+        group.addOption(snapshotExport);
+
+        final Option snapshotRestore = new Option(null, "snapshot-restore", true, "write all items of a snapshot file to an (empty) ring");
+        snapshotRestore.setArgName("file> <[threads]");
+        snapshotRestore.setArgs(2);
+        snapshotRestore.setOptionalArg(true);
+        group.addOption(snapshotRestore);
+
         options.addOptionGroup(group);
 
         options.addOption(new Option("lh", "localhost", false, "gets the local host's name as known to Java (for debugging purposes)"));
@@ -621,6 +676,18 @@ public class Main {
         printException(description, e, verbose, 8);
     }
 
+    /**
+     * Prints the given exception with the given description and terminates the
+     * JVM.
+     *
+     * @param description  will be prepended to the error message
+     * @param e            the exception to print
+     * @param verbose      specifies whether to include the stack trace or not
+     */
+    final static void printException(final String description, final IOException e, final boolean verbose) {
+        printException(description, e, verbose, 9);
+    }
+
     /**
      * Prints the given exception with the given description and terminates the
      * JVM.
@@ -0,0 +1,443 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangExternalFun;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+
+/**
+ * Provides methods to run map reduce jobs on a snapshot of the data stored in
+ * Scalaris (see <tt>api_mr:start_job/1</tt>).
+ *
+ * <p>
+ * Instances of this class can be generated using a given connection to a
+ * scalaris node using {@link #MapReduce(Connection)} or without a
+ * connection ({@link #MapReduce()}) in which case a new connection is
+ * created using {@link ConnectionFactory#createConnection()}.
+ * </p>
+ *
+ * <p>
+ * Only values of the form <tt>{Key::string(), Value::term()}</tt> (or
+ * <tt>{Tag::atom(), Key::string(), Value::term()}</tt> if a tag is set with
+ * {@link Job#setTag(String)}) are considered as input. A job consists of one
+ * or more map and reduce phases which are either JavaScript functions or
+ * exported Erlang functions (<tt>fun Module:Function/1</tt>) available on all
+ * Scalaris nodes.
+ * </p>
+ *
+ * <h3>Running a job</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   MapReduce mr = new MapReduce();
+ *   MapReduce.Job job = new MapReduce.Job()
+ *       .addMapErl("my_mr", "map")        // {@link Job#addMapErl(String, String)}
+ *       .addReduceErl("my_mr", "reduce"); // {@link Job#addReduceErl(String, String)}
+ *   MapReduce.ResultIterator it = mr.startJob(job); // {@link #startJob(Job)}
+ *   while (it.hasNext()) {
+ *       ErlangValue kv = it.next(); // usually {Key, Value}
+ *   }
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The result of a job is only decoded element by element while iterating over
+ * it, i.e. the (encoded) result message is kept but no
+ * {@link OtpErlangList} with all results is created.
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class MapReduce {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final OtpErlangAtom mapAtom = new OtpErlangAtom("map");
+    private static final OtpErlangAtom reduceAtom = new OtpErlangAtom("reduce");
+    private static final OtpErlangAtom erlanonAtom = new OtpErlangAtom("erlanon");
+    private static final OtpErlangAtom jsanonAtom = new OtpErlangAtom("jsanon");
+    private static final OtpErlangAtom tagAtom = new OtpErlangAtom("tag");
+
+    /**
+     * Connection to a Scalaris node.
+     */
+    private final Connection connection;
+
+    /**
+     * Constructor, uses the default connection returned by
+     * {@link ConnectionFactory#createConnection()}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    public MapReduce() throws ConnectionException {
+        connection = ConnectionFactory.getInstance().createConnection();
+    }
+
+    /**
+     * Constructor, uses the given connection to an erlang node.
+     *
+     * @param conn
+     *            connection to use for the map reduce jobs
+     */
+    public MapReduce(final Connection conn) {
+        connection = conn;
+    }
+
+    /**
+     * Description of a map reduce job, i.e. a list of phases and options.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public static class Job {
+        private final List<OtpErlangObject> phases = new ArrayList<OtpErlangObject>();
+        private final List<OtpErlangObject> options = new ArrayList<OtpErlangObject>();
+
+        /**
+         * Creates an empty job description.
+         */
+        public Job() {
+        }
+
+        /**
+         * Adds a map phase with the given JavaScript function.
+         *
+         * @param jsFun
+         *            the function's source, e.g.
+         *            <tt>function(data) {return [{key: data.key, value: 1}];}</tt>
+         *
+         * @return this job description
+         */
+        public Job addMapJS(final String jsFun) {
+            return addPhase(mapAtom, jsanonAtom, new OtpErlangBinary(jsFun.getBytes(UTF_8)));
+        }
+
+        /**
+         * Adds a reduce phase with the given JavaScript function.
+         *
+         * @param jsFun
+         *            the function's source
+         *
+         * @return this job description
+         */
+        public Job addReduceJS(final String jsFun) {
+            return addPhase(reduceAtom, jsanonAtom, new OtpErlangBinary(jsFun.getBytes(UTF_8)));
+        }
+
+        /**
+         * Adds a map phase with the given (exported) Erlang function which
+         * must be available on all Scalaris nodes.
+         *
+         * @param module
+         *            the module of the function
+         * @param function
+         *            the function's name (arity 1, taking a
+         *            <tt>{Key, Value}</tt> tuple and returning a list of such
+         *            tuples)
+         *
+         * @return this job description
+         */
+        public Job addMapErl(final String module, final String function) {
+            return addPhase(mapAtom, erlanonAtom, new OtpErlangExternalFun(module, function, 1));
+        }
+
+        /**
+         * Adds a reduce phase with the given (exported) Erlang function which
+         * must be available on all Scalaris nodes.
+         *
+         * @param module
+         *            the module of the function
+         * @param function
+         *            the function's name (arity 1, taking a list of
+         *            <tt>{Key, [Value]}</tt> tuples and returning a list of
+         *            <tt>{Key, Value}</tt> tuples)
+         *
+         * @return this job description
+         */
+        public Job addReduceErl(final String module, final String function) {
+            return addPhase(reduceAtom, erlanonAtom, new OtpErlangExternalFun(module, function, 1));
+        }
+
+        /**
+         * Adds a phase using the given Erlang function object, e.g. an
+         * {@link com.ericsson.otp.erlang.OtpErlangFun} received from Erlang.
+         *
+         * @param map
+         *            <tt>true</tt> for a map phase, <tt>false</tt> for a
+         *            reduce phase
+         * @param erlFun
+         *            the function to use
+         *
+         * @return this job description
+         */
+        public Job addPhaseErl(final boolean map, final OtpErlangObject erlFun) {
+            return addPhase(map ? mapAtom : reduceAtom, erlanonAtom, erlFun);
+        }
+
+        private Job addPhase(final OtpErlangAtom type, final OtpErlangAtom funType,
+                final OtpErlangObject fun) {
+            phases.add(new OtpErlangTuple(new OtpErlangObject[] { type, funType, fun }));
+            return this;
+        }
+
+        /**
+         * Only uses <tt>{Tag, Key, Value}</tt> tuples with the given tag as
+         * the input of the job.
+         *
+         * @param tag
+         *            the tag to filter the input with
+         *
+         * @return this job description
+         */
+        public Job setTag(final String tag) {
+            options.add(new OtpErlangTuple(new OtpErlangObject[] { tagAtom, new OtpErlangAtom(tag) }));
+            return this;
+        }
+
+        /**
+         * Creates the job description as expected by
+         * <tt>api_mr:start_job/1</tt>.
+         *
+         * @return <tt>{[Phase], [Option]}</tt>
+         */
+        public OtpErlangObject toErlang() {
+            return new OtpErlangTuple(new OtpErlangObject[] {
+                    new OtpErlangList(phases.toArray(new OtpErlangObject[phases.size()])),
+                    new OtpErlangList(options.toArray(new OtpErlangObject[options.size()])) });
+        }
+
+        @Override
+        public String toString() {
+            return toErlang().toString();
+        }
+    }
+
+    /**
+     * Iterator over the results of a map reduce job which decodes one element
+     * at a time.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public static class ResultIterator implements Iterator<ErlangValue> {
+        private OtpInputStream stream;
+        private final OtpErlangObject[] elements;
+        private final int size;
+        private int pos = 0;
+
+        /**
+         * Creates an iterator decoding list elements from the given stream.
+         *
+         * @param stream
+         *            the stream positioned after the list header
+         * @param size
+         *            the number of list elements
+         */
+        protected ResultIterator(final OtpInputStream stream, final int size) {
+            this.stream = stream;
+            this.elements = null;
+            this.size = size;
+        }
+
+        /**
+         * Creates an iterator over already decoded list elements.
+         *
+         * @param elements
+         *            the list elements
+         */
+        protected ResultIterator(final OtpErlangObject[] elements) {
+            this.stream = null;
+            this.elements = elements;
+            this.size = elements.length;
+        }
+
+        /**
+         * Gets the total number of results.
+         *
+         * @return the size of the result list
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gets the number of results not iterated over yet.
+         *
+         * @return the number of remaining results
+         */
+        public int remaining() {
+            return size - pos;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pos < size;
+        }
+
+        /**
+         * Decodes the next result.
+         *
+         * @return the next result, usually a <tt>{Key, Value}</tt> tuple
+         *
+         * @throws NoSuchElementException
+         *             if there are no more results
+         * @throws ClassCastException
+         *             if the result could not be decoded
+         */
+        @Override
+        public ErlangValue next() throws NoSuchElementException, ClassCastException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (elements != null) {
+                return new ErlangValue(elements[pos++]);
+            }
+            try {
+                final OtpErlangObject element = stream.read_any();
+                ++pos;
+                if (pos == size) {
+                    close();
+                }
+                return new ErlangValue(element);
+            } catch (final OtpErlangDecodeException e) {
+                throw new ClassCastException("cannot decode map reduce result: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Releases the remaining (encoded) results.
+         */
+        public void close() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (final IOException e) {
+                }
+                stream = null;
+                pos = size;
+            }
+        }
+    }
+
+    /**
+     * Runs the given map reduce job and waits for its results.
+     *
+     * @param job
+     *            the job to run
+     *
+     * @return an iterator over the job's results
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if the job failed, e.g. <tt>{error, Reason}</tt>, or any
+     *             other error occurs
+     */
+    public ResultIterator startJob(final Job job) throws ConnectionException,
+            UnknownException {
+        return startJob(job.toErlang());
+    }
+
+    /**
+     * Runs the given map reduce job and waits for its results.
+     *
+     * @param job
+     *            the job description as expected by
+     *            <tt>api_mr:start_job/1</tt>
+     *
+     * @return an iterator over the job's results
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if the job failed, e.g. <tt>{error, Reason}</tt>, or any
+     *             other error occurs
+     */
+    public ResultIterator startJob(final OtpErlangObject job)
+            throws ConnectionException, UnknownException {
+        final OtpInputStream received = connection.doRPCBuf("api_mr", "start_job",
+                new OtpErlangList(job));
+        return decodeResult(received);
+    }
+
+    /**
+     * Creates a result iterator for the given (encoded) job result.
+     *
+     * @param received
+     *            the encoded result, positioned at the result term
+     *
+     * @return an iterator over the job's results
+     *
+     * @throws UnknownException
+     *             if the result is not a list
+     */
+    static ResultIterator decodeResult(final OtpInputStream received)
+            throws UnknownException {
+        try {
+            final int tag = received.peek1skip_version();
+            if ((tag == OtpExternal.listTag) || (tag == OtpExternal.nilTag)) {
+                return new ResultIterator(received, received.read_list_head());
+            }
+            // error tuple or a list of small integers (sent as a string)
+            final OtpErlangObject received_raw = received.read_any();
+            try {
+                if (tag == OtpExternal.stringTag) {
+                    return new ResultIterator(ErlangValue.otpObjectToOtpList(received_raw).elements());
+                }
+            } catch (final ClassCastException e) {
+                throw new UnknownException(e, received_raw);
+            }
+            throw new UnknownException(received_raw);
+        } catch (final OtpErlangDecodeException e) {
+            throw new UnknownException(e);
+        }
+    }
+
+    /**
+     * Closes the connection to a scalaris node.
+     *
+     * Note: Subsequent calls to the other methods will throw
+     * {@link ConnectionException}s!
+     */
+    public void closeConnection() {
+        connection.close();
+    }
+}
@@ -64,6 +64,10 @@ import de.zib.scalaris.operations.CommitOp;
  *
  * <p>For the full example, see {@link de.zib.scalaris.examples.PubSubSubscribeExample}</p>
  *
+ * <p>Instead of running an HTTP server for the JSON-RPC notifications sent to
+ * subscribed URLs, Java clients may also receive notifications as Erlang
+ * messages in a mailbox by subscribing a {@link PubSubReceiver}.</p>
+ *
  * <h3>Unsubscribing from topics</h3>
  *
  * Unsubscribing from topics works like subscribing to topics with the exception
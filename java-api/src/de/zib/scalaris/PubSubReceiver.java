@@ -0,0 +1,376 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpMbox;
+import com.ericsson.otp.erlang.OtpNode;
+
+/**
+ * Receives pub/sub notifications as Erlang messages in a (named)
+ * {@link OtpMbox} instead of JSON-RPC calls to an HTTP server.
+ *
+ * <p>
+ * Subscribing {@link #getUrl()}, i.e. <tt>erl://mboxName@nodeName</tt>, to a
+ * topic makes Scalaris send <tt>{pubsub_notify, Topic, Content}</tt>
+ * messages to the mailbox. A dedicated receiver thread (see
+ * {@link #start()}) collects these messages and hands them to a
+ * {@link Listener} - bursts of messages are delivered in batches of up to
+ * {@link #setMaxBatchSize(int)} notifications.
+ * </p>
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   PubSubReceiver receiver = PubSubReceiver.create(ConnectionFactory.getInstance(), listener);
+ *   receiver.start();
+ *   receiver.subscribe(new PubSub(), topic);
+ *   ...
+ *   receiver.unsubscribe(new PubSub(), topic);
+ *   receiver.stop();
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class PubSubReceiver {
+    /**
+     * URL prefix of mailbox subscribers.
+     */
+    public static final String URL_PREFIX = "erl://";
+    private static final OtpErlangAtom NOTIFY = new OtpErlangAtom("pubsub_notify");
+    private static final long POLL_INTERVAL = 500;
+
+    /**
+     * A single notification.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public static class Notification {
+        private final String topic;
+        private final String content;
+
+        /**
+         * Creates a new notification.
+         *
+         * @param topic
+         *            the topic the content was published under
+         * @param content
+         *            the published content
+         */
+        public Notification(final String topic, final String content) {
+            this.topic = topic;
+            this.content = content;
+        }
+
+        /**
+         * Gets the topic the content was published under.
+         *
+         * @return the topic
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Gets the published content.
+         *
+         * @return the content
+         */
+        public String getContent() {
+            return content;
+        }
+
+        @Override
+        public String toString() {
+            return "{" + topic + ", " + content + "}";
+        }
+    }
+
+    /**
+     * Receives notifications (called from the receiver thread).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public static interface Listener {
+        /**
+         * Will be called with all notifications received in a burst (in the
+         * order of their arrival). Exceptions thrown by this method are
+         * ignored.
+         *
+         * @param notifications
+         *            the received notifications (never empty)
+         */
+        public abstract void onNotifications(List<Notification> notifications);
+    }
+
+    private final OtpNode node;
+    private final OtpMbox mbox;
+    private final Listener listener;
+    private int maxBatchSize = 100;
+    private long batchDelay = 0;
+    private Thread receiver = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a new receiver using the given mailbox.
+     *
+     * @param mbox
+     *            a named mailbox
+     * @param listener
+     *            the listener to hand notifications to
+     *
+     * @throws IllegalArgumentException
+     *             if the mailbox has no name
+     */
+    public PubSubReceiver(final OtpMbox mbox, final Listener listener)
+            throws IllegalArgumentException {
+        this(null, mbox, listener);
+    }
+
+    private PubSubReceiver(final OtpNode node, final OtpMbox mbox,
+            final Listener listener) throws IllegalArgumentException {
+        if (mbox.getName() == null) {
+            throw new IllegalArgumentException("the mailbox needs a name");
+        }
+        this.node = node;
+        this.mbox = mbox;
+        this.listener = listener;
+    }
+
+    /**
+     * Creates a new receiver with its own node (using the client name and
+     * cookie of the given factory) which is closed by {@link #stop()}.
+     *
+     * @param factory
+     *            the connection factory to get the client name and cookie
+     *            from
+     * @param listener
+     *            the listener to hand notifications to
+     *
+     * @return a (stopped) receiver
+     *
+     * @throws IOException
+     *             if the node could not be created, e.g. because no
+     *             <tt>epmd</tt> is running
+     */
+    public static PubSubReceiver create(final ConnectionFactory factory,
+            final Listener listener) throws IOException {
+        final String nodeName = ConnectionFactory.fixLocalhostName(factory
+                .getClientName() + "_pubsub_" + Long.toHexString(new Random().nextLong()));
+        final OtpNode node = new OtpNode(nodeName, factory.getCookie());
+        return new PubSubReceiver(node, node.createMbox("pubsub"), listener);
+    }
+
+    /**
+     * Sets the maximum number of notifications to deliver at once (default:
+     * 100).
+     *
+     * @param maxBatchSize
+     *            the maximum batch size
+     *
+     * @return this receiver
+     */
+    public PubSubReceiver setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Sets how long to wait (in milliseconds) for further notifications
+     * after receiving the first one of a batch (default: 0, i.e. only
+     * notifications already in the mailbox are added to a batch).
+     *
+     * @param batchDelay
+     *            the maximum delay
+     *
+     * @return this receiver
+     */
+    public PubSubReceiver setBatchDelay(final long batchDelay) {
+        this.batchDelay = batchDelay;
+        return this;
+    }
+
+    /**
+     * Gets the URL to subscribe to topics with.
+     *
+     * @return <tt>erl://mboxName@nodeName</tt>
+     */
+    public String getUrl() {
+        return URL_PREFIX + mbox.getName() + "@" + mbox.self().node();
+    }
+
+    /**
+     * Subscribes this receiver to the given topic.
+     *
+     * @param pubSub
+     *            the pub/sub object to use
+     * @param topic
+     *            the topic to subscribe to
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws AbortException
+     *             if the commit of the subscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void subscribe(final PubSub pubSub, final String topic)
+            throws ConnectionException, AbortException, UnknownException {
+        pubSub.subscribe(topic, getUrl());
+    }
+
+    /**
+     * Unsubscribes this receiver from the given topic.
+     *
+     * @param pubSub
+     *            the pub/sub object to use
+     * @param topic
+     *            the topic to unsubscribe from
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws NotFoundException
+     *             if the receiver was not subscribed to the topic
+     * @throws AbortException
+     *             if the commit of the unsubscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void unsubscribe(final PubSub pubSub, final String topic)
+            throws ConnectionException, NotFoundException, AbortException,
+            UnknownException {
+        pubSub.unsubscribe(topic, getUrl());
+    }
+
+    /**
+     * Starts the receiver thread.
+     */
+    public synchronized void start() {
+        if (receiver != null) {
+            return;
+        }
+        stopped = false;
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveLoop();
+            }
+        }, "PubSubReceiver-" + mbox.getName());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Stops the receiver thread (and closes the node if created by
+     * {@link #create(ConnectionFactory, Listener)}).
+     */
+    public void stop() {
+        final Thread receiver0;
+        synchronized (this) {
+            receiver0 = receiver;
+            receiver = null;
+            stopped = true;
+        }
+        if (receiver0 != null) {
+            try {
+                receiver0.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (node != null) {
+            node.close();
+        }
+    }
+
+    private void receiveLoop() {
+        final List<Notification> batch = new ArrayList<Notification>(maxBatchSize);
+        try {
+            while (!stopped) {
+                final Notification first = convert(mbox.receive(POLL_INTERVAL));
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long stopTime = System.currentTimeMillis() + batchDelay;
+                while (batch.size() < maxBatchSize) {
+                    final OtpErlangObject msg = mbox.receive(Math.max(0,
+                            stopTime - System.currentTimeMillis()));
+                    if (msg == null) {
+                        break;
+                    }
+                    final Notification next = convert(msg);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                try {
+                    listener.onNotifications(new ArrayList<Notification>(batch));
+                } catch (final RuntimeException e) {
+                }
+                batch.clear();
+            }
+        } catch (final OtpErlangException e) {
+            // mailbox closed or exit signal received -> stop receiving
+        }
+    }
+
+    /**
+     * Converts a <tt>{pubsub_notify, Topic, Content}</tt> message into a
+     * {@link Notification}.
+     *
+     * @param msg
+     *            the received message (may be <tt>null</tt>)
+     *
+     * @return a notification or <tt>null</tt> if the message was no valid
+     *         notification
+     */
+    static Notification convert(final OtpErlangObject msg) {
+        if (msg instanceof OtpErlangTuple) {
+            final OtpErlangTuple tuple = (OtpErlangTuple) msg;
+            if ((tuple.arity() == 3) && NOTIFY.equals(tuple.elementAt(0))) {
+                try {
+                    return new Notification(
+                            new ErlangValue(tuple.elementAt(1)).stringValue(),
+                            new ErlangValue(tuple.elementAt(2)).stringValue());
+                } catch (final ClassCastException e) {
+                }
+            }
+        }
+        return null;
+    }
+}
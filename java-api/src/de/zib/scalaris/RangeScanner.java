@@ -0,0 +1,585 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+
+/**
+ * Reads all (raw) entries of a key range using
+ * <tt>api_dht_raw:range_read/2</tt>.
+ *
+ * <p>
+ * The range is split into a number of intervals which are read in parallel by
+ * a number of worker threads, each with its own connection created by the
+ * {@link ConnectionFactory} (use e.g. a {@link RoundRobinConnectionPolicy} to
+ * distribute the reads among the available nodes). An interval whose read
+ * timed out is re-tried up to {@link #setMaxRetries(int)} times. Read
+ * intervals are kept in their encoded form and decoded entry by entry while
+ * iterating. At most {@link #setBufferedIntervals(int)} intervals are kept in
+ * memory, i.e. the workers pause if the consumer is slower.
+ * </p>
+ *
+ * <p>
+ * Note that the entries are stored under their hashed keys, i.e. the original
+ * (client) keys are not available, and each item is stored
+ * {@link #REPLICATION_FACTOR} times at the keys
+ * <tt>HashedKey + i * 2<sup>126</sup></tt>. By default, only the first
+ * quarter of the ring is scanned which contains exactly one replica of each
+ * item. Entries are returned in no particular order and since no quorum is
+ * read, they may be outdated.
+ * </p>
+ *
+ * <h3>Scanning the ring</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   RangeScanner scanner = new RangeScanner()
+ *       .setIntervals(64)   // {@link #setIntervals(int)}
+ *       .setParallelism(4); // {@link #setParallelism(int)}
+ *   RangeScanner.ScanIterator it = scanner.iterator(); // {@link #iterator()}
+ *   try {
+ *       while (it.hasNext()) {
+ *           RangeScanner.Entry entry = it.next();
+ *           ErlangValue value = entry.getValue();
+ *       }
+ *   } finally {
+ *       it.close();
+ *   }
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class RangeScanner implements Iterable<RangeScanner.Entry> {
+    /**
+     * Number of keys in the ring (<tt>2<sup>128</sup></tt>).
+     */
+    public static final BigInteger RING_SIZE = BigInteger.ONE.shiftLeft(128);
+    /**
+     * Number of replicas of each item.
+     */
+    public static final int REPLICATION_FACTOR = 4;
+    /**
+     * Size of the ring segment containing exactly one replica of each item.
+     */
+    public static final BigInteger REPLICA_SEGMENT_SIZE = RING_SIZE
+            .divide(BigInteger.valueOf(REPLICATION_FACTOR));
+
+    private final ConnectionFactory connectionFactory;
+    private BigInteger from = BigInteger.ZERO;
+    private BigInteger to = REPLICA_SEGMENT_SIZE.subtract(BigInteger.ONE);
+    private int intervals = 64;
+    private int parallelism = 4;
+    private int maxRetries = 3;
+    private int bufferedIntervals = 8;
+
+    /**
+     * Creates a scanner using connections created by
+     * {@link ConnectionFactory#getInstance()}.
+     */
+    public RangeScanner() {
+        this(ConnectionFactory.getInstance());
+    }
+
+    /**
+     * Creates a scanner using connections created by the given factory.
+     *
+     * @param connectionFactory
+     *            the factory to create the workers' connections with
+     */
+    public RangeScanner(final ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Sets the (hashed) key range to scan (default: the first replica
+     * segment, i.e. <tt>[0, 2<sup>126</sup> - 1]</tt>).
+     *
+     * @param from
+     *            first key (inclusive)
+     * @param to
+     *            last key (inclusive)
+     *
+     * @return this scanner
+     *
+     * @throws IllegalArgumentException
+     *             if the range is empty or outside the ring
+     */
+    public RangeScanner setRange(final BigInteger from, final BigInteger to)
+            throws IllegalArgumentException {
+        if ((from.signum() < 0) || (to.compareTo(RING_SIZE) >= 0)
+                || (from.compareTo(to) > 0)) {
+            throw new IllegalArgumentException("invalid range [" + from + ", " + to + "]");
+        }
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Scans the whole ring, i.e. all replicas of all items.
+     *
+     * @return this scanner
+     */
+    public RangeScanner setAllReplicas() {
+        return setRange(BigInteger.ZERO, RING_SIZE.subtract(BigInteger.ONE));
+    }
+
+    /**
+     * Sets the number of intervals to split the range into (default: 64).
+     *
+     * @param intervals
+     *            the number of intervals (at least 1)
+     *
+     * @return this scanner
+     */
+    public RangeScanner setIntervals(final int intervals) {
+        this.intervals = Math.max(1, intervals);
+        return this;
+    }
+
+    /**
+     * Sets the number of worker threads, i.e. concurrent range reads
+     * (default: 4).
+     *
+     * @param parallelism
+     *            the number of threads (at least 1)
+     *
+     * @return this scanner
+     */
+    public RangeScanner setParallelism(final int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Sets how often an interval is re-tried after a timeout (default: 3).
+     *
+     * @param maxRetries
+     *            the maximum number of retries per interval
+     *
+     * @return this scanner
+     */
+    public RangeScanner setMaxRetries(final int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of read intervals which have not been iterated
+     * over yet (default: 8).
+     *
+     * @param bufferedIntervals
+     *            the number of intervals to buffer (at least 1)
+     *
+     * @return this scanner
+     */
+    public RangeScanner setBufferedIntervals(final int bufferedIntervals) {
+        this.bufferedIntervals = Math.max(1, bufferedIntervals);
+        return this;
+    }
+
+    /**
+     * Splits the configured range into (at most) the configured number of
+     * intervals of (roughly) equal size.
+     *
+     * @return the intervals as <tt>{from, to}</tt> pairs (both inclusive)
+     */
+    BigInteger[][] getIntervals() {
+        final BigInteger size = to.subtract(from).add(BigInteger.ONE);
+        final int count = size.min(BigInteger.valueOf(intervals)).intValue();
+        final BigInteger[][] result = new BigInteger[count][];
+        BigInteger begin = from;
+        for (int i = 0; i < count; ++i) {
+            final BigInteger end = (i == count - 1) ? to : from.add(
+                    size.multiply(BigInteger.valueOf(i + 1)).divide(
+                            BigInteger.valueOf(count))).subtract(BigInteger.ONE);
+            result[i] = new BigInteger[] { begin, end };
+            begin = end.add(BigInteger.ONE);
+        }
+        return result;
+    }
+
+    /**
+     * Starts the scan.
+     *
+     * @return an iterator over the scanned entries (should be closed if not
+     *         iterated to the end)
+     */
+    @Override
+    public ScanIterator iterator() {
+        return new ScanIterator(getIntervals());
+    }
+
+    /**
+     * A (raw) entry of the DHT.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public static class Entry {
+        private final BigInteger key;
+        private final OtpErlangObject value;
+        private final long version;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param key
+         *            the (hashed) key
+         * @param value
+         *            the encoded value
+         * @param version
+         *            the version of the value
+         */
+        protected Entry(final BigInteger key, final OtpErlangObject value,
+                final long version) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+        }
+
+        /**
+         * Gets the hashed key the entry is stored at.
+         *
+         * @return the key in the ring
+         */
+        public BigInteger getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the version of the entry's value.
+         *
+         * @return the version
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Decodes the value of the entry (values other than atoms, numbers
+         * and booleans are stored as <tt>term_to_binary/2</tt> binaries).
+         *
+         * @return the value as written by the client
+         *
+         * @throws ClassCastException
+         *             if the value could not be decoded
+         */
+        public ErlangValue getValue() throws ClassCastException {
+            if (value instanceof OtpErlangBinary) {
+                try {
+                    return new ErlangValue(new OtpInputStream(
+                            ((OtpErlangBinary) value).binaryValue()).read_any());
+                } catch (final OtpErlangDecodeException e) {
+                    throw new ClassCastException("cannot decode value: " + e.getMessage());
+                }
+            }
+            return new ErlangValue(value);
+        }
+
+        @Override
+        public String toString() {
+            return "{" + key + ", " + value + ", " + version + "}";
+        }
+    }
+
+    /**
+     * The read (and encoded) entries of an interval or the reason the
+     * interval could not be read.
+     */
+    private static class Chunk {
+        private final BigInteger from;
+        private final BigInteger to;
+        private final OtpInputStream stream;
+        private final int size;
+        private final Exception error;
+
+        protected Chunk(final BigInteger from, final BigInteger to,
+                final OtpInputStream stream, final int size) {
+            this.from = from;
+            this.to = to;
+            this.stream = stream;
+            this.size = size;
+            this.error = null;
+        }
+
+        protected Chunk(final Exception error) {
+            this.from = null;
+            this.to = null;
+            this.stream = null;
+            this.size = 0;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Marks the end of a worker's intervals.
+     */
+    private static final Chunk WORKER_DONE = new Chunk(null, null, null, 0);
+
+    /**
+     * Iterator over the entries of a scan.
+     *
+     * Errors of the workers are thrown as {@link RuntimeException}s with the
+     * {@link ConnectionException}, {@link TimeoutException} or
+     * {@link UnknownException} as their cause.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public class ScanIterator implements Iterator<Entry> {
+        private final BigInteger[][] intervals;
+        private final AtomicInteger nextInterval = new AtomicInteger(0);
+        private final BlockingQueue<Chunk> chunks;
+        private final Worker[] workers;
+        private int activeWorkers;
+        private Chunk current = null;
+        private int currentPos = 0;
+        private Entry next = null;
+        private volatile boolean closed = false;
+
+        protected ScanIterator(final BigInteger[][] intervals) {
+            this.intervals = intervals;
+            this.chunks = new ArrayBlockingQueue<Chunk>(bufferedIntervals);
+            final int workerCount = Math.min(parallelism, intervals.length);
+            this.workers = new Worker[workerCount];
+            this.activeWorkers = workerCount;
+            for (int i = 0; i < workerCount; ++i) {
+                workers[i] = new Worker();
+                workers[i].start();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = fetchNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stops all workers and releases the buffered intervals.
+         */
+        public void close() {
+            closed = true;
+            for (final Worker worker : workers) {
+                worker.interrupt();
+            }
+            chunks.clear();
+            closeCurrent();
+            activeWorkers = 0;
+        }
+
+        private void closeCurrent() {
+            if ((current != null) && (current.stream != null)) {
+                try {
+                    current.stream.close();
+                } catch (final IOException e) {
+                }
+            }
+            current = null;
+        }
+
+        /**
+         * Decodes the next (non-empty) entry inside the scanned range.
+         *
+         * @return the next entry or <tt>null</tt> if there are no more
+         */
+        private Entry fetchNext() {
+            while (!closed) {
+                if ((current != null) && (currentPos < current.size)) {
+                    ++currentPos;
+                    final Entry entry = decodeEntry(current);
+                    if (entry != null) {
+                        return entry;
+                    }
+                    continue;
+                }
+                closeCurrent();
+                if (activeWorkers == 0) {
+                    return null;
+                }
+                final Chunk chunk;
+                try {
+                    chunk = chunks.take();
+                } catch (final InterruptedException e) {
+                    close();
+                    throw new RuntimeException(e);
+                }
+                if (chunk == WORKER_DONE) {
+                    --activeWorkers;
+                } else if (chunk.error != null) {
+                    close();
+                    throw new RuntimeException(chunk.error);
+                } else {
+                    current = chunk;
+                    currentPos = 0;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Decodes the next entry of the given chunk.
+         *
+         * @return the entry or <tt>null</tt> if it is empty or outside the
+         *         chunk's interval
+         */
+        private Entry decodeEntry(final Chunk chunk) {
+            try {
+                // {Key, Value, WriteLock, ReadLock, Version}
+                final OtpErlangTuple entry = (OtpErlangTuple) chunk.stream.read_any();
+                final BigInteger key = ((OtpErlangLong) entry.elementAt(0)).bigIntegerValue();
+                // note: range_read(Key, Key) reads the whole ring
+                final long version = ((OtpErlangLong) entry.elementAt(4)).longValue();
+                if ((version < 0) || (key.compareTo(chunk.from) < 0)
+                        || (key.compareTo(chunk.to) > 0)) {
+                    return null;
+                }
+                return new Entry(key, entry.elementAt(1), version);
+            } catch (final OtpErlangDecodeException e) {
+                close();
+                throw new RuntimeException(new UnknownException(e));
+            } catch (final ClassCastException e) {
+                close();
+                throw new RuntimeException(new UnknownException(e));
+            }
+        }
+
+        /**
+         * Reads intervals until there are no more (or the iterator has been
+         * closed).
+         */
+        private class Worker extends Thread {
+            protected Worker() {
+                super("RangeScanner worker");
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                Connection connection = null;
+                try {
+                    connection = connectionFactory.createConnection();
+                    int i;
+                    while (!closed && ((i = nextInterval.getAndIncrement()) < intervals.length)) {
+                        chunks.put(readInterval(connection, intervals[i][0], intervals[i][1]));
+                    }
+                    chunks.put(WORKER_DONE);
+                } catch (final InterruptedException e) {
+                    // closed
+                } catch (final Exception e) {
+                    try {
+                        chunks.put(new Chunk(e));
+                    } catch (final InterruptedException e1) {
+                        // closed
+                    }
+                } finally {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the given interval, re-trying on timeouts.
+     *
+     * @param connection
+     *            the connection to use
+     * @param from
+     *            first key (inclusive)
+     * @param to
+     *            last key (inclusive)
+     *
+     * @return the (encoded) entries of the interval
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if the interval could still not be read after all retries
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private Chunk readInterval(final Connection connection,
+            final BigInteger from, final BigInteger to)
+            throws ConnectionException, TimeoutException, UnknownException {
+        final OtpErlangList args = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangLong(from), new OtpErlangLong(to) });
+        for (int retry = 0; retry <= maxRetries; ++retry) {
+            final OtpInputStream received = connection.doRPCBuf(
+                    "api_dht_raw", "range_read", args);
+            try {
+                // {ok | timeout, [db_entry:entry()]}
+                if (received.read_tuple_head() != 2) {
+                    throw new UnknownException("invalid range_read result");
+                }
+                final String status = received.read_atom();
+                if (status.equals("timeout")) {
+                    continue;
+                }
+                final int tag = received.peek1skip_version();
+                if (!status.equals("ok")
+                        || ((tag != OtpExternal.listTag) && (tag != OtpExternal.nilTag))) {
+                    throw new UnknownException("invalid range_read result");
+                }
+                return new Chunk(from, to, received, received.read_list_head());
+            } catch (final OtpErlangDecodeException e) {
+                throw new UnknownException(e);
+            }
+        }
+        throw new TimeoutException("range_read of [" + from + ", " + to
+                + "] timed out " + (maxRetries + 1) + " times");
+    }
+}
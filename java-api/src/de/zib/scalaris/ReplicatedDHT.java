@@ -15,6 +15,11 @@
  */
 package de.zib.scalaris;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangInt;
 import com.ericsson.otp.erlang.OtpErlangList;
@@ -49,6 +54,24 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * </code>
  * </pre>
  *
+ * <h3>Deleting many values</h3>
+ *
+ * {@link #deleteAll(Collection)} deletes keys in parallel using
+ * {@link #setConcurrency(int)} connections created by
+ * {@link #setConnectionFactory(ConnectionFactory)}. Each key is re-tried (up
+ * to {@link #setMaxRetries(int)} times) until at least
+ * {@link #setQuorum(int)} of its replicas are deleted.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   Collection&lt;String&gt; keys;
+ *   DeleteAllResult result;
+ *
+ *   ReplicatedDHT rdht = new ReplicatedDHT().setConcurrency(16).setQuorum(3);
+ *   result = rdht.deleteAll(keys);     // {@link #deleteAll(Collection)}
+ * </code>
+ * </pre>
+ *
  * <h3>Connection errors</h3>
  *
  * Errors when setting up connections or trying to send/receive RPCs will be
@@ -59,7 +82,7 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * number of automatic retries is adjustable (default: 3).
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.19
+ * @version 3.20
  * @since 2.6
  */
 public class ReplicatedDHT {
@@ -75,6 +98,11 @@ public class ReplicatedDHT {
      */
     private final Connection connection;
 
+    private ConnectionFactory connectionFactory = ConnectionFactory.getInstance();
+    private int concurrency = 8;
+    private int quorum = 4;
+    private int maxRetries = 3;
+
     /**
      * Constructor, uses the default connection returned by
      * {@link ConnectionFactory#createConnection()}.
@@ -258,6 +286,286 @@ public class ReplicatedDHT {
         return delete(new OtpErlangString(key), timeout);
     }
 
+    /**
+     * Sets the connection factory to create the connections for
+     * {@link #deleteAll(Collection)} with (default:
+     * {@link ConnectionFactory#getInstance()}).
+     *
+     * @param connectionFactory
+     *            the connection factory to use
+     *
+     * @return this object
+     *
+     * @since 3.20
+     */
+    public ReplicatedDHT setConnectionFactory(final ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        return this;
+    }
+
+    /**
+     * Sets the number of parallel connections {@link #deleteAll(Collection)}
+     * uses (default: 8). With a concurrency of 1, this object's connection is
+     * used.
+     *
+     * @param concurrency
+     *            number of parallel deletes
+     *
+     * @return this object
+     *
+     * @since 3.20
+     */
+    public ReplicatedDHT setConcurrency(final int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Sets the number of replicas (out of 4) {@link #deleteAll(Collection)}
+     * needs to delete for a key to be deleted successfully (default: 4).
+     * Replicas which did not exist are counted as deleted.
+     *
+     * @param quorum
+     *            the minimum number of deleted replicas
+     *
+     * @return this object
+     *
+     * @since 3.20
+     *
+     * @see DeleteResult#hasDeleted(int)
+     */
+    public ReplicatedDHT setQuorum(final int quorum) {
+        if ((quorum <= 0) || (quorum > 4)) {
+            throw new IllegalArgumentException("quorum must be in [1, 4]");
+        }
+        this.quorum = quorum;
+        return this;
+    }
+
+    /**
+     * Sets how often {@link #deleteAll(Collection)} re-tries a key which did
+     * not reach the quorum, e.g. due to a timeout (default: 3).
+     *
+     * @param maxRetries
+     *            the maximum number of re-tries per key
+     *
+     * @return this object
+     *
+     * @since 3.20
+     */
+    public ReplicatedDHT setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Tries to delete all replicas of the given <tt>keys</tt> with a timeout
+     * of 2000ms per delete.
+     *
+     * WARNING: This function can lead to inconsistent data (e.g. deleted items
+     * can re-appear). Also when re-creating an item the version before the
+     * delete can re-appear.
+     *
+     * @param keys
+     *            the keys to delete
+     *
+     * @return the aggregated results
+     *
+     * @throws ConnectionException
+     *             if a connection could not be established or a
+     *             communication error occurred (remaining keys are not
+     *             deleted in this case)
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.20
+     *
+     * @see #deleteAll(Collection, int)
+     */
+    public DeleteAllResult deleteAll(final Collection<String> keys)
+            throws ConnectionException, UnknownException {
+        return deleteAll(keys, 2000);
+    }
+
+    /**
+     * Tries to delete all replicas of the given <tt>keys</tt>, using
+     * {@link #setConcurrency(int)} parallel connections. A key is re-tried up
+     * to {@link #setMaxRetries(int)} times until {@link #setQuorum(int)}
+     * replicas have been deleted.
+     *
+     * WARNING: This function can lead to inconsistent data (e.g. deleted items
+     * can re-appear). Also when re-creating an item the version before the
+     * delete can re-appear.
+     *
+     * @param keys
+     *            the keys to delete
+     * @param timeout
+     *            the time (in milliseconds) to wait for the results of a
+     *            single delete
+     *
+     * @return the aggregated results
+     *
+     * @throws ConnectionException
+     *             if a connection could not be established or a
+     *             communication error occurred (remaining keys are not
+     *             deleted in this case)
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.20
+     */
+    public DeleteAllResult deleteAll(final Collection<String> keys,
+            final int timeout) throws ConnectionException, UnknownException {
+        final long timeAtStart = System.currentTimeMillis();
+        final DeleteAllResult result = new DeleteAllResult();
+        final Iterator<String> keysIt = keys.iterator();
+        final int workers = Math.min(concurrency, keys.size());
+        if (workers <= 1) {
+            final DeleteWorker worker = new DeleteWorker(this, keysIt, timeout, result);
+            worker.run();
+            worker.checkError();
+        } else {
+            final List<DeleteWorker> threads = new ArrayList<DeleteWorker>(workers);
+            for (int i = 0; i < workers; ++i) {
+                final DeleteWorker worker = new DeleteWorker(null, keysIt, timeout, result);
+                threads.add(worker);
+                worker.start();
+            }
+            try {
+                for (final DeleteWorker worker : threads) {
+                    worker.join();
+                }
+            } catch (final InterruptedException e) {
+                for (final DeleteWorker worker : threads) {
+                    worker.interrupt();
+                }
+                Thread.currentThread().interrupt();
+                throw new UnknownException(e);
+            }
+            for (final DeleteWorker worker : threads) {
+                worker.checkError();
+            }
+        }
+        result.timeMs = System.currentTimeMillis() - timeAtStart;
+        return result;
+    }
+
+    /**
+     * Deletes keys (taken from a shared iterator) until there are no more
+     * keys left or any worker failed.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     */
+    private class DeleteWorker extends Thread {
+        private final ReplicatedDHT rdht;
+        private final Iterator<String> keys;
+        private final int timeout;
+        private final DeleteAllResult result;
+        private ConnectionException connectionError = null;
+        private UnknownException unknownError = null;
+
+        /**
+         * Creates a new worker.
+         *
+         * @param rdht
+         *            the object to delete with (<tt>null</tt> to create a
+         *            new connection)
+         * @param keys
+         *            shared iterator of the keys to delete
+         * @param timeout
+         *            the timeout of a single delete
+         * @param result
+         *            the result to aggregate into
+         */
+        public DeleteWorker(final ReplicatedDHT rdht, final Iterator<String> keys,
+                final int timeout, final DeleteAllResult result) {
+            this.rdht = rdht;
+            this.keys = keys;
+            this.timeout = timeout;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            ReplicatedDHT rdht0 = rdht;
+            try {
+                if (rdht0 == null) {
+                    rdht0 = new ReplicatedDHT(connectionFactory.createConnection());
+                }
+                String key;
+                while (!isInterrupted() && ((key = nextKey()) != null)) {
+                    delete(rdht0, key);
+                }
+            } catch (final ConnectionException e) {
+                connectionError = e;
+                abort();
+            } catch (final UnknownException e) {
+                unknownError = e;
+                abort();
+            } finally {
+                if ((rdht == null) && (rdht0 != null)) {
+                    rdht0.closeConnection();
+                }
+            }
+        }
+
+        private String nextKey() {
+            synchronized (keys) {
+                return keys.hasNext() ? keys.next() : null;
+            }
+        }
+
+        private void abort() {
+            synchronized (keys) {
+                // skip all remaining keys
+                while (keys.hasNext()) {
+                    keys.next();
+                }
+            }
+        }
+
+        private void delete(final ReplicatedDHT rdht0, final String key)
+                throws ConnectionException, UnknownException {
+            int retries = 0;
+            while (true) {
+                DeleteResult deleteResult;
+                try {
+                    deleteResult = rdht0.delete(key, timeout);
+                } catch (final TimeoutException e) {
+                    result.addTimeout();
+                    deleteResult = rdht0.getLastDeleteResult();
+                }
+                if ((deleteResult != null) && deleteResult.hasDeleted(quorum)) {
+                    result.addDeleted(deleteResult, retries);
+                    return;
+                } else if (retries >= maxRetries) {
+                    result.addFailed(key, deleteResult, retries);
+                    return;
+                }
+                ++retries;
+            }
+        }
+
+        /**
+         * Re-throws the error this worker failed with (if any).
+         *
+         * @throws ConnectionException
+         *             if a connection error occurred
+         * @throws UnknownException
+         *             if any other error occurred
+         */
+        public void checkError() throws ConnectionException, UnknownException {
+            if (connectionError != null) {
+                throw connectionError;
+            } else if (unknownError != null) {
+                throw unknownError;
+            }
+        }
+    }
+
     /**
      * Returns the result of the last call to {@link #delete(String)}.
      *
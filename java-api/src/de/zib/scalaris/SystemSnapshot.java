@@ -0,0 +1,520 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangRangeException;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Exports a consistent snapshot of all data stored in Scalaris (see
+ * <tt>api_tx:get_system_snapshot/0</tt>) to a local file and restores such a
+ * file into a (new) ring (see <tt>api_dht_raw:restore_entries/1</tt>).
+ *
+ * <p>
+ * The snapshot is taken while the system keeps processing transactions. Its
+ * entries are decoded one at a time from the received message, grouped into
+ * chunks and compressed and written by a number of writer threads. During a
+ * restore, a number of threads with their own connections (created by the
+ * {@link ConnectionFactory}) write one chunk each with a single request.
+ * Note that a restore bypasses the transaction layer and overwrites existing
+ * items, i.e. it should only be used on an empty ring.
+ * </p>
+ *
+ * <h3>File format</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   file  := "SCALSNAP" version:int32 chunk* 0:int32 entries:int64
+ *   chunk := entries:int32 length:int32 data:byte[length]
+ * </code>
+ * </pre>
+ * where <tt>data</tt> is a compressed external term of a list of
+ * <tt>{HashedKey, Value, Version}</tt> tuples. The chunks may appear in any
+ * order.
+ *
+ * <h3>Creating and restoring a backup</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   SystemSnapshot snapshot = new SystemSnapshot();
+ *   long exported = snapshot.exportTo(new File("backup.snap")); // {@link #exportTo(File)}
+ *   long restored = snapshot.restoreFrom(new File("backup.snap")); // {@link #restoreFrom(File)}
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class SystemSnapshot {
+    /**
+     * Magic bytes at the start of a snapshot file.
+     */
+    static final byte[] MAGIC = new byte[] { 'S', 'C', 'A', 'L', 'S', 'N', 'A', 'P' };
+    /**
+     * Version of the file format.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private final ConnectionFactory connectionFactory;
+    private int chunkSize = 1000;
+    private int parallelism = 4;
+
+    /**
+     * Creates a snapshot exporter/importer using connections created by
+     * {@link ConnectionFactory#getInstance()}.
+     */
+    public SystemSnapshot() {
+        this(ConnectionFactory.getInstance());
+    }
+
+    /**
+     * Creates a snapshot exporter/importer using connections created by the
+     * given factory.
+     *
+     * @param connectionFactory
+     *            the factory to create connections with
+     */
+    public SystemSnapshot(final ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Sets the number of entries per chunk (default: 1000).
+     *
+     * @param chunkSize
+     *            the maximum number of entries in each chunk (at least 1)
+     *
+     * @return this object
+     */
+    public SystemSnapshot setChunkSize(final int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+    /**
+     * Sets the number of writer threads during an export and the number of
+     * concurrent requests during a restore (default: 4).
+     *
+     * @param parallelism
+     *            the number of threads (at least 1)
+     *
+     * @return this object
+     */
+    public SystemSnapshot setParallelism(final int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Takes a system snapshot and writes it to the given file.
+     *
+     * @param file
+     *            the file to write to (will be overwritten)
+     *
+     * @return the number of exported entries
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws IOException
+     *             if writing the file fails
+     * @throws UnknownException
+     *             if the snapshot failed or any other error occurs
+     */
+    public long exportTo(final File file) throws ConnectionException,
+            IOException, UnknownException {
+        // open the file first so that the connection is always closed below
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        final Connection connection;
+        try {
+            connection = connectionFactory.createConnection();
+        } catch (final ConnectionException e) {
+            out.close();
+            file.delete();
+            throw e;
+        }
+        final ChunkWriter[] writers = new ChunkWriter[parallelism];
+        boolean success = false;
+        try {
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            final OtpInputStream received = connection.doRPCBuf(
+                    "api_tx", "get_system_snapshot", new OtpErlangList());
+            final int tag = received.peek1skip_version();
+            if ((tag != OtpExternal.listTag) && (tag != OtpExternal.nilTag)) {
+                // {snapshot_failed, ErrorInterval, Data}
+                if ((received.read_tuple_head() == 3)
+                        && received.read_atom().equals("snapshot_failed")) {
+                    throw new UnknownException("system snapshot failed (interval: "
+                            + received.read_any() + ")");
+                }
+                throw new UnknownException("invalid system snapshot");
+            }
+
+            final BlockingQueue<OtpErlangObject[]> chunks =
+                    new ArrayBlockingQueue<OtpErlangObject[]>(parallelism * 2);
+            for (int i = 0; i < writers.length; ++i) {
+                writers[i] = new ChunkWriter(chunks, out);
+                writers[i].start();
+            }
+            final int size = received.read_list_head();
+            for (int i = 0; i < size; i += chunkSize) {
+                final OtpErlangObject[] chunk = new OtpErlangObject[Math.min(chunkSize, size - i)];
+                for (int j = 0; j < chunk.length; ++j) {
+                    chunk[j] = received.read_any();
+                }
+                putChunk(chunks, chunk, writers);
+            }
+            for (int i = 0; i < writers.length; ++i) {
+                putChunk(chunks, EXPORT_DONE, writers);
+            }
+            joinWorkers(writers);
+            out.writeInt(0);
+            out.writeLong(size);
+            success = true;
+            return size;
+        } catch (final OtpErlangDecodeException e) {
+            throw new UnknownException(e);
+        } catch (final TimeoutException e) {
+            // the writers do not time out
+            throw new UnknownException(e);
+        } finally {
+            stopWorkers(writers);
+            connection.close();
+            out.close();
+            if (!success) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes all entries of the given snapshot file to Scalaris.
+     *
+     * @param file
+     *            the snapshot file
+     *
+     * @return the number of restored entries
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if not all replicas of a chunk could be written in time
+     * @throws IOException
+     *             if reading the file fails or it is no snapshot file
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public long restoreFrom(final File file) throws ConnectionException,
+            TimeoutException, IOException, UnknownException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        final ChunkRestorer[] restorers = new ChunkRestorer[parallelism];
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("not a snapshot file: " + file);
+            }
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported snapshot format version " + version);
+            }
+
+            final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(parallelism * 2);
+            for (int i = 0; i < restorers.length; ++i) {
+                restorers[i] = new ChunkRestorer(chunks);
+                restorers[i].start();
+            }
+            long restored = 0;
+            int entries;
+            while ((entries = in.readInt()) != 0) {
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                putChunk(chunks, data, restorers);
+                restored += entries;
+            }
+            final long total = in.readLong();
+            for (int i = 0; i < restorers.length; ++i) {
+                putChunk(chunks, RESTORE_DONE, restorers);
+            }
+            joinWorkers(restorers);
+            if (total != restored) {
+                throw new IOException("incomplete snapshot file: " + restored
+                        + " of " + total + " entries");
+            }
+            return restored;
+        } finally {
+            stopWorkers(restorers);
+            in.close();
+        }
+    }
+
+    /**
+     * Encodes the given entries into a chunk's data.
+     *
+     * @param entries
+     *            the snapshot entries
+     *
+     * @return the compressed external term of the list of entries
+     */
+    static byte[] encodeChunk(final OtpErlangObject[] entries) {
+        final OtpOutputStream oos = new OtpOutputStream();
+        oos.write1(OtpExternal.versionTag);
+        oos.write_compressed(new OtpErlangList(entries));
+        return oos.toByteArray();
+    }
+
+    /**
+     * Decodes a chunk's data.
+     *
+     * @param data
+     *            the compressed external term of the list of entries
+     *
+     * @return the list of entries
+     *
+     * @throws UnknownException
+     *             if the data could not be decoded
+     */
+    static OtpErlangList decodeChunk(final byte[] data) throws UnknownException {
+        try {
+            return (OtpErlangList) new OtpInputStream(data).read_any();
+        } catch (final OtpErlangDecodeException e) {
+            throw new UnknownException(e);
+        } catch (final ClassCastException e) {
+            throw new UnknownException(e);
+        }
+    }
+
+    /**
+     * Marks the end of the chunks to export.
+     */
+    private static final OtpErlangObject[] EXPORT_DONE = new OtpErlangObject[0];
+    /**
+     * Marks the end of the chunks to restore.
+     */
+    private static final byte[] RESTORE_DONE = new byte[0];
+
+    /**
+     * Processes chunks from a queue until it receives the given end marker.
+     *
+     * @param <T>
+     *            type of the chunks
+     */
+    private static abstract class ChunkWorker<T> extends Thread {
+        private final BlockingQueue<T> chunks;
+        private final T done;
+        protected volatile Exception failure = null;
+
+        protected ChunkWorker(final String name, final BlockingQueue<T> chunks,
+                final T done) {
+            super(name);
+            setDaemon(true);
+            this.chunks = chunks;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                init();
+                T chunk;
+                while ((chunk = chunks.take()) != done) {
+                    process(chunk);
+                }
+            } catch (final InterruptedException e) {
+                // stopped
+            } catch (final Exception e) {
+                failure = e;
+            } finally {
+                cleanup();
+            }
+        }
+
+        protected void init() throws Exception {
+        }
+
+        protected abstract void process(T chunk) throws Exception;
+
+        protected void cleanup() {
+        }
+    }
+
+    /**
+     * Compresses chunks and appends them to the snapshot file.
+     */
+    private static class ChunkWriter extends ChunkWorker<OtpErlangObject[]> {
+        private final DataOutputStream out;
+
+        protected ChunkWriter(final BlockingQueue<OtpErlangObject[]> chunks,
+                final DataOutputStream out) {
+            super("SystemSnapshot writer", chunks, EXPORT_DONE);
+            this.out = out;
+        }
+
+        @Override
+        protected void process(final OtpErlangObject[] chunk) throws IOException {
+            final byte[] data = encodeChunk(chunk);
+            synchronized (out) {
+                out.writeInt(chunk.length);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+    }
+
+    /**
+     * Decompresses chunks and writes their entries to Scalaris.
+     */
+    private class ChunkRestorer extends ChunkWorker<byte[]> {
+        private Connection connection = null;
+
+        protected ChunkRestorer(final BlockingQueue<byte[]> chunks) {
+            super("SystemSnapshot restorer", chunks, RESTORE_DONE);
+        }
+
+        @Override
+        protected void init() throws ConnectionException {
+            connection = connectionFactory.createConnection();
+        }
+
+        @Override
+        protected void process(final byte[] chunk)
+                throws ConnectionException, TimeoutException, UnknownException {
+            final OtpErlangList entries = decodeChunk(chunk);
+            final OtpErlangObject received_raw = connection.doRPC("api_dht_raw",
+                    "restore_entries", new OtpErlangList(entries));
+            if (received_raw.equals(CommonErlangObjects.okAtom)) {
+                return;
+            }
+            // {timeout, Missing}
+            if ((received_raw instanceof OtpErlangTuple)
+                    && (((OtpErlangTuple) received_raw).arity() == 2)
+                    && ((OtpErlangTuple) received_raw).elementAt(0).equals(
+                            new OtpErlangAtom("timeout"))) {
+                try {
+                    throw new TimeoutException("restore timed out, "
+                            + ((OtpErlangLong) ((OtpErlangTuple) received_raw)
+                                    .elementAt(1)).intValue()
+                            + " replicas not written");
+                } catch (final OtpErlangRangeException e) {
+                    throw new TimeoutException(received_raw);
+                }
+            }
+            throw new UnknownException(received_raw);
+        }
+
+        @Override
+        protected void cleanup() {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Puts the given chunk into the queue, failing if any of the workers
+     * failed.
+     */
+    private static <T> void putChunk(final BlockingQueue<T> chunks,
+            final T chunk, final ChunkWorker<?>[] workers)
+            throws ConnectionException, TimeoutException, IOException,
+            UnknownException {
+        try {
+            while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkWorkers(workers);
+            }
+        } catch (final InterruptedException e) {
+            throw new UnknownException(e);
+        }
+    }
+
+    /**
+     * Waits for all workers to finish and re-throws the first failure.
+     */
+    private static void joinWorkers(final ChunkWorker<?>[] workers)
+            throws ConnectionException, TimeoutException, IOException,
+            UnknownException {
+        try {
+            for (final ChunkWorker<?> worker : workers) {
+                worker.join();
+            }
+        } catch (final InterruptedException e) {
+            throw new UnknownException(e);
+        }
+        checkWorkers(workers);
+    }
+
+    /**
+     * Re-throws the first failure of the given workers.
+     */
+    private static void checkWorkers(final ChunkWorker<?>[] workers)
+            throws ConnectionException, TimeoutException, IOException,
+            UnknownException {
+        for (final ChunkWorker<?> worker : workers) {
+            if ((worker == null) || (worker.failure == null)) {
+                continue;
+            }
+            final Exception e = worker.failure;
+            if (e instanceof ConnectionException) {
+                throw (ConnectionException) e;
+            } else if (e instanceof TimeoutException) {
+                throw (TimeoutException) e;
+            } else if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof UnknownException) {
+                throw (UnknownException) e;
+            }
+            throw new UnknownException(e);
+        }
+    }
+
+    /**
+     * Stops all (still running) workers.
+     */
+    private static void stopWorkers(final ChunkWorker<?>[] workers) {
+        for (final ChunkWorker<?> worker : workers) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.zib.scalaris.AbortException;
+import de.zib.scalaris.Connection;
+import de.zib.scalaris.ConnectionFactory;
+import de.zib.scalaris.NotFoundException;
+import de.zib.scalaris.PeerNode;
+import de.zib.scalaris.RoundRobinConnectionPolicy;
+import de.zib.scalaris.Transaction;
+import de.zib.scalaris.TransactionSingleOp;
+import de.zib.scalaris.operations.AddOnNrOp;
+
+/**
+ * Compares the abort rate and throughput of concurrent increments on a single
+ * (hot) counter key with the same counter striped over several sub-keys where
+ * each increment goes to a random stripe (<tt>key:0</tt> to
+ * <tt>key:(stripes-1)</tt>) and reads sum up all stripes.
+ *
+ * <p>
+ * Each increment is executed as a transaction with an
+ * {@link AddOnNrOp} and a commit and is retried on an
+ * {@link AbortException} until it succeeds.
+ * </p>
+ *
+ * <p>
+ * Run the benchmark with
+ * <code>java -cp scalaris-examples.jar de.zib.scalaris.examples.StripedCounterBenchmark [ops] [tpn] [stripes]...</code>
+ * (default: 500 increments per thread, 10 threads per Scalaris node and
+ * stripes 1, 4 and 16).
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class StripedCounterBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            command line arguments:
+     *            <tt>[operations] [threads per node] [stripes]...</tt>
+     */
+    public static void main(final String[] args) {
+        int operations = 500;
+        int threadsPerNode = 10;
+        final List<Integer> stripes = new ArrayList<Integer>();
+        if ((args != null) && (args.length >= 1)) {
+            operations = Integer.parseInt(args[0]);
+        }
+        if ((args != null) && (args.length >= 2)) {
+            threadsPerNode = Integer.parseInt(args[1]);
+        }
+        if ((args != null) && (args.length >= 3)) {
+            for (int i = 2; i < args.length; ++i) {
+                stripes.add(Integer.parseInt(args[i]));
+            }
+        } else {
+            stripes.add(1);
+            stripes.add(4);
+            stripes.add(16);
+        }
+
+        final ConnectionFactory cf = ConnectionFactory.getInstance();
+        final List<PeerNode> nodes = cf.getNodes();
+        final int parallelRuns = nodes.size() * threadsPerNode;
+        // set a connection policy that goes through the available nodes in a round-robin fashion:
+        cf.setConnectionPolicy(new RoundRobinConnectionPolicy(nodes));
+        System.out.println("Number of available nodes: " + nodes.size());
+        System.out.println("-> Using " + parallelRuns + " parallel threads, each with "
+                + operations + " increments on a shared counter...");
+        System.out.println("stripes\tspeed (increments / second)\taborts\tabort rate");
+
+        for (final int stripeCount : stripes) {
+            final String key = "stripedcounterbench_" + System.currentTimeMillis() + "_" + stripeCount;
+            try {
+                final Result result = runBench(key, stripeCount, operations, parallelRuns);
+                System.out.println(stripeCount + "\t" + result.speed + "\t"
+                        + result.aborts + "\t"
+                        + String.format("%.2f%%", result.getAbortRate() * 100.0));
+                final BigInteger expected = BigInteger.valueOf((long) operations * parallelRuns);
+                if (!result.sum.equals(expected)) {
+                    System.err.println("counter mismatch: expected " + expected
+                            + ", read " + result.sum);
+                }
+            } catch (final Exception e) {
+                System.out.println(stripeCount + "\tfailed (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * Result of a single benchmark run.
+     */
+    protected static class Result {
+        /**
+         * Successful increments per second.
+         */
+        protected long speed;
+        /**
+         * Number of aborted (and retried) transactions.
+         */
+        protected long aborts;
+        /**
+         * Number of successful transactions.
+         */
+        protected long commits;
+        /**
+         * Value of the counter (sum of all stripes) after the run.
+         */
+        protected BigInteger sum;
+
+        /**
+         * Gets the fraction of aborted transactions among all transactions.
+         *
+         * @return the abort rate (between 0 and 1)
+         */
+        protected double getAbortRate() {
+            final long total = aborts + commits;
+            return (total == 0) ? 0.0 : ((double) aborts / total);
+        }
+    }
+
+    /**
+     * Runs a single benchmark with the given number of stripes.
+     *
+     * @param key
+     *            the counter's (unique) key
+     * @param stripes
+     *            the number of stripes to use (<tt>1</tt> for a single key)
+     * @param operations
+     *            number of increments per thread
+     * @param parallelRuns
+     *            number of concurrent threads
+     *
+     * @return the benchmark result
+     *
+     * @throws Exception
+     *             if the counter could not be initialised or read
+     */
+    protected static Result runBench(final String key, final int stripes,
+            final int operations, final int parallelRuns) throws Exception {
+        final Connection conn = ConnectionFactory.getInstance().createConnection();
+        try {
+            final TransactionSingleOp sc = new TransactionSingleOp(conn);
+            for (int i = 0; i < stripes; ++i) {
+                sc.write(getStripeKey(key, stripes, i), 0);
+            }
+
+            final AtomicLong aborts = new AtomicLong(0);
+            final AtomicLong commits = new AtomicLong(0);
+            final IncrementThread[] worker = new IncrementThread[parallelRuns];
+            for (int i = 0; i < parallelRuns; ++i) {
+                worker[i] = new IncrementThread(key, stripes, operations, aborts, commits);
+            }
+            final long timeAtStart = System.currentTimeMillis();
+            for (final IncrementThread thread : worker) {
+                thread.start();
+            }
+            for (final IncrementThread thread : worker) {
+                thread.join();
+                if (thread.failure != null) {
+                    throw thread.failure;
+                }
+            }
+            final long timeTaken = Math.max(1, System.currentTimeMillis() - timeAtStart);
+
+            final Result result = new Result();
+            result.aborts = aborts.get();
+            result.commits = commits.get();
+            result.speed = (result.commits * 1000) / timeTaken;
+            // sum on read:
+            result.sum = BigInteger.ZERO;
+            for (int i = 0; i < stripes; ++i) {
+                try {
+                    result.sum = result.sum.add(sc.read(getStripeKey(key, stripes, i)).bigIntValue());
+                } catch (final NotFoundException e) {
+                    // stripe never written
+                }
+            }
+            return result;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Gets the key of the given stripe.
+     *
+     * @param key
+     *            the counter's key
+     * @param stripes
+     *            the number of stripes
+     * @param stripe
+     *            the stripe to get the key for
+     *
+     * @return <tt>key</tt> if not striped, otherwise <tt>key:stripe</tt>
+     */
+    protected static String getStripeKey(final String key, final int stripes, final int stripe) {
+        return (stripes <= 1) ? key : (key + ":" + stripe);
+    }
+
+    /**
+     * Increments a (striped) counter in a loop, retrying aborted transactions.
+     */
+    protected static class IncrementThread extends Thread {
+        private final String key;
+        private final int stripes;
+        private final int operations;
+        private final AtomicLong aborts;
+        private final AtomicLong commits;
+        private final Random rand = new Random();
+        protected Exception failure = null;
+
+        protected IncrementThread(final String key, final int stripes,
+                final int operations, final AtomicLong aborts,
+                final AtomicLong commits) {
+            this.key = key;
+            this.stripes = stripes;
+            this.operations = operations;
+            this.aborts = aborts;
+            this.commits = commits;
+        }
+
+        @Override
+        public void run() {
+            Connection connection = null;
+            try {
+                connection = ConnectionFactory.getInstance().createConnection();
+                for (int j = 0; j < operations; ++j) {
+                    while (true) {
+                        final String key2 = getStripeKey(key, stripes, rand.nextInt(stripes));
+                        final Transaction tx = new Transaction(connection);
+                        final Transaction.RequestList reqs = new Transaction.RequestList();
+                        reqs.addOp(new AddOnNrOp(key2, 1)).addCommit();
+                        try {
+                            final Transaction.ResultList results = tx.req_list(reqs);
+                            results.processAddOnNrAt(0);
+                            results.processCommitAt(1);
+                            commits.incrementAndGet();
+                            break;
+                        } catch (final AbortException e) {
+                            aborts.incrementAndGet();
+                        }
+                    }
+                }
+            } catch (final Exception e) {
+                failure = e;
+            } finally {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+}
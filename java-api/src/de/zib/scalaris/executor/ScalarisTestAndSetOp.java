@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.executor;
+
+import com.ericsson.otp.erlang.OtpErlangException;
+
+import de.zib.scalaris.RequestList;
+import de.zib.scalaris.ResultList;
+import de.zib.scalaris.UnknownException;
+import de.zib.scalaris.operations.TestAndSetOp;
+
+/**
+ * Implements a test-and-set operation, i.e. a write which only succeeds if the
+ * stored value is still the given old value.
+ *
+ * @param <OldT> the type of the old value
+ * @param <NewT> the type of the value to write
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class ScalarisTestAndSetOp<OldT, NewT> implements ScalarisOp {
+    final protected String key;
+    final protected OldT oldValue;
+    final protected NewT newValue;
+
+    /**
+     * Creates a test-and-set operation.
+     *
+     * @param key
+     *            the key to write to
+     * @param oldValue
+     *            the value expected to be stored
+     * @param newValue
+     *            the value to write
+     */
+    public ScalarisTestAndSetOp(final String key, final OldT oldValue, final NewT newValue) {
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public int workPhases() {
+        return 1;
+    }
+
+    public final int doPhase(final int phase, final int firstOp, final ResultList results,
+            final RequestList requests) throws OtpErlangException, UnknownException,
+            IllegalArgumentException {
+        switch (phase) {
+        case 0: return prepareTestAndSet(requests);
+        case 1: return checkTestAndSet(firstOp, results);
+        default:
+            throw new IllegalArgumentException("No phase " + phase);
+        }
+    }
+
+    /**
+     * Adds the test-and-set operation to the request list.
+     *
+     * @param requests  the request list
+     *
+     * @return <tt>0</tt> (no operation processed)
+     */
+    protected int prepareTestAndSet(final RequestList requests) throws OtpErlangException,
+            UnknownException {
+        requests.addOp(new TestAndSetOp(key, oldValue, newValue));
+        return 0;
+    }
+
+    /**
+     * Verifies the test-and-set operation.
+     *
+     * @param firstOp   the first operation to process inside the result list
+     * @param results   the result list
+     *
+     * @return <tt>1</tt> operation processed (the test-and-set)
+     */
+    protected int checkTestAndSet(final int firstOp, final ResultList results)
+            throws OtpErlangException, UnknownException {
+        results.processTestAndSetAt(firstOp);
+        return 1;
+    }
+
+    /* (non-Javadoc)
+     * @see de.zib.scalaris.examples.wikipedia.ScalarisOp#toString()
+     */
+    @Override
+    public String toString() {
+        return "Scalaris.testAndSet(" + key + ", " + oldValue + ", " + newValue + ")";
+    }
+
+    /**
+     * Gets the key to write to.
+     *
+     * @return the key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the value expected to be stored.
+     *
+     * @return the old value
+     */
+    public OldT getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Gets the value to write.
+     *
+     * @return the value that will (or has been) be written
+     */
+    public NewT getNewValue() {
+        return newValue;
+    }
+}
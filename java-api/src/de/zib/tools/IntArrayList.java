@@ -0,0 +1,252 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.tools;
+
+import java.util.Arrays;
+
+/**
+ * Provides a growable array of primitive <tt>int</tt> values. Uses
+ * considerably less memory than an <tt>ArrayList&lt;Integer&gt;</tt>.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class IntArrayList {
+    private int[] elements;
+    private int size = 0;
+
+    /**
+     * Constructs an empty list.
+     */
+    public IntArrayList() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty list.
+     *
+     * @param initialCapacity
+     *            the number of elements the list should be able to hold
+     *            without resizing
+     */
+    public IntArrayList(final int initialCapacity) {
+        elements = new int[Math.max(initialCapacity, 1)];
+    }
+
+    /**
+     * Creates a list containing all given values (in the same order).
+     *
+     * @param values
+     *            the values to add
+     */
+    public IntArrayList(final int[] values) {
+        elements = Arrays.copyOf(values, Math.max(values.length, 1));
+        size = values.length;
+    }
+
+    private void ensureCapacity(final int minCapacity) {
+        if (minCapacity > elements.length) {
+            elements = Arrays.copyOf(elements,
+                    Math.max(minCapacity, elements.length + (elements.length >> 1)));
+        }
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Appends a value to the end of the list.
+     *
+     * @param value
+     *            the value to add
+     */
+    public void add(final int value) {
+        ensureCapacity(size + 1);
+        elements[size++] = value;
+    }
+
+    /**
+     * Appends all given values to the end of the list.
+     *
+     * @param values
+     *            the values to add
+     */
+    public void addAll(final int[] values) {
+        ensureCapacity(size + values.length);
+        System.arraycopy(values, 0, elements, size, values.length);
+        size += values.length;
+    }
+
+    /**
+     * Appends all values of another list to the end of this list.
+     *
+     * @param other
+     *            the list to add
+     */
+    public void addAll(final IntArrayList other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.elements, 0, elements, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Gets the value at the given position.
+     *
+     * @param index
+     *            the position in the list
+     *
+     * @return the value
+     *
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public int get(final int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    /**
+     * Replaces the value at the given position.
+     *
+     * @param index
+     *            the position in the list
+     * @param value
+     *            the new value
+     *
+     * @return the previous value
+     *
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public int set(final int index, final int value) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        final int old = elements[index];
+        elements[index] = value;
+        return old;
+    }
+
+    /**
+     * Removes the value at the given position (shifting all following values
+     * to the left).
+     *
+     * @param index
+     *            the position in the list
+     *
+     * @return the removed value
+     *
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public int removeAt(final int index) throws IndexOutOfBoundsException {
+        checkIndex(index);
+        final int old = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        --size;
+        return old;
+    }
+
+    /**
+     * Gets the position of the first occurrence of the given value.
+     *
+     * @param value
+     *            the value to look for
+     *
+     * @return the position or <tt>-1</tt> if the list does not contain the
+     *         value
+     */
+    public int indexOf(final int value) {
+        for (int i = 0; i < size; ++i) {
+            if (elements[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the list contains the given value.
+     *
+     * @param value
+     *            the value to look for
+     *
+     * @return <tt>true</tt> if the value is in the list
+     */
+    public boolean contains(final int value) {
+        return indexOf(value) != -1;
+    }
+
+    /**
+     * Gets the number of values in the list.
+     *
+     * @return the size of the list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the list is empty.
+     *
+     * @return <tt>true</tt> if the list contains no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the list (keeps the allocated capacity).
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Reduces the allocated capacity to the current size.
+     */
+    public void trimToSize() {
+        if (elements.length > size) {
+            elements = Arrays.copyOf(elements, Math.max(size, 1));
+        }
+    }
+
+    /**
+     * Sorts the values of the list in ascending order.
+     */
+    public void sort() {
+        Arrays.sort(elements, 0, size);
+    }
+
+    /**
+     * Copies all values of the list to a new array (in list order).
+     *
+     * @return an array with all values
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.tools;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Provides a set of primitive <tt>int</tt> values (open addressing with
+ * linear probing). Uses considerably less memory than a
+ * <tt>HashSet&lt;Integer&gt;</tt>.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class IntSet {
+    /**
+     * Marks an empty slot (the value itself is tracked in {@link #hasFree}).
+     */
+    private static final int FREE = Integer.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] table;
+    private int size = 0;
+    private boolean hasFree = false;
+    private int maxFill;
+
+    /**
+     * Constructs an empty set.
+     */
+    public IntSet() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty set.
+     *
+     * @param expectedSize
+     *            the number of elements the set should be able to hold
+     *            without resizing
+     */
+    public IntSet(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Creates a set containing all given values.
+     *
+     * @param values
+     *            the values to add
+     */
+    public IntSet(final int[] values) {
+        this(values.length);
+        addAll(values);
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(final int capacity) {
+        table = new int[capacity];
+        Arrays.fill(table, FREE);
+        maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(final int value) {
+        // spread the bits (page IDs etc. are mostly consecutive)
+        final int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(final int value) {
+        final int mask = table.length - 1;
+        int pos = hash(value) & mask;
+        while (table[pos] != FREE && table[pos] != value) {
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value
+     *            the value to add
+     *
+     * @return <tt>true</tt> if the set did not contain the value yet
+     */
+    public boolean add(final int value) {
+        if (value == FREE) {
+            if (hasFree) {
+                return false;
+            }
+            hasFree = true;
+            ++size;
+            return true;
+        }
+        final int pos = slot(value);
+        if (table[pos] == value) {
+            return false;
+        }
+        table[pos] = value;
+        ++size;
+        if (size > maxFill) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Adds all given values to the set.
+     *
+     * @param values
+     *            the values to add
+     *
+     * @return <tt>true</tt> if the set changed
+     */
+    public boolean addAll(final int[] values) {
+        boolean changed = false;
+        for (final int value : values) {
+            changed |= add(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Adds all values of another set to this set.
+     *
+     * @param other
+     *            the set to add
+     *
+     * @return <tt>true</tt> if the set changed
+     */
+    public boolean addAll(final IntSet other) {
+        boolean changed = false;
+        for (final Iterator it = other.iterator(); it.hasNext();) {
+            changed |= add(it.next());
+        }
+        return changed;
+    }
+
+    /**
+     * Checks whether the set contains the given value.
+     *
+     * @param value
+     *            the value to look for
+     *
+     * @return <tt>true</tt> if the value is in the set
+     */
+    public boolean contains(final int value) {
+        if (value == FREE) {
+            return hasFree;
+        }
+        return table[slot(value)] == value;
+    }
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value
+     *            the value to remove
+     *
+     * @return <tt>true</tt> if the set contained the value
+     */
+    public boolean remove(final int value) {
+        if (value == FREE) {
+            if (!hasFree) {
+                return false;
+            }
+            hasFree = false;
+            --size;
+            return true;
+        }
+        final int mask = table.length - 1;
+        int pos = slot(value);
+        if (table[pos] != value) {
+            return false;
+        }
+        table[pos] = FREE;
+        --size;
+        // re-insert all following entries of the same cluster
+        pos = (pos + 1) & mask;
+        while (table[pos] != FREE) {
+            final int moved = table[pos];
+            table[pos] = FREE;
+            table[slot(moved)] = moved;
+            pos = (pos + 1) & mask;
+        }
+        return true;
+    }
+
+    private void rehash(final int newCapacity) {
+        final int[] oldTable = table;
+        allocate(newCapacity);
+        for (final int value : oldTable) {
+            if (value != FREE) {
+                table[slot(value)] = value;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of values in the set.
+     *
+     * @return the size of the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the set is empty.
+     *
+     * @return <tt>true</tt> if the set contains no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the set.
+     */
+    public void clear() {
+        Arrays.fill(table, FREE);
+        hasFree = false;
+        size = 0;
+    }
+
+    /**
+     * Copies all values of the set to a new array (in no particular order).
+     *
+     * @return an array with all values
+     */
+    public int[] toArray() {
+        final int[] result = new int[size];
+        int i = 0;
+        for (final Iterator it = iterator(); it.hasNext();) {
+            result[i++] = it.next();
+        }
+        return result;
+    }
+
+    /**
+     * Gets an iterator over all values of the set (in no particular order).
+     * The set must not be modified while iterating.
+     *
+     * @return an iterator
+     */
+    public Iterator iterator() {
+        return new Iterator();
+    }
+
+    /**
+     * Iterator over the primitive values of an {@link IntSet}.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.20
+     * @since 3.20
+     */
+    public class Iterator {
+        private int pos = -1;
+        private boolean freeReturned = !hasFree;
+
+        private Iterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                ++pos;
+            } while (pos < table.length && table[pos] == FREE);
+        }
+
+        /**
+         * Checks whether there are more values.
+         *
+         * @return <tt>true</tt> if {@link #next()} will return a value
+         */
+        public boolean hasNext() {
+            return pos < table.length || !freeReturned;
+        }
+
+        /**
+         * Gets the next value.
+         *
+         * @return the next value
+         *
+         * @throws NoSuchElementException
+         *             if there are no more values
+         */
+        public int next() throws NoSuchElementException {
+            if (pos < table.length) {
+                final int value = table[pos];
+                advance();
+                return value;
+            } else if (!freeReturned) {
+                freeReturned = true;
+                return FREE;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final int[] values = toArray();
+        Arrays.sort(values);
+        return Arrays.toString(values);
+    }
+}
@@ -38,5 +38,20 @@
  *
  * <p>See the {@link de.zib.tools.MultiMap} class documentation for more
  * details.</p>
+ *
+ * <h3>The IntSet class</h3>
+ *
+ * Provides a memory-efficient set of primitive <tt>int</tt> values.
+ *
+ * <p>See the {@link de.zib.tools.IntSet} class documentation for more
+ * details.</p>
+ *
+ * <h3>The IntArrayList class</h3>
+ *
+ * Provides a memory-efficient growable array of primitive <tt>int</tt>
+ * values.
+ *
+ * <p>See the {@link de.zib.tools.IntArrayList} class documentation for more
+ * details.</p>
  */
 package de.zib.tools;
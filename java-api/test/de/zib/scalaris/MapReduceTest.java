@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangInt;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Unit test for the {@link MapReduce} class (job descriptions and result
+ * decoding - does not need a Scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class MapReduceTest {
+    private static OtpInputStream encode(final OtpErlangObject value) {
+        final OtpOutputStream oos = new OtpOutputStream();
+        oos.write1(OtpExternal.versionTag);
+        oos.write_any(value);
+        return new OtpInputStream(oos.toByteArray());
+    }
+
+    /**
+     * Tests the job description created by {@link MapReduce.Job}.
+     */
+    @Test
+    public void testJob() {
+        final MapReduce.Job job = new MapReduce.Job()
+                .addMapJS("function(data) {return [data];}")
+                .addReduceErl("my_mr", "reduce").setTag("mytag");
+        final OtpErlangTuple jobErl = (OtpErlangTuple) job.toErlang();
+        final OtpErlangList phases = (OtpErlangList) jobErl.elementAt(0);
+        final OtpErlangList options = (OtpErlangList) jobErl.elementAt(1);
+        assertEquals(2, phases.arity());
+        assertEquals(new OtpErlangAtom("map"), ((OtpErlangTuple) phases.elementAt(0)).elementAt(0));
+        assertEquals(new OtpErlangAtom("jsanon"), ((OtpErlangTuple) phases.elementAt(0)).elementAt(1));
+        assertEquals(new OtpErlangAtom("reduce"), ((OtpErlangTuple) phases.elementAt(1)).elementAt(0));
+        assertEquals(new OtpErlangAtom("erlanon"), ((OtpErlangTuple) phases.elementAt(1)).elementAt(1));
+        assertEquals(1, options.arity());
+    }
+
+    /**
+     * Tests decoding a list of results element by element.
+     *
+     * @throws UnknownException
+     */
+    @Test
+    public void testDecodeResult() throws UnknownException {
+        final OtpErlangObject[] elements = new OtpErlangObject[100];
+        for (int i = 0; i < elements.length; ++i) {
+            elements[i] = new OtpErlangTuple(new OtpErlangObject[] {
+                    new OtpErlangString("key" + i), new OtpErlangInt(i) });
+        }
+        final MapReduce.ResultIterator it = MapReduce.decodeResult(encode(new OtpErlangList(elements)));
+        assertEquals(elements.length, it.size());
+        int i = 0;
+        while (it.hasNext()) {
+            assertEquals(elements[i], it.next().value());
+            ++i;
+            assertEquals(elements.length - i, it.remaining());
+        }
+        assertEquals(elements.length, i);
+
+        final MapReduce.ResultIterator empty = MapReduce.decodeResult(encode(new OtpErlangList()));
+        assertFalse(empty.hasNext());
+
+        final MapReduce.ResultIterator single = MapReduce.decodeResult(encode(new OtpErlangList(elements[0])));
+        assertEquals(1, single.size());
+        assertEquals(elements[0], single.next().value());
+        assertFalse(single.hasNext());
+
+        // a list of small integers is sent as a string
+        final MapReduce.ResultIterator ints = MapReduce.decodeResult(encode(new OtpErlangString("ab")));
+        assertTrue(ints.hasNext());
+        assertEquals('a', ints.next().intValue());
+        assertEquals('b', ints.next().intValue());
+        assertFalse(ints.hasNext());
+    }
+
+    /**
+     * Tests that job errors are reported as {@link UnknownException}s.
+     */
+    @Test(expected=UnknownException.class)
+    public void testDecodeResultError() throws UnknownException {
+        MapReduce.decodeResult(encode(new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom("error"), new OtpErlangAtom("some_reason") })));
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpEpmd;
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpMbox;
+import com.ericsson.otp.erlang.OtpNode;
+
+/**
+ * Unit test for the {@link PubSubReceiver} class.
+ *
+ * Uses a local stand-in node (and a minimal stand-in <tt>epmd</tt>) instead
+ * of a Scalaris node to send notifications.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class PubSubReceiverTest {
+    private static ServerSocket epmd;
+
+    /**
+     * Starts a stand-in <tt>epmd</tt> which accepts all node registrations.
+     *
+     * @throws IOException
+     *             if the server socket cannot be created
+     */
+    @BeforeClass
+    public static void startEpmd() throws IOException {
+        epmd = new ServerSocket(0);
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!epmd.isClosed()) {
+                    try {
+                        final Socket socket = epmd.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                handleEpmdRequest(socket);
+                            }
+                        }).start();
+                    } catch (final IOException e) {
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        OtpEpmd.useEpmdPort(epmd.getLocalPort());
+    }
+
+    private static void handleEpmdRequest(final Socket socket) {
+        try {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final byte[] request = new byte[in.readUnsignedShort()];
+            in.readFully(request);
+            if (request[0] == 120) { // ALIVE2_REQ
+                final OutputStream out = socket.getOutputStream();
+                out.write(new byte[] {121, 0, 0, 1}); // ALIVE2_RESP, ok, creation
+                out.flush();
+                // the registration is valid as long as the connection is open
+                while (in.read() != -1) {
+                }
+            }
+        } catch (final IOException e) {
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Stops the stand-in <tt>epmd</tt>.
+     *
+     * @throws IOException
+     *             if the server socket cannot be closed
+     */
+    @AfterClass
+    public static void stopEpmd() throws IOException {
+        OtpEpmd.useEpmdPort(4369);
+        epmd.close();
+    }
+
+    private static OtpErlangTuple notification(final String topic, final String content) {
+        return new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom("pubsub_notify"),
+                new OtpErlangString(topic), new OtpErlangString(content) });
+    }
+
+    /**
+     * Tests converting messages to notifications.
+     */
+    @Test
+    public void testConvert() {
+        final PubSubReceiver.Notification n = PubSubReceiver.convert(notification("topic", "content"));
+        assertNotNull(n);
+        assertEquals("topic", n.getTopic());
+        assertEquals("content", n.getContent());
+
+        // unicode strings are sent as lists of integers:
+        final PubSubReceiver.Notification n2 = PubSubReceiver.convert(new OtpErlangTuple(
+                new OtpErlangObject[] { new OtpErlangAtom("pubsub_notify"),
+                        new OtpErlangString("topic"),
+                        new OtpErlangList(new OtpErlangObject[] {
+                                new OtpErlangLong(0x263A), new OtpErlangLong('x') }) }));
+        assertNotNull(n2);
+        assertEquals("\u263Ax", n2.getContent());
+
+        assertNull(PubSubReceiver.convert(null));
+        assertNull(PubSubReceiver.convert(new OtpErlangAtom("pubsub_notify")));
+        assertNull(PubSubReceiver.convert(new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom("other"), new OtpErlangString("topic"),
+                new OtpErlangString("content") })));
+        assertNull(PubSubReceiver.convert(new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom("pubsub_notify"), new OtpErlangString("topic"),
+                new OtpErlangLong(1) })));
+    }
+
+    /**
+     * Tests receiving (batched) notifications from a stand-in node.
+     *
+     * @throws Exception
+     *             if the stand-in node cannot be created or the test is
+     *             interrupted
+     */
+    @Test
+    public void testReceive() throws Exception {
+        final OtpNode node = new OtpNode("pubsubtest@localhost", "pubsubtest");
+        try {
+            final OtpMbox mbox = node.createMbox("receiver");
+            final OtpMbox standIn = node.createMbox();
+            final LinkedBlockingQueue<List<PubSubReceiver.Notification>> received =
+                    new LinkedBlockingQueue<List<PubSubReceiver.Notification>>();
+            final PubSubReceiver receiver = new PubSubReceiver(mbox,
+                    new PubSubReceiver.Listener() {
+                        @Override
+                        public void onNotifications(final List<PubSubReceiver.Notification> notifications) {
+                            received.add(notifications);
+                        }
+                    }).setMaxBatchSize(3);
+            assertEquals("erl://receiver@pubsubtest@localhost", receiver.getUrl());
+
+            // a burst of notifications (and an invalid message):
+            for (int i = 0; i < 5; ++i) {
+                standIn.send(mbox.self(), notification("topic", "content" + i));
+            }
+            standIn.send(mbox.self(), new OtpErlangAtom("invalid"));
+            receiver.start();
+
+            final List<String> contents = new ArrayList<String>();
+            final List<PubSubReceiver.Notification> batch1 = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(batch1);
+            assertEquals(3, batch1.size());
+            final List<PubSubReceiver.Notification> batch2 = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(batch2);
+            assertEquals(2, batch2.size());
+            for (final PubSubReceiver.Notification n : batch1) {
+                contents.add(n.getContent());
+            }
+            for (final PubSubReceiver.Notification n : batch2) {
+                contents.add(n.getContent());
+            }
+            for (int i = 0; i < 5; ++i) {
+                assertEquals("content" + i, contents.get(i));
+            }
+
+            // single notification after the burst:
+            standIn.send("receiver", node.node(), notification("topic2", "content"));
+            final List<PubSubReceiver.Notification> batch3 = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(batch3);
+            assertEquals(1, batch3.size());
+            assertEquals("topic2", batch3.get(0).getTopic());
+
+            receiver.stop();
+        } finally {
+            node.close();
+        }
+    }
+}
@@ -964,6 +964,70 @@ public class PubSubTest {
         }
     }
 
+    /**
+     * Test method for the publish/subscribe system.
+     * A {@link PubSubReceiver} on its own (new) node which is not connected
+     * to Scalaris before, subscription to one topic, multiple publishs.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSubscriptionMbox() throws Exception {
+        final String topic = testTime + "_SubscriptionMbox";
+        final PubSub conn = new PubSub();
+        final Map<String, Vector<String>> notifications = new HashMap<String, Vector<String>>();
+        final Map<String, Vector<String>> notifications_expected = new HashMap<String, Vector<String>>();
+        notifications_expected.put(topic, new Vector<String>());
+        final PubSubReceiver receiver = PubSubReceiver.create(
+                ConnectionFactory.getInstance(), new PubSubReceiver.Listener() {
+                    @Override
+                    public void onNotifications(final List<PubSubReceiver.Notification> list) {
+                        synchronized (notifications) {
+                            for (final PubSubReceiver.Notification n : list) {
+                                Vector<String> l = notifications.get(n.getTopic());
+                                if (l == null) {
+                                    notifications.put(n.getTopic(), l = new Vector<String>());
+                                }
+                                l.add(n.getContent());
+                            }
+                        }
+                    }
+                });
+
+        try {
+            receiver.start();
+            receiver.subscribe(conn, topic);
+            assertEquals(Arrays.asList(receiver.getUrl()),
+                    conn.getSubscribers(topic).stringListValue());
+
+            for (final String element : testData) {
+                conn.publish(topic, element);
+                notifications_expected.get(topic).add(element);
+            }
+
+            // wait max 'notifications_timeout' seconds for notifications:
+            for (int i = 0; i < notifications_timeout; ++i) {
+                synchronized (notifications) {
+                    if ((notifications.get(topic) != null)
+                            && (notifications.get(topic).size() >= notifications_expected.get(topic).size())) {
+                        break;
+                    }
+                }
+                TimeUnit.SECONDS.sleep(1);
+            }
+
+            receiver.unsubscribe(conn, topic);
+
+            // check that every notification arrived:
+            synchronized (notifications) {
+                checkNotifications(notifications, notifications_expected);
+            }
+        } finally {
+            receiver.stop();
+            conn.closeConnection();
+        }
+    }
+
     private static class SubscriptionServlet extends HttpServlet {
         private static final long serialVersionUID = 1L;
         final String path;
@@ -0,0 +1,73 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the {@link RangeScanner} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class RangeScannerTest {
+
+    private static void checkIntervals(final RangeScanner scanner,
+            final BigInteger from, final BigInteger to, final int expectedCount) {
+        final BigInteger[][] intervals = scanner.getIntervals();
+        assertEquals(expectedCount, intervals.length);
+        BigInteger expectedBegin = from;
+        for (final BigInteger[] interval : intervals) {
+            assertEquals(expectedBegin, interval[0]);
+            assertEquals(-1, interval[0].compareTo(interval[1].add(BigInteger.ONE)));
+            expectedBegin = interval[1].add(BigInteger.ONE);
+        }
+        assertEquals(to, intervals[intervals.length - 1][1]);
+    }
+
+    /**
+     * Tests splitting the scanned range into intervals.
+     */
+    @Test
+    public void testGetIntervals() {
+        final RangeScanner scanner = new RangeScanner().setIntervals(7);
+        checkIntervals(scanner, BigInteger.ZERO,
+                RangeScanner.REPLICA_SEGMENT_SIZE.subtract(BigInteger.ONE), 7);
+
+        scanner.setAllReplicas();
+        checkIntervals(scanner, BigInteger.ZERO,
+                RangeScanner.RING_SIZE.subtract(BigInteger.ONE), 7);
+
+        // less keys than intervals
+        scanner.setRange(BigInteger.valueOf(10), BigInteger.valueOf(12));
+        checkIntervals(scanner, BigInteger.valueOf(10), BigInteger.valueOf(12), 3);
+        scanner.setRange(BigInteger.valueOf(10), BigInteger.valueOf(10));
+        checkIntervals(scanner, BigInteger.valueOf(10), BigInteger.valueOf(10), 1);
+    }
+
+    /**
+     * Tests that invalid ranges are rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidRange() {
+        new RangeScanner().setRange(BigInteger.ONE, BigInteger.ZERO);
+    }
+}
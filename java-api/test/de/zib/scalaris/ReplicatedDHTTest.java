@@ -18,6 +18,9 @@ package de.zib.scalaris;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 /**
@@ -274,4 +277,57 @@ public class ReplicatedDHTTest {
             c.close();
         }
     }
+
+    /**
+     * Test method for {@link ReplicatedDHT#deleteAll(java.util.Collection)}
+     * and {@link TransactionSingleOp#write(String, Object)}.
+     * Inserts some values, deletes them in parallel and tries the delete
+     * again.
+     *
+     * @throws UnknownException
+     * @throws TimeoutException
+     * @throws ConnectionException
+     * @throws AbortException
+     */
+    @Test
+    public void testDeleteAll1() throws ConnectionException,
+            TimeoutException, UnknownException, AbortException {
+        final String key = "_DeleteAll1";
+        final Connection c = ConnectionFactory.getInstance().createConnection("test");
+        final ReplicatedDHT rdht = new ReplicatedDHT(c).setConcurrency(4);
+        final TransactionSingleOp sc = new TransactionSingleOp(c);
+
+        try {
+            final List<String> keys = new ArrayList<String>(testData.length);
+            for (int i = 0; i < testData.length; ++i) {
+                sc.write(testTime + key + i, testData[i]);
+                keys.add(testTime + key + i);
+            }
+
+            // now try to delete the data:
+            DeleteAllResult result = rdht.deleteAll(keys);
+            assertTrue(result.hasDeletedAll());
+            assertEquals(testData.length, result.deleted);
+            assertEquals(0, result.failed);
+            assertEquals(4 * testData.length, result.ok);
+            assertEquals(0, result.locks_set);
+            assertEquals(0, result.undef);
+            assertTrue(result.getFailedKeys().isEmpty());
+
+            // make sure the keys do not exist afterwards:
+            for (final String key2 : keys) {
+                checkKeyDoesNotExist(key2);
+            }
+
+            // try again (should be successful with 0 deletes)
+            result = rdht.setConcurrency(1).deleteAll(keys);
+            assertTrue(result.hasDeletedAll());
+            assertEquals(testData.length, result.deleted);
+            assertEquals(0, result.ok);
+            assertEquals(0, result.locks_set);
+            assertEquals(4 * testData.length, result.undef);
+        } finally {
+            c.close();
+        }
+    }
 }
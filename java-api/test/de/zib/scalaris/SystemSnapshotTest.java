@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+/**
+ * Unit test for the {@link SystemSnapshot} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.20
+ * @since 3.20
+ */
+public class SystemSnapshotTest {
+
+    /**
+     * Tests encoding and decoding the entries of a chunk.
+     *
+     * @throws UnknownException
+     */
+    @Test
+    public void testChunkEncoding() throws UnknownException {
+        final OtpErlangObject[] entries = new OtpErlangObject[500];
+        for (int i = 0; i < entries.length; ++i) {
+            entries[i] = new OtpErlangTuple(new OtpErlangObject[] {
+                    new OtpErlangLong(BigInteger.ONE.shiftLeft(120).add(BigInteger.valueOf(i))),
+                    new OtpErlangString("value of item " + i),
+                    new OtpErlangLong(i % 7) });
+        }
+        final byte[] data = SystemSnapshot.encodeChunk(entries);
+        // values are similar and should be compressed
+        assertTrue(data.length < entries.length * 30);
+        assertEquals(new OtpErlangList(entries), SystemSnapshot.decodeChunk(data));
+    }
+
+    /**
+     * Tests that invalid chunk data is rejected.
+     *
+     * @throws UnknownException
+     */
+    @Test(expected=UnknownException.class)
+    public void testInvalidChunk() throws UnknownException {
+        SystemSnapshot.decodeChunk(new byte[] { 1, 2, 3 });
+    }
+}
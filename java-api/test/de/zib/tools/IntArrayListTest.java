@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the {@link IntArrayList} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class IntArrayListTest {
+
+    /**
+     * Tests adding, reading, replacing and removing values.
+     */
+    @Test
+    public void testAddGetSetRemove() {
+        final IntArrayList list = new IntArrayList(1);
+        assertTrue(list.isEmpty());
+        list.add(3);
+        list.add(Integer.MIN_VALUE);
+        list.add(-5);
+        list.add(3);
+        assertEquals(4, list.size());
+        assertEquals(3, list.get(0));
+        assertEquals(Integer.MIN_VALUE, list.get(1));
+        assertEquals(0, list.indexOf(3));
+        assertTrue(list.contains(-5));
+        assertFalse(list.contains(5));
+
+        assertEquals(-5, list.set(2, 7));
+        assertEquals(Integer.MIN_VALUE, list.removeAt(1));
+        assertEquals("[3, 7, 3]", list.toString());
+
+        list.sort();
+        assertEquals("[3, 3, 7]", list.toString());
+        list.trimToSize();
+        list.add(1);
+        assertEquals(4, list.size());
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    /**
+     * Tests the bounds checks.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        final IntArrayList list = new IntArrayList(new int[] { 1, 2 });
+        list.get(2);
+    }
+
+    /**
+     * Compares the list with an {@link ArrayList} under random operations
+     * (including resizing).
+     */
+    @Test
+    public void testRandomOps() {
+        final Random random = new Random(42);
+        final IntArrayList list = new IntArrayList(2);
+        final ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; ++i) {
+            final int value = random.nextInt();
+            if (!expected.isEmpty() && random.nextInt(4) == 0) {
+                final int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index).intValue(), list.removeAt(index));
+            } else {
+                expected.add(value);
+                list.add(value);
+            }
+        }
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).intValue(), list.get(i));
+        }
+
+        final IntArrayList copy = new IntArrayList(list.toArray());
+        copy.addAll(list);
+        copy.addAll(new int[] { 1, 2 });
+        assertEquals(2 * list.size() + 2, copy.size());
+        assertEquals(list.get(0), copy.get(list.size()));
+        assertEquals(2, copy.get(copy.size() - 1));
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2013 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the {@link IntSet} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ */
+public class IntSetTest {
+
+    /**
+     * Tests adding, looking up and removing values including the special
+     * value {@link Integer#MIN_VALUE}.
+     */
+    @Test
+    public void testAddContainsRemove() {
+        final IntSet set = new IntSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(0));
+        assertTrue(set.add(Integer.MIN_VALUE));
+        assertTrue(set.add(-5));
+        assertFalse(set.add(0));
+        assertFalse(set.add(Integer.MIN_VALUE));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(Integer.MIN_VALUE));
+        assertFalse(set.contains(5));
+        assertEquals("[" + Integer.MIN_VALUE + ", -5, 0]", set.toString());
+
+        assertTrue(set.remove(Integer.MIN_VALUE));
+        assertFalse(set.remove(Integer.MIN_VALUE));
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(1, set.size());
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(-5));
+    }
+
+    /**
+     * Compares the set with a {@link HashSet} under random operations
+     * (including resizing and removals inside clusters).
+     */
+    @Test
+    public void testRandomOps() {
+        final Random random = new Random(42);
+        final IntSet set = new IntSet(4);
+        final HashSet<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 100000; ++i) {
+            final int value = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (int value = 0; value < 5000; ++value) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+
+        final int[] values = set.toArray();
+        Arrays.sort(values);
+        final IntSet copy = new IntSet(values);
+        assertEquals(set.size(), copy.size());
+        assertFalse(copy.addAll(set));
+        assertEquals(set.toString(), copy.toString());
+    }
+}
@@ -21,7 +21,7 @@
 -author('schintke@zib.de').
 -vsn('$Id$').
 
--export([get_replica_keys/1, range_read/2]).
+-export([get_replica_keys/1, range_read/2, restore_entries/1]).
 
 -export([unreliable_lookup/2,
          unreliable_get_key/1, unreliable_get_key/3]).
@@ -90,6 +90,47 @@ range_read_loop(Interval, Id, Done, Data, TimerRef) ->
            end)
     end.
 
+%% @doc Writes the given entries (as returned by
+%%      api_tx:get_system_snapshot/0) to all of their replicas, bypassing the
+%%      transaction layer. This is meant for restoring a snapshot into an
+%%      empty ring - existing entries at the same keys are overwritten!
+-spec restore_entries([{?RT:key(), Value::any(), db_dht:version()}])
+        -> ok | {timeout, Missing::non_neg_integer()}.
+restore_entries(Entries) ->
+    Self = comm:this(),
+    Count = lists:foldl(
+              fun({Key, Value, Version}, Acc) ->
+                      EncValue = rdht_tx:encode_value(Value),
+                      ReplicaKeys = ?RT:get_replica_keys(Key),
+                      _ = [unreliable_lookup(
+                             RKey, {set_key_entry, Self,
+                                    db_entry:new(RKey, EncValue, Version)})
+                           || RKey <- ReplicaKeys],
+                      Acc + length(ReplicaKeys)
+              end, 0, Entries),
+    Id = uid:get_global_uid(),
+    TimerRef = comm:send_local_after(config:read(range_read_timeout), self(),
+                                     {restore_entries_timeout, Id}),
+    restore_entries_loop(Count, Id, TimerRef).
+
+-spec restore_entries_loop(Missing::non_neg_integer(), Id::uid:global_uid(),
+                           TimerRef::reference())
+        -> ok | {timeout, Missing::non_neg_integer()}.
+restore_entries_loop(0, Id, TimerRef) ->
+    _ = erlang:cancel_timer(TimerRef),
+    receive
+        ?SCALARIS_RECV({restore_entries_timeout, Id}, ok) %% -> ok
+    after 0 -> ok
+    end;
+restore_entries_loop(Missing, Id, TimerRef) ->
+    trace_mpath:thread_yield(),
+    receive
+        ?SCALARIS_RECV({restore_entries_timeout, Id}, %% ->
+            {timeout, Missing});
+        ?SCALARIS_RECV({set_key_entry_reply, _Entry}, %% ->
+            restore_entries_loop(Missing - 1, Id, TimerRef))
+    end.
+
 -spec delete_and_cleanup_timer(reference(), uid:global_uid()) -> ok.
 delete_and_cleanup_timer(TimerRef, Id) ->
     %% cancel timeout
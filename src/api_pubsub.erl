@@ -24,39 +24,53 @@
 
 -include("client_types.hrl").
 
+-export_type([subscriber/0]).
+
+-type subscriber() :: URL::string() | {mbox, Name::atom(), Node::atom()}.
+
 %% @doc Publishes an event under a given topic.
 -spec publish(client_key(), string()) -> {ok}.
 publish(Topic, Content) ->
-    Subscribers = get_subscribers(Topic),
+    Subscribers = get_subscriber_list(Topic),
     _ = [ pubsub_publish:publish(X, Topic, Content) || X <- Subscribers ],
     {ok}.
 
 %% @doc Subscribes a URL for a topic.
--spec subscribe(client_key(), string()) -> api_tx:commit_result().
+%%      URLs of the form "erl://Name@Node" denote a (registered) process or
+%%      (Java) mailbox. Their atoms are created here (once per subscription)
+%%      and stored with the subscriber so that publishing does not need to
+%%      create any atoms and works on any node, even if the mailbox's node has
+%%      never been connected to it.
+-spec subscribe(client_key(), string()) -> api_tx:commit_result() | {fail, invalid_url}.
 subscribe(Topic, URL) ->
-    {TLog, Res} = api_tx:read(api_tx:new_tlog(), Topic),
-    {_TLog2, [_, CommitRes]} =
-        case Res of
-            {ok, URLs} ->
-                api_tx:req_list(TLog, [{write, Topic, [URL | URLs]}, {commit}]);
-            {fail, not_found} ->
-                api_tx:req_list(TLog, [{write, Topic, [URL]}, {commit}])
-        end,
-    CommitRes.
+    case url_to_subscriber(URL) of
+        {ok, Subscriber} ->
+            {TLog, Res} = api_tx:read(api_tx:new_tlog(), Topic),
+            {_TLog2, [_, CommitRes]} =
+                case Res of
+                    {ok, Subscribers} ->
+                        api_tx:req_list(TLog, [{write, Topic, [Subscriber | Subscribers]}, {commit}]);
+                    {fail, not_found} ->
+                        api_tx:req_list(TLog, [{write, Topic, [Subscriber]}, {commit}])
+                end,
+            CommitRes;
+        error ->
+            {fail, invalid_url}
+    end.
 
 %% @doc Unsubscribes a URL from a topic.
 -spec unsubscribe(client_key(), string()) -> api_tx:commit_result() | {fail, not_found}.
 unsubscribe(Topic, URL) ->
     {TLog, Res} = api_tx:read(api_tx:new_tlog(), Topic),
     case Res of
-        {ok, URLs} ->
-            case lists:member(URL, URLs) of
-                true ->
-                    NewURLs = lists:delete(URL, URLs),
+        {ok, Subscribers} ->
+            case [X || X <- Subscribers, subscriber_to_url(X) =:= URL] of
+                [Subscriber | _] ->
+                    NewSubscribers = lists:delete(Subscriber, Subscribers),
                     {_TLog2, [_, CommitRes]} =
-                        api_tx:req_list(TLog, [{write, Topic, NewURLs}, {commit}]),
+                        api_tx:req_list(TLog, [{write, Topic, NewSubscribers}, {commit}]),
                     CommitRes;
-                false -> {fail, not_found}
+                [] -> {fail, not_found}
             end;
         _ -> Res
     end.
@@ -64,8 +78,35 @@ unsubscribe(Topic, URL) ->
 %% @doc Queries the subscribers of a query.
 -spec get_subscribers(Topic::client_key()) -> [string()].
 get_subscribers(Topic) ->
+    [subscriber_to_url(X) || X <- get_subscriber_list(Topic)].
+
+-spec get_subscriber_list(Topic::client_key()) -> [subscriber()].
+get_subscriber_list(Topic) ->
     {Res, Value} = api_tx:read(Topic),
     case Res of
         ok -> Value;
         fail -> []
     end.
+
+%% @doc Converts a subscribed URL to the stored subscriber. Mailboxes are
+%%      given as "erl://Name@Node" (note: the node name itself contains an
+%%      '@', too).
+-spec url_to_subscriber(URL::string()) -> {ok, subscriber()} | error.
+url_to_subscriber("erl://" ++ Mbox) ->
+    case lists:splitwith(fun(C) -> C =/= $@ end, Mbox) of
+        {Name, [$@ | Node]} when Name =/= [] ->
+            case lists:splitwith(fun(C) -> C =/= $@ end, Node) of
+                {[_|_], [$@, _ | _]} ->
+                    {ok, {mbox, list_to_atom(Name), list_to_atom(Node)}};
+                _ -> error
+            end;
+        _ -> error
+    end;
+url_to_subscriber(URL) ->
+    {ok, URL}.
+
+-spec subscriber_to_url(subscriber()) -> string().
+subscriber_to_url({mbox, Name, Node}) ->
+    "erl://" ++ atom_to_list(Name) ++ "@" ++ atom_to_list(Node);
+subscriber_to_url(URL) ->
+    URL.
@@ -20,15 +20,21 @@
 -author('schuett@zib.de').
 -vsn('$Id$').
 
--export([publish/3, publish_internal/3]).
+-export([publish/3, publish_internal/3, publish_mbox/3]).
 
 %%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%
 %% public functions
 %%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%
 
-%% @doc publishs an event to a given url.
+%% @doc publishs an event to a given subscriber.
+%%      Mailbox subscribers (see api_pubsub:subscribe/2) receive
+%%      {pubsub_notify, Topic, Content} messages, all other URLs are notified
+%%      via JSON-RPC.
 %% @todo use pool:pspawn
--spec publish(URL::string(), Topic::string(), Content::string()) -> ok.
+-spec publish(api_pubsub:subscriber(), Topic::string(), Content::string()) -> ok.
+publish({mbox, Name, Node}, Topic, Content) ->
+    spawn(pubsub_publish, publish_mbox, [{Name, Node}, Topic, Content]),
+    ok;
 publish(URL, Topic, Content) ->
     spawn(pubsub_publish, publish_internal, [URL, Topic, Content]),
     ok.
@@ -36,3 +42,11 @@ publish(URL, Topic, Content) ->
 -spec publish_internal(URL::string(), Topic::string(), Content::string()) -> {ok, {response, Result::[term()]}} | {error, Reason::term()}.
 publish_internal(URL, Topic, Content) ->
     jsonrpc:call(URL, [], {call, "notify", [Topic, Content]}).
+
+%% @doc Sends an event to a (registered) process or mailbox. This may need to
+%%      connect to the mailbox's node first and is thus done in a separate
+%%      process.
+-spec publish_mbox(Dest::{Name::atom(), Node::atom()}, Topic::string(), Content::string()) -> ok.
+publish_mbox(Dest, Topic, Content) ->
+    _ = erlang:send(Dest, {pubsub_notify, Topic, Content}),
+    ok.
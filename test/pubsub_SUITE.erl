@@ -25,7 +25,7 @@
 
 -include("unittest.hrl").
 
-all() -> [test_db].
+all() -> [test_db, test_mbox].
 
 suite() -> [{timetrap, {seconds, 120}}].
 
@@ -52,3 +52,22 @@ test_db(_Config) ->
     ?equals(api_pubsub:get_subscribers("TestTopic"), []),
     ok.
 
+test_mbox(_Config) ->
+    Name = pubsub_SUITE_mbox,
+    true = erlang:register(Name, self()),
+    URL = "erl://" ++ atom_to_list(Name) ++ "@" ++ atom_to_list(node()),
+    ?equals(api_pubsub:subscribe("TestMboxTopic", URL), {ok}),
+    ?equals(api_pubsub:get_subscribers("TestMboxTopic"), [URL]),
+    ?equals(api_pubsub:publish("TestMboxTopic", "TestContent1"), {ok}),
+    ?equals(api_pubsub:publish("TestMboxTopic", "TestContent2"), {ok}),
+    Received = [receive {pubsub_notify, "TestMboxTopic", Content} -> Content
+                after 5000 -> timeout
+                end || _ <- [1, 2]],
+    ?equals(lists:sort(Received), ["TestContent1", "TestContent2"]),
+    ?equals(api_pubsub:unsubscribe("TestMboxTopic", URL), {ok}),
+    ?equals(api_pubsub:get_subscribers("TestMboxTopic"), []),
+    ?equals(api_pubsub:subscribe("TestMboxTopic", "erl://invalid"), {fail, invalid_url}),
+    ?equals(api_pubsub:subscribe("TestMboxTopic", "erl://name@node"), {fail, invalid_url}),
+    ?equals(api_pubsub:get_subscribers("TestMboxTopic"), []),
+    true = erlang:unregister(Name),
+    ok.
@@ -75,10 +75,12 @@ tester_type_check_api(_Config) ->
         [ {api_dht, [], []},
           {api_dht_raw,
            [ {unreliable_lookup,2}, %% creates arb. messages
-             {unreliable_get_key,3} %% creates arb. IP-adresses
+             {unreliable_get_key,3}, %% creates arb. IP-adresses
+             {restore_entries,1} %% overwrites DB entries, receives msgs
            ],
            [ {range_read,1}, %% bug in range_read?
              {range_read_loop,5}, %% receives msgs
+             {restore_entries_loop,3}, %% receives msgs
              {delete_and_cleanup_timer,2} %% cannot create reference()
            ]},
           {api_monitor, [], []},